@@ -140,7 +140,9 @@ public class PhotosTest {
     public void selectDisplayInfoDelete() {
         addLayerAndIndex();
         TestUtils.unlock(device);
-        assertEquals(2, App.getPhotoIndex().count());
+        try (PhotoIndex index = new PhotoIndex(main)) {
+            assertEquals(2, index.count());
+        }
         TestUtils.clickAtCoordinates(device, main.getMap(), 7.5886112, 47.5519448, true);
 
         TestUtils.clickMenuButton(device, context.getString(R.string.menu_information), false, true);
@@ -151,7 +153,9 @@ public class PhotosTest {
         TestUtils.clickMenuButton(device, context.getString(R.string.delete), false, true);
         assertTrue(TestUtils.clickText(device, false, context.getString(R.string.photo_viewer_delete_button), true, false));
 
-        assertEquals(1, App.getPhotoIndex().count());
+        try (PhotoIndex index = new PhotoIndex(main)) {
+            assertEquals(1, index.count());
+        }
     }
 
     /**
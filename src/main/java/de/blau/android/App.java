@@ -43,8 +43,8 @@ import de.blau.android.filter.PresetFilter;
 import de.blau.android.net.OkHttpTlsCompat;
 import de.blau.android.net.UserAgentInterceptor;
 import de.blau.android.nsi.Names;
-import de.blau.android.nsi.Names.NameAndTags;
 import de.blau.android.osm.DiscardedTags;
+import de.blau.android.osm.ElementHistory;
 import de.blau.android.osm.StorageDelegator;
 import de.blau.android.photos.Photo;
 import de.blau.android.prefs.Preferences;
@@ -116,10 +116,8 @@ public class App extends Application implements android.app.Application.Activity
     /**
      * name index related stuff
      */
-    private static Names                             names                = null;
-    private static final Object                      namesLock            = new Object();
-    private static MultiHashMap<String, NameAndTags> namesSearchIndex     = null;
-    private static final Object                      namesSearchIndexLock = new Object();
+    private static Names        names     = null;
+    private static final Object namesLock = new Object();
 
     /**
      * Geo index to on device photos
@@ -193,6 +191,12 @@ public class App extends Application implements android.app.Application.Activity
     private static AreaTags     areaTags;
     private static final Object areaTagsLock = new Object();
 
+    /**
+     * Previously seen element versions
+     */
+    private static ElementHistory elementHistory;
+    private static final Object   elementHistoryLock = new Object();
+
     private static Configuration configuration = null;
 
     private static boolean propertyEditorRunning;
@@ -235,6 +239,18 @@ public class App extends Application implements android.app.Application.Activity
         }
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        getDelegator().getPruneEngine().onTrimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
     /**
      * Setup misc singletons
      */
@@ -478,23 +494,6 @@ public class App extends Application implements android.app.Application.Activity
         }
     }
 
-    /**
-     * Get a normalized name to Names entries map
-     * 
-     * @param ctx Android Context
-     * @return a map between normalized names and NameAndTags objects
-     */
-    @NonNull
-    public static MultiHashMap<String, NameAndTags> getNameSearchIndex(@NonNull Context ctx) {
-        getNames(ctx);
-        synchronized (namesSearchIndexLock) {
-            if (namesSearchIndex == null) {
-                namesSearchIndex = names.getSearchIndex();
-            }
-            return namesSearchIndex;
-        }
-    }
-
     /**
      * Return the object containing the canonical name data
      * 
@@ -596,6 +595,32 @@ public class App extends Application implements android.app.Application.Activity
         return discardedTags;
     }
 
+    /**
+     * Get the store of previously seen element versions, allocate if necessary
+     * 
+     * @param ctx Android Context
+     * @return the ElementHistory
+     */
+    @NonNull
+    public static ElementHistory getElementHistory(@NonNull Context ctx) {
+        synchronized (elementHistoryLock) {
+            if (elementHistory == null) {
+                elementHistory = new ElementHistory(ctx.getApplicationContext());
+            }
+            return elementHistory;
+        }
+    }
+
+    /**
+     * Get the store of previously seen element versions
+     * 
+     * @return the ElementHistory or null if the App hasn't been created yet
+     */
+    @Nullable
+    public static ElementHistory getElementHistory() {
+        return currentInstance != null ? getElementHistory(currentInstance) : null;
+    }
+
     /**
      * Get the current instance of Logic
      * 
@@ -21,6 +21,7 @@ import androidx.annotation.Nullable;
 import androidx.appcompat.app.ActionBar;
 import de.blau.android.layer.LayerConfig;
 import de.blau.android.layer.MapViewLayer;
+import de.blau.android.layer.data.MapOverlay;
 import de.blau.android.osm.StorageDelegator;
 import de.blau.android.osm.UserDetails;
 import de.blau.android.prefs.AdvancedPrefDatabase;
@@ -113,6 +114,10 @@ public class DebugInformation extends ConfigurationChangeAwareActivity {
                         }
                     }
                 }
+                MapOverlay<?> dataLayer = map.getDataLayer();
+                if (dataLayer != null) {
+                    builder.append("Data layer render cache" + eol + dataLayer.getCacheStats().replace("\n", eol) + eol);
+                }
             } else {
                 builder.append("Map not available, this is a seriously curious state, please report a bug!" + eol);
             }
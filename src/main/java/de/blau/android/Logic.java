@@ -13,15 +13,18 @@ import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.SortedMap;
@@ -81,6 +84,7 @@ import de.blau.android.osm.ApiResponse;
 import de.blau.android.osm.ApiResponse.Conflict;
 import de.blau.android.osm.BoundingBox;
 import de.blau.android.osm.DiscardedTags;
+import de.blau.android.osm.ElementHistory;
 import de.blau.android.osm.GeoPoint;
 import de.blau.android.osm.MapSplitSource;
 import de.blau.android.osm.MergeAction;
@@ -93,6 +97,7 @@ import de.blau.android.osm.OsmParser;
 import de.blau.android.osm.OsmPbfParser;
 import de.blau.android.osm.OsmXml;
 import de.blau.android.osm.PostMergeHandler;
+import de.blau.android.osm.PruneEngine;
 import de.blau.android.osm.Relation;
 import de.blau.android.osm.RelationMember;
 import de.blau.android.osm.RelationMemberDescription;
@@ -105,10 +110,13 @@ import de.blau.android.osm.SplitIssue;
 import de.blau.android.osm.Storage;
 import de.blau.android.osm.StorageDelegator;
 import de.blau.android.osm.Tags;
+import de.blau.android.osm.TiledBoxDownloader;
 import de.blau.android.osm.UndoStorage;
+import de.blau.android.osm.UploadProgressListener;
 import de.blau.android.osm.UserDetails;
 import de.blau.android.osm.ViewBox;
 import de.blau.android.osm.Way;
+import de.blau.android.osm.WaySegmentIndex;
 import de.blau.android.prefs.Preferences;
 import de.blau.android.presets.Preset;
 import de.blau.android.resources.DataStyle;
@@ -214,6 +222,11 @@ public class Logic {
      */
     private static final long ONE_DAY_MS = 24 * 3600 * 1000L;
 
+    /**
+     * minimum interval between saving state during a chunked upload
+     */
+    private static final long UPLOAD_SAVE_INTERVAL_MS = 30 * 1000L;
+
     /**
      * Stores the {@link Preferences} as soon as they are available.
      */
@@ -319,6 +332,12 @@ public class Logic {
 
     private Set<OsmElement> clickableElements;
 
+    /**
+     * Segment index for hit testing ways, and the Storage it was built for
+     */
+    private final WaySegmentIndex waySegmentIndex = new WaySegmentIndex();
+    private Storage               waySegmentIndexStorage;
+
     /**
      * add relations to result of clicks/touches
      */
@@ -371,6 +390,8 @@ public class Logic {
      */
     public void setPrefs(@NonNull final Preferences prefs) {
         this.prefs = prefs;
+        UndoStorage.setMemoryBudget(prefs.getUndoMemoryBudget() * 1024L * 1024L);
+        ElementHistory.setLimit(prefs.getElementHistoryLimit() * 1000);
         if (map != null) {
             DataStyle styles = map.getDataStyle();
             final String dataStyleName = prefs.getDataStyle(styles);
@@ -823,11 +844,13 @@ public class Logic {
             result.addAll(getParentRelations(result));
         }
         if (clickableElements != null) {
-            for (OsmElement e : new ArrayList<OsmElement>(result)) {
-                if (!clickableElements.contains(e)) {
-                    result.remove(e);
+            List<OsmElement> clickable = new ArrayList<>(result.size());
+            for (OsmElement e : result) {
+                if (clickableElements.contains(e)) {
+                    clickable.add(e);
                 }
             }
+            return clickable;
         }
         return result;
     }
@@ -839,8 +862,8 @@ public class Logic {
      * @return a List of OsmElement
      */
     @NonNull
-    private List<Relation> getParentRelations(@NonNull List<OsmElement> elements) {
-        List<Relation> relations = new ArrayList<>();
+    private Set<Relation> getParentRelations(@NonNull List<OsmElement> elements) {
+        Set<Relation> relations = new LinkedHashSet<>();
         for (OsmElement e : elements) {
             getParentRelations(e, relations);
         }
@@ -851,13 +874,12 @@ public class Logic {
      * Recursively add parent relations, every relation will only be added once
      * 
      * @param e the OsmElement to get the parent Relations of
-     * @param relations the List of Relations
+     * @param relations the Set of Relations, iteration order is the order the Relations were found in
      */
-    private void getParentRelations(@NonNull OsmElement e, @NonNull List<Relation> relations) {
+    private void getParentRelations(@NonNull OsmElement e, @NonNull Set<Relation> relations) {
         if (e.getParentRelations() != null) {
             for (Relation r : e.getParentRelations()) {
-                if (!relations.contains(r)) { // not very efficient, could use a set
-                    relations.add(r);
+                if (relations.add(r)) {
                     getParentRelations(r, relations);
                 }
             }
@@ -880,51 +902,44 @@ public class Logic {
         final float nodeToleranceValue = currentStyle.getNodeToleranceValue();
         final float wayToleranceValue = wayToleranceForTouch(currentStyle);
         List<Way> ways = getClickableWays();
-        for (Way way : ways) {
-            List<Node> wayNodes = way.getNodes();
-            int wayNodesSize = wayNodes.size();
-            if ((way.isClosed() && !includeClosed) || wayNodesSize == 0) {
+        java.util.Map<Way, BitSet> candidates = new HashMap<>();
+        synchronized (waySegmentIndex) {
+            Storage storage = getDelegator().getCurrentStorage();
+            if (storage != waySegmentIndexStorage) {
+                waySegmentIndex.clear();
+                waySegmentIndexStorage = storage;
+            }
+            waySegmentIndex.update(ways);
+            waySegmentIndex.query(toleranceBox(x, y, wayToleranceValue), candidates);
+        }
+        for (Entry<Way, BitSet> candidate : candidates.entrySet()) {
+            Way way = candidate.getKey();
+            if (way.isClosed() && !includeClosed) {
                 continue;
             }
-            boolean added = false;
-
-            double A = 0;
-            double Y = 0;
-            double X = 0;
-            float node1X = -Float.MAX_VALUE;
-            float node1Y = -Float.MAX_VALUE;
-            boolean firstNode = true;
-            // Iterate over all WayNodes, but not the last one.
-            Node node1 = wayNodes.get(0);
-            for (int k = 0; k < wayNodesSize - 1; ++k) {
+            List<Node> wayNodes = way.getNodes();
+            BitSet segments = candidate.getValue();
+            // segments are checked in order, the first one in tolerance determines the distance
+            for (int k = segments.nextSetBit(0); k >= 0; k = segments.nextSetBit(k + 1)) {
+                Node node1 = wayNodes.get(k);
                 Node node2 = wayNodes.get(k + 1);
-                if (firstNode) {
-                    node1X = lonE7ToX(node1.getLon());
-                    node1Y = latE7ToY(node1.getLat());
-                    firstNode = false;
-                }
-                float node2X = lonE7ToX(node2.getLon());
-                float node2Y = latE7ToY(node2.getLat());
-
-                double distance = Geometry.isPositionOnLine(wayToleranceValue, x, y, node1X, node1Y, node2X, node2Y);
+                double distance = Geometry.isPositionOnLine(wayToleranceValue, x, y, lonE7ToX(node1.getLon()), latE7ToY(node1.getLat()),
+                        lonE7ToX(node2.getLon()), latE7ToY(node2.getLat()));
                 if (distance >= 0) {
                     result.put(way, distance);
-                    added = true;
                     break;
                 }
-                // calculations for centroid
-                double d = node1X * node2Y - node2X * node1Y;
-                A = A + d;
-                X = X + (node1X + node2X) * d;
-                Y = Y + (node1Y + node2Y) * d;
-                node1 = node2;
-                node1X = node2X;
-                node1Y = node2Y;
             }
-            if (Util.notZero(A) && showWayIcons && !added && areaHasIcon(way)) {
-                Y = Y / (3 * A); // NOSONAR nonZero tests for zero
-                X = X / (3 * A); // NOSONAR nonZero tests for zero
-                double distance = Math.hypot(x - X, y - Y);
+        }
+        if (showWayIcons) {
+            BoundingBox iconBox = toleranceBox(x, y, nodeToleranceValue);
+            BoundingBox wayBox = new BoundingBox();
+            for (Way way : ways) {
+                if (result.containsKey(way) || (way.isClosed() && !includeClosed) || way.nodeCount() == 0 || !way.getBounds(wayBox).intersects(iconBox)
+                        || !areaHasIcon(way)) {
+                    continue;
+                }
+                double distance = centroidDistance(way, x, y);
                 if (distance < nodeToleranceValue) {
                     result.put(way, distance);
                 }
@@ -933,6 +948,54 @@ public class Logic {
         return result;
     }
 
+    /**
+     * Get a box around a screen position in WGS84*1E7 coordinates
+     * 
+     * @param x x display coordinate
+     * @param y y display coordinate
+     * @param tolerance the distance in pixels from the position to the sides of the box
+     * @return a BoundingBox
+     */
+    @NonNull
+    private BoundingBox toleranceBox(final float x, final float y, final float tolerance) {
+        return new BoundingBox(xToLonE7(x - tolerance), yToLatE7(y + tolerance), xToLonE7(x + tolerance), yToLatE7(y - tolerance));
+    }
+
+    /**
+     * Calculate the screen distance from a position to the centroid of a way
+     * 
+     * @param way the Way
+     * @param x x display coordinate
+     * @param y y display coordinate
+     * @return the distance in pixels or Double.MAX_VALUE if the way doesn't have an area
+     */
+    private double centroidDistance(@NonNull Way way, final float x, final float y) {
+        List<Node> wayNodes = way.getNodes();
+        double A = 0;
+        double Y = 0;
+        double X = 0;
+        Node node1 = wayNodes.get(0);
+        float node1X = lonE7ToX(node1.getLon());
+        float node1Y = latE7ToY(node1.getLat());
+        for (int k = 1; k < wayNodes.size(); ++k) {
+            Node node2 = wayNodes.get(k);
+            float node2X = lonE7ToX(node2.getLon());
+            float node2Y = latE7ToY(node2.getLat());
+            double d = node1X * node2Y - node2X * node1Y;
+            A = A + d;
+            X = X + (node1X + node2X) * d;
+            Y = Y + (node1Y + node2Y) * d;
+            node1X = node2X;
+            node1Y = node2Y;
+        }
+        if (!Util.notZero(A)) {
+            return Double.MAX_VALUE;
+        }
+        Y = Y / (3 * A); // NOSONAR nonZero tests for zero
+        X = X / (3 * A); // NOSONAR nonZero tests for zero
+        return Math.hypot(x - X, y - Y);
+    }
+
     /**
      * Get the tolerance we use for determining if a way is in tolerance
      * 
@@ -1100,9 +1163,15 @@ public class Logic {
     @NonNull
     private java.util.Map<Node, Double> getClickedNodesWithDistances(final float x, final float y, boolean inDownloadOnly) {
         java.util.Map<Node, Double> result = new HashMap<>();
+        final DataStyle current = map.getDataStyle().getCurrent();
+        // cheap pre-check in WGS84 coordinates before projecting to the screen
+        final BoundingBox box = toleranceBox(x, y, Math.max(current.getNodeToleranceValue(), wayToleranceForTouch(current)));
         for (Node node : getClickableNodes()) {
             int lat = node.getLat();
             int lon = node.getLon();
+            if (!box.isIn(lon, lat)) {
+                continue;
+            }
             if (!inDownloadOnly || node.getState() != OsmElement.STATE_UNCHANGED || getDelegator().isInDownload(lon, lat)) {
                 Double dist = clickDistance(node, x, y);
                 if (dist != null) {
@@ -3029,7 +3098,9 @@ public class Logic {
             protected AsyncResult doInBackground(Boolean arg) {
                 boolean merge = arg != null && arg.booleanValue();
                 Server server = prefs.getServer();
-                mapBox.makeValidForApi(server.getCachedCapabilities().getMaxArea());
+                if (!prefs.tiledDownload() || server.hasMapSplitSource()) {
+                    mapBox.makeValidForApi(server.getCachedCapabilities().getMaxArea());
+                }
                 return download(context, server, mapBox, postMerge, null, merge, false);
             }
 
@@ -3116,10 +3187,11 @@ public class Logic {
                 Server server = prefs.getServer();
                 mapBox.makeValidForApi(server.getCachedCapabilities().getMaxArea());
                 AsyncResult result = download(context, server, mapBox, postMerge, handler, true, true);
-                if (prefs.autoPrune() && getDelegator().reachedPruneLimits(prefs.getAutoPruneNodeLimit(), prefs.getAutoPruneBoundingBoxLimit())) {
+                final PruneEngine pruneEngine = getDelegator().getPruneEngine();
+                if (prefs.autoPrune() && pruneEngine.pruneNeeded(prefs.getAutoPruneNodeLimit(), prefs.getAutoPruneBoundingBoxLimit())) {
                     ViewBox pruneBox = new ViewBox(map.getViewBox());
                     pruneBox.scale(1.6);
-                    getDelegator().prune(pruneBox);
+                    pruneEngine.prune(Logic.this, pruneBox, prefs.getAutoPruneNodeLimit(), prefs.getAutoPruneBoundingBoxLimit());
                 }
                 return result;
             }
@@ -3164,9 +3236,13 @@ public class Logic {
             }
 
             Storage input = null;
+            // boxes that are too large should only be passed to us if downloading large areas in parts is enabled, if it
+            // isn't make a single request and let the API reject the box as before
+            final boolean tiled = prefs.tiledDownload() && !server.hasMapSplitSource() && mapBox != null
+                    && !mapBox.isValidForApi(server.getCachedCapabilities().getMaxArea());
             if (server.hasMapSplitSource()) {
                 input = MapSplitSource.readBox(ctx, server.getMapSplitSource(), mapBox);
-            } else {
+            } else if (!tiled) {
                 try (InputStream in = server.getStreamForBox(ctx, mapBox)) {
                     final OsmParser osmParser = new OsmParser();
                     osmParser.start(in);
@@ -3174,10 +3250,13 @@ public class Logic {
                 }
             }
 
-            if (merge) { // incremental load
+            if (tiled) {
+                downloadTiled(ctx, server, mapBox, postMerge, merge);
+            } else if (merge) { // incremental load
                 getDelegator().mergeData(input, postMerge);
                 if (mapBox != null) {
                     getDelegator().mergeBoundingBox(mapBox);
+                    getDelegator().getPruneEngine().add(mapBox, input);
                 }
             } else { // replace data with new download
                 getDelegator().reset(false);
@@ -3248,6 +3327,43 @@ public class Logic {
         return result;
     }
 
+    /**
+     * Download a BoundingBox that is too large for a single API call in parts
+     * 
+     * If the existing data is replaced, the parts are merged in to a separate StorageDelegator first, so that the
+     * existing data is only discarded once the download has succeeded.
+     * 
+     * @param ctx an Android Context, if this is a FragmentActivity the progress spinner is updated
+     * @param server the API Server configuration
+     * @param mapBox the BoundingBox
+     * @param postMerge handler to call after merging
+     * @param merge if true merge the data with existing data, if false replace
+     * @throws IOException on network or server errors
+     * @throws SAXException if the data couldn't be parsed
+     * @throws ParserConfigurationException if the parser couldn't be configured
+     * @throws DataConflictException if merging the data failed
+     */
+    private void downloadTiled(@NonNull final Context ctx, @NonNull Server server, @NonNull final BoundingBox mapBox, @Nullable final PostMergeHandler postMerge,
+            boolean merge) throws IOException, SAXException, ParserConfigurationException, DataConflictException {
+        final StorageDelegator delegator = getDelegator();
+        final StorageDelegator target = merge ? delegator : new StorageDelegator();
+        int parts = TiledBoxDownloader.forServer(ctx, server, TiledBoxDownloader.DEFAULT_CONNECTIONS).download(mapBox, target, postMerge,
+                (done, pending) -> {
+                    Log.i(DEBUG_TAG, "downloadTiled " + done + " parts downloaded, " + pending + " pending");
+                    if (ctx instanceof FragmentActivity) {
+                        uiHandler.post(() -> Progress.updateMessage((FragmentActivity) ctx, Progress.PROGRESS_DOWNLOAD,
+                                ctx.getString(R.string.progress_download_parts_message, done, done + pending)));
+                    }
+                });
+        Log.i(DEBUG_TAG, "downloadTiled " + mapBox + " downloaded in " + parts + " parts");
+        // when merging the parts have been added as individual BoundingBoxes so that they can be pruned separately
+        if (!merge) {
+            delegator.reset(false);
+            delegator.setCurrentStorage(target.getCurrentStorage()); // this sets dirty flag
+            delegator.setOriginalBox(mapBox);
+        }
+    }
+
     /**
      * Re-downloads the same areas that we already have
      * 
@@ -3383,11 +3499,12 @@ public class Logic {
                     final Server server = getPrefs().getServer();
                     final OsmParser osmParser = new OsmParser(true);
                     final Storage storage = multiFetch(ctx, server, osmParser, type, new long[] { id });
+                    recordHistory(storage);
                     OsmElement result = storage.getOsmElement(type, id);
                     if (!Way.NAME.equals(type)) {
                         return result;
                     }
-                    downloadMissingWayNodes(ctx, server, osmParser, result);
+                    downloadMissingWayNodes(ctx, server, osmParser, Collections.singletonList(result));
                     return result;
                 } catch (SAXException ex) {
                     Log.e(DEBUG_TAG, "getElementWithDeleted problem parsing", ex);
@@ -3412,6 +3529,18 @@ public class Logic {
         }
     }
 
+    /**
+     * Record the versions of downloaded elements that are not merged in to storage
+     * 
+     * @param storage the downloaded elements
+     */
+    private static void recordHistory(@NonNull Storage storage) {
+        ElementHistory history = App.getElementHistory();
+        if (history != null) {
+            history.recordAsync(storage);
+        }
+    }
+
     /**
      * Check what caused the SAXException
      * 
@@ -3449,11 +3578,9 @@ public class Logic {
                 final OsmParser osmParser = new OsmParser(true);
                 try {
                     Storage storage = multiFetch(ctx, server, osmParser, type, ids);
+                    recordHistory(storage);
                     if (Way.NAME.equals(type)) {
-                        for (long wayId : ids) {
-                            OsmElement way = storage.getOsmElement(Way.NAME, wayId);
-                            downloadMissingWayNodes(ctx, server, osmParser, way);
-                        }
+                        downloadMissingWayNodes(ctx, server, osmParser, getElements(storage, Way.NAME, ids));
                     }
                     return storage;
                 } catch (SAXException ex) {
@@ -3494,54 +3621,79 @@ public class Logic {
      * @throws ParserConfigurationException parsing error
      */
     @NonNull
-    private Storage multiFetch(@NonNull final Context ctx, @NonNull final Server server, @NonNull OsmParser osmParser, @NonNull String type,
+    private Storage multiFetch(@Nullable final Context ctx, @NonNull final Server server, @NonNull OsmParser osmParser, @NonNull String type,
             @NonNull long[] ids) throws SAXException, IOException, ParserConfigurationException {
-        int end = 0;
-        for (int start = 0; start < Math.min(start + Server.MULTI_FETCH_MAX_ELEMENTS, ids.length); start = end) {
-            end = start + Math.min(Server.MULTI_FETCH_MAX_ELEMENTS, ids.length - start);
-            try (InputStream in = server.getStreamForElements(ctx, type, Arrays.copyOfRange(ids, start, end))) {
-                osmParser.reinit();
-                osmParser.start(in);
-            }
-        }
+        server.getElements(ctx, osmParser, Collections.singletonMap(type, ids));
         return osmParser.getStorage();
     }
 
+    /**
+     * Get elements from a Storage
+     * 
+     * @param storage the Storage
+     * @param type the type of the elements
+     * @param ids the element ids
+     * @return a List of the elements, null if an element isn't present
+     */
+    @NonNull
+    private static List<OsmElement> getElements(@NonNull Storage storage, @NonNull String type, @NonNull long[] ids) {
+        List<OsmElement> result = new ArrayList<>();
+        for (long id : ids) {
+            result.add(storage.getOsmElement(type, id));
+        }
+        return result;
+    }
+
     /**
      * Fixup missing way nodes
      * 
+     * The nodes of all ways that are not already present are retrieved together
+     * 
      * @param ctx an Android Context
      * @param server the current server
      * @param osmParser an OsmParser
-     * @param way the way we ant to get the nodes for
+     * @param ways the ways we want to get the nodes for
      * @throws SAXException parsing error
      * @throws IOException if we can't download the nodes
      * @throws ParserConfigurationException parsing error
      */
-    private void downloadMissingWayNodes(@NonNull final Context ctx, @NonNull final Server server, @NonNull final OsmParser osmParser, @Nullable OsmElement way)
-            throws SAXException, IOException, ParserConfigurationException {
+    private void downloadMissingWayNodes(@Nullable final Context ctx, @NonNull final Server server, @NonNull final OsmParser osmParser,
+            @NonNull List<OsmElement> ways) throws SAXException, IOException, ParserConfigurationException {
         // as the API doesn't return way nodes for this call we need to patch things up here
-        if (way == null) {
-            throw new OsmServerException(ErrorCodes.NOT_FOUND, "downloadMissingWayNodes null way");
-        }
-        if (way.getState() == OsmElement.STATE_DELETED) {
-            return; // no nodes
+        Storage storage = osmParser.getStorage();
+        Set<Long> missing = new LinkedHashSet<>();
+        for (OsmElement way : ways) {
+            if (way == null) {
+                throw new OsmServerException(ErrorCodes.NOT_FOUND, "downloadMissingWayNodes null way");
+            }
+            if (way.getState() != OsmElement.STATE_DELETED) {
+                for (Node node : ((Way) way).getNodes()) {
+                    if (storage.getNode(node.getOsmId()) == null) {
+                        missing.add(node.getOsmId());
+                    }
+                }
+            }
         }
-
-        List<Node> tempNodes = ((Way) way).getNodes();
-        long[] realNodes = new long[tempNodes.size()];
-        for (int i = 0; i < realNodes.length; i++) {
-            realNodes[i] = tempNodes.get(i).getOsmId();
+        if (!missing.isEmpty()) {
+            multiFetch(ctx, server, osmParser, Node.NAME, toLongArray(new ArrayList<>(missing)));
         }
-        Storage storage = multiFetch(ctx, server, osmParser, Node.NAME, realNodes);
-
-        tempNodes.clear();
-        for (long id : realNodes) {
-            final Node realNode = (Node) storage.getOsmElement(Node.NAME, id);
-            if (realNode != null) {
-                tempNodes.add(realNode);
-            } else {
-                Log.e(DEBUG_TAG, "getElementWithDeleted unable to replace node " + id);
+        for (OsmElement way : ways) {
+            if (way.getState() == OsmElement.STATE_DELETED) {
+                continue; // no nodes
+            }
+            List<Node> tempNodes = ((Way) way).getNodes();
+            long[] realNodes = new long[tempNodes.size()];
+            for (int i = 0; i < realNodes.length; i++) {
+                realNodes[i] = tempNodes.get(i).getOsmId();
+            }
+            tempNodes.clear();
+            for (long id : realNodes) {
+                final Node realNode = storage.getNode(id);
+                if (realNode != null) {
+                    tempNodes.add(realNode);
+                } else {
+                    Log.e(DEBUG_TAG, "getElementWithDeleted unable to replace node " + id);
+                }
             }
         }
     }
@@ -3709,19 +3861,20 @@ public class Logic {
                 try {
                     final OsmParser osmParser = new OsmParser(true);
                     Server server = getPrefs().getServer();
+                    // nodes need to be parsed first so that ways can reference them
+                    Map<String, long[]> ids = new LinkedHashMap<>();
                     if (nodes != null && !nodes.isEmpty()) {
-                        multiFetch(ctx, server, osmParser, Node.NAME, toLongArray(nodes));
+                        ids.put(Node.NAME, toLongArray(nodes));
                     }
                     if (ways != null && !ways.isEmpty()) {
-                        final long[] wayIds = toLongArray(ways);
-                        Storage storage = multiFetch(ctx, server, osmParser, Way.NAME, wayIds);
-                        for (long wayId : wayIds) {
-                            OsmElement way = storage.getOsmElement(Way.NAME, wayId);
-                            downloadMissingWayNodes(ctx, server, osmParser, way);
-                        }
+                        ids.put(Way.NAME, toLongArray(ways));
                     }
                     if (relations != null && !relations.isEmpty()) {
-                        multiFetch(ctx, server, osmParser, Relation.NAME, toLongArray(relations));
+                        ids.put(Relation.NAME, toLongArray(relations));
+                    }
+                    server.getElements(ctx, osmParser, ids);
+                    if (ids.containsKey(Way.NAME)) {
+                        downloadMissingWayNodes(ctx, server, osmParser, getElements(osmParser.getStorage(), Way.NAME, ids.get(Way.NAME)));
                     }
                     getDelegator().mergeData(osmParser.getStorage(), null);
                 } catch (IllegalStateException iex) {
@@ -4470,9 +4623,22 @@ public class Logic {
                         result.setError(ErrorCodes.API_OFFLINE);
                         return result;
                     }
+                    // persist progress so that an interrupted upload resumes with the elements not uploaded yet
+                    UploadProgressListener saveProgress = new UploadProgressListener() {
+                        private long lastSave = System.currentTimeMillis();
+
+                        @Override
+                        public void onChunkUploaded(int uploaded, int total) {
+                            long now = System.currentTimeMillis();
+                            if (uploaded < total && now - lastSave > UPLOAD_SAVE_INTERVAL_MS) {
+                                save(activity);
+                                lastSave = now;
+                            }
+                        }
+                    };
                     // set comment here if empty to avoid saving it
                     getDelegator().uploadToServer(server, Util.isEmpty(comment) ? activity.getString(R.string.upload_auto_summary) : comment, source,
-                            closeOpenChangeset, closeChangeset, extraTags, elements);
+                            closeOpenChangeset, closeChangeset, extraTags, elements, saveProgress);
                 } catch (final OsmServerException e) {
                     int errorCode = e.getHttpErrorCode();
                     result.setHttpError(errorCode);
@@ -4487,6 +4653,7 @@ public class Logic {
                     case HttpURLConnection.HTTP_ENTITY_TOO_LARGE:
                         result.setError(ErrorCodes.UPLOAD_CONFLICT);
                         result.setMessage(e.getMessage());
+                        loadConflictVersions(activity, result);
                         break;
                     case HttpStatusCodes.HTTP_TOO_MANY_REQUESTS:
                         result.setError(ErrorCodes.UPLOAD_LIMIT_EXCEEDED);
@@ -4546,7 +4713,7 @@ public class Logic {
                             } else if (conflict instanceof ApiResponse.ChangesetLocked) {
                                 ErrorAlert.showDialog(activity, ErrorCodes.UPLOAD_PROBLEM, result.getMessage());
                             } else {
-                                UploadConflict.showDialog(activity, conflict, elements);
+                                UploadConflict.showDialog(activity, conflict, elements, result.getServerVersion(), result.getBaseVersion());
                             }
                             break;
                         case ErrorCodes.INVALID_LOGIN:
@@ -4592,6 +4759,33 @@ public class Logic {
         }.execute();
     }
 
+    /**
+     * Retrieve the versions needed to resolve a version conflict from the element history
+     * 
+     * This accesses the database and needs to be called on a background thread before the conflict dialog is shown
+     * 
+     * @param ctx an Android Context
+     * @param result the UploadResult for the failed upload, the versions found will be set on it
+     */
+    private void loadConflictVersions(@NonNull Context ctx, @NonNull UploadResult result) {
+        String message = result.getMessage();
+        if (message == null) {
+            return;
+        }
+        Conflict conflict = ApiResponse.parseConflictResponse(result.getHttpError(), message);
+        if (!(conflict instanceof ApiResponse.VersionConflict)) {
+            return;
+        }
+        final String type = conflict.getElementType();
+        final long id = conflict.getElementId();
+        ElementHistory history = App.getElementHistory(ctx);
+        result.setServerVersion(history.get(type, id, ((ApiResponse.VersionConflict) conflict).getServerVersion()));
+        OsmElement local = getDelegator().getOsmElement(type, id);
+        if (local != null) {
+            result.setBaseVersion(history.get(type, id, local.getOsmVersion()));
+        }
+    }
+
     /**
      * Map "standard" http error codes from the API to internal codes
      * 
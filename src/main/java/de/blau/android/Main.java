@@ -101,6 +101,7 @@ import de.blau.android.contract.Schemes;
 import de.blau.android.contract.Ui;
 import de.blau.android.contract.Urls;
 import de.blau.android.dialogs.BarometerCalibration;
+import de.blau.android.dialogs.CancelableEvalCallback;
 import de.blau.android.dialogs.ConsoleDialog;
 import de.blau.android.dialogs.DataLoss;
 import de.blau.android.dialogs.DownloadCurrentWithChanges;
@@ -2636,30 +2637,58 @@ public class Main extends FullScreenAppCompatActivity
      */
     public static void showOverpassConsole(@NonNull final FragmentActivity activity, @Nullable String text) {
         ConsoleDialog.showDialog(activity, R.string.overpass_console, R.string.merge_result, R.string.select_result, text, null,
-                (context, input, merge, select) -> {
-                    Logic logic = App.getLogic();
-                    if (!merge && logic != null && logic.hasChanges()) {
-                        return Util.withHtmlColor(context, R.attr.errorTextColor, context.getString(R.string.overpass_query_would_overwrite));
-                    }
-                    AsyncResult result = de.blau.android.overpass.Server.query(context, de.blau.android.overpass.Server.replacePlaceholders(context, input),
-                            merge, select);
-                    if (ErrorCodes.OK == result.getCode()) {
-                        if (context instanceof Main) {
-                            Main main = (Main) context;
-                            main.mapLayout.post(() -> {
-                                if (select) {
-                                    main.getEasyEditManager().editElements();
-                                    main.zoomTo(logic.getSelectedElements());
-                                }
-                                main.invalidateMap();
-                            });
+                new CancelableEvalCallback() {
+                    private static final long serialVersionUID = 1L;
+
+                    private transient volatile boolean cancelled;
+
+                    @Override
+                    public String eval(Context context, String input, boolean merge, boolean select) {
+                        Logic logic = App.getLogic();
+                        if (!merge && logic != null && logic.hasChanges()) {
+                            return Util.withHtmlColor(context, R.attr.errorTextColor, context.getString(R.string.overpass_query_would_overwrite));
                         }
-                        Storage storage = App.getDelegator().getCurrentStorage();
-                        return context.getString(R.string.overpass_result, storage.getNodeCount(), storage.getWayCount(), storage.getRelationCount());
-                    } else if (ErrorCodes.NOT_FOUND == result.getCode()) {
-                        return context.getString(R.string.toast_nothing_found);
-                    } else {
-                        return Util.withHtmlColor(context, R.attr.errorTextColor, result.getMessage());
+                        cancelled = false;
+                        final Main main = context instanceof Main ? (Main) context : null;
+                        AsyncResult result = de.blau.android.overpass.Server.query(context,
+                                de.blau.android.overpass.Server.replacePlaceholders(context, input), merge, select,
+                                de.blau.android.overpass.Server.DEFAULT_BLOCK_SIZE, new de.blau.android.overpass.Server.QueryListener() {
+                                    @Override
+                                    public void onProgress(int elements) {
+                                        if (main != null) {
+                                            main.mapLayout.post(main::invalidateMap);
+                                        }
+                                    }
+
+                                    @Override
+                                    public boolean isCancelled() {
+                                        return cancelled;
+                                    }
+                                });
+                        if (ErrorCodes.OK == result.getCode()) {
+                            if (main != null) {
+                                main.mapLayout.post(() -> {
+                                    if (select && !cancelled) {
+                                        main.getEasyEditManager().editElements();
+                                        main.zoomTo(logic.getSelectedElements());
+                                    }
+                                    main.invalidateMap();
+                                });
+                            }
+                            Storage storage = App.getDelegator().getCurrentStorage();
+                            String message = context.getString(R.string.overpass_result, storage.getNodeCount(), storage.getWayCount(),
+                                    storage.getRelationCount());
+                            return cancelled ? context.getString(R.string.overpass_query_cancelled) + " " + message : message;
+                        } else if (ErrorCodes.NOT_FOUND == result.getCode()) {
+                            return context.getString(R.string.toast_nothing_found);
+                        } else {
+                            return Util.withHtmlColor(context, R.attr.errorTextColor, result.getMessage());
+                        }
+                    }
+
+                    @Override
+                    public void cancel() {
+                        cancelled = true;
                     }
                 }, false);
     }
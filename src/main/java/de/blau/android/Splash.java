@@ -130,7 +130,7 @@ public class Splash extends AppCompatActivity {
                 new ExecutorTask<Void, Void, Void>() {
                     @Override
                     protected Void doInBackground(Void param) {
-                        App.getNameSearchIndex(Splash.this);
+                        App.getNames(Splash.this);
                         return null;
                     }
                 }.execute();
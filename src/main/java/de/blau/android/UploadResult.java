@@ -2,6 +2,8 @@ package de.blau.android;
 
 import java.io.Serializable;
 
+import de.blau.android.osm.ElementHistory;
+
 /**
  * A small class to store the result returned from the OSM server after trying to upload changes. The response includes
  * things like the HTTP response code, conflict information, etc.
@@ -19,6 +21,9 @@ public class UploadResult implements Serializable {
     private long              osmId;
     private String            message;
 
+    private ElementHistory.Version serverVersion;
+    private ElementHistory.Version baseVersion;
+
     /**
      * Default constructor
      */
@@ -104,4 +109,32 @@ public class UploadResult implements Serializable {
     public void setMessage(String message) {
         this.message = message;
     }
+
+    /**
+     * @return the server version of the conflicting element from the element history or null
+     */
+    public ElementHistory.Version getServerVersion() {
+        return serverVersion;
+    }
+
+    /**
+     * @param serverVersion the server version of the conflicting element to set
+     */
+    public void setServerVersion(ElementHistory.Version serverVersion) {
+        this.serverVersion = serverVersion;
+    }
+
+    /**
+     * @return the version the local changes of the conflicting element are based on from the element history or null
+     */
+    public ElementHistory.Version getBaseVersion() {
+        return baseVersion;
+    }
+
+    /**
+     * @param baseVersion the version the local changes of the conflicting element are based on to set
+     */
+    public void setBaseVersion(ElementHistory.Version baseVersion) {
+        this.baseVersion = baseVersion;
+    }
 }
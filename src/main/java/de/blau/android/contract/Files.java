@@ -14,6 +14,7 @@ public final class Files {
     public static final String FILE_NAME_GEOCONTEXT          = "geocontext.json";
     public static final String FILE_NAME_BOUNDARIES          = "boundaries.ser";
     public static final String FILE_NAME_MRUFILE             = "mru.dat";
+    public static final String FILE_NAME_PRESET_CACHE        = "preset-cache.ser";
 
     /**
      * Where we install the current version of vespucci
@@ -0,0 +1,11 @@
+package de.blau.android.dialogs;
+
+/**
+ * Callback interface for evaluating a string that can be cancelled while running
+ */
+public interface CancelableEvalCallback extends EvalCallback {
+    /**
+     * Stop a running evaluation
+     */
+    void cancel();
+}
@@ -208,6 +208,10 @@ public class ConsoleDialog extends DialogFragment {
 
             @Override
             protected void onPreExecute() {
+                if (callback instanceof CancelableEvalCallback) {
+                    progress.setButton(DialogInterface.BUTTON_NEGATIVE, getString(R.string.cancel),
+                            (DialogInterface d, int which) -> ((CancelableEvalCallback) callback).cancel());
+                }
                 progress.show();
             }
 
@@ -87,6 +87,7 @@ import de.blau.android.layer.StyleableInterface;
 import de.blau.android.layer.StyleableLayer;
 import de.blau.android.layer.mvt.MapOverlay;
 import de.blau.android.osm.BoundingBox;
+import de.blau.android.osm.GeoPoint;
 import de.blau.android.osm.GpxFile;
 import de.blau.android.osm.OsmGpxApi;
 import de.blau.android.osm.Server;
@@ -103,6 +104,7 @@ import de.blau.android.resources.TileLayerSource;
 import de.blau.android.resources.TileLayerSource.Category;
 import de.blau.android.resources.TileLayerSource.TileType;
 import de.blau.android.resources.WmsEndpointDatabaseView;
+import de.blau.android.services.PrefetchPlanner;
 import de.blau.android.tasks.TaskStorage;
 import de.blau.android.tasks.Todo;
 import de.blau.android.tasks.TransferTasks;
@@ -137,6 +139,8 @@ public class Layers extends AbstractConfigurationDialog implements OnUpdateListe
 
     public static final String TAG = "fragment_layers";
 
+    private static volatile PrefetchPlanner runningPrefetch = null;
+
     private int visibleId;
     private int invisibleId;
     private int zoomToExtentId;
@@ -1107,6 +1111,27 @@ public class Layers extends AbstractConfigurationDialog implements OnUpdateListe
                         dismissDialog();
                         return true;
                     });
+                    if (isPrefetching()) {
+                        item = menu.add(R.string.layer_prefetch_stop);
+                        item.setOnMenuItemClickListener(unused -> {
+                            cancelPrefetch();
+                            dismissDialog();
+                            return true;
+                        });
+                    }
+                    item = menu.add(R.string.layer_prefetch_along_track);
+                    item.setOnMenuItemClickListener(unused -> {
+                        if (layer != null) {
+                            Track track = ((de.blau.android.layer.gpx.MapOverlay) layer).getTrack();
+                            if (track != null && !track.getTrackPoints().isEmpty()) {
+                                prefetch(activity, map, track.getTrackPoints());
+                            } else {
+                                ScreenMessage.toastTopWarning(activity, R.string.toast_no_track_points);
+                            }
+                        }
+                        dismissDialog();
+                        return true;
+                    });
                 }
                 MenuItem item = menu.add(R.string.menu_gps_upload);
                 item.setOnMenuItemClickListener(unused -> {
@@ -1270,6 +1295,62 @@ public class Layers extends AbstractConfigurationDialog implements OnUpdateListe
         }
     }
 
+    /**
+     * Download data, tasks and imagery along a route in the background
+     * 
+     * A prefetch that is already running is stopped first
+     * 
+     * @param activity the current Activity
+     * @param map the current Map instance
+     * @param route the track points or way nodes
+     */
+    public static void prefetch(@NonNull final FragmentActivity activity, @NonNull final Map map, @NonNull final List<? extends GeoPoint> route) {
+        final Preferences prefs = App.getLogic().getPrefs();
+        final MapTilesLayer<?> background = map.getBackgroundLayer();
+        final TileLayerSource tileSource = background != null ? background.getTileLayerConfiguration() : null;
+        final boolean tasks = map.getTaskLayer() != null;
+        final PrefetchPlanner planner = new PrefetchPlanner(prefs.getDownloadRadius(), prefs.getPrefetchBudget() * 1024L * 1024L);
+        cancelPrefetch();
+        runningPrefetch = planner;
+        ScreenMessage.toastTopInfo(activity, R.string.toast_prefetch_started);
+        new ExecutorTask<Void, Void, Long>() {
+            @Override
+            protected Long doInBackground(Void input) {
+                return planner.prefetch(activity, route, tasks, tileSource);
+            }
+
+            @Override
+            protected void onPostExecute(Long result) {
+                if (runningPrefetch == planner) {
+                    runningPrefetch = null;
+                }
+                int mb = (int) (result / (1024L * 1024L));
+                ScreenMessage.toastTopInfo(activity, activity.getString(planner.isCancelled() ? R.string.toast_prefetch_cancelled : R.string.toast_prefetch_finished, mb));
+                map.invalidate();
+            }
+        }.execute();
+    }
+
+    /**
+     * Check if a prefetch is running
+     * 
+     * @return true if a prefetch is running
+     */
+    public static boolean isPrefetching() {
+        return runningPrefetch != null;
+    }
+
+    /**
+     * Stop the running prefetch if any
+     */
+    public static void cancelPrefetch() {
+        PrefetchPlanner planner = runningPrefetch;
+        if (planner != null) {
+            planner.cancel();
+            runningPrefetch = null;
+        }
+    }
+
     /**
      * Convert all GeoJSOn objects in a layer to todos // NOSONAR
      * 
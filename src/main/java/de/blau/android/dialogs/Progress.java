@@ -5,10 +5,13 @@ import static de.blau.android.contract.Constants.LOG_TAG_LEN;
 import android.app.Dialog;
 import android.os.Bundle;
 import android.util.Log;
+import android.widget.TextView;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.fragment.app.Fragment;
 import androidx.fragment.app.FragmentActivity;
 import androidx.fragment.app.FragmentManager;
+import de.blau.android.R;
 import de.blau.android.util.ImmersiveDialogFragment;
 
 /**
@@ -88,6 +91,24 @@ public class Progress extends ImmersiveDialogFragment {
         }
     }
 
+    /**
+     * Replace the message of a progress spinner that is being displayed, has to be called on the UI thread
+     * 
+     * @param activity the calling FragmentActivity
+     * @param dialogType an int indicating which heading to show
+     * @param message the new message
+     */
+    public static void updateMessage(@NonNull FragmentActivity activity, int dialogType, @NonNull String message) {
+        Fragment fragment = activity.getSupportFragmentManager().findFragmentByTag(getTag(dialogType));
+        Dialog dialog = fragment instanceof Progress ? ((Progress) fragment).getDialog() : null;
+        if (dialog != null) {
+            TextView messageView = (TextView) dialog.findViewById(R.id.progressMessage);
+            if (messageView != null) {
+                messageView.setText(message);
+            }
+        }
+    }
+
     /**
      * Dismiss the progress spinner
      * 
@@ -2,10 +2,14 @@ package de.blau.android.dialogs;
 
 import static de.blau.android.contract.Constants.LOG_TAG_LEN;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
 import android.content.Context;
 import android.content.DialogInterface;
@@ -44,6 +48,7 @@ import de.blau.android.PostAsyncActionHandler;
 import de.blau.android.R;
 import de.blau.android.osm.ApiResponse;
 import de.blau.android.osm.ApiResponse.Conflict;
+import de.blau.android.osm.ElementHistory;
 import de.blau.android.osm.MergeAction;
 import de.blau.android.osm.Node;
 import de.blau.android.osm.OsmElement;
@@ -51,6 +56,7 @@ import de.blau.android.osm.Relation;
 import de.blau.android.osm.Result;
 import de.blau.android.osm.Storage;
 import de.blau.android.osm.StorageDelegator;
+import de.blau.android.osm.ThreeWayMerge;
 import de.blau.android.osm.Way;
 import de.blau.android.util.ACRAHelper;
 import de.blau.android.util.ImmersiveDialogFragment;
@@ -68,12 +74,16 @@ public class UploadConflict extends ImmersiveDialogFragment {
     private static final int    TAG_LEN   = Math.min(LOG_TAG_LEN, UploadConflict.class.getSimpleName().length());
     private static final String DEBUG_TAG = UploadConflict.class.getSimpleName().substring(0, TAG_LEN);
 
-    private static final String CONFLICT_KEY = "uploadresult";
+    private static final String CONFLICT_KEY       = "uploadresult";
+    private static final String SERVER_VERSION_KEY = "serverversion";
+    private static final String BASE_VERSION_KEY   = "baseversion";
 
     private static final String TAG = "fragment_upload_conflict";
 
-    private Conflict         conflict;
-    private List<OsmElement> elements;
+    private Conflict               conflict;
+    private List<OsmElement>       elements;
+    private ElementHistory.Version serverVersion;
+    private ElementHistory.Version baseVersion;
 
     private class RestartHandler implements PostAsyncActionHandler {
         private final String           errorMessage;
@@ -110,15 +120,18 @@ public class UploadConflict extends ImmersiveDialogFragment {
      * Show a dialog after a conflict has been detected and allow the user to fix it
      * 
      * @param activity the calling Activity
+     * @param conflict the Conflict
      * @param elements optional list of elements in upload
-     * @param result the UploadResult
+     * @param serverVersion the server version of the element from the element history or null
+     * @param baseVersion the version the local changes are based on from the element history or null
      */
-    public static void showDialog(@NonNull FragmentActivity activity, @NonNull Conflict conflict, @Nullable List<OsmElement> elements) {
+    public static void showDialog(@NonNull FragmentActivity activity, @NonNull Conflict conflict, @Nullable List<OsmElement> elements,
+            @Nullable ElementHistory.Version serverVersion, @Nullable ElementHistory.Version baseVersion) {
         dismissDialog(activity);
 
         FragmentManager fm = activity.getSupportFragmentManager();
         try {
-            UploadConflict uploadConflictDialogFragment = newInstance(conflict, elements);
+            UploadConflict uploadConflictDialogFragment = newInstance(conflict, elements, serverVersion, baseVersion);
             uploadConflictDialogFragment.show(fm, TAG);
         } catch (IllegalStateException isex) {
             Log.e(DEBUG_TAG, "dismissDialog", isex);
@@ -139,15 +152,20 @@ public class UploadConflict extends ImmersiveDialogFragment {
      * 
      * @param conflict an COnflict object with the relevant info
      * @param elements optional list of elements in upload
+     * @param serverVersion the server version of the element from the element history or null
+     * @param baseVersion the version the local changes are based on from the element history or null
      * 
      * @return an UploadConflict dialog
      */
     @NonNull
-    private static UploadConflict newInstance(@NonNull final Conflict conflict, List<OsmElement> elements) {
+    private static UploadConflict newInstance(@NonNull final Conflict conflict, List<OsmElement> elements, @Nullable ElementHistory.Version serverVersion,
+            @Nullable ElementHistory.Version baseVersion) {
         UploadConflict f = new UploadConflict();
 
         Bundle args = new Bundle();
         args.putSerializable(CONFLICT_KEY, conflict);
+        args.putSerializable(SERVER_VERSION_KEY, serverVersion);
+        args.putSerializable(BASE_VERSION_KEY, baseVersion);
         if (elements != null) {
             Util.putElementsInBundle(elements, args);
         }
@@ -161,14 +179,15 @@ public class UploadConflict extends ImmersiveDialogFragment {
     @Override
     public void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        Bundle bundle = getArguments();
         if (savedInstanceState != null) {
             Log.d(DEBUG_TAG, "restoring from saved state");
-            conflict = de.blau.android.util.Util.getSerializeable(savedInstanceState, CONFLICT_KEY, Conflict.class);
-            elements = de.blau.android.dialogs.Util.getElementsFromBundle(savedInstanceState);
-        } else {
-            conflict = de.blau.android.util.Util.getSerializeable(getArguments(), CONFLICT_KEY, Conflict.class);
-            elements = de.blau.android.dialogs.Util.getElementsFromBundle(getArguments());
+            bundle = savedInstanceState;
         }
+        conflict = de.blau.android.util.Util.getSerializeable(bundle, CONFLICT_KEY, Conflict.class);
+        elements = de.blau.android.dialogs.Util.getElementsFromBundle(bundle);
+        serverVersion = de.blau.android.util.Util.getSerializeable(bundle, SERVER_VERSION_KEY, ElementHistory.Version.class);
+        baseVersion = de.blau.android.util.Util.getSerializeable(bundle, BASE_VERSION_KEY, ElementHistory.Version.class);
     }
 
     @NonNull
@@ -307,6 +326,11 @@ public class UploadConflict extends ImmersiveDialogFragment {
                     setMergedTags(activity, logic, elementLocal, elementLocal, elementOnServer, MergeAction.mergeTags(elementLocal, elementOnServer),
                             restartHandler);
                 });
+                final ElementHistory.Version base = baseVersion;
+                if (base != null && base.getOsmVersion() == elementLocal.getOsmVersion() && elementOnServer.getState() != OsmElement.STATE_DELETED) {
+                    resolveActions.put(res.getString(R.string.merge_with_base_version),
+                            () -> mergeWithBase(activity, logic, elementLocal, base, elementOnServer, restartHandler));
+                }
                 resolveActions.put(res.getString(R.string.use_server_version), () -> resolveConflict(activity, logic, elementOnServer, elementLocal));
 
                 builder.setView(ElementInfo.createComparisionView(activity, (ScrollView) inflater.inflate(R.layout.element_info_view, null, false), tp,
@@ -435,7 +459,71 @@ public class UploadConflict extends ImmersiveDialogFragment {
     }
 
     /**
-     * Retrieve a single element from, catches OsmServerException
+     * Merge the local and server changes against the version the local changes were based on
+     * 
+     * @param activity calling Activity
+     * @param logic current Logic instance
+     * @param elementLocal local element
+     * @param base the common base version
+     * @param elementOnServer remote element
+     * @param restartHandler handler that restart the upload
+     */
+    private void mergeWithBase(@NonNull final FragmentActivity activity, @NonNull final Logic logic, @NonNull final OsmElement elementLocal,
+            @NonNull final ElementHistory.Version base, @NonNull final OsmElement elementOnServer, @NonNull RestartHandler restartHandler) {
+        final StorageDelegator delegator = App.getDelegator();
+        List<Node> mergedNodes = null;
+        if (elementLocal instanceof Way && elementOnServer instanceof Way && base.getNodeIds() != null) {
+            long[] localIds = getNodeIds((Way) elementLocal);
+            long[] mergedIds = ThreeWayMerge.mergeNodes(base.getNodeIds(), localIds, getNodeIds((Way) elementOnServer));
+            if (mergedIds == null) {
+                ScreenMessage.toastTopError(activity, activity.getString(R.string.toast_way_nodes_conflict, elementLocal.getDescription()));
+                return;
+            }
+            if (!Arrays.equals(localIds, mergedIds)) {
+                mergedNodes = new ArrayList<>();
+                for (long id : mergedIds) {
+                    Node node = delegator.getCurrentStorage().getNode(id);
+                    if (node == null) { // added on the server and not available locally
+                        ScreenMessage.toastTopError(activity, activity.getString(R.string.toast_way_nodes_conflict, elementLocal.getDescription()));
+                        return;
+                    }
+                    mergedNodes.add(node);
+                }
+            }
+        }
+        Set<String> conflicts = new HashSet<>();
+        Map<String, String> mergedTags = ThreeWayMerge.mergeTags(base.getTags(), elementLocal.getTags(), elementOnServer.getTags(), conflicts);
+        logic.fixElementWithConflict(activity, elementOnServer.getOsmVersion(), elementLocal, elementOnServer, true);
+        if (mergedNodes != null) {
+            delegator.replaceWayNodes(mergedNodes, (Way) elementLocal);
+        }
+        if (!conflicts.isEmpty()) {
+            Log.i(DEBUG_TAG, "Conflicting tag changes for " + conflicts);
+        }
+        setMergedTags(activity, logic, elementLocal, elementOnServer, elementLocal, mergedTags, restartHandler);
+    }
+
+    /**
+     * Get the ids of the way nodes of a Way
+     * 
+     * @param way the Way
+     * @return an array of node ids
+     */
+    @NonNull
+    private static long[] getNodeIds(@NonNull Way way) {
+        List<Node> nodes = way.getNodes();
+        long[] ids = new long[nodes.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = nodes.get(i).getOsmId();
+        }
+        return ids;
+    }
+
+    /**
+     * Retrieve a single element from the server, catches OsmServerException
+     * 
+     * For version conflicts the server version is taken from the element history if it was available there when the
+     * upload failed
      * 
      * @param logic current Login instance
      * @param elementType the element type
@@ -444,6 +532,13 @@ public class UploadConflict extends ImmersiveDialogFragment {
      */
     @Nullable
     private OsmElement getServerElement(@NonNull final Logic logic, @NonNull String elementType, long osmId) {
+        if (conflict instanceof ApiResponse.VersionConflict) {
+            ElementHistory.Version version = serverVersion;
+            OsmElement element = version != null ? version.toElement(App.getDelegator().getCurrentStorage()) : null;
+            if (element != null) {
+                return element;
+            }
+        }
         try {
             return logic.getElementWithDeleted(getActivity(), elementType, osmId);
         } catch (Exception ex) {
@@ -528,6 +623,8 @@ public class UploadConflict extends ImmersiveDialogFragment {
     public void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
         outState.putSerializable(CONFLICT_KEY, conflict);
+        outState.putSerializable(SERVER_VERSION_KEY, serverVersion);
+        outState.putSerializable(BASE_VERSION_KEY, baseVersion);
         if (elements != null) {
             Util.putElementsInBundle(elements, outState);
         }
@@ -17,6 +17,7 @@ import androidx.appcompat.view.ActionMode;
 import de.blau.android.App;
 import de.blau.android.R;
 import de.blau.android.dialogs.ElementIssueDialog;
+import de.blau.android.dialogs.Layers;
 import de.blau.android.easyedit.route.RouteSegmentActionModeCallback;
 import de.blau.android.easyedit.turnrestriction.FromElementActionModeCallback;
 import de.blau.android.exception.OsmIllegalOperationException;
@@ -56,6 +57,7 @@ public class WaySelectionActionModeCallback extends ElementSelectionActionModeCa
     private static final int MENUITEM_EXTRACT_SEGMENT   = LAST_REGULAR_MENUITEM + 16;
     private static final int MENUITEM_SELECT_WAY_NODES  = LAST_REGULAR_MENUITEM + 17;
     private static final int MENUITEM_START_END_OF_WAY  = LAST_REGULAR_MENUITEM + 18;
+    private static final int MENUITEM_PREFETCH          = LAST_REGULAR_MENUITEM + 19;
 
     private Set<OsmElement> cachedMergeableWays;
     private Set<OsmElement> cachedAppendableNodes;
@@ -151,6 +153,8 @@ public class WaySelectionActionModeCallback extends ElementSelectionActionModeCa
         menu.add(Menu.NONE, MENUITEM_SELECT_WAY_NODES, Menu.NONE, R.string.menu_select_way_nodes);
 
         menu.add(Menu.NONE, MENUITEM_START_END_OF_WAY, Menu.NONE, R.string.menu_start_end_way);
+
+        menu.add(Menu.NONE, MENUITEM_PREFETCH, Menu.NONE, R.string.menu_prefetch_along_way);
         return true;
     }
 
@@ -308,6 +312,9 @@ public class WaySelectionActionModeCallback extends ElementSelectionActionModeCa
                         main.invalidateMap();
                     }).show();
                     break;
+                case MENUITEM_PREFETCH:
+                    Layers.prefetch(main, main.getMap(), new ArrayList<>(way.getNodes()));
+                    break;
                 default:
                     return false;
                 }
@@ -3,6 +3,7 @@ package de.blau.android.filter;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -33,11 +34,16 @@ public abstract class Filter implements Serializable {
     }
 
     /**
-     * cache for element filter actions
+     * cache for element filter actions, these are accessed from the data layer display list worker too
      */
-    transient Map<Node, Include>     cachedNodes     = new HashMap<>(100);
-    transient Map<Way, Include>      cachedWays      = new HashMap<>(100);
-    transient Map<Relation, Include> cachedRelations = new HashMap<>(100);
+    transient Map<Node, Include>     cachedNodes     = Collections.synchronizedMap(new HashMap<>(100));
+    transient Map<Way, Include>      cachedWays      = Collections.synchronizedMap(new HashMap<>(100));
+    transient Map<Relation, Include> cachedRelations = Collections.synchronizedMap(new HashMap<>(100));
+
+    /**
+     * Incremented each time the cache is cleared
+     */
+    private transient volatile int cacheGeneration = 0;
 
     private transient Logic logic = App.getLogic();
 
@@ -163,6 +169,16 @@ public abstract class Filter implements Serializable {
         cachedNodes.clear();
         cachedWays.clear();
         cachedRelations.clear();
+        cacheGeneration++; // NOSONAR we only need visibility
+    }
+
+    /**
+     * Get a value that changes each time the cached filter results are invalidated
+     * 
+     * @return the current cache generation
+     */
+    public int getCacheGeneration() {
+        return cacheGeneration;
     }
 
     /**
@@ -173,9 +189,11 @@ public abstract class Filter implements Serializable {
     @NonNull
     public List<Node> getVisibleNodes() {
         List<Node> result = new ArrayList<>();
-        for (Entry<Node, Include> e : cachedNodes.entrySet()) {
-            if (e.getValue() != Include.DONT) {
-                result.add(e.getKey());
+        synchronized (cachedNodes) {
+            for (Entry<Node, Include> e : cachedNodes.entrySet()) {
+                if (e.getValue() != Include.DONT) {
+                    result.add(e.getKey());
+                }
             }
         }
         return result;
@@ -189,9 +207,11 @@ public abstract class Filter implements Serializable {
     @NonNull
     public List<Way> getVisibleWays() {
         List<Way> result = new ArrayList<>();
-        for (Entry<Way, Include> e : cachedWays.entrySet()) {
-            if (e.getValue() != Include.DONT) {
-                result.add(e.getKey());
+        synchronized (cachedWays) {
+            for (Entry<Way, Include> e : cachedWays.entrySet()) {
+                if (e.getValue() != Include.DONT) {
+                    result.add(e.getKey());
+                }
             }
         }
         return result;
@@ -226,8 +246,8 @@ public abstract class Filter implements Serializable {
     private void readObject(@NonNull java.io.ObjectInputStream in) throws IOException, ClassNotFoundException {
         in.defaultReadObject();
         // Normal deserialization will not initialize transient objects, need to do it here
-        cachedNodes = new HashMap<>(100);
-        cachedWays = new HashMap<>(100);
-        cachedRelations = new HashMap<>(100);
+        cachedNodes = Collections.synchronizedMap(new HashMap<>(100));
+        cachedWays = Collections.synchronizedMap(new HashMap<>(100));
+        cachedRelations = Collections.synchronizedMap(new HashMap<>(100));
     }
 }
@@ -42,6 +42,7 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import de.blau.android.contract.FileExtensions;
 import de.blau.android.gpx.WayPoint.Link;
+import de.blau.android.osm.BoundingBox;
 import de.blau.android.osm.OsmXml;
 import de.blau.android.util.ExecutorTask;
 import de.blau.android.util.SavingHelper;
@@ -61,12 +62,20 @@ public class Track extends DefaultHandler implements GpxTimeFormater, Exportable
     private static final String TRK_ELEMENT    = "trk";
     private static final String GPX_ELEMENT    = "gpx";
 
-    private final List<TrackPoint> currentTrack;
+    private final TrackStore currentTrack;
 
     private final List<WayPoint> currentWayPoints;
 
     private static final String SAVEFILE = "track.dat";
 
+    private static final String CHUNK_SAVEFILE = "track-chunks.dat";
+
+    /**
+     * Version of the save file format, the save file holds the points that haven't been sealed in to chunks yet
+     */
+    private static final int SAVEFILE_FORMAT_VERSION = 3;
+    private static final int SAVEFILE_HEADER_SIZE    = 8;
+
     private static final String WAYPOINT_SAVEFILE = "waypoints.dat";
 
     private final Context ctx;
@@ -81,7 +90,7 @@ public class Track extends DefaultHandler implements GpxTimeFormater, Exportable
     private final Calendar         calendarInstance         = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
 
     /**
-     * if loadingFinished is true, indicates how many records the save file contains
+     * if loadingFinished is true, indicates how many points the chunk and save files contain
      */
     private int savedTrackPoints = 0;
 
@@ -127,7 +136,7 @@ public class Track extends DefaultHandler implements GpxTimeFormater, Exportable
         iso8601Format = new SimpleDateFormat(DATE_PATTERN_ISO8601_UTC, Locale.US);
         iso8601Format.setTimeZone(TimeZone.getTimeZone("UTC"));
 
-        currentTrack = recording ? Collections.synchronizedList(new ArrayList<>()) : new ArrayList<>();
+        currentTrack = recording ? new TrackStore(new File(context.getFilesDir(), CHUNK_SAVEFILE)) : new TrackStore();
         currentWayPoints = recording ? Collections.synchronizedList(new ArrayList<>()) : new ArrayList<>();
         ctx = context;
         synchronized (savingLock) {
@@ -183,6 +192,39 @@ public class Track extends DefaultHandler implements GpxTimeFormater, Exportable
         return currentTrack;
     }
 
+    /**
+     * Get the TrackPoints for this track that are potentially in a BoundingBox
+     * 
+     * @param box the BoundingBox
+     * @return a List of runs of consecutive TrackPoints
+     */
+    @NonNull
+    public List<List<TrackPoint>> getTrackPoints(@NonNull BoundingBox box) {
+        return currentTrack.getTrackPoints(box);
+    }
+
+    /**
+     * Get the TrackPoints for this track that are potentially in a BoundingBox simplified for display
+     * 
+     * @param box the BoundingBox
+     * @param tolerance the maximum deviation from the original track in 1E7 degrees
+     * @return a List of runs of consecutive TrackPoints
+     */
+    @NonNull
+    public List<List<TrackPoint>> getTrackPoints(@NonNull BoundingBox box, float tolerance) {
+        return currentTrack.getTrackPoints(box, tolerance);
+    }
+
+    /**
+     * Get the bounding box of the TrackPoints
+     * 
+     * @return a BoundingBox or null if there are no TrackPoints
+     */
+    @Nullable
+    public BoundingBox getTrackBounds() {
+        return currentTrack.getBounds();
+    }
+
     /**
      * Get the WayPoints for this track
      * 
@@ -237,6 +279,27 @@ public class Track extends DefaultHandler implements GpxTimeFormater, Exportable
             savedTrackPoints++;
         }
         Log.i(DEBUG_TAG, "track saved " + savedTrackPoints + " points");
+        seal();
+    }
+
+    /**
+     * Move complete chunks from the save file to the chunk file
+     * 
+     * The chunks are written before the save file is rewritten, on load points in the save file that are already in
+     * the chunk file are skipped
+     */
+    private void seal() {
+        try {
+            if (!currentTrack.seal()) {
+                return;
+            }
+        } catch (IOException e) {
+            markSavingBroken("Failed to write track chunk", e);
+            return;
+        }
+        SavingHelper.close(saveFileStream);
+        saveFileStream = null;
+        rewriteSaveFile(currentTrack.getSealedSize(), currentTrack.getUnsealed());
     }
 
     /**
@@ -262,8 +325,9 @@ public class Track extends DefaultHandler implements GpxTimeFormater, Exportable
                 // no save file, create one
                 fileOutput = ctx.openFileOutput(SAVEFILE, Context.MODE_PRIVATE); // NOSONAR closed in close
                 out = new DataOutputStream(new BufferedOutputStream(fileOutput)); // NOSONAR closed in close
-                out.writeInt(TrackPoint.FORMAT_VERSION);
-                savedTrackPoints = 0;
+                out.writeInt(SAVEFILE_FORMAT_VERSION);
+                out.writeInt(currentTrack.getSealedSize());
+                savedTrackPoints = currentTrack.getSealedSize();
             }
             saveFileStream = out;
         } catch (Exception e) {
@@ -293,6 +357,30 @@ public class Track extends DefaultHandler implements GpxTimeFormater, Exportable
         if (!saveFile.delete() && saveFile.exists()) { // NOSONAR nio delete requires API 26
             Log.w(DEBUG_TAG, "Failed to delete waypoint save file");
         }
+
+        saveFile = new File(ctx.getFilesDir(), CHUNK_SAVEFILE);
+        if (!saveFile.delete() && saveFile.exists()) { // NOSONAR nio delete requires API 26
+            markSavingBroken("Failed to delete undesired track chunk file", null);
+        }
+    }
+
+    /**
+     * Saves the given data to disk, overwriting anything already saved
+     * 
+     * @param sealed the number of points in the chunk file
+     * @param data the TrackPoints that are not in the chunk file
+     */
+    private void rewriteSaveFile(int sealed, @NonNull Iterable<TrackPoint> data) {
+        try (FileOutputStream fileOutput = ctx.openFileOutput(SAVEFILE, Context.MODE_PRIVATE);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOutput));) {
+            out.writeInt(SAVEFILE_FORMAT_VERSION);
+            out.writeInt(sealed);
+            for (TrackPoint point : data) {
+                point.toStream(out);
+            }
+        } catch (Exception e) {
+            markSavingBroken("Failed to rewrite save file", e);
+        }
     }
 
     /**
@@ -312,7 +400,9 @@ public class Track extends DefaultHandler implements GpxTimeFormater, Exportable
     private void asyncLoad() {
         // Logic instance might not be available here
         new ExecutorTask<Void, Void, Void>() {
-            private ArrayList<TrackPoint> loaded = new ArrayList<>();
+            private ArrayList<TrackPoint> loaded     = new ArrayList<>();
+            private int                   sealed     = 0;
+            private int                   loadedBase = 0;
 
             @Override
             protected Void doInBackground(Void param) {
@@ -328,26 +418,35 @@ public class Track extends DefaultHandler implements GpxTimeFormater, Exportable
                         currentWayPoints.addAll(loadedWayPoints);
                     }
 
-                    File saveFile = new File(ctx.getFilesDir(), SAVEFILE);
+                    try {
+                        sealed = currentTrack.open();
+                    } catch (IOException e) {
+                        Log.e(DEBUG_TAG, "Failed to open track chunk file " + e.getMessage());
+                        currentTrack.clear();
+                    }
                     boolean success = load();
-                    if (!success || loaded.isEmpty()) {
+                    int skip = sealed - loadedBase;
+                    if (skip != 0) {
+                        // interrupted while sealing, the chunk file already contains the first points
+                        Log.w(DEBUG_TAG, "Chunk file and save file out of step by " + skip + " points");
+                        loaded.subList(0, Math.max(0, Math.min(skip, loaded.size()))).clear();
+                        success = false;
+                    }
+                    if (loaded.isEmpty() && sealed == 0) {
                         Log.i(DEBUG_TAG, "Deleting broken or empty save file");
                         deleteSaveFile();
-                    }
-
-                    // If the save file exists, it contains exactly the elements in loaded
-                    if (!loaded.isEmpty() && !saveFile.exists()) {
+                    } else if (!success) {
                         // A broken save file was partially recovered. Rewrite it now.
                         Log.i(DEBUG_TAG, "Rewriting partially recovered save file");
-                        rewriteSaveFile(loaded);
+                        rewriteSaveFile(sealed, loaded);
                     }
 
-                    savedTrackPoints = loaded.size();
+                    savedTrackPoints = sealed + loaded.size();
 
                     // There are only two possible situations now:
-                    // - save file does not exist, savedTrackPoints is 0 and memory does not contain any significant
-                    // amount of data
-                    // - save file does exist, is valid and contains exactly savedTrackPoints records
+                    // - neither save file nor chunk file exist, savedTrackPoints is 0 and memory does not contain any
+                    // significant amount of data
+                    // - the files exist, are valid and contain exactly savedTrackPoints points
 
                     return null;
                 } finally {
@@ -357,7 +456,7 @@ public class Track extends DefaultHandler implements GpxTimeFormater, Exportable
 
             @Override
             protected void onPostExecute(Void result) {
-                currentTrack.addAll(0, loaded);
+                currentTrack.addUnsealed(loaded);
                 loadingFinished = true;
                 // See end of doInBackground for possible states
                 Log.i(DEBUG_TAG, "asyncLoad track loading finished, loaded entries: " + loaded.size());
@@ -375,22 +474,30 @@ public class Track extends DefaultHandler implements GpxTimeFormater, Exportable
             private boolean load() {
                 try (FileInputStream fileInput = ctx.openFileInput(SAVEFILE); DataInputStream in = new DataInputStream(new BufferedInputStream(fileInput));) {
                     long size = fileInput.getChannel().size();
-                    // if you manage to record over 32 GB of track data (in RAM) on a mobile device,
-                    // which means non-stop recording over many many years,
-                    // you deserve the problem you are going to get when the integer overflows in the next line.
-                    int records = (int) ((size - 4) / TrackPoint.RECORD_SIZE);
-
-                    loaded.ensureCapacity(records);
-                    if (in.readInt() != TrackPoint.FORMAT_VERSION) {
+                    int headerSize;
+                    int version = in.readInt();
+                    if (version == SAVEFILE_FORMAT_VERSION) {
+                        headerSize = SAVEFILE_HEADER_SIZE;
+                        loadedBase = in.readInt();
+                    } else if (version == TrackPoint.FORMAT_VERSION) {
+                        // previous format without chunk file
+                        headerSize = 4;
+                        loadedBase = 0;
+                    } else {
                         Log.e(DEBUG_TAG, "cannot load track, incompatible data format");
+                        loadedBase = sealed;
                         return false;
                     }
+                    // the save file only holds the points that haven't been sealed yet, for files in the previous
+                    // format this will be converted on the next save
+                    int records = (int) ((size - headerSize) / TrackPoint.RECORD_SIZE);
 
+                    loaded.ensureCapacity(records);
                     for (int i = 0; i < records; i++) {
                         loaded.add(TrackPoint.fromStream(in));
                     }
 
-                    if ((size - 4) % TrackPoint.RECORD_SIZE != 0) {
+                    if ((size - headerSize) % TrackPoint.RECORD_SIZE != 0) {
                         Log.e(DEBUG_TAG, "track file contains partial record");
                         return false;
                     }
@@ -398,28 +505,13 @@ public class Track extends DefaultHandler implements GpxTimeFormater, Exportable
                     return true;
                 } catch (FileNotFoundException e) {
                     Log.i(DEBUG_TAG, "No saved track");
+                    loadedBase = sealed;
                     return false;
                 } catch (Exception e) {
                     Log.e(DEBUG_TAG, "failed to (completely) load track", e);
                     return false;
                 }
             }
-
-            /**
-             * Saves the given data to disk, overwriting anything already saved
-             */
-            private void rewriteSaveFile(Iterable<TrackPoint> data) {
-                try (FileOutputStream fileOutput = ctx.openFileOutput(SAVEFILE, Context.MODE_PRIVATE);
-                        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOutput));) {
-                    out.writeInt(TrackPoint.FORMAT_VERSION);
-                    for (TrackPoint point : data) {
-                        point.toStream(out);
-                    }
-                } catch (Exception e) {
-                    markSavingBroken("Failed to rewrite broken save file", e);
-                }
-            }
-
         }.execute();
     }
 
@@ -0,0 +1,805 @@
+package de.blau.android.gpx;
+
+import static de.blau.android.contract.Constants.LOG_TAG_LEN;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import de.blau.android.osm.BoundingBox;
+import de.blau.android.util.collections.LongPrimitiveList;
+
+/**
+ * Compact storage for TrackPoints
+ * 
+ * Points are stored in sealed chunks of {@link #CHUNK_SIZE} points plus a small unsealed tail of recently added points.
+ * Each chunk has a header with its length and bounding box followed by the columns of the points: the flags, and zig
+ * zag varint encoded deltas of the latitudes and longitudes (1E7 degrees), times (ms) and altitudes (mm). Chunks can be
+ * decoded independently of each other and are only decoded when they are accessed, a small number of decoded chunks
+ * is cached.
+ * 
+ * The chunks are either held in memory or, for recording, in a file that is only ever appended to and is memory
+ * mapped for reading. Making the tail persistent is the responsibility of the caller.
+ * 
+ * The bounding box of a chunk includes the last point of the previous chunk, so that the segment connecting the two
+ * is found by {@link #getTrackPoints(BoundingBox)}.
+ * 
+ * For rendering at low zoom levels each sealed chunk additionally has a simplified representation: the points are
+ * ranked by the tolerance at which Douglas-Peucker simplification would drop them, and only the points that are
+ * significant above {@link #MIN_TOLERANCE} are kept in memory. This is computed once when a chunk is sealed or the
+ * chunk file is opened, the unsealed tail is never simplified.
+ */
+public class TrackStore extends AbstractList<TrackPoint> {
+
+    private static final int    TAG_LEN   = Math.min(LOG_TAG_LEN, TrackStore.class.getSimpleName().length());
+    private static final String DEBUG_TAG = TrackStore.class.getSimpleName().substring(0, TAG_LEN);
+
+    static final int CHUNK_SIZE = 256;
+
+    private static final int FORMAT_VERSION    = 1;
+    private static final int FILE_HEADER_SIZE  = 4;
+    private static final int CHUNK_HEADER_SIZE = 6 * 4;
+    private static final int MAX_CACHED_CHUNKS = 32;
+
+    /**
+     * Smallest tolerance in 1E7 degrees that the simplified chunks support, roughly a pixel at zoom 15, for smaller
+     * values the full chunks are used
+     */
+    static final float MIN_TOLERANCE = 400f;
+
+    /**
+     * Internal flag, set if the point has an altitude value
+     */
+    private static final byte FLAG_ALTITUDE = 0x40;
+
+    private final File    file;
+    private final boolean autoSeal;
+
+    private ByteBuffer data;
+    private byte[]     memory;
+    private int        memoryLength = 0;
+
+    private final LongPrimitiveList offsets    = new LongPrimitiveList();
+    private final List<BoundingBox> chunkBoxes = new ArrayList<>();
+    private final List<TrackPoint>  tail       = new ArrayList<>();
+    private final List<Simplified>  simplified = new ArrayList<>();
+
+    /**
+     * The significant points of a chunk
+     */
+    private static final class Simplified {
+        final TrackPoint[] points;
+        final float[]      tolerances;
+
+        /**
+         * Construct a new instance
+         * 
+         * @param points the retained points
+         * @param tolerances the tolerance up to which each point is retained
+         */
+        Simplified(@NonNull TrackPoint[] points, @NonNull float[] tolerances) {
+            this.points = points;
+            this.tolerances = tolerances;
+        }
+
+        /**
+         * Get the last point of the chunk
+         * 
+         * @return the TrackPoint
+         */
+        @NonNull
+        TrackPoint last() {
+            return points[points.length - 1];
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private final Map<Integer, List<TrackPoint>> cache = new LinkedHashMap<Integer, List<TrackPoint>>(MAX_CACHED_CHUNKS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, List<TrackPoint>> eldest) {
+            return size() > MAX_CACHED_CHUNKS;
+        }
+    };
+
+    /**
+     * Construct a new in memory store, chunks are sealed automatically
+     */
+    public TrackStore() {
+        this.file = null;
+        this.autoSeal = true;
+    }
+
+    /**
+     * Construct a new store backed by a file
+     * 
+     * The file is not accessed before {@link #open()} is called, chunks have to be sealed explicitly with
+     * {@link #seal()}
+     * 
+     * @param file the File holding the sealed chunks
+     */
+    public TrackStore(@NonNull File file) {
+        this.file = file;
+        this.autoSeal = false;
+    }
+
+    /**
+     * Read the chunk index from the file, truncating any partially written chunk
+     * 
+     * @return the number of points in sealed chunks
+     * @throws IOException if the file couldn't be read
+     */
+    public synchronized int open() throws IOException {
+        if (file == null) {
+            throw new IllegalStateException("Not a file backed store");
+        }
+        resetIndex();
+        if (!file.exists() || file.length() < FILE_HEADER_SIZE) {
+            create();
+            return 0;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt(0) != FORMAT_VERSION) {
+                Log.e(DEBUG_TAG, "Incompatible chunk file format, discarding");
+                raf.setLength(0);
+                raf.writeInt(FORMAT_VERSION);
+                return 0;
+            }
+            int pos = FILE_HEADER_SIZE;
+            int size = buffer.capacity();
+            while (pos + CHUNK_HEADER_SIZE <= size) {
+                int length = buffer.getInt(pos);
+                int count = buffer.getInt(pos + 4);
+                if (count != CHUNK_SIZE || length < 0 || pos + CHUNK_HEADER_SIZE + length > size) {
+                    break;
+                }
+                offsets.add(pos);
+                simplified.add(simplify(decode(buffer, pos)));
+                chunkBoxes.add(new BoundingBox(buffer.getInt(pos + 8), buffer.getInt(pos + 12), buffer.getInt(pos + 16), buffer.getInt(pos + 20)));
+                pos += CHUNK_HEADER_SIZE + length;
+            }
+            if (pos < size) {
+                Log.w(DEBUG_TAG, "Truncating partially written chunk at " + pos);
+                raf.setLength(pos);
+                data = null;
+            } else {
+                data = buffer;
+            }
+        }
+        return getSealedSize();
+    }
+
+    /**
+     * Create an empty chunk file
+     * 
+     * @throws IOException if writing failed
+     */
+    private void create() throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(ByteBuffer.allocate(FILE_HEADER_SIZE).putInt(FORMAT_VERSION).array());
+        }
+        data = null;
+    }
+
+    /**
+     * Clear the index and any cached data
+     */
+    private void resetIndex() {
+        offsets.clear();
+        chunkBoxes.clear();
+        simplified.clear();
+        cache.clear();
+        data = null;
+    }
+
+    @Override
+    public synchronized TrackPoint get(int index) {
+        int sealedSize = getSealedSize();
+        if (index >= sealedSize) {
+            return tail.get(index - sealedSize);
+        }
+        if (index < 0) {
+            throw new IndexOutOfBoundsException(Integer.toString(index));
+        }
+        return getChunk(index / CHUNK_SIZE).get(index % CHUNK_SIZE);
+    }
+
+    @Override
+    public synchronized int size() {
+        return getSealedSize() + tail.size();
+    }
+
+    @Override
+    public synchronized boolean add(TrackPoint point) {
+        tail.add(point);
+        if (autoSeal && tail.size() >= CHUNK_SIZE) {
+            try {
+                seal();
+            } catch (IOException e) {
+                // can't happen for in memory storage
+                Log.e(DEBUG_TAG, "Sealing failed " + e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void clear() {
+        resetIndex();
+        tail.clear();
+        memory = null;
+        memoryLength = 0;
+        if (file != null && file.exists()) {
+            try {
+                create();
+            } catch (IOException e) {
+                Log.e(DEBUG_TAG, "Failed to truncate chunk file " + e.getMessage());
+            }
+        }
+        modCount++;
+    }
+
+    /**
+     * Insert points in front of the unsealed tail
+     * 
+     * @param points the TrackPoints to insert
+     */
+    public synchronized void addUnsealed(@NonNull List<TrackPoint> points) {
+        tail.addAll(0, points);
+        modCount++;
+    }
+
+    /**
+     * Get the number of points in sealed chunks
+     * 
+     * @return the number of sealed points
+     */
+    public synchronized int getSealedSize() {
+        return offsets.size() * CHUNK_SIZE;
+    }
+
+    /**
+     * Get a copy of the unsealed points
+     * 
+     * @return a List of TrackPoint
+     */
+    @NonNull
+    public synchronized List<TrackPoint> getUnsealed() {
+        return new ArrayList<>(tail);
+    }
+
+    /**
+     * Seal as many complete chunks from the tail as possible
+     * 
+     * @return true if at least one chunk was sealed
+     * @throws IOException if writing to the chunk file failed
+     */
+    public synchronized boolean seal() throws IOException {
+        if (tail.size() < CHUNK_SIZE) {
+            return false;
+        }
+        TrackPoint previous = offsets.size() > 0 ? lastSealed() : null;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        List<BoundingBox> boxes = new ArrayList<>();
+        int sealed = 0;
+        while (tail.size() - sealed >= CHUNK_SIZE) {
+            List<TrackPoint> points = tail.subList(sealed, sealed + CHUNK_SIZE);
+            boxes.add(encode(out, previous, points));
+            previous = points.get(CHUNK_SIZE - 1);
+            sealed += CHUNK_SIZE;
+        }
+        byte[] encoded = out.toByteArray();
+        long start = append(encoded);
+        int pos = 0;
+        ByteBuffer buffer = ByteBuffer.wrap(encoded);
+        for (BoundingBox box : boxes) {
+            offsets.add(start + pos);
+            chunkBoxes.add(box);
+            simplified.add(simplify(decode(buffer, pos)));
+            pos += CHUNK_HEADER_SIZE + buffer.getInt(pos);
+        }
+        tail.subList(0, sealed).clear();
+        return true;
+    }
+
+    /**
+     * Get the last point of the last sealed chunk
+     * 
+     * @return the TrackPoint
+     */
+    @NonNull
+    private TrackPoint lastSealed() {
+        return simplified.get(simplified.size() - 1).last();
+    }
+
+    /**
+     * Append encoded chunks to the storage
+     * 
+     * @param encoded the encoded chunks
+     * @return the offset the chunks were written at
+     * @throws IOException if writing failed
+     */
+    private long append(@NonNull byte[] encoded) throws IOException {
+        if (file == null) {
+            if (memory == null) {
+                memory = new byte[Math.max(encoded.length * 4, 4096)];
+            } else if (memoryLength + encoded.length > memory.length) {
+                byte[] temp = new byte[Math.max(memory.length * 2, memoryLength + encoded.length)];
+                System.arraycopy(memory, 0, temp, 0, memoryLength);
+                memory = temp;
+            }
+            System.arraycopy(encoded, 0, memory, memoryLength, encoded.length);
+            long start = memoryLength;
+            memoryLength += encoded.length;
+            data = null;
+            return start;
+        }
+        long start = file.length();
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(encoded);
+            out.getFD().sync();
+        }
+        data = null;
+        return start;
+    }
+
+    /**
+     * Get a buffer for the sealed chunks, mapping the file if necessary
+     * 
+     * @return a ByteBuffer
+     */
+    @NonNull
+    private ByteBuffer getData() {
+        if (data == null) {
+            if (file == null) {
+                data = ByteBuffer.wrap(memory, 0, memoryLength);
+            } else {
+                try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+                    data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                } catch (IOException e) {
+                    throw new IllegalStateException("Chunk file not readable " + e.getMessage());
+                }
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Get the decoded points of a sealed chunk
+     * 
+     * @param chunk the index of the chunk
+     * @return a List of TrackPoint
+     */
+    @NonNull
+    private List<TrackPoint> getChunk(int chunk) {
+        List<TrackPoint> points = cache.get(chunk);
+        if (points == null) {
+            points = decode(getData(), (int) offsets.get(chunk));
+            cache.put(chunk, points);
+        }
+        return points;
+    }
+
+    /**
+     * Get the TrackPoints in the area covered by a BoundingBox
+     * 
+     * Consecutive chunks intersecting the box are returned as runs, each run starts with the last point of the chunk
+     * before it if there is one. The unsealed tail is always included.
+     * 
+     * @param box the BoundingBox
+     * @return a List of runs of TrackPoints
+     */
+    @NonNull
+    public List<List<TrackPoint>> getTrackPoints(@NonNull BoundingBox box) {
+        return getTrackPoints(box, 0f);
+    }
+
+    /**
+     * Get the TrackPoints in the area covered by a BoundingBox, simplified for display
+     * 
+     * Works like {@link #getTrackPoints(BoundingBox)}, but sealed chunks are simplified so that no point deviates more
+     * than tolerance from the returned line.
+     * 
+     * @param box the BoundingBox
+     * @param tolerance the maximum deviation in 1E7 degrees, if smaller than {@link #MIN_TOLERANCE} the points are not
+     *            simplified
+     * @return a List of runs of TrackPoints
+     */
+    @NonNull
+    public synchronized List<List<TrackPoint>> getTrackPoints(@NonNull BoundingBox box, float tolerance) {
+        final boolean simplify = tolerance >= MIN_TOLERANCE;
+        List<List<TrackPoint>> result = new ArrayList<>();
+        List<TrackPoint> run = null;
+        int chunks = offsets.size();
+        for (int i = 0; i < chunks; i++) {
+            if (!box.intersects(chunkBoxes.get(i))) {
+                run = null;
+                continue;
+            }
+            if (run == null) {
+                run = new ArrayList<>();
+                result.add(run);
+                if (i > 0) {
+                    run.add(simplified.get(i - 1).last());
+                }
+            }
+            if (simplify) {
+                Simplified s = simplified.get(i);
+                for (int j = 0; j < s.points.length; j++) {
+                    if (s.tolerances[j] >= tolerance) {
+                        run.add(s.points[j]);
+                    }
+                }
+            } else {
+                run.addAll(getChunk(i));
+            }
+        }
+        if (!tail.isEmpty()) {
+            if (run == null) {
+                run = new ArrayList<>();
+                result.add(run);
+                if (chunks > 0) {
+                    run.add(lastSealed());
+                }
+            }
+            run.addAll(tail);
+        }
+        return result;
+    }
+
+    /**
+     * Get the bounding box of all points
+     * 
+     * @return a BoundingBox or null if the store is empty
+     */
+    @Nullable
+    public synchronized BoundingBox getBounds() {
+        BoundingBox result = null;
+        for (BoundingBox box : chunkBoxes) {
+            if (result == null) {
+                result = new BoundingBox(box);
+            } else {
+                result.union(box);
+            }
+        }
+        for (TrackPoint point : tail) {
+            if (result == null) {
+                result = new BoundingBox(point.getLon(), point.getLat());
+            } else {
+                result.union(point.getLon(), point.getLat());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Iterate over the points chunk by chunk without going through the cache
+     */
+    @Override
+    public Iterator<TrackPoint> iterator() {
+        return new Iterator<TrackPoint>() {
+            int              index = 0;
+            List<TrackPoint> chunk = null;
+
+            @Override
+            public boolean hasNext() {
+                return index < size();
+            }
+
+            @Override
+            public TrackPoint next() {
+                synchronized (TrackStore.this) {
+                    if (index >= size()) {
+                        throw new NoSuchElementException();
+                    }
+                    int sealedSize = getSealedSize();
+                    TrackPoint result;
+                    if (index >= sealedSize) {
+                        result = tail.get(index - sealedSize);
+                    } else {
+                        int offset = index % CHUNK_SIZE;
+                        if (offset == 0 || chunk == null) {
+                            int c = index / CHUNK_SIZE;
+                            chunk = cache.get(c);
+                            if (chunk == null) {
+                                chunk = decode(getData(), (int) offsets.get(c));
+                            }
+                        }
+                        result = chunk.get(offset);
+                    }
+                    index++;
+                    return result;
+                }
+            }
+        };
+    }
+
+    /**
+     * Encode a chunk
+     * 
+     * @param out the stream to write to
+     * @param previous the last point of the previous chunk or null
+     * @param points the points of the chunk
+     * @return the bounding box of the chunk
+     */
+    @NonNull
+    private static BoundingBox encode(@NonNull ByteArrayOutputStream out, @Nullable TrackPoint previous, @NonNull List<TrackPoint> points) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(points.size() * 8);
+        BoundingBox box = previous != null ? new BoundingBox(toE7(previous.longitude), toE7(previous.latitude)) : null;
+        for (TrackPoint p : points) {
+            byte flags = (byte) (p.flags & ~FLAG_ALTITUDE);
+            if (!Double.isNaN(p.altitude)) {
+                flags |= FLAG_ALTITUDE;
+            }
+            body.write(flags);
+        }
+        int prevLat = 0;
+        int prevLon = 0;
+        for (TrackPoint p : points) {
+            int lat = toE7(p.latitude);
+            int lon = toE7(p.longitude);
+            writeVarLong(body, zigZag((long) lat - prevLat));
+            writeVarLong(body, zigZag((long) lon - prevLon));
+            prevLat = lat;
+            prevLon = lon;
+            if (box == null) {
+                box = new BoundingBox(lon, lat);
+            } else {
+                box.union(lon, lat);
+            }
+        }
+        long prevTime = 0;
+        for (TrackPoint p : points) {
+            writeVarLong(body, zigZag(p.time - prevTime));
+            prevTime = p.time;
+        }
+        long prevAltitude = 0;
+        for (TrackPoint p : points) {
+            if (!Double.isNaN(p.altitude)) {
+                long altitude = Math.round(p.altitude * 1000);
+                writeVarLong(body, zigZag(altitude - prevAltitude));
+                prevAltitude = altitude;
+            }
+        }
+        ByteBuffer header = ByteBuffer.allocate(CHUNK_HEADER_SIZE);
+        header.putInt(body.size()).putInt(points.size());
+        header.putInt(box.getLeft()).putInt(box.getBottom()).putInt(box.getRight()).putInt(box.getTop());
+        out.write(header.array(), 0, CHUNK_HEADER_SIZE);
+        out.write(body.toByteArray(), 0, body.size());
+        return box;
+    }
+
+    /**
+     * Decode a chunk
+     * 
+     * @param buffer the buffer holding the chunk
+     * @param offset the offset of the chunk header
+     * @return a List of TrackPoint
+     */
+    @NonNull
+    private static List<TrackPoint> decode(@NonNull ByteBuffer buffer, int offset) {
+        ByteBuffer b = buffer.duplicate();
+        int count = b.getInt(offset + 4);
+        b.position(offset + CHUNK_HEADER_SIZE);
+        byte[] flags = new byte[count];
+        b.get(flags);
+        int[] lats = new int[count];
+        int[] lons = new int[count];
+        int lat = 0;
+        int lon = 0;
+        for (int i = 0; i < count; i++) {
+            lat += (int) unZigZag(readVarLong(b));
+            lon += (int) unZigZag(readVarLong(b));
+            lats[i] = lat;
+            lons[i] = lon;
+        }
+        long[] times = new long[count];
+        long time = 0;
+        for (int i = 0; i < count; i++) {
+            time += unZigZag(readVarLong(b));
+            times[i] = time;
+        }
+        List<TrackPoint> result = new ArrayList<>(count);
+        long altitude = 0;
+        for (int i = 0; i < count; i++) {
+            double a = Double.NaN;
+            if ((flags[i] & FLAG_ALTITUDE) != 0) {
+                altitude += unZigZag(readVarLong(b));
+                a = altitude / 1000D;
+            }
+            result.add(new TrackPoint((byte) (flags[i] & ~FLAG_ALTITUDE), lats[i] / 1E7D, lons[i] / 1E7D, a, times[i]));
+        }
+        return result;
+    }
+
+    /**
+     * Rank the points of a chunk by significance and retain those that are needed for tolerances of at least
+     * {@link #MIN_TOLERANCE}
+     * 
+     * The first and last points of the chunk and the points at segment boundaries are always retained.
+     * 
+     * @param points the points of the chunk
+     * @return a Simplified instance
+     */
+    @NonNull
+    private static Simplified simplify(@NonNull List<TrackPoint> points) {
+        final int count = points.size();
+        // project to something roughly proportional to screen coordinates in the area of the chunk
+        double yScale = 1 / Math.max(0.01, Math.cos(Math.toRadians(points.get(0).latitude)));
+        double[] x = new double[count];
+        double[] y = new double[count];
+        for (int i = 0; i < count; i++) {
+            TrackPoint p = points.get(i);
+            x[i] = p.longitude * 1E7;
+            y[i] = p.latitude * 1E7 * yScale;
+        }
+        float[] tolerances = new float[count];
+        tolerances[0] = Float.MAX_VALUE;
+        tolerances[count - 1] = Float.MAX_VALUE;
+        int start = 0;
+        for (int i = 1; i < count; i++) {
+            if (points.get(i).isNewSegment()) {
+                tolerances[i - 1] = Float.MAX_VALUE;
+                tolerances[i] = Float.MAX_VALUE;
+                rank(x, y, start, i - 1, tolerances);
+                start = i;
+            }
+        }
+        rank(x, y, start, count - 1, tolerances);
+        int retained = 0;
+        for (float t : tolerances) {
+            if (t >= MIN_TOLERANCE) {
+                retained++;
+            }
+        }
+        TrackPoint[] resultPoints = new TrackPoint[retained];
+        float[] resultTolerances = new float[retained];
+        int j = 0;
+        for (int i = 0; i < count; i++) {
+            if (tolerances[i] >= MIN_TOLERANCE) {
+                resultPoints[j] = points.get(i);
+                resultTolerances[j] = tolerances[i];
+                j++;
+            }
+        }
+        return new Simplified(resultPoints, resultTolerances);
+    }
+
+    /**
+     * Douglas-Peucker simplification that doesn't drop points but records the largest tolerance at which each point
+     * would still be retained
+     * 
+     * @param x the x coordinates
+     * @param y the y coordinates
+     * @param first index of the first point
+     * @param last index of the last point
+     * @param tolerances output array
+     */
+    private static void rank(@NonNull double[] x, @NonNull double[] y, int first, int last, @NonNull float[] tolerances) {
+        if (last - first < 2) {
+            return;
+        }
+        int[] stack = new int[2 * (last - first + 1)];
+        int top = 0;
+        stack[top++] = first;
+        stack[top++] = last;
+        while (top > 0) {
+            int end = stack[--top];
+            int begin = stack[--top];
+            if (end - begin < 2) {
+                continue;
+            }
+            double max = -1;
+            int index = begin + 1;
+            for (int i = begin + 1; i < end; i++) {
+                double d = distanceToSegment(x[i], y[i], x[begin], y[begin], x[end], y[end]);
+                if (d > max) {
+                    max = d;
+                    index = i;
+                }
+            }
+            // a point can't be more significant than the points that split the line before it
+            float limit = Math.min(tolerances[begin], tolerances[end]);
+            tolerances[index] = Math.min((float) max, limit);
+            stack[top++] = begin;
+            stack[top++] = index;
+            stack[top++] = index;
+            stack[top++] = end;
+        }
+    }
+
+    /**
+     * Calculate the distance of a point from a line segment
+     * 
+     * @param px x coordinate of the point
+     * @param py y coordinate of the point
+     * @param x1 x coordinate of the start of the segment
+     * @param y1 y coordinate of the start of the segment
+     * @param x2 x coordinate of the end of the segment
+     * @param y2 y coordinate of the end of the segment
+     * @return the distance
+     */
+    private static double distanceToSegment(double px, double py, double x1, double y1, double x2, double y2) {
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, ((px - x1) * dx + (py - y1) * dy) / lengthSquared));
+        return Math.hypot(px - (x1 + t * dx), py - (y1 + t * dy));
+    }
+
+    /**
+     * Convert a coordinate to 1E7 degrees
+     * 
+     * @param value the coordinate in degrees
+     * @return the coordinate in 1E7 degrees
+     */
+    private static int toE7(double value) {
+        return (int) Math.round(value * 1E7);
+    }
+
+    /**
+     * Zig zag encode a value so that small negative values result in small positive values
+     * 
+     * @param value the value
+     * @return the encoded value
+     */
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Reverse zig zag encoding
+     * 
+     * @param value the encoded value
+     * @return the original value
+     */
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Write a value as a varint with 7 bits per byte
+     * 
+     * @param out the stream to write to
+     * @param value the value
+     */
+    private static void writeVarLong(@NonNull ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * Read a varint
+     * 
+     * @param buffer the buffer to read from
+     * @return the value
+     */
+    private static long readVarLong(@NonNull ByteBuffer buffer) {
+        long result = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            result |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return result;
+    }
+}
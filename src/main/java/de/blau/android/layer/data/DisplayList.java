@@ -0,0 +1,284 @@
+package de.blau.android.layer.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import de.blau.android.filter.Filter;
+import de.blau.android.osm.BoundingBox;
+import de.blau.android.osm.Node;
+import de.blau.android.osm.Relation;
+import de.blau.android.osm.Storage;
+import de.blau.android.osm.Tags;
+import de.blau.android.osm.ViewBox;
+import de.blau.android.osm.Way;
+
+/**
+ * Immutable list of the elements the data layer needs to render for an area
+ * 
+ * Building this involves retrieving the elements from storage, running the filter, collecting parent relations and
+ * sorting the ways, none of which needs to happen on the UI thread. As long as the data, the filter and the selection
+ * have not changed and the current ViewBox is covered, the same DisplayList can be replayed for every frame, after
+ * changes it can still be drawn until a new one is available.
+ */
+final class DisplayList {
+
+    /**
+     * Factor the sides of the covered area are larger than the ViewBox it was built for
+     */
+    static final double MARGIN_FACTOR = 2.0;
+
+    /**
+     * If the ViewBox is smaller than 1/MAX_OVERSIZE of the covered area the list is considered unsuitable
+     */
+    static final int MAX_OVERSIZE = 4;
+
+    private final BoundingBox box;
+    private final long        modificationCount;
+    private final Filter      filter;
+    private final int         filterGeneration;
+    private final int         selectionHash;
+    private final boolean     inEditRange;
+
+    private final List<Node>     nodes;
+    private final boolean[]      nodeIncluded;
+    private final List<Way>      ways;
+    private final List<Way>      hiddenWays;
+    private final Set<Relation>  relations;
+    private final List<Relation> areaRelations;
+    private final List<Relation> restrictions;
+
+    /**
+     * Build a new DisplayList
+     * 
+     * The caller is responsible for holding the StorageDelegator lock while this executes
+     * 
+     * @param storage the Storage to retrieve the elements from
+     * @param viewBox the ViewBox we want to display
+     * @param modificationCount the modification count of the StorageDelegator at the time the build was requested
+     * @param filter the current Filter or null
+     * @param selectedNodes a copy of the currently selected Nodes or null
+     * @param selectedWays a copy of the currently selected Ways or null
+     * @param inEditRange true if we are zoomed in to edit range
+     */
+    DisplayList(@NonNull Storage storage, @NonNull ViewBox viewBox, long modificationCount, @Nullable Filter filter, @Nullable List<Node> selectedNodes,
+            @Nullable List<Way> selectedWays, boolean inEditRange) {
+        this.modificationCount = modificationCount;
+        this.filter = filter;
+        this.filterGeneration = filter != null ? filter.getCacheGeneration() : 0;
+        this.selectionHash = selectionHash(selectedNodes, selectedWays);
+        this.inEditRange = inEditRange;
+
+        ViewBox coverage = new ViewBox(viewBox);
+        coverage.scale(MARGIN_FACTOR);
+        box = new BoundingBox(coverage);
+
+        List<Node> tempNodes = new ArrayList<>();
+        List<Way> tempWays = new ArrayList<>();
+        storage.getNodes(box, tempNodes);
+        storage.getWays(box, tempWays);
+
+        // the following should guarantee that if a selected node is off screen but the handle not, the handle gets
+        // drawn
+        if (selectedNodes != null) {
+            for (Node n : selectedNodes) {
+                if (!box.isIn(n.getLon(), n.getLat())) {
+                    tempNodes.add(n);
+                }
+            }
+        }
+        nodes = Collections.unmodifiableList(tempNodes);
+
+        final boolean filterMode = filter != null;
+        List<Way> tempStyledWays = tempWays;
+        List<Way> tempHiddenWays = new ArrayList<>();
+        if (filterMode) {
+            Set<Node> selectedNodeSet = toSet(selectedNodes);
+            nodeIncluded = new boolean[tempNodes.size()];
+            for (int i = 0; i < nodeIncluded.length; i++) {
+                Node n = tempNodes.get(i);
+                nodeIncluded[i] = filter.include(n, selectedNodeSet.contains(n));
+            }
+            Set<Way> selectedWaySet = toSet(selectedWays);
+            tempStyledWays = new ArrayList<>();
+            for (Way w : tempWays) {
+                if (filter.include(w, inEditRange && selectedWaySet.contains(w))) {
+                    tempStyledWays.add(w);
+                } else {
+                    tempHiddenWays.add(w);
+                }
+            }
+        } else {
+            nodeIncluded = null;
+        }
+        Collections.sort(tempStyledWays, new MapOverlay.LayerComparator());
+        ways = Collections.unmodifiableList(tempStyledWays);
+        hiddenWays = Collections.unmodifiableList(tempHiddenWays);
+
+        // get relations for all nodes and ways
+        Set<Relation> tempRelations = new HashSet<>();
+        for (Node n : tempNodes) {
+            addRelations(filter, n.getParentRelations(), tempRelations);
+        }
+        for (Way w : tempWays) {
+            addRelations(filter, w.getParentRelations(), tempRelations);
+        }
+        relations = Collections.unmodifiableSet(tempRelations);
+
+        List<Relation> tempAreaRelations = new ArrayList<>();
+        List<Relation> tempRestrictions = new ArrayList<>();
+        for (Relation rel : tempRelations) {
+            String relType = rel.getTagWithKey(Tags.KEY_TYPE);
+            if (Tags.VALUE_MULTIPOLYGON.equals(relType) || Tags.VALUE_BOUNDARY.equals(relType)) {
+                tempAreaRelations.add(rel);
+            } else if (Tags.VALUE_RESTRICTION.equals(relType)) {
+                tempRestrictions.add(rel);
+            }
+        }
+        areaRelations = Collections.unmodifiableList(tempAreaRelations);
+        restrictions = Collections.unmodifiableList(tempRestrictions);
+    }
+
+    /**
+     * Create a Set from a List for fast lookups
+     * 
+     * @param <T> the element type
+     * @param list the List or null
+     * @return a Set with the elements of the List, empty if the List was null
+     */
+    @NonNull
+    static <T> Set<T> toSet(@Nullable List<T> list) {
+        return list != null ? new HashSet<>(list) : Collections.emptySet();
+    }
+
+    /**
+     * Add relations to the set of relations to paint
+     * 
+     * @param filter the current Filter or null
+     * @param rels the new relations
+     * @param toPaint Set of relations to paint
+     */
+    static void addRelations(@Nullable Filter filter, @Nullable final List<Relation> rels, @NonNull final Set<Relation> toPaint) {
+        if (rels != null) {
+            if (filter == null) {
+                toPaint.addAll(rels);
+            } else {
+                for (Relation rel : rels) {
+                    if (filter.include(rel, false)) {
+                        toPaint.add(rel);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Calculate a hash value for the selection
+     * 
+     * @param selectedNodes the currently selected Nodes or null
+     * @param selectedWays the currently selected Ways or null
+     * @return a hash value
+     */
+    static int selectionHash(@Nullable List<Node> selectedNodes, @Nullable List<Way> selectedWays) {
+        return Objects.hash(selectedNodes, selectedWays);
+    }
+
+    /**
+     * Check if this was built for the current state of the data, filter and selection
+     * 
+     * @param modificationCount the current modification count of the StorageDelegator
+     * @param filter the current Filter or null
+     * @param selectionHash the hash of the current selection
+     * @param inEditRange true if we are zoomed in to edit range
+     * @return true if this DisplayList is up to date
+     */
+    boolean isCurrent(long modificationCount, @Nullable Filter filter, int selectionHash, boolean inEditRange) {
+        return this.modificationCount == modificationCount && this.filter == filter && this.selectionHash == selectionHash
+                && (filter == null || (this.filterGeneration == filter.getCacheGeneration() && this.inEditRange == inEditRange));
+    }
+
+    /**
+     * Check if the area this was built for covers the ViewBox and isn't excessively larger
+     * 
+     * @param viewBox the ViewBox
+     * @return true if the ViewBox is covered
+     */
+    boolean covers(@NonNull BoundingBox viewBox) {
+        return box.contains(viewBox) && box.getWidth() <= viewBox.getWidth() * MAX_OVERSIZE && box.getHeight() <= (long) viewBox.getHeight() * MAX_OVERSIZE;
+    }
+
+    /**
+     * Get the Nodes to display
+     * 
+     * @return an unmodifiable List of Node
+     */
+    @NonNull
+    List<Node> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Check if the Node at the position is included by the filter
+     * 
+     * @param index the position of the Node in the list returned by {@link #getNodes()}
+     * @return true if there is no filter or the Node is included
+     */
+    boolean isIncluded(int index) {
+        return nodeIncluded == null || nodeIncluded[index];
+    }
+
+    /**
+     * Get the Ways to display with their normal style
+     * 
+     * @return an unmodifiable List of Way sorted by layer and size
+     */
+    @NonNull
+    List<Way> getWays() {
+        return ways;
+    }
+
+    /**
+     * Get the Ways that have been hidden by the filter
+     * 
+     * @return an unmodifiable List of Way
+     */
+    @NonNull
+    List<Way> getHiddenWays() {
+        return hiddenWays;
+    }
+
+    /**
+     * Get all Relations that have at least one member in the list
+     * 
+     * @return an unmodifiable Set of Relation
+     */
+    @NonNull
+    Set<Relation> getRelations() {
+        return relations;
+    }
+
+    /**
+     * Get the multipolygon and boundary Relations
+     * 
+     * @return an unmodifiable List of Relation
+     */
+    @NonNull
+    List<Relation> getAreaRelations() {
+        return areaRelations;
+    }
+
+    /**
+     * Get the turn restriction Relations
+     * 
+     * @return an unmodifiable List of Relation
+     */
+    @NonNull
+    List<Relation> getRestrictions() {
+        return restrictions;
+    }
+}
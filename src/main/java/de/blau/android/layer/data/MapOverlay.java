@@ -1,7 +1,6 @@
 package de.blau.android.layer.data;
 
 import static de.blau.android.contract.Constants.LOG_TAG_LEN;
-import static de.blau.android.util.Winding.CLOCKWISE;
 import static de.blau.android.util.Winding.COUNTERCLOCKWISE;
 import static de.blau.android.util.Winding.winding;
 
@@ -15,16 +14,15 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.WeakHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import android.annotation.SuppressLint;
 import android.annotation.TargetApi;
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.Bitmap.Config;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Paint.FontMetrics;
@@ -37,7 +35,6 @@ import android.os.Handler;
 import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import androidx.core.util.Pools.SimplePool;
 import androidx.fragment.app.FragmentActivity;
 import de.blau.android.App;
 import de.blau.android.AsyncResult;
@@ -59,14 +56,14 @@ import de.blau.android.layer.MapViewLayer;
 import de.blau.android.layer.PruneableInterface;
 import de.blau.android.layer.UpdateInterface;
 import de.blau.android.osm.BoundingBox;
+import de.blau.android.osm.MultipolygonCache;
 import de.blau.android.osm.Node;
 import de.blau.android.osm.OsmElement;
 import de.blau.android.osm.PostMergeHandler;
+import de.blau.android.osm.PruneEngine;
 import de.blau.android.osm.Relation;
 import de.blau.android.osm.RelationMember;
-import de.blau.android.osm.RelationUtils;
 import de.blau.android.osm.Server;
-import de.blau.android.osm.Storage;
 import de.blau.android.osm.StorageDelegator;
 import de.blau.android.osm.Tags;
 import de.blau.android.osm.ViewBox;
@@ -84,7 +81,6 @@ import de.blau.android.util.GeoMath;
 import de.blau.android.util.Geometry;
 import de.blau.android.util.Util;
 import de.blau.android.util.collections.FloatPrimitiveList;
-import de.blau.android.util.collections.LinkedList;
 import de.blau.android.util.collections.LongHashSet;
 import de.blau.android.util.collections.LowAllocArrayList;
 import de.blau.android.validation.Validator;
@@ -114,12 +110,12 @@ public class MapOverlay<O extends OsmElement> extends MapViewLayer
     private static final int ICON_SELECTED_BORDER = 2;
     private static final int LABEL_EXTRA          = 40;
 
-    private static final long AUTOPRUNE_MIN_INTERVAL       = 10000; // milli-seconds between
-                                                                    // autoprunes
-    public static final int   DEFAULT_AUTOPRUNE_NODE_LIMIT = 5000;
-    public static final int   DEFAULT_DOWNLOADBOX_LIMIT    = 100;
-    public static final int   PAN_AND_ZOOM_LIMIT           = 17;
-    private static final int  MP_SIZE_LIMIT                = 1000;  // max size of MP to render as
+    private static final long   AUTOPRUNE_MIN_INTERVAL       = 10000; // milli-seconds between
+                                                                      // autoprunes
+    public static final int     DEFAULT_AUTOPRUNE_NODE_LIMIT = 5000;
+    public static final int     DEFAULT_DOWNLOADBOX_LIMIT    = 100;
+    public static final int     PAN_AND_ZOOM_LIMIT           = 17;
+    private static final double PREFETCH_FACTOR              = 1.5;   // rebuild the display list if this isn't covered
 
     /** half the width/height of a node icon in px */
     private final int iconRadius;
@@ -169,30 +165,14 @@ public class MapOverlay<O extends OsmElement> extends MapViewLayer
     private int minDownloadSize = 50;
 
     /**
-     * Stores icons that apply to a certain "thing". This can be e.g. a node or a SortedMap of tags.
+     * Icons, labels, directions and preset matches keyed on element type and tags, plus pre-rendered labels
      */
-    private final WeakHashMap<java.util.Map<String, String>, Bitmap> iconCache = new WeakHashMap<>();
+    private final RenderCache renderCache = new RenderCache();
 
     /**
-     * Stores icons that apply to a certain "thing". This can be e.g. a node or a SortedMap of tags. This stores icons
-     * for areas
+     * The presets the cached matches were determined with
      */
-    private final WeakHashMap<java.util.Map<String, String>, Bitmap> areaIconCache = new WeakHashMap<>();
-
-    /**
-     * Stores strings that apply to a certain "thing". This can be e.g. a node or a SortedMap of tags.
-     */
-    private final WeakHashMap<java.util.Map<String, String>, String> labelCache = new WeakHashMap<>();
-
-    /**
-     * Store direction values in degrees
-     */
-    private final WeakHashMap<java.util.Map<String, String>, Float> directionCache = new WeakHashMap<>();
-
-    /**
-     * Cache for any preset matching during one draw pass
-     */
-    private final HashMap<java.util.Map<String, String>, PresetItem> matchCache = new HashMap<>();
+    private Preset[] renderCachePresets;
 
     /**
      * Stores custom icons
@@ -229,12 +209,6 @@ public class MapOverlay<O extends OsmElement> extends MapViewLayer
      */
     private boolean tmpLocked;
 
-    /**
-     * 
-     */
-    private ArrayList<Way> tmpStyledWays = new ArrayList<>();
-    private ArrayList<Way> tmpHiddenWays = new ArrayList<>();
-
     /** Caches the preset during one onDraw pass */
     private Preset[] tmpPresets;
 
@@ -314,25 +288,25 @@ public class MapOverlay<O extends OsmElement> extends MapViewLayer
 
     private final FloatPrimitiveList points          = new FloatPrimitiveList();     // allocate these just once
     private float[]                  offsettedCasing = new float[100];
-    private final List<Node>         nodesResult     = new LowAllocArrayList<>(1000);
-    private final List<Way>          waysResult      = new LowAllocArrayList<>(1000);
     private final List<BoundingBox>  downloadedBoxes = new LowAllocArrayList<>();
     private final ViewBox            viewBox         = new ViewBox();
+    private final ViewBox            prefetchBox     = new ViewBox();
+    private final BoundingBox        wayBox          = new BoundingBox();
     private final Coordinates        centroid        = new Coordinates(0, 0);
 
     /**
-     * Stuff for multipolygon support Instantiate these objects just once
+     * The elements to draw, built in the background if possible
      */
-    private final List<RelationMember>       waysOnly             = new LowAllocArrayList<>(100);
-    private final LinkedList<RelationMember> tenpMultiPolygonSort = new LinkedList<>();
-    private final List<List<Node>>           outerRings           = new LowAllocArrayList<>();
-    private final List<List<Node>>           innerRings           = new LowAllocArrayList<>();
-    private final List<List<Node>>           unknownRings         = new LowAllocArrayList<>();
-    private final SimplePool<List<Node>>     ringPool             = new SimplePool<>(100);
-    private final List<Node>                 areaNodes            = new LowAllocArrayList<>();   // reversing winding
-                                                                                                 // and
-    // assembling
-    private final Set<Relation> paintRelations = new HashSet<>();
+    private volatile DisplayList displayList;
+    private final AtomicBoolean  displayListPending = new AtomicBoolean(false);
+
+    private final List<Node> areaNodes = new LowAllocArrayList<>(); // reversing winding
+
+    private final Set<Node> selectedNodeSet = new HashSet<>(); // for fast lookups while drawing
+
+    private final List<Node>    visibleNodes     = new LowAllocArrayList<>(); // for the OnUpdateListener
+    private final List<Way>     visibleWays      = new LowAllocArrayList<>();
+    private final Set<Relation> visibleRelations = new HashSet<>();
 
     private OnUpdateListener<O> onUpdateListener;
 
@@ -343,6 +317,7 @@ public class MapOverlay<O extends OsmElement> extends MapViewLayer
 
     private final ThreadPoolExecutor dataThreadPoolExecutor = (ThreadPoolExecutor) Executors.newFixedThreadPool(THREAD_POOL_SIZE);
     private final ThreadPoolExecutor iconThreadPoolExecutor = (ThreadPoolExecutor) Executors.newFixedThreadPool(THREAD_POOL_SIZE);
+    private final ThreadPoolExecutor displayListExecutor    = (ThreadPoolExecutor) Executors.newFixedThreadPool(1);
 
     /**
      * Construct a new OSM data layer
@@ -374,6 +349,8 @@ public class MapOverlay<O extends OsmElement> extends MapViewLayer
     public void onDestroy() {
         Util.shutDownThreadPool(dataThreadPoolExecutor);
         Util.shutDownThreadPool(iconThreadPoolExecutor);
+        Util.shutDownThreadPool(displayListExecutor);
+        displayList = null;
         clearCaches();
         tmpPresets = null;
     }
@@ -429,14 +406,14 @@ public class MapOverlay<O extends OsmElement> extends MapViewLayer
                     logic.removeBoundingBox(b);
                 }
             }
+            final PruneEngine pruneEngine = delegator.getPruneEngine();
+            pruneEngine.viewed(viewBox);
             if (autoPruneEnabled && (System.currentTimeMillis() - lastAutoPrune) > AUTOPRUNE_MIN_INTERVAL
-                    && delegator.reachedPruneLimits(autoPruneNodeLimit, autoDownloadBoxLimit)) {
-                try {
-                    dataThreadPoolExecutor.execute(MapOverlay.this::prune);
-                    lastAutoPrune = System.currentTimeMillis();
-                } catch (RejectedExecutionException rjee) {
-                    Log.e(DEBUG_TAG, "Prune execution rejected " + rjee.getMessage());
-                }
+                    && pruneEngine.pruneNeeded(autoPruneNodeLimit, autoDownloadBoxLimit)) {
+                ViewBox pruneBox = new ViewBox(viewBox);
+                pruneBox.scale(1.6);
+                pruneEngine.schedule(App.getLogic(), pruneBox, autoPruneNodeLimit, autoDownloadBoxLimit);
+                lastAutoPrune = System.currentTimeMillis();
             }
         }
     }
@@ -460,6 +437,10 @@ public class MapOverlay<O extends OsmElement> extends MapViewLayer
         tmpDrawingSelectedRelationWays = logic.getSelectedRelationWays();
         tmpDrawingSelectedRelationNodes = logic.getSelectedRelationNodes();
         tmpPresets = App.getCurrentPresets(context);
+        if (tmpPresets != renderCachePresets) {
+            renderCache.clearPresetDependent();
+            renderCachePresets = tmpPresets;
+        }
         tmpLocked = logic.isLocked();
 
         currentStyle = styles.getCurrent();
@@ -480,13 +461,16 @@ public class MapOverlay<O extends OsmElement> extends MapViewLayer
             download.setBox(viewBox);
             map.getRootView().postDelayed(download, 100);
         }
-        matchCache.clear();
         paintOsmData(canvas);
     }
 
     /**
      * Paints all OSM data on the given canvas.
      * 
+     * The elements to draw are taken from a DisplayList that is rebuilt in the background if the data, filter or
+     * selection has changed, or if we have just moved out of, or are close to the edge of, the area it covers. Until
+     * the new DisplayList is available the previous one is drawn.
+     * 
      * @param canvas Canvas, where the data shall be painted on.
      */
     @SuppressWarnings("unchecked")
@@ -497,107 +481,100 @@ public class MapOverlay<O extends OsmElement> extends MapViewLayer
         int screenWidth = map.getWidth();
         int screenHeight = map.getHeight();
 
-        // first find all nodes and ways that we need to display
-        // if the delegator is locked re-render what we already have
-        try {
-            if (delegator.tryLock()) {
-                nodesResult.clear();
-                waysResult.clear();
-                final Storage currentStorage = delegator.getCurrentStorage();
-                currentStorage.getNodes(viewBox, nodesResult);
-                currentStorage.getWays(viewBox, waysResult);
-            } else {
-                Log.w(DEBUG_TAG, "Delegator already locked, rerendering existing data");
-            }
-        } finally {
-            delegator.unlock();
-        }
+        //
+        tmpDrawingInEditRange = App.getLogic().isInEditZoomRange();
 
-        // the following should guarantee that if the selected node is off screen but the handle not, the handle gets
-        // drawn, this isn't perfect because touch areas of other nodes just outside the screen still won't get drawn
+        selectedNodeSet.clear();
         if (tmpDrawingSelectedNodes != null) {
-            for (Node n : tmpDrawingSelectedNodes) {
-                if (!nodesResult.contains(n)) {
-                    nodesResult.add(n);
-                }
+            selectedNodeSet.addAll(tmpDrawingSelectedNodes);
+        }
+
+        // first find all nodes and ways that we need to display
+        final long modificationCount = delegator.getModificationCount();
+        final int selectionHash = DisplayList.selectionHash(tmpDrawingSelectedNodes, tmpDrawingSelectedWays);
+        DisplayList list = displayList;
+        if (list == null || !list.isCurrent(modificationCount, tmpFilter, selectionHash, tmpDrawingInEditRange)) {
+            requestDisplayList();
+        } else {
+            prefetchBox.set(viewBox);
+            prefetchBox.scale(PREFETCH_FACTOR);
+            if (!list.covers(prefetchBox)) {
+                requestDisplayList();
             }
         }
+        if (list == null) {
+            return;
+        }
 
         boolean filterMode = tmpFilter != null; // we have an active filter
 
-        //
-        tmpDrawingInEditRange = App.getLogic().isInEditZoomRange();
-
         boolean drawTolerance = tmpDrawingInEditRange // if we are not in editing range none of the further checks are
                                                       // necessary
                 && !tmpLocked && (showTolerance || tmpDrawingEditMode.elementsSelectable());
 
         // Paint all ways
 
-        List<Way> waysToDraw = waysResult;
+        // the DisplayList covers a larger area, the listener only gets what is actually displayed
+        final boolean notify = onUpdateListener != null;
+        if (notify) {
+            visibleNodes.clear();
+            visibleWays.clear();
+            visibleRelations.clear();
+        }
+
+        List<Way> waysToDraw = list.getWays();
         if (filterMode) {
-            // initial filtering need to happen before relations are processed
-            for (Node n : nodesResult) {
-                tmpFilter.include(n, false);
-            }
-            /*
-             * Split the ways in to those that we are going to show and those that we hide, rendering is far simpler for
-             * the later
-             */
-            tmpHiddenWays.clear();
-            tmpStyledWays.clear();
-            for (Way w : waysResult) {
-                if (tmpFilter.include(w, tmpDrawingInEditRange && tmpDrawingSelectedWays != null && tmpDrawingSelectedWays.contains(w))) {
-                    tmpStyledWays.add(w);
-                } else {
-                    tmpHiddenWays.add(w);
-                }
-            }
             // draw hidden ways first
-            for (Way w : tmpHiddenWays) {
-                paintHiddenWay(canvas, w);
+            for (Way w : list.getHiddenWays()) {
+                if (viewBox.intersects(w.getBounds(wayBox))) {
+                    paintHiddenWay(canvas, w);
+                    if (notify) {
+                        DisplayList.addRelations(tmpFilter, w.getParentRelations(), visibleRelations);
+                    }
+                }
             }
-            waysToDraw = tmpStyledWays;
-        }
-
-        // get relations for all nodes and ways
-        paintRelations.clear();
-        for (Node n : nodesResult) {
-            addRelations(filterMode, n.getParentRelations(), paintRelations);
-        }
-        for (Way w : waysResult) {
-            addRelations(filterMode, w.getParentRelations(), paintRelations);
         }
 
         // draw MPs first
-        for (Relation rel : paintRelations) {
-            String relType = rel.getTagWithKey(Tags.KEY_TYPE);
-            if (Tags.VALUE_MULTIPOLYGON.equals(relType) || Tags.VALUE_BOUNDARY.equals(relType)) {
-                paintMultiPolygon(canvas, rel);
-            }
+        for (Relation rel : list.getAreaRelations()) {
+            paintMultiPolygon(canvas, rel);
         }
 
         boolean displayHandles = tmpDrawingSelectedRelationWays == null && tmpDrawingSelectedRelationNodes == null && tmpDrawingEditMode.elementsGeomEditable();
         handles.clear();
-        Collections.sort(waysToDraw, layerComparator);
 
         // ways now
         for (Way w : waysToDraw) {
-            paintWay(canvas, w, displayHandles, drawTolerance);
+            if (viewBox.intersects(w.getBounds(wayBox))) {
+                paintWay(canvas, w, displayHandles, drawTolerance);
+                if (notify) {
+                    visibleWays.add(w);
+                    DisplayList.addRelations(tmpFilter, w.getParentRelations(), visibleRelations);
+                }
+            }
         }
 
         // Paint nodes
+        List<Node> nodes = list.getNodes();
         int coordSize = 0;
         float r = wayTolerancePaint.getStrokeWidth() / 2;
         float r2 = r * r;
-        if (drawTolerance && (coord == null || coord.length < nodesResult.size())) {
-            coord = new float[nodesResult.size()][2];
+        if (drawTolerance && (coord == null || coord.length < nodes.size())) {
+            coord = new float[nodes.size()][2];
         }
-        for (Node n : nodesResult) {
+        for (int j = 0; j < nodes.size(); j++) {
+            Node n = nodes.get(j);
             boolean noTolerance = false;
             int lat = n.getLat();
-            float y = GeoMath.latE7ToY(screenHeight, screenWidth, viewBox, lat);
             int lon = n.getLon();
+            if (!viewBox.isIn(lon, lat) && !selectedNodeSet.contains(n)) {
+                continue;
+            }
+            if (notify) {
+                visibleNodes.add(n);
+                DisplayList.addRelations(tmpFilter, n.getParentRelations(), visibleRelations);
+            }
+            float y = GeoMath.latE7ToY(screenHeight, screenWidth, viewBox, lat);
             float x = GeoMath.lonE7ToX(screenWidth, viewBox, lon);
             if (drawTolerance) {
                 // this reduces the number of tolerance fields drawn
@@ -620,24 +597,81 @@ public class MapOverlay<O extends OsmElement> extends MapViewLayer
                     coordSize++;
                 }
             }
-            paintNode(canvas, n, x, y, hwAccelerated, drawTolerance && !noTolerance && (n.getState() != OsmElement.STATE_UNCHANGED || isInDownload(lon, lat)));
+            paintNode(canvas, n, x, y, hwAccelerated, drawTolerance && !noTolerance && (n.getState() != OsmElement.STATE_UNCHANGED || isInDownload(lon, lat)),
+                    list.isIncluded(j));
         }
         // turn restrictions
         if (inNodeIconZoomRange && showIcons) {
-            for (Relation rel : paintRelations) {
-                if (Tags.VALUE_RESTRICTION.equals(rel.getTagWithKey(Tags.KEY_TYPE))) {
-                    paintRestriction(canvas, screenWidth, screenHeight, viewBox, rel);
-                }
+            for (Relation rel : list.getRestrictions()) {
+                paintRestriction(canvas, screenWidth, screenHeight, viewBox, rel);
             }
         }
 
         paintHandles(canvas);
 
-        if (onUpdateListener != null) {
-            onUpdateListener.onUpdate((Collection<O>) nodesResult, (Collection<O>) waysToDraw, (Collection<O>) paintRelations);
+        if (notify) {
+            onUpdateListener.onUpdate((Collection<O>) visibleNodes, (Collection<O>) visibleWays, (Collection<O>) visibleRelations);
         }
     }
 
+    /**
+     * Request that a new DisplayList is built in the background
+     * 
+     * Requests are ignored while one is already being processed, when building has completed the map is invalidated
+     * which will result in a new request if the DisplayList is still not suitable.
+     * 
+     * The DisplayList is built holding the StorageDelegator lock as the elements are only consistent then, edits will
+     * wait for the build to finish, but drawing doesn't. Styles, labels and icons are not resolved here as that changes
+     * the elements, this is done on the UI thread when they are drawn.
+     */
+    private void requestDisplayList() {
+        if (!displayListPending.compareAndSet(false, true)) {
+            return;
+        }
+        final ViewBox box = new ViewBox(viewBox);
+        final Filter filter = tmpFilter;
+        final List<Node> selectedNodes = copyOrNull(tmpDrawingSelectedNodes);
+        final List<Way> selectedWays = copyOrNull(tmpDrawingSelectedWays);
+        final boolean inEditRange = tmpDrawingInEditRange;
+        try {
+            displayListExecutor.execute(() -> {
+                try {
+                    delegator.lock();
+                    try {
+                        DisplayList list = new DisplayList(delegator.getCurrentStorage(), box, delegator.getModificationCount(), filter,
+                                selectedNodes, selectedWays, inEditRange);
+                        // assemble any multipolygon rings that are not cached yet while we are here
+                        MultipolygonCache cache = delegator.getMultipolygonCache();
+                        for (Relation rel : list.getAreaRelations()) {
+                            cache.getRings(rel);
+                        }
+                        displayList = list;
+                    } finally {
+                        delegator.unlock();
+                    }
+                } finally {
+                    displayListPending.set(false);
+                }
+                map.postInvalidate();
+            });
+        } catch (RejectedExecutionException rjee) {
+            Log.e(DEBUG_TAG, "Display list execution rejected " + rjee.getMessage());
+            displayListPending.set(false);
+        }
+    }
+
+    /**
+     * Copy a List
+     * 
+     * @param <T> the element type
+     * @param list the List or null
+     * @return a shallow copy of the List or null
+     */
+    @Nullable
+    private static <T> List<T> copyOrNull(@Nullable List<T> list) {
+        return list != null ? new ArrayList<>(list) : null;
+    }
+
     /**
      * Replacement for the method in StorageDelegator for performance reasons
      * 
@@ -654,27 +688,6 @@ public class MapOverlay<O extends OsmElement> extends MapViewLayer
         return false;
     }
 
-    /**
-     * Add relations to list of relations to paint
-     * 
-     * @param filterMode if we need to use a filter
-     * @param rels the new relations
-     * @param toPaint List of relations to paint
-     */
-    private void addRelations(final boolean filterMode, @Nullable final List<Relation> rels, final @NonNull Set<Relation> toPaint) {
-        if (rels != null) {
-            if (!filterMode) {
-                toPaint.addAll(rels);
-            } else {
-                for (Relation rel : rels) {
-                    if (tmpFilter.include(rel, false)) {
-                        toPaint.add(rel);
-                    }
-                }
-            }
-        }
-    }
-
     static class LayerComparator implements Comparator<Way> {
 
         private BoundingBox box1 = new BoundingBox();
@@ -717,8 +730,6 @@ public class MapOverlay<O extends OsmElement> extends MapViewLayer
         }
     }
 
-    private LayerComparator layerComparator = new LayerComparator();
-
     /**
      * Draw a multipolygon
      * 
@@ -737,84 +748,27 @@ public class MapOverlay<O extends OsmElement> extends MapViewLayer
             return;
         }
 
-        waysOnly.clear();
-        tenpMultiPolygonSort.clear();
-
-        // remove any non-Way non-downloaded members
-        for (RelationMember m : rel.getMembers()) {
-            if (m.downloaded() && Way.NAME.equals(m.getType())) {
-                waysOnly.add(m);
-            }
-        }
-        if (waysOnly.size() > MP_SIZE_LIMIT) { // protect against very large MPs
+        List<List<Node>> rings = delegator.getMultipolygonCache().getRings(rel);
+        if (rings.isEmpty()) {
             return;
         }
-        List<RelationMember> members = RelationUtils.sortRelationMembers(waysOnly, tenpMultiPolygonSort, RelationUtils::haveEndConnection);
-        outerRings.clear();
-        innerRings.clear();
-        unknownRings.clear();
-        List<Node> ring = getNewRing();
-
-        int ms = members.size();
-        String ringRole = "";
-        for (int i = 0; i < ms; i++) {
-            ringRole = "";
-            RelationMember current = members.get(i);
-            Way currentWay = (Way) current.getElement();
-            String currentRole = current.getRole();
-            if (currentRole != null && !"".equals(currentRole) && "".equals(ringRole)) {
-                ringRole = currentRole;
-            }
-            if (currentWay != null) {
-                // a bit of a hack to stop this way from being rendered as a way if it doesn't have any tags
-                if (currentWay.getStyle() == null && !currentWay.hasTags() && !"".equals(ringRole)) {
-                    currentWay.setStyle(dontRenderWay);
-                }
-                areaNodes.clear();
-                areaNodes.addAll(currentWay.getNodes());
-                int rs = ring.size();
-                int ns = areaNodes.size();
-                if (ring.isEmpty()) {
-                    ring.addAll(areaNodes);
-                } else if (ring.get(rs - 1).equals(areaNodes.get(0))) {
-                    ring.addAll(areaNodes.subList(1, ns));
-                } else if (ring.get(rs - 1).equals(areaNodes.get(ns - 1))) {
-                    Collections.reverse(areaNodes);
-                    ring.addAll(areaNodes.subList(1, ns));
-                }
-            }
 
-            RelationMember next = members.get((i + 1) % ms);
-            Way nextWay = (Way) next.getElement();
-            Node lastRingNode = ring.get(ring.size() - 1);
-            if (nextWay != null) {
-                List<Node> nextNodes = nextWay.getNodes();
-                int ns1 = nextNodes.size() - 1;
-                if (!nextNodes.get(0).equals(lastRingNode) && !nextNodes.get(ns1).equals(lastRingNode)) {
-                    Node firstRingNode = ring.get(0);
-                    if (nextNodes.get(0).equals(firstRingNode) || nextNodes.get(ns1).equals(firstRingNode)) {
-                        Collections.reverse(ring);
-                        continue;
-                    }
-                    addRing(ringRole, ring);
-                    ring = getNewRing();
+        // a bit of a hack to stop member ways from being rendered as ways if they don't have any tags
+        for (RelationMember m : rel.getMembers()) {
+            if (m.downloaded() && Way.NAME.equals(m.getType())) {
+                Way way = (Way) m.getElement();
+                String role = m.getRole();
+                if (way.getStyle() == null && !way.hasTags() && role != null && !"".equals(role)) {
+                    way.setStyle(dontRenderWay);
                 }
             }
         }
-        if (!ring.isEmpty()) {
-            addRing(ringRole, ring);
-        } else {
-            ringPool.release(ring);
-        }
 
         Paint paint = style.getPaint();
         boolean closeRings = paint.getStyle() != Paint.Style.STROKE;
 
-        outerRings.addAll(innerRings);
-        outerRings.addAll(unknownRings);
-
         path.rewind();
-        for (List<Node> r : outerRings) {
+        for (List<Node> r : rings) {
             map.pointListToLinePointsArray(points, r);
             float[] linePoints = points.getArray();
             int pointsSize = points.size();
@@ -828,7 +782,6 @@ public class MapOverlay<O extends OsmElement> extends MapViewLayer
             if (closeRings) {
                 path.close();
             }
-            ringPool.release(r);
         }
         path.setFillType(Path.FillType.EVEN_ODD);
         if (tmpClickableElements != null && tmpClickableElements.contains(rel)) {
@@ -837,48 +790,6 @@ public class MapOverlay<O extends OsmElement> extends MapViewLayer
         canvas.drawPath(path, paint);
     }
 
-    /**
-     * Get a new ring from the pool or instantiate one if the pool is empty
-     * 
-     * @return a List&lt;Node&gt;
-     */
-    @NonNull
-    private List<Node> getNewRing() {
-        List<Node> ring = ringPool.acquire();
-        if (ring == null) {
-            ring = new LowAllocArrayList<>();
-        } else {
-            ring.clear();
-        }
-        return ring;
-    }
-
-    /**
-     * Add rings to the list depending on their role If the winding is wrong reverse the List
-     * 
-     * @param role the role of the the ring
-     * @param ring the ring
-     */
-    private void addRing(@NonNull String role, @NonNull List<Node> ring) {
-        final int winding = winding(ring);
-        switch (role) {
-        case Tags.ROLE_OUTER:
-            if (winding == COUNTERCLOCKWISE) {
-                Collections.reverse(ring);
-            }
-            outerRings.add(ring);
-            break;
-        case Tags.ROLE_INNER:
-            if (winding == CLOCKWISE) {
-                Collections.reverse(ring);
-            }
-            innerRings.add(ring);
-            break;
-        default:
-            unknownRings.add(ring);
-        }
-    }
-
     /**
      * Draw an icon for a turn restriction
      * 
@@ -991,20 +902,17 @@ public class MapOverlay<O extends OsmElement> extends MapViewLayer
      * @param y screen y coordinate
      * @param hwAccelerated use a workaround for unsupported operations when HW acceleration is used
      * @param drawTolerance draw the touch halo
+     * @param filteredObject true if the node is included by the current filter
      */
     private void paintNode(@NonNull final Canvas canvas, @NonNull final Node node, final float x, final float y, final boolean hwAccelerated,
-            final boolean drawTolerance) {
+            final boolean drawTolerance, final boolean filteredObject) {
 
-        boolean isSelected = tmpDrawingSelectedNodes != null && tmpDrawingSelectedNodes.contains(node);
+        boolean isSelected = selectedNodeSet.contains(node);
 
         boolean isTagged = node.isTagged();
         boolean hasProblem = false;
 
-        boolean filteredObject = false;
         boolean filterMode = tmpFilter != null; // we have an active filter
-        if (filterMode) {
-            filteredObject = tmpFilter.include(node, isSelected);
-        }
 
         // draw tolerance
         if (drawTolerance && (!filterMode || (filterMode && filteredObject))) {
@@ -1142,7 +1050,7 @@ public class MapOverlay<O extends OsmElement> extends MapViewLayer
      */
     @NonNull
     private Float getDirection(@NonNull final Node node) {
-        Float direction = node.getFromCache(directionCache);
+        Float direction = renderCache.getDirection(node);
         if (direction == null) {
             direction = Float.NaN;
             PresetItem match = getMatch(node);
@@ -1152,27 +1060,26 @@ public class MapOverlay<O extends OsmElement> extends MapViewLayer
                     direction = Tags.parseDirection(node.getTagWithKey(key));
                 }
             }
-            synchronized (directionCache) {
-                node.addToCache(directionCache, direction);
-            }
+            renderCache.putDirection(node, direction);
         }
         return direction;
     }
 
     /**
-     * Get the best preset match for an element and cache it during this draw pass
+     * Get the best preset match for an element and cache it
      * 
      * @param e the OsmElement
      * @return a PresetItem or null
      */
     @Nullable
     private PresetItem getMatch(@NonNull OsmElement e) {
-        java.util.Map<String, String> tags = e.getTags();
-        PresetItem match = matchCache.get(tags);
-        if (match == null && !matchCache.containsKey(tags)) {
-            match = Preset.findBestMatch(context, tmpPresets, e.getTags(), null, e, false);
-            matchCache.put(tags, match);
+        // regions are not used for rendering, they need to be the same for the lookup and the match if that changes
+        Object cached = renderCache.getMatch(e, null);
+        if (cached != null) {
+            return RenderCache.valueOf(cached);
         }
+        PresetItem match = Preset.findBestMatch(context, tmpPresets, e.getTags(), null, e, false);
+        renderCache.putMatch(e, null, match);
         return match;
     }
 
@@ -1207,44 +1114,53 @@ public class MapOverlay<O extends OsmElement> extends MapViewLayer
      */
     private void paintLabel(final float x, final float y, @NonNull final Canvas canvas, @NonNull final FeatureStyle labelStyle, @NonNull final OsmElement e,
             final float strokeWidth, final boolean withIcon) {
-        String label = e.getFromCache(labelCache); // may be null!
+        String label = resolveLabel(e);
         if (label == null) {
-            if (e.isInCache(labelCache)) {
-                return;
-            }
-            FeatureStyle style = styles.matchStyle(e);
-            if (style.usePresetLabel() && tmpPresets != null) {
-                PresetItem match = getMatch(e);
-                if (match != null) {
-                    String template = e.nameFromTemplate(context, match);
-                    label = template != null ? template : match.getTranslatedName();
-                } else {
-                    label = e.getPrimaryTag(context);
-                }
-            } else {
-                String labelKey = style.getLabelKey();
-                label = labelKey != null ? e.getTagWithKey(labelKey) : null;
-            }
-            synchronized (labelCache) {
-                e.addToCache(labelCache, label);
-                if (label == null) {
-                    return;
-                }
-            }
+            return;
         }
         // draw the label
-        Paint paint = labelStyle.getPaint();
-        float halfTextWidth = paint.measureText(label) / 2;
         FontMetrics fm = labelStyle.getFontMetrics();
         float yOffset = y + strokeWidth + (withIcon ? 2 * iconRadius : iconRadius);
+        Bitmap labelBitmap = renderCache.getLabelBitmap(label, labelStyle, labelBackground);
+        if (labelBitmap != null) {
+            canvas.drawBitmap(labelBitmap, x - labelBitmap.getWidth() / 2f, yOffset - labelBitmap.getHeight() + fm.bottom, null);
+            return;
+        }
+        Paint paint = labelStyle.getPaint();
+        float halfTextWidth = paint.measureText(label) / 2;
         canvas.drawRect(x - halfTextWidth, yOffset + fm.bottom, x + halfTextWidth, yOffset - paint.getTextSize() + fm.bottom, labelBackground);
         canvas.drawText(label, x - halfTextWidth, yOffset, paint);
     }
 
     /**
-     * Dummy bitmap for the cache
+     * Get the label for an element and cache it
+     * 
+     * @param e the OsmElement
+     * @return the label or null if there is none
      */
-    public static final Bitmap NOICON = Bitmap.createBitmap(2, 2, Config.ARGB_8888);
+    @Nullable
+    private String resolveLabel(@NonNull final OsmElement e) {
+        Object cached = renderCache.getLabel(e);
+        if (cached != null) {
+            return RenderCache.valueOf(cached);
+        }
+        String label;
+        FeatureStyle style = styles.matchStyle(e);
+        if (style.usePresetLabel() && tmpPresets != null) {
+            PresetItem match = getMatch(e);
+            if (match != null) {
+                String template = e.nameFromTemplate(context, match);
+                label = template != null ? template : match.getTranslatedName();
+            } else {
+                label = e.getPrimaryTag(context);
+            }
+        } else {
+            String labelKey = style.getLabelKey();
+            label = labelKey != null ? e.getTagWithKey(labelKey) : null;
+        }
+        renderCache.putLabel(e, label);
+        return label;
+    }
 
     /**
      * Get icon for the element
@@ -1256,17 +1172,16 @@ public class MapOverlay<O extends OsmElement> extends MapViewLayer
      */
     @Nullable
     public Bitmap getIcon(@NonNull OsmElement element) {
-        boolean isWay = element instanceof Way;
-        WeakHashMap<java.util.Map<String, String>, Bitmap> tempCache = isWay ? areaIconCache : iconCache;
-        Bitmap icon = element.getFromCache(tempCache); // may be null!
-        if (icon == null) {
-            try {
-                iconThreadPoolExecutor.execute(() -> retrieveIcon(element, isWay, tempCache));
-            } catch (RejectedExecutionException rjee) {
-                Log.e(DEBUG_TAG, "Icon download execution rejected " + rjee.getMessage());
-            }
+        Object cached = renderCache.getIcon(element);
+        if (cached != null) {
+            return RenderCache.valueOf(cached);
+        }
+        try {
+            iconThreadPoolExecutor.execute(() -> retrieveIcon(element, element instanceof Way));
+        } catch (RejectedExecutionException rjee) {
+            Log.e(DEBUG_TAG, "Icon download execution rejected " + rjee.getMessage());
         }
-        return icon != NOICON ? icon : null;
+        return null;
     }
 
     /**
@@ -1274,10 +1189,9 @@ public class MapOverlay<O extends OsmElement> extends MapViewLayer
      * 
      * @param element the OsmElement
      * @param isWay if the element is a Way
-     * @param cache the relevant cache
      */
     @TargetApi(26)
-    private void retrieveIcon(@NonNull OsmElement element, boolean isWay, @NonNull WeakHashMap<java.util.Map<String, String>, Bitmap> cache) {
+    private void retrieveIcon(@NonNull OsmElement element, boolean isWay) {
         BitmapDrawable iconDrawable = null;
 
         // icon not cached, ask the preset/style, render to a bitmap and cache result
@@ -1295,7 +1209,7 @@ public class MapOverlay<O extends OsmElement> extends MapViewLayer
                 iconDrawable = match.getMapIcon(context);
             }
         }
-        Bitmap icon = NOICON;
+        Bitmap icon = null;
         if (iconDrawable != null) {
             icon = Bitmap.createBitmap(iconRadius * 2, iconRadius * 2, Bitmap.Config.ARGB_8888);
             iconDrawable.draw(new Canvas(icon));
@@ -1305,9 +1219,7 @@ public class MapOverlay<O extends OsmElement> extends MapViewLayer
                 temp.recycle();
             }
         }
-        synchronized (MapOverlay.this) {
-            element.addToCache(cache, icon);
-        }
+        renderCache.putIcon(element, icon);
         map.postInvalidate();
     }
 
@@ -1355,21 +1267,21 @@ public class MapOverlay<O extends OsmElement> extends MapViewLayer
      * Remove everything from all caches
      */
     public void clearCaches() {
-        synchronized (iconCache) {
-            iconCache.clear();
-        }
-        synchronized (areaIconCache) {
-            areaIconCache.clear();
-        }
-        synchronized (labelCache) {
-            labelCache.clear();
-        }
+        renderCache.clear();
         synchronized (customIconCache) {
             customIconCache.clear();
         }
-        synchronized (directionCache) {
-            directionCache.clear();
-        }
+    }
+
+    /**
+     * Get statistics for the render and multipolygon caches
+     * 
+     * @return a String with size, hit and miss counts
+     */
+    @NonNull
+    public String getCacheStats() {
+        MultipolygonCache mpCache = delegator.getMultipolygonCache();
+        return renderCache.getStats() + "\nmultipolygons " + mpCache.getCount() + " " + mpCache.getSize() + "B";
     }
 
     /**
@@ -1755,8 +1667,7 @@ public class MapOverlay<O extends OsmElement> extends MapViewLayer
         autoPruneNodeLimit = prefs.getAutoPruneNodeLimit();
         autoDownloadBoxLimit = prefs.getAutoPruneBoundingBoxLimit();
         panAndZoomLimit = prefs.getPanAndZoomLimit();
-        iconCache.clear();
-        areaIconCache.clear();
+        renderCache.clearIcons();
     }
 
     /**
@@ -1771,6 +1682,7 @@ public class MapOverlay<O extends OsmElement> extends MapViewLayer
         nodeToleranceRadius = wayTolerancePaint.getStrokeWidth() / 2;
         wayTolerancePaint2 = styles.getInternal(DataStyle.WAY_TOLERANCE_2).getPaint();
         labelBackground = styles.getInternal(DataStyle.LABELTEXT_BACKGROUND).getPaint();
+        renderCache.clearLabelBitmaps();
 
         // general node style
         nodeFeatureStyle = styles.getInternal(DataStyle.NODE_UNTAGGED);
@@ -1828,6 +1740,13 @@ public class MapOverlay<O extends OsmElement> extends MapViewLayer
         return iconRadius;
     }
 
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        delegator.getMultipolygonCache().trim(0);
+        renderCache.trim(0);
+    }
+
     @Override
     protected void onDrawFinished(Canvas c, IMapView osmv) {
         // unused
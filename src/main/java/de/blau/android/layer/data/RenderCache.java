@@ -0,0 +1,499 @@
+package de.blau.android.layer.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.TreeMap;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Paint.FontMetrics;
+import android.util.LruCache;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import de.blau.android.osm.OsmElement;
+import de.blau.android.osm.OsmElement.ElementType;
+import de.blau.android.presets.PresetItem;
+import de.blau.android.resources.DataStyle.FeatureStyle;
+
+/**
+ * Cache for resources used when rendering the data layer
+ * 
+ * With the exception of the label bitmaps the entries are keyed on the type of the element and a copy of its tags, as
+ * that is all the resources depend on, preset matches are additionally keyed on the regions used for matching. Contrary to caching on the tag map of an element this survives re-loading the
+ * data and edits that leave the tags unchanged, and elements with identical tags share entries. Each type of resource
+ * is stored in its own LRU cache with an explicit budget in bytes.
+ * 
+ * Negative results are cached too and returned as {@link #NONE} so that a single lookup is enough to tell them apart
+ * from entries that are not cached, all methods are thread safe.
+ */
+final class RenderCache {
+
+    static final int DEFAULT_ICON_BUDGET         = 4 * 1024 * 1024;
+    static final int DEFAULT_LABEL_BUDGET        = 512 * 1024;
+    static final int DEFAULT_MATCH_BUDGET        = 512 * 1024;
+    static final int DEFAULT_LABEL_BITMAP_BUDGET = 2 * 1024 * 1024;
+
+    /**
+     * Number of times a label has to be requested before we render it to a bitmap
+     */
+    static final int LABEL_BITMAP_THRESHOLD = 3;
+
+    private static final int MAX_LABEL_CANDIDATES = 1000;
+
+    private static final int ENTRY_OVERHEAD = 64;
+    private static final int NUMBER_SIZE    = 16;
+
+    /**
+     * Marker for cached negative results
+     */
+    static final Object NONE = new Object();
+
+    /**
+     * Estimates the size of an entry
+     */
+    private interface Sizer {
+        /**
+         * Get the estimated size of an entry
+         * 
+         * @param key the key
+         * @param value the value
+         * @return the size in bytes
+         */
+        int sizeOf(@NonNull Object key, @NonNull Object value);
+    }
+
+    /**
+     * A LRU cache with an estimated size in bytes
+     */
+    private static class Segment extends LruCache<Object, Object> {
+        private final Sizer sizer;
+
+        /**
+         * Construct a new Segment
+         * 
+         * @param maxSize the maximum size in bytes
+         * @param sizer Sizer to estimate the size of entries
+         */
+        Segment(int maxSize, @NonNull Sizer sizer) {
+            super(maxSize);
+            this.sizer = sizer;
+        }
+
+        @Override
+        protected int sizeOf(Object key, Object value) {
+            return sizer.sizeOf(key, value);
+        }
+    }
+
+    /**
+     * Key for entries that depend on the tags of an element
+     */
+    private static final class TagsKey {
+        final ElementType         type;
+        final Map<String, String> tags;
+        final List<String>        regions;
+
+        /**
+         * Construct a new key
+         * 
+         * @param type the ElementType
+         * @param tags the tags, these need to be copied if the key is stored
+         * @param regions the regions or null, these need to be copied if the key is stored
+         */
+        TagsKey(@NonNull ElementType type, @NonNull Map<String, String> tags, @Nullable List<String> regions) {
+            this.type = type;
+            this.tags = tags;
+            this.regions = regions;
+        }
+
+        /**
+         * Get a key for an element that can be used for lookups
+         * 
+         * @param e the OsmElement
+         * @return a new TagsKey
+         */
+        static TagsKey of(@NonNull OsmElement e) {
+            return of(e, null);
+        }
+
+        /**
+         * Get a key for an element and regions that can be used for lookups
+         * 
+         * @param e the OsmElement
+         * @param regions the regions or null
+         * @return a new TagsKey
+         */
+        static TagsKey of(@NonNull OsmElement e, @Nullable List<String> regions) {
+            return new TagsKey(e.getType(), e.getTags(), regions);
+        }
+
+        /**
+         * Get a copy of this key that is safe to store
+         * 
+         * @return a new TagsKey
+         */
+        TagsKey copy() {
+            return new TagsKey(type, new TreeMap<>(tags), regions != null ? new ArrayList<>(regions) : null);
+        }
+
+        @Override
+        public int hashCode() {
+            return (type.hashCode() * 31 + tags.hashCode()) * 31 + Objects.hashCode(regions);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof TagsKey)) {
+                return false;
+            }
+            TagsKey other = (TagsKey) obj;
+            return type == other.type && tags.equals(other.tags) && Objects.equals(regions, other.regions);
+        }
+    }
+
+    /**
+     * Key for the label bitmaps
+     */
+    private static final class LabelKey {
+        final String       label;
+        final FeatureStyle style;
+        final int          color;
+
+        /**
+         * Construct a new key
+         * 
+         * @param label the label text
+         * @param style the FeatureStyle used for the text
+         * @param color the color of the text
+         */
+        LabelKey(@NonNull String label, @NonNull FeatureStyle style, int color) {
+            this.label = label;
+            this.style = style;
+            this.color = color;
+        }
+
+        @Override
+        public int hashCode() {
+            return (label.hashCode() * 31 + System.identityHashCode(style)) * 31 + color;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof LabelKey)) {
+                return false;
+            }
+            LabelKey other = (LabelKey) obj;
+            return style == other.style && color == other.color && label.equals(other.label);
+        }
+    }
+
+    private static final Sizer BITMAP_SIZER = (Object key, Object value) -> tagsSize(key) + (value instanceof Bitmap ? ((Bitmap) value).getByteCount() : 0);
+    private static final Sizer STRING_SIZER = (Object key, Object value) -> tagsSize(key) + (value instanceof String ? 2 * ((String) value).length() : 0);
+    private static final Sizer FIXED_SIZER  = (Object key, Object value) -> tagsSize(key) + NUMBER_SIZE;
+
+    private final Segment icons;
+    private final Segment labels;
+    private final Segment directions;
+    private final Segment matches;
+    private final Segment labelBitmaps;
+
+    private final LruCache<LabelKey, int[]> labelCandidates = new LruCache<>(MAX_LABEL_CANDIDATES);
+
+    /**
+     * Construct a new cache with the default budgets
+     */
+    RenderCache() {
+        this(DEFAULT_ICON_BUDGET, DEFAULT_LABEL_BUDGET, DEFAULT_MATCH_BUDGET, DEFAULT_LABEL_BITMAP_BUDGET);
+    }
+
+    /**
+     * Construct a new cache
+     * 
+     * @param iconBudget budget in bytes for icons
+     * @param labelBudget budget in bytes for label strings and directions each
+     * @param matchBudget budget in bytes for preset matches
+     * @param labelBitmapBudget budget for pre-rendered label bitmaps
+     */
+    RenderCache(int iconBudget, int labelBudget, int matchBudget, int labelBitmapBudget) {
+        icons = new Segment(iconBudget, BITMAP_SIZER);
+        labels = new Segment(labelBudget, STRING_SIZER);
+        directions = new Segment(labelBudget, FIXED_SIZER);
+        matches = new Segment(matchBudget, FIXED_SIZER);
+        labelBitmaps = new Segment(labelBitmapBudget, (Object key, Object value) -> ENTRY_OVERHEAD + ((Bitmap) value).getByteCount());
+    }
+
+    /**
+     * Estimate the size of a TagsKey
+     * 
+     * @param key the key
+     * @return the estimated size in bytes
+     */
+    private static int tagsSize(@NonNull Object key) {
+        int size = ENTRY_OVERHEAD;
+        if (key instanceof TagsKey) {
+            for (Entry<String, String> e : ((TagsKey) key).tags.entrySet()) {
+                size += ENTRY_OVERHEAD / 2 + 2 * (e.getKey().length() + e.getValue().length());
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Unwrap a value returned by one of the lookup methods
+     * 
+     * @param <T> the value type
+     * @param cached the value returned by the lookup
+     * @return the value or null if not cached or a negative result was cached
+     */
+    @SuppressWarnings("unchecked")
+    @Nullable
+    static <T> T valueOf(@Nullable Object cached) {
+        return cached == NONE ? null : (T) cached;
+    }
+
+    /**
+     * Add a value to a Segment
+     * 
+     * @param segment the Segment
+     * @param key the key for the lookup, will be copied
+     * @param value the value, null for a negative result
+     */
+    private static void put(@NonNull Segment segment, @NonNull TagsKey key, @Nullable Object value) {
+        segment.put(key.copy(), value == null ? NONE : value);
+    }
+
+    /**
+     * Get an icon
+     * 
+     * @param e the OsmElement
+     * @return the icon, {@link #NONE} if the element doesn't have one, or null if not cached
+     */
+    @Nullable
+    Object getIcon(@NonNull OsmElement e) {
+        return icons.get(TagsKey.of(e));
+    }
+
+    /**
+     * Cache an icon
+     * 
+     * @param e the OsmElement
+     * @param icon the icon or null if there is none
+     */
+    void putIcon(@NonNull OsmElement e, @Nullable Bitmap icon) {
+        put(icons, TagsKey.of(e), icon);
+    }
+
+    /**
+     * Get a label
+     * 
+     * @param e the OsmElement
+     * @return the label, {@link #NONE} if the element doesn't have one, or null if not cached
+     */
+    @Nullable
+    Object getLabel(@NonNull OsmElement e) {
+        return labels.get(TagsKey.of(e));
+    }
+
+    /**
+     * Cache a label
+     * 
+     * @param e the OsmElement
+     * @param label the label or null if there is none
+     */
+    void putLabel(@NonNull OsmElement e, @Nullable String label) {
+        put(labels, TagsKey.of(e), label);
+    }
+
+    /**
+     * Get a direction
+     * 
+     * @param e the OsmElement
+     * @return the direction, Float.NaN if none, or null if not cached
+     */
+    @Nullable
+    Float getDirection(@NonNull OsmElement e) {
+        return (Float) directions.get(TagsKey.of(e));
+    }
+
+    /**
+     * Cache a direction
+     * 
+     * @param e the OsmElement
+     * @param direction the direction in degrees or Float.NaN
+     */
+    void putDirection(@NonNull OsmElement e, @NonNull Float direction) {
+        put(directions, TagsKey.of(e), direction);
+    }
+
+    /**
+     * Get a preset match
+     * 
+     * @param e the OsmElement
+     * @param regions the regions used for matching or null
+     * @return the best matching PresetItem, {@link #NONE} if nothing matched, or null if not cached
+     */
+    @Nullable
+    Object getMatch(@NonNull OsmElement e, @Nullable List<String> regions) {
+        return matches.get(TagsKey.of(e, regions));
+    }
+
+    /**
+     * Cache a preset match
+     * 
+     * @param e the OsmElement
+     * @param regions the regions used for matching or null
+     * @param match the best matching PresetItem or null
+     */
+    void putMatch(@NonNull OsmElement e, @Nullable List<String> regions, @Nullable PresetItem match) {
+        put(matches, TagsKey.of(e, regions), match);
+    }
+
+    /**
+     * Get a pre-rendered bitmap for a label
+     * 
+     * The bitmap is only created once the label has been requested {@link #LABEL_BITMAP_THRESHOLD} times
+     * 
+     * @param label the label text
+     * @param style the FeatureStyle for the text
+     * @param background Paint for the background
+     * @return a Bitmap or null if the label isn't used frequently enough yet
+     */
+    @Nullable
+    Bitmap getLabelBitmap(@NonNull String label, @NonNull FeatureStyle style, @NonNull Paint background) {
+        Paint paint = style.getPaint();
+        LabelKey key = new LabelKey(label, style, paint.getColor());
+        Bitmap bitmap = (Bitmap) labelBitmaps.get(key);
+        if (bitmap == null) {
+            synchronized (labelCandidates) {
+                int[] count = labelCandidates.get(key);
+                if (count == null) {
+                    labelCandidates.put(key, new int[] { 1 });
+                    return null;
+                }
+                count[0]++;
+                if (count[0] < LABEL_BITMAP_THRESHOLD) {
+                    return null;
+                }
+                labelCandidates.remove(key);
+            }
+            bitmap = renderLabel(label, paint, style.getFontMetrics(), background);
+            if (bitmap != null) {
+                labelBitmaps.put(key, bitmap);
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * Render a label with background to a bitmap
+     * 
+     * The bitmap is as wide as the text and as high as the text size, the baseline is at height - fm.bottom
+     * 
+     * @param label the label text
+     * @param paint the Paint for the text
+     * @param fm the FontMetrics for paint
+     * @param background Paint for the background
+     * @return a Bitmap or null if the label has zero size
+     */
+    @Nullable
+    private static Bitmap renderLabel(@NonNull String label, @NonNull Paint paint, @NonNull FontMetrics fm, @NonNull Paint background) {
+        int width = (int) Math.ceil(paint.measureText(label));
+        int height = (int) Math.ceil(paint.getTextSize());
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        canvas.drawRect(0, 0, width, height, background);
+        canvas.drawText(label, 0, paint.getTextSize() - fm.bottom, paint);
+        return bitmap;
+    }
+
+    /**
+     * Remove all icons
+     */
+    void clearIcons() {
+        icons.evictAll();
+    }
+
+    /**
+     * Remove everything that depends on the current presets
+     */
+    void clearPresetDependent() {
+        matches.evictAll();
+        labels.evictAll();
+        directions.evictAll();
+        clearIcons();
+    }
+
+    /**
+     * Remove the pre-rendered label bitmaps
+     */
+    void clearLabelBitmaps() {
+        labelBitmaps.evictAll();
+        labelCandidates.evictAll();
+    }
+
+    /**
+     * Remove everything from the cache
+     */
+    void clear() {
+        clearPresetDependent();
+        clearLabelBitmaps();
+    }
+
+    /**
+     * Reduce memory use by trimming each cache to a fraction of its budget
+     * 
+     * @param fraction the fraction of the budget to retain, 0 empties the cache
+     */
+    void trim(float fraction) {
+        for (Segment segment : new Segment[] { icons, labels, directions, matches, labelBitmaps }) {
+            segment.trimToSize((int) (segment.maxSize() * fraction));
+        }
+        if (fraction == 0) {
+            labelCandidates.evictAll();
+        }
+    }
+
+    /**
+     * Get usage statistics
+     * 
+     * @return a String with size, hit and miss counts for each cache
+     */
+    @NonNull
+    String getStats() {
+        StringBuilder builder = new StringBuilder();
+        appendStats(builder, "icons", icons);
+        appendStats(builder, "labels", labels);
+        appendStats(builder, "directions", directions);
+        appendStats(builder, "matches", matches);
+        appendStats(builder, "label bitmaps", labelBitmaps);
+        return builder.toString();
+    }
+
+    /**
+     * Append statistics for one Segment
+     * 
+     * @param builder the StringBuilder
+     * @param name the name of the Segment
+     * @param segment the Segment
+     */
+    private static void appendStats(@NonNull StringBuilder builder, @NonNull String name, @NonNull Segment segment) {
+        if (builder.length() > 0) {
+            builder.append('\n');
+        }
+        builder.append(name).append(' ').append(segment.size()).append('/').append(segment.maxSize()).append("B hits ").append(segment.hitCount())
+                .append(" misses ").append(segment.missCount()).append(" evictions ").append(segment.evictionCount());
+    }
+}
@@ -80,7 +80,8 @@ public class MapOverlay extends StyleableFileLayer
 
     private static final String FILENAME = "gpxlayer" + "." + FileExtensions.RES;
 
-    private static final int TRACKPOINT_PARALLELIZATION_THRESHOLD = 10000; // multithreaded if more trackpoints
+    private static final int   TRACKPOINT_PARALLELIZATION_THRESHOLD = 10000; // multithreaded if more trackpoints
+    private static final float SIMPLIFICATION_TOLERANCE             = 0.5f;  // max. track deviation in pixels
 
     /** Map this is an overlay of. */
     private final transient Map map;
@@ -178,7 +179,20 @@ public class MapOverlay extends StyleableFileLayer
      * @param canvas the Canvas to draw on
      */
     private void drawTrackPoints(@NonNull Canvas canvas) {
-        List<TrackPoint> trackPoints = track.getTrackPoints();
+        final ViewBox viewBox = map.getViewBox();
+        final float tolerance = SIMPLIFICATION_TOLERANCE * viewBox.getWidth() / map.getWidth();
+        for (List<TrackPoint> run : track.getTrackPoints(viewBox, tolerance)) {
+            drawTrackPoints(canvas, run);
+        }
+    }
+
+    /**
+     * Draw a run of consecutive trackpoints
+     * 
+     * @param canvas the Canvas to draw on
+     * @param trackPoints the TrackPoints
+     */
+    private void drawTrackPoints(@NonNull Canvas canvas, @NonNull List<TrackPoint> trackPoints) {
         int size = trackPoints.size();
         if (size > 0) {
             final float maxLen = getStrokeWidth() * 2;
@@ -340,10 +354,8 @@ public class MapOverlay extends StyleableFileLayer
     @Override
     public BoundingBox getExtent() {
         if (track != null) {
-            List<TrackPoint> trackPoints = track.getTrackPoints();
-            trackPoints.addAll(track.getWayPoints());
-            BoundingBox result = null;
-            for (TrackPoint tp : trackPoints) {
+            BoundingBox result = track.getTrackBounds();
+            for (WayPoint tp : track.getWayPoints()) {
                 if (result == null) {
                     result = new BoundingBox(tp.getLongitude(), tp.getLatitude());
                 } else {
@@ -38,6 +38,7 @@ import de.blau.android.layer.LayerType;
 import de.blau.android.layer.StyleableInterface;
 import de.blau.android.osm.Tags;
 import de.blau.android.osm.ViewBox;
+import de.blau.android.prefs.Preferences;
 import de.blau.android.resources.DataStyle;
 import de.blau.android.resources.TileLayerSource;
 import de.blau.android.services.util.MapTile;
@@ -95,6 +96,12 @@ public class MapOverlay extends MapTilesOverlayLayer<java.util.Map<String, List<
         return overlay ? LayerType.OVERLAYIMAGERY : LayerType.IMAGERY;
     }
 
+    @Override
+    public void setPrefs(@NonNull Preferences prefs) {
+        super.setPrefs(prefs);
+        ((VectorTileRenderer) tileRenderer).setRasterize(prefs.rasterizeVectorTiles(), map::postInvalidate);
+    }
+
     @Override
     public boolean stylingEnabled() {
         return ((VectorTileRenderer) tileRenderer).getStyle().isAutoStyle();
@@ -564,6 +571,7 @@ public class MapOverlay extends MapTilesOverlayLayer<java.util.Map<String, List<
      */
     protected void dirty() {
         dirty = true;
+        ((VectorTileRenderer) tileRenderer).styleChanged();
     }
 
     /**
@@ -572,5 +580,6 @@ public class MapOverlay extends MapTilesOverlayLayer<java.util.Map<String, List<
     protected void flushTileCache() {
         MapTileProvider<java.util.Map<String, List<VectorTileDecoder.Feature>>> provider = getTileProvider();
         provider.flushCache(layerSource.getId(), false);
+        ((VectorTileRenderer) tileRenderer).styleChanged();
     }
 }
@@ -121,8 +121,11 @@ public class MapOverlay extends MapViewLayer implements DiscardInterface, Clicka
             if (!indexing) {
                 indexing = true;
                 publishProgress(0);
-                pi.createOrUpdateIndex();
-                pi.fill(null);
+                pi.createOrUpdateIndex((done, total) -> Log.d(DEBUG_TAG, "Indexed " + done + " of " + total + " MediaStore images"));
+                if (pi.isCancelled()) {
+                    indexing = false;
+                    return null;
+                }
                 publishProgress(1);
                 indexing = false;
                 indexed = true;
@@ -345,6 +348,7 @@ public class MapOverlay extends MapViewLayer implements DiscardInterface, Clicka
     @Override
     public void onDestroy() {
         super.onDestroy();
+        pi.cancel();
         if (observer != null) {
             map.getContext().getContentResolver().unregisterContentObserver(observer);
         }
@@ -406,7 +410,7 @@ public class MapOverlay extends MapViewLayer implements DiscardInterface, Clicka
             Log.d(DEBUG_TAG, "onChange " + uri);
             final Context context = map.getContext();
             if (!pi.isIndexed(uri)) {
-                PhotoIndex.addToIndex(pi.addPhoto(context, uri, ContentResolverUtil.getDisplaynameColumn(context, uri)));
+                pi.addPhoto(context, uri, ContentResolverUtil.getDisplaynameColumn(context, uri));
             } else {
                 pi.deletePhoto(context, uri);
             }
@@ -0,0 +1,206 @@
+package de.blau.android.net;
+
+import static de.blau.android.contract.Constants.LOG_TAG_LEN;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.util.Log;
+import androidx.annotation.NonNull;
+
+/**
+ * InputStream that reads its source on a background thread
+ * 
+ * This allows network transfer to continue while the consumer, typically a parser, is busy. The amount of data read
+ * ahead is limited by the number of blocks that can be queued, if the queue is full the reader thread blocks till the
+ * consumer catches up. The reader threads are daemon threads from a shared pool so that they are re-used across streams.
+ * 
+ * Exceptions thrown by the source, or any other failure of the reader thread, are rethrown to the consumer after all
+ * data read before the exception has been consumed.
+ */
+public class ReadAheadInputStream extends InputStream {
+
+    private static final int    TAG_LEN   = Math.min(LOG_TAG_LEN, ReadAheadInputStream.class.getSimpleName().length());
+    private static final String DEBUG_TAG = ReadAheadInputStream.class.getSimpleName().substring(0, TAG_LEN);
+
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+    public static final int DEFAULT_BLOCKS     = 8;
+
+    private static final byte[] EOF = new byte[0];
+
+    private static final AtomicInteger   readerCount = new AtomicInteger();
+    private static final ExecutorService readers     = Executors.newCachedThreadPool(runnable -> {
+                                                         Thread thread = new Thread(runnable, DEBUG_TAG + "-" + readerCount.incrementAndGet());
+                                                         thread.setDaemon(true);
+                                                         return thread;
+                                                     });
+
+    private final InputStream           source;
+    private final BlockingQueue<byte[]> queue;
+    private final Future<?>             reader;
+    private volatile Throwable          exception;
+    private volatile boolean            closed = false;
+    private byte[]                      current;
+    private int                         pos;
+
+    /**
+     * Construct a new instance with default block size and number
+     * 
+     * @param source the InputStream to read from
+     */
+    public ReadAheadInputStream(@NonNull InputStream source) {
+        this(source, DEFAULT_BLOCK_SIZE, DEFAULT_BLOCKS);
+    }
+
+    /**
+     * Construct a new instance
+     * 
+     * @param source the InputStream to read from
+     * @param blockSize the maximum size of a block read from the source
+     * @param blocks the maximum number of blocks that are read ahead
+     */
+    public ReadAheadInputStream(@NonNull InputStream source, int blockSize, int blocks) {
+        this.source = source;
+        queue = new ArrayBlockingQueue<>(blocks);
+        reader = readers.submit(() -> readSource(blockSize));
+    }
+
+    /**
+     * Read the source and add the blocks to the queue, runs on a reader thread
+     * 
+     * @param blockSize the maximum size of a block
+     */
+    private void readSource(int blockSize) {
+        boolean interrupted = false;
+        try {
+            byte[] buffer = new byte[blockSize];
+            int count;
+            while (!closed && (count = source.read(buffer)) != -1) {
+                if (count > 0) {
+                    queue.put(count == blockSize ? buffer : Arrays.copyOf(buffer, count));
+                    if (count == blockSize) {
+                        buffer = new byte[blockSize];
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            // closed
+            interrupted = true;
+        } catch (Throwable t) { // NOSONAR the consumer would otherwise wait for EOF forever
+            if (!closed) {
+                exception = t;
+            }
+        } finally {
+            if (!interrupted) {
+                try {
+                    queue.put(EOF);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Make sure we have a block with unread data
+     * 
+     * @return false if the end of the data has been reached
+     * @throws IOException if the source threw an exception or we were interrupted
+     */
+    private boolean fill() throws IOException {
+        if (current == EOF) {
+            return false;
+        }
+        if (current == null || pos >= current.length) {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            try {
+                current = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(e.getMessage());
+            }
+            pos = 0;
+            if (current == EOF) {
+                rethrow();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Rethrow an exception from the reader thread if there was one
+     * 
+     * @throws IOException the exception thrown by the source or wrapping an unexpected checked exception
+     */
+    private void rethrow() throws IOException {
+        Throwable t = exception;
+        if (t == null) {
+            return;
+        }
+        if (t instanceof IOException) {
+            throw (IOException) t;
+        }
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        throw new IOException(t);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return current[pos++] & 0xFF;
+    }
+
+    @Override
+    public int read(@NonNull byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int count = Math.min(len, current.length - pos);
+        System.arraycopy(current, pos, b, off, count);
+        pos += count;
+        return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return current != null && current != EOF ? current.length - pos : 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            reader.cancel(true);
+            queue.clear();
+            try {
+                source.close();
+            } catch (IOException e) {
+                Log.e(DEBUG_TAG, "Closing source failed " + e.getMessage());
+            }
+        }
+    }
+}
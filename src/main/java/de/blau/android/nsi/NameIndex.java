@@ -0,0 +1,631 @@
+package de.blau.android.nsi;
+
+import static de.blau.android.contract.Constants.LOG_TAG_LEN;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import de.blau.android.util.SearchIndexUtils;
+
+/**
+ * On disk index for the name suggestion index
+ * 
+ * The entries are stored in one file that is memory mapped and only decoded when they are actually needed. A second,
+ * much smaller, file contains the indices that are held in memory:
+ * 
+ * <ul>
+ * <li>the sorted normalized names, allowing prefix searches, with the entries for each name</li>
+ * <li>the entries for each indexed tag</li>
+ * <li>bit sets of the entries included and excluded per region</li>
+ * </ul>
+ * 
+ * Both files start with a header containing the format version and a key identifying the source data, if either
+ * doesn't match the index needs to be rebuilt.
+ */
+final class NameIndex {
+
+    private static final int    TAG_LEN   = Math.min(LOG_TAG_LEN, NameIndex.class.getSimpleName().length());
+    private static final String DEBUG_TAG = NameIndex.class.getSimpleName().substring(0, TAG_LEN);
+
+    private static final int VERSION     = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int NO_REGIONS  = -1;
+
+    static final String ENTRIES_FILE = "nsi-entries.dat";
+    static final String INDEX_FILE   = "nsi-index.dat";
+
+    private final ByteBuffer          entries;
+    private final int[]               offsets;
+    private final String[]            keys;
+    private final int[]               keyStart;
+    private final int[]               keyEntries;
+    private final Map<String, int[]>  tagIndex;
+    private final BitSet              global;
+    private final Map<String, BitSet> include;
+    private final Map<String, BitSet> exclude;
+
+    /**
+     * Raw contents of an entry
+     */
+    static final class Entry {
+        String              name;
+        Map<String, String> tags = new HashMap<>();
+        List<String>        includeRegions;
+        List<String>        excludeRegions;
+    }
+
+    /**
+     * Construct a new index
+     * 
+     * @param entries the buffer containing the entries
+     * @param offsets offsets of the entries in the buffer
+     * @param keys the sorted normalized names
+     * @param keyStart start of the entries for each name in keyEntries
+     * @param keyEntries the entries for the names
+     * @param tagIndex the entries for each indexed tag
+     * @param global the entries that are not restricted to specific regions
+     * @param include the entries that are included per region
+     * @param exclude the entries that are excluded per region
+     */
+    private NameIndex(@NonNull ByteBuffer entries, @NonNull int[] offsets, @NonNull String[] keys, @NonNull int[] keyStart, @NonNull int[] keyEntries,
+            @NonNull Map<String, int[]> tagIndex, @NonNull BitSet global, @NonNull Map<String, BitSet> include, @NonNull Map<String, BitSet> exclude) {
+        this.entries = entries;
+        this.offsets = offsets;
+        this.keys = keys;
+        this.keyStart = keyStart;
+        this.keyEntries = keyEntries;
+        this.tagIndex = tagIndex;
+        this.global = global;
+        this.include = include;
+        this.exclude = exclude;
+    }
+
+    /**
+     * Open an existing index
+     * 
+     * @param directory the directory containing the index files
+     * @param sourceKey a key identifying the source data
+     * @return the NameIndex or null if it doesn't exist, is stale or can't be read
+     */
+    @Nullable
+    static NameIndex open(@NonNull File directory, @NonNull String sourceKey) {
+        File entriesFile = new File(directory, ENTRIES_FILE);
+        File indexFile = new File(directory, INDEX_FILE);
+        if (!entriesFile.exists() || !indexFile.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), BUFFER_SIZE))) {
+            if (!checkHeader(in, sourceKey)) {
+                Log.i(DEBUG_TAG, "Stale index");
+                return null;
+            }
+            int[] offsets = readInts(in);
+            int keyCount = in.readInt();
+            String[] keys = new String[keyCount];
+            int[] keyStart = new int[keyCount + 1];
+            for (int i = 0; i < keyCount; i++) {
+                keys[i] = in.readUTF();
+                keyStart[i + 1] = in.readInt();
+            }
+            int[] keyEntries = readInts(in);
+            int tagCount = in.readInt();
+            Map<String, int[]> tagIndex = new HashMap<>();
+            for (int i = 0; i < tagCount; i++) {
+                tagIndex.put(in.readUTF(), readInts(in));
+            }
+            BitSet global = BitSet.valueOf(readLongs(in));
+            Map<String, BitSet> include = readRegions(in);
+            Map<String, BitSet> exclude = readRegions(in);
+            return new NameIndex(map(entriesFile, sourceKey), offsets, keys, keyStart, keyEntries, tagIndex, global, include, exclude);
+        } catch (IOException | IllegalStateException e) {
+            Log.e(DEBUG_TAG, "Reading index failed " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Memory map the entries file
+     * 
+     * @param entriesFile the file
+     * @param sourceKey a key identifying the source data
+     * @return a read only ByteBuffer positioned after the header
+     * @throws IOException if the file can't be read or is stale
+     */
+    @NonNull
+    private static ByteBuffer map(@NonNull File entriesFile, @NonNull String sourceKey) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(entriesFile, "r"); FileChannel channel = file.getChannel()) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != VERSION || !sourceKey.equals(readString(buffer))) {
+                throw new IOException("Stale entries file");
+            }
+            return buffer;
+        }
+    }
+
+    /**
+     * Check the version and source key
+     * 
+     * @param in the input
+     * @param sourceKey a key identifying the source data
+     * @return true if the header matches
+     * @throws IOException if reading fails
+     */
+    private static boolean checkHeader(@NonNull DataInputStream in, @NonNull String sourceKey) throws IOException {
+        return in.readInt() == VERSION && sourceKey.equals(in.readUTF());
+    }
+
+    /**
+     * Read a length prefixed array of ints
+     * 
+     * @param in the input
+     * @return the array
+     * @throws IOException if reading fails
+     */
+    @NonNull
+    private static int[] readInts(@NonNull DataInputStream in) throws IOException {
+        int[] result = new int[in.readInt()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = in.readInt();
+        }
+        return result;
+    }
+
+    /**
+     * Read a length prefixed array of longs
+     * 
+     * @param in the input
+     * @return the array
+     * @throws IOException if reading fails
+     */
+    @NonNull
+    private static long[] readLongs(@NonNull DataInputStream in) throws IOException {
+        long[] result = new long[in.readInt()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = in.readLong();
+        }
+        return result;
+    }
+
+    /**
+     * Read the per region bit sets
+     * 
+     * @param in the input
+     * @return a map from region code to BitSet
+     * @throws IOException if reading fails
+     */
+    @NonNull
+    private static Map<String, BitSet> readRegions(@NonNull DataInputStream in) throws IOException {
+        int count = in.readInt();
+        Map<String, BitSet> result = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            result.put(in.readUTF(), BitSet.valueOf(readLongs(in)));
+        }
+        return result;
+    }
+
+    /**
+     * Read a length prefixed UTF-8 string from a buffer
+     * 
+     * @param buffer the ByteBuffer
+     * @return the String
+     */
+    @NonNull
+    private static String readString(@NonNull ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read a list of region codes from a buffer
+     * 
+     * @param buffer the ByteBuffer
+     * @return a List of codes or null
+     */
+    @Nullable
+    private static List<String> readRegionList(@NonNull ByteBuffer buffer) {
+        int count = buffer.getShort();
+        if (count == NO_REGIONS) {
+            return null;
+        }
+        List<String> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(readString(buffer));
+        }
+        return result;
+    }
+
+    /**
+     * Get the number of entries
+     * 
+     * @return the entry count
+     */
+    int size() {
+        return offsets.length;
+    }
+
+    /**
+     * Decode an entry
+     * 
+     * @param id the entry id
+     * @return the decoded Entry
+     */
+    @NonNull
+    Entry get(int id) {
+        ByteBuffer buffer = entries.duplicate();
+        buffer.position(offsets[id]);
+        Entry entry = new Entry();
+        entry.name = readString(buffer);
+        int tagCount = buffer.getShort();
+        for (int i = 0; i < tagCount; i++) {
+            entry.tags.put(readString(buffer), readString(buffer));
+        }
+        entry.includeRegions = readRegionList(buffer);
+        entry.excludeRegions = readRegionList(buffer);
+        return entry;
+    }
+
+    /**
+     * Get the entries that are in use in specific regions
+     * 
+     * @param regions the list of regions to check for, null == any region
+     * @return a BitSet with the entries or null if all are in use
+     */
+    @Nullable
+    BitSet inUseIn(@Nullable List<String> regions) {
+        if (regions == null) {
+            return null;
+        }
+        BitSet result = (BitSet) global.clone();
+        for (String region : regions) {
+            BitSet included = include.get(region);
+            if (included != null) {
+                result.or(included);
+            }
+        }
+        for (String region : regions) {
+            BitSet excluded = exclude.get(region);
+            if (excluded != null) {
+                result.andNot(excluded);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the entries with a specific tag
+     * 
+     * @param tag the tag in key=value format
+     * @return an array of entry ids, empty if the tag isn't indexed
+     */
+    @NonNull
+    int[] getByTag(@NonNull String tag) {
+        int[] result = tagIndex.get(tag);
+        return result != null ? result : new int[0];
+    }
+
+    /**
+     * Get the sorted normalized names
+     * 
+     * @return an unmodifiable List of the names
+     */
+    @NonNull
+    List<String> getKeys() {
+        return Collections.unmodifiableList(Arrays.asList(keys));
+    }
+
+    /**
+     * Get the entries for a normalized name
+     * 
+     * @param key the normalized name
+     * @return an array of entry ids, empty if there are none
+     */
+    @NonNull
+    int[] getByKey(@NonNull String key) {
+        int pos = Arrays.binarySearch(keys, key);
+        if (pos < 0) {
+            return new int[0];
+        }
+        return Arrays.copyOfRange(keyEntries, keyStart[pos], keyStart[pos + 1]);
+    }
+
+    /**
+     * Get the normalized names starting with a prefix
+     * 
+     * @param prefix the normalized prefix
+     * @return an unmodifiable List of the names
+     */
+    @NonNull
+    List<String> getKeysWithPrefix(@NonNull String prefix) {
+        int start = Arrays.binarySearch(keys, prefix);
+        if (start < 0) {
+            start = -start - 1;
+        }
+        int end = start;
+        while (end < keys.length && keys[end].startsWith(prefix)) {
+            end++;
+        }
+        return Collections.unmodifiableList(Arrays.asList(keys).subList(start, end));
+    }
+
+    /**
+     * Builds a new index from the source data
+     */
+    static final class Builder {
+        private final File                       directory;
+        private final String                     sourceKey;
+        private final Set<String>                indexedKeys;
+        private final File                       tempEntriesFile;
+        private final DataOutputStream           out;
+        private final List<Integer>              offsets = new ArrayList<>();
+        private final Map<String, List<Integer>> names = new HashMap<>();
+        private final Map<String, List<Integer>> tags = new HashMap<>();
+        private final BitSet                     global = new BitSet();
+        private final Map<String, BitSet>        include = new HashMap<>();
+        private final Map<String, BitSet>        exclude = new HashMap<>();
+
+        /**
+         * Construct a new Builder
+         * 
+         * @param directory the directory the index files will be written to
+         * @param sourceKey a key identifying the source data
+         * @param indexedKeys the tag keys that should be indexed
+         * @throws IOException if the entries file can't be created
+         */
+        Builder(@NonNull File directory, @NonNull String sourceKey, @NonNull Set<String> indexedKeys) throws IOException {
+            this.directory = directory;
+            this.sourceKey = sourceKey;
+            this.indexedKeys = indexedKeys;
+            tempEntriesFile = new File(directory, ENTRIES_FILE + ".tmp");
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempEntriesFile), BUFFER_SIZE));
+            out.writeInt(VERSION);
+            writeString(out, sourceKey);
+        }
+
+        /**
+         * Add an entry
+         * 
+         * @param name the name
+         * @param entryTags the tags
+         * @param includeRegions regions the entry is applicable to or null
+         * @param excludeRegions regions the entry is not applicable to or null
+         * @throws IOException if writing fails
+         */
+        void add(@NonNull String name, @NonNull Map<String, String> entryTags, @Nullable List<String> includeRegions, @Nullable List<String> excludeRegions)
+                throws IOException {
+            int id = offsets.size();
+            offsets.add(out.size());
+            writeString(out, name);
+            out.writeShort(entryTags.size());
+            for (Map.Entry<String, String> tag : entryTags.entrySet()) {
+                writeString(out, tag.getKey());
+                writeString(out, tag.getValue());
+                if (indexedKeys.contains(tag.getKey())) {
+                    add(tags, tag.getKey() + "=" + tag.getValue(), id);
+                }
+            }
+            writeRegionList(out, includeRegions);
+            writeRegionList(out, excludeRegions);
+            add(names, SearchIndexUtils.normalize(name), id);
+            if (includeRegions == null) {
+                global.set(id);
+            } else {
+                setRegions(include, includeRegions, id);
+            }
+            if (excludeRegions != null) {
+                setRegions(exclude, excludeRegions, id);
+            }
+        }
+
+        /**
+         * Add an id to the list for a key
+         * 
+         * @param map the target map
+         * @param key the key
+         * @param id the entry id
+         */
+        private static void add(@NonNull Map<String, List<Integer>> map, @NonNull String key, int id) {
+            List<Integer> ids = map.get(key);
+            if (ids == null) {
+                ids = new ArrayList<>();
+                map.put(key, ids);
+            }
+            ids.add(id);
+        }
+
+        /**
+         * Set the bit for an entry for a list of regions
+         * 
+         * @param map map from region code to BitSet
+         * @param regions the region codes
+         * @param id the entry id
+         */
+        private static void setRegions(@NonNull Map<String, BitSet> map, @NonNull List<String> regions, int id) {
+            for (String region : regions) {
+                BitSet bits = map.get(region);
+                if (bits == null) {
+                    bits = new BitSet();
+                    map.put(region, bits);
+                }
+                bits.set(id);
+            }
+        }
+
+        /**
+         * Write the index and return it
+         * 
+         * @return the new NameIndex
+         * @throws IOException if writing fails
+         */
+        @NonNull
+        NameIndex finish() throws IOException {
+            out.close();
+            int[] entryOffsets = toArray(offsets);
+            String[] keys = names.keySet().toArray(new String[0]);
+            Arrays.sort(keys);
+            int[] keyStart = new int[keys.length + 1];
+            List<Integer> keyEntryList = new ArrayList<>();
+            for (int i = 0; i < keys.length; i++) {
+                keyEntryList.addAll(names.get(keys[i]));
+                keyStart[i + 1] = keyEntryList.size();
+            }
+            int[] keyEntries = toArray(keyEntryList);
+            Map<String, int[]> tagIndex = new HashMap<>();
+            for (Map.Entry<String, List<Integer>> e : tags.entrySet()) {
+                tagIndex.put(e.getKey(), toArray(e.getValue()));
+            }
+            File tempIndexFile = new File(directory, INDEX_FILE + ".tmp");
+            try (DataOutputStream indexOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempIndexFile), BUFFER_SIZE))) {
+                indexOut.writeInt(VERSION);
+                indexOut.writeUTF(sourceKey);
+                writeInts(indexOut, entryOffsets);
+                indexOut.writeInt(keys.length);
+                for (int i = 0; i < keys.length; i++) {
+                    indexOut.writeUTF(keys[i]);
+                    indexOut.writeInt(keyStart[i + 1]);
+                }
+                writeInts(indexOut, keyEntries);
+                indexOut.writeInt(tagIndex.size());
+                for (Map.Entry<String, int[]> e : tagIndex.entrySet()) {
+                    indexOut.writeUTF(e.getKey());
+                    writeInts(indexOut, e.getValue());
+                }
+                writeLongs(indexOut, global.toLongArray());
+                writeRegions(indexOut, include);
+                writeRegions(indexOut, exclude);
+            }
+            File entriesFile = new File(directory, ENTRIES_FILE);
+            File indexFile = new File(directory, INDEX_FILE);
+            if (!tempEntriesFile.renameTo(entriesFile) || !tempIndexFile.renameTo(indexFile)) {
+                throw new IOException("Renaming index files failed");
+            }
+            Log.i(DEBUG_TAG, "Wrote index with " + entryOffsets.length + " entries and " + keys.length + " names");
+            return new NameIndex(map(entriesFile, sourceKey), entryOffsets, keys, keyStart, keyEntries, tagIndex, global, include, exclude);
+        }
+
+        /**
+         * Abandon building the index and remove any temporary files
+         */
+        void abort() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            tempEntriesFile.delete(); // NOSONAR
+        }
+
+        /**
+         * Convert a List of Integer to an int array
+         * 
+         * @param list the List
+         * @return an int array
+         */
+        @NonNull
+        private static int[] toArray(@NonNull List<Integer> list) {
+            int[] result = new int[list.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = list.get(i);
+            }
+            return result;
+        }
+
+        /**
+         * Write a length prefixed UTF-8 string
+         * 
+         * @param out the output
+         * @param s the String
+         * @throws IOException if writing fails
+         */
+        private static void writeString(@NonNull DataOutputStream out, @NonNull String s) throws IOException {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0xFFFF) {
+                throw new IOException("String too long");
+            }
+            out.writeShort(bytes.length);
+            out.write(bytes);
+        }
+
+        /**
+         * Write a list of region codes
+         * 
+         * @param out the output
+         * @param regions the region codes or null
+         * @throws IOException if writing fails
+         */
+        private static void writeRegionList(@NonNull DataOutputStream out, @Nullable List<String> regions) throws IOException {
+            if (regions == null) {
+                out.writeShort(NO_REGIONS);
+                return;
+            }
+            out.writeShort(regions.size());
+            for (String region : regions) {
+                writeString(out, region);
+            }
+        }
+
+        /**
+         * Write a length prefixed array of ints
+         * 
+         * @param out the output
+         * @param values the values
+         * @throws IOException if writing fails
+         */
+        private static void writeInts(@NonNull DataOutputStream out, @NonNull int[] values) throws IOException {
+            out.writeInt(values.length);
+            for (int v : values) {
+                out.writeInt(v);
+            }
+        }
+
+        /**
+         * Write a length prefixed array of longs
+         * 
+         * @param out the output
+         * @param values the values
+         * @throws IOException if writing fails
+         */
+        private static void writeLongs(@NonNull DataOutputStream out, @NonNull long[] values) throws IOException {
+            out.writeInt(values.length);
+            for (long v : values) {
+                out.writeLong(v);
+            }
+        }
+
+        /**
+         * Write the per region bit sets
+         * 
+         * @param out the output
+         * @param regions map from region code to BitSet
+         * @throws IOException if writing fails
+         */
+        private static void writeRegions(@NonNull DataOutputStream out, @NonNull Map<String, BitSet> regions) throws IOException {
+            out.writeInt(regions.size());
+            for (Map.Entry<String, BitSet> e : regions.entrySet()) {
+                out.writeUTF(e.getKey());
+                writeLongs(out, e.getValue().toLongArray());
+            }
+        }
+    }
+}
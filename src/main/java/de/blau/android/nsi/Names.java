@@ -2,12 +2,15 @@ package de.blau.android.nsi;
 
 import static de.blau.android.contract.Constants.LOG_TAG_LEN;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -25,8 +28,8 @@ import android.content.res.AssetManager;
 import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import de.blau.android.BuildConfig;
 import de.blau.android.osm.Tags;
-import de.blau.android.util.SearchIndexUtils;
 import de.blau.android.util.collections.MultiHashMap;
 
 /**
@@ -205,40 +208,50 @@ public class Names {
         }
     }
 
-    private static MultiHashMap<String, NameAndTags> nameList       = new MultiHashMap<>(false); // names -> multiple
-                                                                                                 // entries
-    private static MultiHashMap<String, NameAndTags> tags2namesList = new MultiHashMap<>(false); // tagmap -A multiple
-                                                                                                 // entries
-    private static MultiHashMap<String, String>      categories     = new MultiHashMap<>(false);
+    private static NameIndex                    index      = null;
+    private static MultiHashMap<String, String> categories = new MultiHashMap<>(false);
 
     private static boolean ready = false;
 
     /**
      * Construct a new instance of the data structure holding names and tags
      * 
-     * The contents are currently read from a hardwired file as the
+     * The contents are read from a hardwired file, on first use, and after the file has changed, an on disk index is
+     * generated from it, later on only the index is read and entries are only materialized when they are needed
      * 
      * @param ctx an Android Context
      */
     public Names(@NonNull Context ctx) {
-        synchronized (nameList) {
+        synchronized (categories) {
             if (!ready) {
                 Log.d(DEBUG_TAG, "Parsing configuration files");
                 AssetManager assetManager = ctx.getAssets();
-                readNSI(assetManager);
                 readCategories(assetManager);
+                File directory = ctx.getFilesDir();
+                String sourceKey = BuildConfig.VERSION_CODE + "|" + BuildConfig.VERSION_NAME;
+                index = NameIndex.open(directory, sourceKey);
+                if (index == null) {
+                    Log.i(DEBUG_TAG, "Generating index");
+                    index = readNSI(assetManager, directory, sourceKey);
+                }
                 ready = true;
             }
         }
     }
 
     /**
-     * Read the NSI configuration from assets
+     * Read the NSI configuration from assets and generate the on disk index
      * 
      * @param assetManager an AssetManager instance
+     * @param directory the directory to write the index to
+     * @param sourceKey a key identifying the source data
+     * @return the NameIndex or null if it could not be generated
      */
-    private void readNSI(@NonNull AssetManager assetManager) {
+    @Nullable
+    private NameIndex readNSI(@NonNull AssetManager assetManager, @NonNull File directory, @NonNull String sourceKey) {
+        NameIndex.Builder builder = null;
         try (InputStream is = assetManager.open(NSI_FILE); JsonReader reader = new JsonReader(new InputStreamReader(is))) {
+            builder = new NameIndex.Builder(directory, sourceKey, getIndexedKeys());
             reader.beginObject(); // top level
             while (reader.hasNext()) {
                 if (NSI_FIELD.equals(reader.nextName())) {
@@ -292,9 +305,7 @@ public class Names {
                                     } // item
                                     reader.endObject();
                                     if (name != null) {
-                                        NameAndTags entry = new NameAndTags(name, tags, 1, includeRegions, excludeRegions);
-                                        nameList.add(name, entry);
-                                        tags2namesList.add(tags.toString(), entry);
+                                        builder.add(name, tags, includeRegions, excludeRegions);
                                     }
                                 } // items
                                 reader.endArray();
@@ -312,9 +323,33 @@ public class Names {
                 }
             }
             reader.endObject(); // top level
+            return builder.finish();
         } catch (IOException | IllegalStateException e) {
             Log.e(DEBUG_TAG, "Got exception reading " + NSI_FILE + " " + e.getMessage());
+            if (builder != null) {
+                builder.abort();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the keys of the tags that are used for looking up entries
+     * 
+     * @return a Set of keys
+     */
+    @NonNull
+    private Set<String> getIndexedKeys() {
+        Set<String> result = new HashSet<>(Arrays.asList(Tags.KEY_AMENITY, Tags.KEY_SHOP, Tags.KEY_TOURISM));
+        for (String category : categories.getKeys()) {
+            for (String tag : categories.get(category)) {
+                int eq = tag.indexOf('=');
+                if (eq > 0) {
+                    result.add(tag.substring(0, eq));
+                }
+            }
         }
+        return result;
     }
 
     /**
@@ -438,18 +473,14 @@ public class Names {
 
         // filter on the tags
         List<NameAndTags> result = new ArrayList<>();
+        if (index == null) {
+            return result;
+        }
+        BitSet inUse = index.inUseIn(regions);
+        BitSet added = new BitSet();
 
         String origTagKey = tm.toString();
-
-        for (String key : tags2namesList.getKeys()) {
-            if (key.contains(origTagKey)) {
-                for (NameAndTags nt : tags2namesList.get(key)) {
-                    if (nt.inUseIn(regions)) {
-                        result.add(nt);
-                    }
-                }
-            }
-        }
+        addEntries(result, index.getByTag(origTagKey), inUse, added);
 
         Set<String> seen = new TreeSet<>();
         // check categories for similar tags and add names from them too
@@ -459,15 +490,7 @@ public class Names {
             if (set.contains(origTagKey)) {
                 for (String catTagKey : set) { // loop over categories content
                     if (!seen.contains(catTagKey)) { // suppress dups
-                        for (String key : tags2namesList.getKeys()) {
-                            if (key.contains(catTagKey)) {
-                                for (NameAndTags nt : tags2namesList.get(key)) {
-                                    if (nt.inUseIn(regions)) {
-                                        result.add(nt);
-                                    }
-                                }
-                            }
-                        }
+                        addEntries(result, index.getByTag(catTagKey), inUse, added);
                         seen.add(catTagKey);
                     }
                 }
@@ -477,19 +500,34 @@ public class Names {
     }
 
     /**
-     * Get all entries
+     * Materialize entries and add them to a List
      * 
-     * @return a List containing all NameAndTags objects
+     * @param result the target List
+     * @param ids the ids of the entries
+     * @param inUse the entries that are in use in the current regions or null for all
+     * @param added entries that have already been added, updated by this method
      */
-    @NonNull
-    private List<NameAndTags> getNames() {
-        List<NameAndTags> result = new ArrayList<>();
-        for (String n : nameList.getKeys()) {
-            for (NameAndTags nt : nameList.get(n)) {
-                result.add(nt);
+    private void addEntries(@NonNull List<NameAndTags> result, @NonNull int[] ids, @Nullable BitSet inUse, @NonNull BitSet added) {
+        for (int id : ids) {
+            if ((inUse == null || inUse.get(id)) && !added.get(id)) {
+                result.add(getEntry(id));
+                added.set(id);
             }
         }
-        return result;
+    }
+
+    /**
+     * Materialize an entry from the index
+     * 
+     * @param id the id of the entry
+     * @return a new NameAndTags instance
+     */
+    @NonNull
+    private NameAndTags getEntry(int id) {
+        NameIndex.Entry entry = index.get(id);
+        TagMap tags = new TagMap();
+        tags.putAll(entry.tags);
+        return new NameAndTags(entry.name, tags, 1, entry.includeRegions, entry.excludeRegions);
     }
 
     /**
@@ -501,26 +539,52 @@ public class Names {
     @NonNull
     private List<NameAndTags> getNames(@Nullable List<String> regions) {
         List<NameAndTags> result = new ArrayList<>();
-        for (String n : nameList.getKeys()) {
-            for (NameAndTags nt : nameList.get(n)) {
-                if (nt.inUseIn(regions)) {
-                    result.add(nt);
-                }
+        if (index == null) {
+            return result;
+        }
+        BitSet inUse = index.inUseIn(regions);
+        for (int id = 0; id < index.size(); id++) {
+            if (inUse == null || inUse.get(id)) {
+                result.add(getEntry(id));
             }
         }
         return result;
     }
 
     /**
-     * Return a mapping from normalized name values to entries
+     * Get the normalized names of all entries
+     * 
+     * @return a sorted List of normalized names
+     */
+    @NonNull
+    public List<String> getSearchKeys() {
+        return index != null ? index.getKeys() : new ArrayList<>();
+    }
+
+    /**
+     * Get the normalized names of entries that start with a prefix
+     * 
+     * @param prefix the normalized prefix
+     * @return a sorted List of normalized names
+     */
+    @NonNull
+    public List<String> getSearchKeys(@NonNull String prefix) {
+        return index != null ? index.getKeysWithPrefix(prefix) : new ArrayList<>();
+    }
+
+    /**
+     * Get the entries for a normalized name
      * 
-     * @return a map from normalized names to NameAndTags objects
+     * @param normalizedName the normalized name
+     * @return a List of NameAndTags, empty if there are none
      */
-    public MultiHashMap<String, NameAndTags> getSearchIndex() {
-        MultiHashMap<String, NameAndTags> result = new MultiHashMap<>();
-        List<NameAndTags> names = getNames();
-        for (NameAndTags nat : names) {
-            result.add(SearchIndexUtils.normalize(nat.getName()), nat);
+    @NonNull
+    public List<NameAndTags> getByNormalizedName(@NonNull String normalizedName) {
+        List<NameAndTags> result = new ArrayList<>();
+        if (index != null) {
+            for (int id : index.getByKey(normalizedName)) {
+                result.add(getEntry(id));
+            }
         }
         return result;
     }
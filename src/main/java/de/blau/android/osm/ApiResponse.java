@@ -66,16 +66,29 @@ public final class ApiResponse {
 
     public static class VersionConflict extends Conflict implements Serializable {
 
-        private static final long serialVersionUID = 1L;
+        private static final long serialVersionUID = 2L;
+
+        private final long serverVersion;
 
         /**
          * Construct a new instance for a local - server version conflict
          * 
          * @param type element type
          * @param id element id
+         * @param serverVersion the version of the element on the server
          */
-        public VersionConflict(@NonNull String type, long id) {
+        public VersionConflict(@NonNull String type, long id, long serverVersion) {
             super(type, id);
+            this.serverVersion = serverVersion;
+        }
+
+        /**
+         * Get the version of the element on the server
+         * 
+         * @return the server version
+         */
+        public long getServerVersion() {
+            return serverVersion;
         }
     }
 
@@ -264,7 +277,7 @@ public final class ApiResponse {
         case HttpURLConnection.HTTP_CONFLICT:
             Matcher m = ERROR_MESSAGE_VERSION_CONFLICT.matcher(message);
             if (m.matches()) {
-                return new VersionConflict(mapResponseToType(m.group(3)), Long.parseLong(m.group(4)));
+                return new VersionConflict(mapResponseToType(m.group(3)), Long.parseLong(m.group(4)), Long.parseLong(m.group(2)));
             }
             m = ERROR_MESSAGE_CLOSED_CHANGESET.matcher(message);
             if (m.matches()) {
@@ -0,0 +1,598 @@
+package de.blau.android.osm;
+
+import static de.blau.android.contract.Constants.LOG_TAG_LEN;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.Serializable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import de.blau.android.util.Util;
+
+/**
+ * On device store of element versions we have seen on the server
+ * 
+ * Versions are recorded when data is downloaded and after it has been uploaded, this allows conflicts to be inspected
+ * and merged against the common base version without downloading the history of the element. Untagged nodes are not
+ * recorded as they are only relevant for their position. The number of stored versions is limited, when the limit is
+ * exceeded the versions that were recorded least recently are removed.
+ * 
+ * Downloaded data is recorded on a background thread, the element data is copied before returning so later edits
+ * don't change what is recorded.
+ */
+public class ElementHistory extends SQLiteOpenHelper {
+
+    private static final int    TAG_LEN   = Math.min(LOG_TAG_LEN, ElementHistory.class.getSimpleName().length());
+    private static final String DEBUG_TAG = ElementHistory.class.getSimpleName().substring(0, TAG_LEN);
+
+    public static final String DATABASE_NAME    = "history";
+    private static final int   DATABASE_VERSION = 1;
+
+    public static final int DEFAULT_LIMIT = 100000;
+    private static int      limit         = DEFAULT_LIMIT;
+
+    private static final String HISTORY_TABLE      = "history";
+    private static final String TYPE_FIELD         = "type";
+    private static final String ID_FIELD           = "id";
+    private static final String VERSION_FIELD      = "version";
+    private static final String TIMESTAMP_FIELD    = "timestamp";
+    private static final String LAT_FIELD          = "lat";
+    private static final String LON_FIELD          = "lon";
+    private static final String TAGS_FIELD         = "tags";
+    private static final String NODES_FIELD        = "nodes";
+    private static final String MEMBERS_FIELD      = "members";
+    private static final String ELEMENT_WHERE      = TYPE_FIELD + "=? AND " + ID_FIELD + "=?";
+    private static final String VERSION_WHERE      = ELEMENT_WHERE + " AND " + VERSION_FIELD + "=?";
+    private static final String VERSION_DESCENDING = VERSION_FIELD + " DESC";
+
+    private static final String INSERT = "INSERT OR REPLACE INTO " + HISTORY_TABLE + " (" + TYPE_FIELD + "," + ID_FIELD + "," + VERSION_FIELD + ","
+            + TIMESTAMP_FIELD + "," + LAT_FIELD + "," + LON_FIELD + "," + TAGS_FIELD + "," + NODES_FIELD + "," + MEMBERS_FIELD + ") VALUES (?,?,?,?,?,?,?,?,?)";
+    private static final String TRIM   = "DELETE FROM " + HISTORY_TABLE + " WHERE rowid IN (SELECT rowid FROM " + HISTORY_TABLE + " ORDER BY rowid LIMIT ?)";
+
+    private final ThreadPoolExecutor recordExecutor = (ThreadPoolExecutor) Executors.newFixedThreadPool(1);
+
+    /**
+     * Upper bound for the number of rows, -1 if not known yet
+     */
+    private long estimatedCount = -1;
+
+    /**
+     * A recorded version of an element
+     */
+    public static final class Version implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String                    type;
+        private final long                      osmId;
+        private final long                      osmVersion;
+        private final long                      timestamp;
+        private final int                       lat;
+        private final int                       lon;
+        private final SortedMap<String, String> tags;
+        private final long[]                    nodeIds;
+        private final List<RelationMember>      members;
+
+        /**
+         * Construct a new Version
+         * 
+         * @param type the element type
+         * @param osmId the element id
+         * @param osmVersion the element version
+         * @param timestamp the timestamp (seconds since the UNIX epoch)
+         * @param lat the latitude of a Node (WGS84*1E7)
+         * @param lon the longitude of a Node (WGS84*1E7)
+         * @param tags the tags
+         * @param nodeIds the ids of the way nodes of a Way or null
+         * @param members the members of a Relation or null
+         */
+        private Version(@NonNull String type, long osmId, long osmVersion, long timestamp, int lat, int lon, @NonNull SortedMap<String, String> tags,
+                @Nullable long[] nodeIds, @Nullable List<RelationMember> members) {
+            this.type = type;
+            this.osmId = osmId;
+            this.osmVersion = osmVersion;
+            this.timestamp = timestamp;
+            this.lat = lat;
+            this.lon = lon;
+            this.tags = tags;
+            this.nodeIds = nodeIds;
+            this.members = members;
+        }
+
+        /**
+         * Create a Version from the current state of an element
+         * 
+         * @param e the OsmElement
+         * @return a new Version that doesn't reference e
+         */
+        @NonNull
+        private static Version of(@NonNull OsmElement e) {
+            int lat = 0;
+            int lon = 0;
+            long[] nodeIds = null;
+            List<RelationMember> members = null;
+            if (e instanceof Node) {
+                lat = ((Node) e).getLat();
+                lon = ((Node) e).getLon();
+            } else if (e instanceof Way) {
+                List<Node> nodes = ((Way) e).getNodes();
+                nodeIds = new long[nodes.size()];
+                for (int i = 0; i < nodeIds.length; i++) {
+                    nodeIds[i] = nodes.get(i).getOsmId();
+                }
+            } else if (e instanceof Relation) {
+                members = new ArrayList<>();
+                for (RelationMember member : ((Relation) e).getMembers()) {
+                    members.add(new RelationMember(member.getType(), member.getRef(), member.getRole()));
+                }
+            }
+            return new Version(e.getName(), e.getOsmId(), e.getOsmVersion(), e.getTimestamp(), lat, lon, new TreeMap<>(e.getTags()), nodeIds, members);
+        }
+
+        /**
+         * Get the element type
+         * 
+         * @return the element type
+         */
+        @NonNull
+        public String getType() {
+            return type;
+        }
+
+        /**
+         * Get the element id
+         * 
+         * @return the element id
+         */
+        public long getOsmId() {
+            return osmId;
+        }
+
+        /**
+         * Get the element version
+         * 
+         * @return the element version
+         */
+        public long getOsmVersion() {
+            return osmVersion;
+        }
+
+        /**
+         * Get the tags
+         * 
+         * @return an unmodifiable view of the tags
+         */
+        @NonNull
+        public SortedMap<String, String> getTags() {
+            return Collections.unmodifiableSortedMap(tags);
+        }
+
+        /**
+         * Get the way node ids
+         * 
+         * @return the way node ids of a Way or null for other elements
+         */
+        @Nullable
+        public long[] getNodeIds() {
+            return nodeIds;
+        }
+
+        /**
+         * Create a detached element, with state unchanged, from this Version
+         * 
+         * Relation members are not resolved, way nodes are taken from storage
+         * 
+         * @param storage the Storage to retrieve way nodes from
+         * @return an OsmElement or null if way nodes are missing from storage
+         */
+        @Nullable
+        public OsmElement toElement(@NonNull Storage storage) {
+            OsmElement result;
+            switch (type) {
+            case Node.NAME:
+                result = OsmElementFactory.createNode(osmId, osmVersion, timestamp, OsmElement.STATE_UNCHANGED, lat, lon);
+                break;
+            case Way.NAME:
+                Way way = OsmElementFactory.createWay(osmId, osmVersion, timestamp, OsmElement.STATE_UNCHANGED);
+                for (long nodeId : nodeIds) {
+                    Node node = storage.getNode(nodeId);
+                    if (node == null) {
+                        return null;
+                    }
+                    way.addNode(node);
+                }
+                result = way;
+                break;
+            case Relation.NAME:
+                Relation relation = OsmElementFactory.createRelation(osmId, osmVersion, timestamp, OsmElement.STATE_UNCHANGED);
+                for (RelationMember member : members) {
+                    relation.addMember(new RelationMember(member));
+                }
+                result = relation;
+                break;
+            default:
+                throw new IllegalStateException("Unknown element type " + type);
+            }
+            result.addTags(tags);
+            return result;
+        }
+    }
+
+    /**
+     * Set the maximum number of versions to keep
+     * 
+     * @param maxVersions the maximum number of versions, 0 disables recording
+     */
+    public static void setLimit(int maxVersions) {
+        limit = maxVersions;
+    }
+
+    /**
+     * Construct a new instance, creating the underlying DB if necessary
+     * 
+     * @param context an Android Context
+     */
+    public ElementHistory(@NonNull final Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        try {
+            db.execSQL("CREATE TABLE " + HISTORY_TABLE
+                    + " (type TEXT NOT NULL, id INTEGER NOT NULL, version INTEGER NOT NULL, timestamp INTEGER, lat INTEGER, lon INTEGER, tags BLOB, nodes BLOB, members BLOB,"
+                    + " PRIMARY KEY(type, id, version))");
+        } catch (SQLException e) {
+            Log.w(DEBUG_TAG, "Problem creating database", e);
+        }
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        Log.d(DEBUG_TAG, "Upgrading database from version " + oldVersion + " to " + newVersion);
+    }
+
+    /**
+     * Check if we record this element
+     * 
+     * @param e the OsmElement
+     * @return true if the element should be recorded
+     */
+    private static boolean isRecorded(@NonNull OsmElement e) {
+        return e.getOsmId() > 0 && e.getState() == OsmElement.STATE_UNCHANGED && (!(e instanceof Node) || e.hasTags());
+    }
+
+    /**
+     * Record the versions of the elements in a Storage in the background
+     * 
+     * @param storage the Storage
+     * @return a Future that completes when the versions have been written
+     */
+    @NonNull
+    public Future<?> recordAsync(@NonNull Storage storage) {
+        final List<Version> versions = new ArrayList<>();
+        if (limit > 0) {
+            addVersions(storage.getNodes(), versions);
+            addVersions(storage.getWays(), versions);
+            addVersions(storage.getRelations(), versions);
+        }
+        FutureTask<Void> task = new FutureTask<>(() -> write(versions), null);
+        try {
+            recordExecutor.execute(task);
+        } catch (RejectedExecutionException rjee) {
+            // closed, record synchronously
+            task.run();
+        }
+        return task;
+    }
+
+    /**
+     * Record the current versions of some elements
+     * 
+     * Only unchanged elements are recorded, untagged nodes are ignored
+     * 
+     * @param elements the OsmElements
+     */
+    public void record(@NonNull Collection<? extends OsmElement> elements) {
+        if (limit <= 0) {
+            return;
+        }
+        List<Version> versions = new ArrayList<>();
+        addVersions(elements, versions);
+        write(versions);
+    }
+
+    /**
+     * Copy the versions of the elements that are recorded
+     * 
+     * @param elements the OsmElements
+     * @param versions the List to add the copies to
+     */
+    private static void addVersions(@NonNull Collection<? extends OsmElement> elements, @NonNull List<Version> versions) {
+        for (OsmElement e : elements) {
+            if (isRecorded(e)) {
+                versions.add(Version.of(e));
+            }
+        }
+    }
+
+    /**
+     * Write versions to the database and remove the oldest ones if there are too many
+     * 
+     * @param versions the Versions to write
+     */
+    private synchronized void write(@NonNull List<Version> versions) {
+        if (limit <= 0 || versions.isEmpty()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try (SQLiteStatement insert = db.compileStatement(INSERT)) {
+            for (Version v : versions) {
+                insert.clearBindings();
+                insert.bindString(1, v.type);
+                insert.bindLong(2, v.osmId);
+                insert.bindLong(3, v.osmVersion);
+                insert.bindLong(4, v.timestamp);
+                if (Node.NAME.equals(v.type)) {
+                    insert.bindLong(5, v.lat);
+                    insert.bindLong(6, v.lon);
+                }
+                insert.bindBlob(7, encodeTags(v.tags));
+                if (v.nodeIds != null) {
+                    insert.bindBlob(8, encodeNodes(v.nodeIds));
+                } else if (v.members != null) {
+                    insert.bindBlob(9, encodeMembers(v.members));
+                }
+                insert.executeInsert();
+            }
+            // replaced rows are counted too, so this is an upper bound and we only need to count when it is exceeded
+            if (estimatedCount < 0) {
+                estimatedCount = DatabaseUtils.queryNumEntries(db, HISTORY_TABLE);
+            } else {
+                estimatedCount += versions.size();
+            }
+            if (estimatedCount > limit) {
+                long total = DatabaseUtils.queryNumEntries(db, HISTORY_TABLE);
+                if (total > limit) {
+                    try (SQLiteStatement trim = db.compileStatement(TRIM)) {
+                        trim.bindLong(1, total - limit);
+                        trim.executeUpdateDelete();
+                    }
+                }
+                estimatedCount = Math.min(total, limit);
+            }
+            db.setTransactionSuccessful();
+        } catch (IOException | SQLException ex) {
+            Log.e(DEBUG_TAG, "Recording versions failed " + ex.getMessage());
+            estimatedCount = -1;
+        } finally {
+            db.endTransaction();
+        }
+        Log.d(DEBUG_TAG, "Recorded " + versions.size() + " versions in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Get a specific version of an element
+     * 
+     * @param type the element type
+     * @param osmId the element id
+     * @param osmVersion the version
+     * @return the Version or null if it hasn't been recorded
+     */
+    @Nullable
+    public synchronized Version get(@NonNull String type, long osmId, long osmVersion) {
+        try (Cursor cursor = getReadableDatabase().query(HISTORY_TABLE, null, VERSION_WHERE,
+                new String[] { type, Long.toString(osmId), Long.toString(osmVersion) }, null, null, null)) {
+            return cursor.moveToFirst() ? getVersionFromCursor(cursor) : null;
+        }
+    }
+
+    /**
+     * Get the most recent recorded version of an element
+     * 
+     * @param type the element type
+     * @param osmId the element id
+     * @return the Version or null if none has been recorded
+     */
+    @Nullable
+    public synchronized Version getLatest(@NonNull String type, long osmId) {
+        try (Cursor cursor = getReadableDatabase().query(HISTORY_TABLE, null, ELEMENT_WHERE, new String[] { type, Long.toString(osmId) }, null, null,
+                VERSION_DESCENDING, "1")) {
+            return cursor.moveToFirst() ? getVersionFromCursor(cursor) : null;
+        }
+    }
+
+    /**
+     * Get the number of recorded versions
+     * 
+     * @return the count
+     */
+    public synchronized long size() {
+        return DatabaseUtils.queryNumEntries(getReadableDatabase(), HISTORY_TABLE);
+    }
+
+    /**
+     * Remove all recorded versions
+     */
+    public synchronized void clear() {
+        getWritableDatabase().delete(HISTORY_TABLE, null, null);
+        estimatedCount = 0;
+    }
+
+    @Override
+    public synchronized void close() {
+        Util.shutDownThreadPool(recordExecutor);
+        super.close();
+    }
+
+    /**
+     * Create a Version from a database row
+     * 
+     * @param cursor the Cursor
+     * @return a Version or null if the row couldn't be decoded
+     */
+    @Nullable
+    private static Version getVersionFromCursor(@NonNull Cursor cursor) {
+        try {
+            String type = cursor.getString(cursor.getColumnIndexOrThrow(TYPE_FIELD));
+            byte[] nodes = cursor.getBlob(cursor.getColumnIndexOrThrow(NODES_FIELD));
+            byte[] members = cursor.getBlob(cursor.getColumnIndexOrThrow(MEMBERS_FIELD));
+            return new Version(type, cursor.getLong(cursor.getColumnIndexOrThrow(ID_FIELD)), cursor.getLong(cursor.getColumnIndexOrThrow(VERSION_FIELD)),
+                    cursor.getLong(cursor.getColumnIndexOrThrow(TIMESTAMP_FIELD)), cursor.getInt(cursor.getColumnIndexOrThrow(LAT_FIELD)),
+                    cursor.getInt(cursor.getColumnIndexOrThrow(LON_FIELD)), decodeTags(cursor.getBlob(cursor.getColumnIndexOrThrow(TAGS_FIELD))),
+                    Way.NAME.equals(type) ? decodeNodes(nodes) : null, Relation.NAME.equals(type) ? decodeMembers(members) : null);
+        } catch (IOException | IllegalArgumentException e) {
+            Log.e(DEBUG_TAG, "Reading version failed " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Encode tags
+     * 
+     * @param tags the tags
+     * @return a byte array
+     * @throws IOException if writing fails
+     */
+    @NonNull
+    private static byte[] encodeTags(@NonNull SortedMap<String, String> tags) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(tags.size());
+            for (Entry<String, String> tag : tags.entrySet()) {
+                out.writeUTF(tag.getKey());
+                out.writeUTF(tag.getValue());
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decode tags
+     * 
+     * @param data the encoded tags
+     * @return a SortedMap with the tags
+     * @throws IOException if reading fails
+     */
+    @NonNull
+    private static SortedMap<String, String> decodeTags(@Nullable byte[] data) throws IOException {
+        SortedMap<String, String> tags = new TreeMap<>();
+        if (data != null) {
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+                int size = in.readInt();
+                for (int i = 0; i < size; i++) {
+                    tags.put(in.readUTF(), in.readUTF());
+                }
+            }
+        }
+        return tags;
+    }
+
+    /**
+     * Encode way node ids
+     * 
+     * @param nodeIds the way node ids
+     * @return a byte array
+     * @throws IOException if writing fails
+     */
+    @NonNull
+    private static byte[] encodeNodes(@NonNull long[] nodeIds) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4 + nodeIds.length * 8);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(nodeIds.length);
+            for (long id : nodeIds) {
+                out.writeLong(id);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decode way node ids
+     * 
+     * @param data the encoded ids
+     * @return an array of ids
+     * @throws IOException if reading fails
+     */
+    @NonNull
+    private static long[] decodeNodes(@Nullable byte[] data) throws IOException {
+        if (data == null) {
+            return new long[0];
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            long[] ids = new long[in.readInt()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = in.readLong();
+            }
+            return ids;
+        }
+    }
+
+    /**
+     * Encode relation members
+     * 
+     * @param members the members
+     * @return a byte array
+     * @throws IOException if writing fails
+     */
+    @NonNull
+    private static byte[] encodeMembers(@NonNull List<RelationMember> members) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(members.size());
+            for (RelationMember member : members) {
+                out.writeUTF(member.getType());
+                out.writeLong(member.getRef());
+                String role = member.getRole();
+                out.writeUTF(role != null ? role : "");
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decode relation members
+     * 
+     * @param data the encoded members
+     * @return a List of RelationMember
+     * @throws IOException if reading fails
+     */
+    @NonNull
+    private static List<RelationMember> decodeMembers(@Nullable byte[] data) throws IOException {
+        List<RelationMember> members = new ArrayList<>();
+        if (data != null) {
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+                int size = in.readInt();
+                for (int i = 0; i < size; i++) {
+                    members.add(new RelationMember(in.readUTF(), in.readLong(), in.readUTF()));
+                }
+            }
+        }
+        return members;
+    }
+}
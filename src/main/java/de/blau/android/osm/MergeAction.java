@@ -779,23 +779,38 @@ public class MergeAction {
                 continue;
             }
             if (!mergedValue.equals(value)) { // identical tags do not need to be merged
-                if (Tags.hasNestedLists(key)) {
-                    value = mergedValue + Tags.OSM_VALUE_SEPARATOR + value; // no expectation that this is valid
-                } else {
-                    Set<String> values = new LinkedHashSet<>(Arrays.asList(splitValue(mergedValue)));
-                    values.addAll(Arrays.asList(splitValue(value)));
-                    value = Util.toOsmList(values);
-                }
-                if (value.length() > Capabilities.DEFAULT_MAX_STRING_LENGTH) {
-                    // can't merge without losing information
-                    throw new OsmIllegalOperationException("Merged tags too long for key " + key);
-                }
-                merged.put(key, value);
+                merged.put(key, mergeValues(key, mergedValue, value));
             }
         }
         return merged;
     }
 
+    /**
+     * Merge two different values for the same key
+     * 
+     * @param key the key
+     * @param value1 the first value
+     * @param value2 the second value
+     * @return the merged value
+     * @throws OsmIllegalOperationException if the merged value is too long
+     */
+    @NonNull
+    static String mergeValues(@NonNull String key, @NonNull String value1, @NonNull String value2) {
+        String value;
+        if (Tags.hasNestedLists(key)) {
+            value = value1 + Tags.OSM_VALUE_SEPARATOR + value2; // no expectation that this is valid
+        } else {
+            Set<String> values = new LinkedHashSet<>(Arrays.asList(splitValue(value1)));
+            values.addAll(Arrays.asList(splitValue(value2)));
+            value = Util.toOsmList(values);
+        }
+        if (value.length() > Capabilities.DEFAULT_MAX_STRING_LENGTH) {
+            // can't merge without losing information
+            throw new OsmIllegalOperationException("Merged tags too long for key " + key);
+        }
+        return value;
+    }
+
     /**
      * Split value with the default value separator
      * 
@@ -0,0 +1,306 @@
+package de.blau.android.osm;
+
+import static de.blau.android.contract.Constants.LOG_TAG_LEN;
+import static de.blau.android.util.Winding.CLOCKWISE;
+import static de.blau.android.util.Winding.COUNTERCLOCKWISE;
+import static de.blau.android.util.Winding.winding;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import de.blau.android.util.collections.LinkedList;
+
+/**
+ * Cache for assembled multipolygon rings
+ * 
+ * Sorting the members of a multipolygon and assembling the rings is expensive for large relations, the result however
+ * only depends on the member list and the node lists of the member ways. The StorageDelegator invalidates entries
+ * when either changes, coordinate changes don't require invalidation.
+ * 
+ * The memory used is estimated and the least recently used entries are evicted if the limit is exceeded.
+ */
+public class MultipolygonCache {
+
+    private static final int    TAG_LEN   = Math.min(LOG_TAG_LEN, MultipolygonCache.class.getSimpleName().length());
+    private static final String DEBUG_TAG = MultipolygonCache.class.getSimpleName().substring(0, TAG_LEN);
+
+    public static final long DEFAULT_MAX_SIZE = 4L * 1024L * 1024L; // bytes
+    public static final int  MP_SIZE_LIMIT    = 1000;               // max number of way members we will assemble
+
+    private static final int ENTRY_OVERHEAD = 96; // rough size of the map entry and the lists
+    private static final int RING_OVERHEAD  = 40;
+    private static final int REFERENCE_SIZE = 8;
+
+    /**
+     * Access ordered so that iteration starts with the least recently used entry
+     */
+    private final LinkedHashMap<Relation, Rings> cache = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long maxSize;
+    private long currentSize = 0;
+
+    /**
+     * Stuff for assembling rings, instantiate these objects just once
+     */
+    private final List<RelationMember>       waysOnly = new ArrayList<>(100);
+    private final LinkedList<RelationMember> tempSort = new LinkedList<>();
+
+    /**
+     * Assembled rings for one Relation
+     */
+    private static final class Rings {
+        final List<List<Node>> rings;
+        final long             size;
+
+        /**
+         * Construct a new instance
+         * 
+         * @param rings the assembled rings
+         * @param size the estimated size in bytes
+         */
+        Rings(@NonNull List<List<Node>> rings, long size) {
+            this.rings = rings;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Construct a new cache with the default size limit
+     */
+    public MultipolygonCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Construct a new cache
+     * 
+     * @param maxSize the maximum estimated size in bytes
+     */
+    public MultipolygonCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Get the rings for a multipolygon, assembling them if necessary
+     * 
+     * Outer rings are returned first with clockwise winding, then inner rings with counter-clockwise winding and finally
+     * rings with an unknown role. The lists should not be modified.
+     * 
+     * @param rel the multipolygon Relation
+     * @return a List of rings, empty if there are no downloaded way members or the relation is too large
+     */
+    @NonNull
+    public synchronized List<List<Node>> getRings(@NonNull Relation rel) {
+        Rings entry = cache.get(rel);
+        if (entry == null) {
+            entry = assemble(rel);
+            cache.put(rel, entry);
+            currentSize += entry.size;
+            trim(maxSize);
+        }
+        return entry.rings;
+    }
+
+    /**
+     * Sort the members and assemble the rings for a Relation
+     * 
+     * @param rel the multipolygon Relation
+     * @return a new Rings object
+     */
+    @NonNull
+    private Rings assemble(@NonNull Relation rel) {
+        waysOnly.clear();
+        tempSort.clear();
+
+        // remove any non-Way non-downloaded members
+        for (RelationMember m : rel.getMembers()) {
+            if (m.downloaded() && Way.NAME.equals(m.getType())) {
+                waysOnly.add(m);
+            }
+        }
+        if (waysOnly.isEmpty() || waysOnly.size() > MP_SIZE_LIMIT) { // protect against very large MPs
+            return new Rings(Collections.emptyList(), ENTRY_OVERHEAD);
+        }
+        List<RelationMember> members = RelationUtils.sortRelationMembers(waysOnly, tempSort, RelationUtils::haveEndConnection);
+        List<List<Node>> outerRings = new ArrayList<>();
+        List<List<Node>> innerRings = new ArrayList<>();
+        List<List<Node>> unknownRings = new ArrayList<>();
+        List<Node> ring = new ArrayList<>();
+        List<Node> wayNodes = new ArrayList<>();
+
+        int ms = members.size();
+        String ringRole = "";
+        for (int i = 0; i < ms; i++) {
+            ringRole = "";
+            RelationMember current = members.get(i);
+            Way currentWay = (Way) current.getElement();
+            String currentRole = current.getRole();
+            if (currentRole != null && !"".equals(currentRole)) {
+                ringRole = currentRole;
+            }
+            if (currentWay != null) {
+                wayNodes.clear();
+                wayNodes.addAll(currentWay.getNodes());
+                int rs = ring.size();
+                int ns = wayNodes.size();
+                if (ring.isEmpty()) {
+                    ring.addAll(wayNodes);
+                } else if (ring.get(rs - 1).equals(wayNodes.get(0))) {
+                    ring.addAll(wayNodes.subList(1, ns));
+                } else if (ring.get(rs - 1).equals(wayNodes.get(ns - 1))) {
+                    Collections.reverse(wayNodes);
+                    ring.addAll(wayNodes.subList(1, ns));
+                }
+            }
+
+            RelationMember next = members.get((i + 1) % ms);
+            Way nextWay = (Way) next.getElement();
+            if (nextWay != null && !ring.isEmpty()) {
+                Node lastRingNode = ring.get(ring.size() - 1);
+                List<Node> nextNodes = nextWay.getNodes();
+                int ns1 = nextNodes.size() - 1;
+                if (!nextNodes.get(0).equals(lastRingNode) && !nextNodes.get(ns1).equals(lastRingNode)) {
+                    Node firstRingNode = ring.get(0);
+                    if (nextNodes.get(0).equals(firstRingNode) || nextNodes.get(ns1).equals(firstRingNode)) {
+                        Collections.reverse(ring);
+                        continue;
+                    }
+                    addRing(ringRole, ring, outerRings, innerRings, unknownRings);
+                    ring = new ArrayList<>();
+                }
+            }
+        }
+        if (!ring.isEmpty()) {
+            addRing(ringRole, ring, outerRings, innerRings, unknownRings);
+        }
+        outerRings.addAll(innerRings);
+        outerRings.addAll(unknownRings);
+
+        long size = ENTRY_OVERHEAD;
+        for (List<Node> r : outerRings) {
+            size += RING_OVERHEAD + (long) r.size() * REFERENCE_SIZE;
+        }
+        return new Rings(Collections.unmodifiableList(outerRings), size);
+    }
+
+    /**
+     * Add rings to the list depending on their role If the winding is wrong reverse the List
+     * 
+     * @param role the role of the the ring
+     * @param ring the ring
+     * @param outerRings List of outer rings
+     * @param innerRings List of inner rings
+     * @param unknownRings List of rings with unknown role
+     */
+    private static void addRing(@NonNull String role, @NonNull List<Node> ring, @NonNull List<List<Node>> outerRings, @NonNull List<List<Node>> innerRings,
+            @NonNull List<List<Node>> unknownRings) {
+        final int winding = winding(ring);
+        switch (role) {
+        case Tags.ROLE_OUTER:
+            if (winding == COUNTERCLOCKWISE) {
+                Collections.reverse(ring);
+            }
+            outerRings.add(Collections.unmodifiableList(ring));
+            break;
+        case Tags.ROLE_INNER:
+            if (winding == CLOCKWISE) {
+                Collections.reverse(ring);
+            }
+            innerRings.add(Collections.unmodifiableList(ring));
+            break;
+        default:
+            unknownRings.add(Collections.unmodifiableList(ring));
+        }
+    }
+
+    /**
+     * Invalidate any cached rings that depend on an element
+     * 
+     * @param e the changed OsmElement, if it is a Way the rings of its parent relations will be invalidated
+     */
+    public synchronized void invalidate(@Nullable OsmElement e) {
+        if (cache.isEmpty()) {
+            return;
+        }
+        if (e instanceof Relation) {
+            remove((Relation) e);
+        } else if (e instanceof Way) {
+            List<Relation> parents = e.getParentRelations();
+            if (parents != null) {
+                for (Relation r : parents) {
+                    remove(r);
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove a Relation from the cache
+     * 
+     * @param rel the Relation
+     */
+    private void remove(@NonNull Relation rel) {
+        Rings entry = cache.remove(rel);
+        if (entry != null) {
+            currentSize -= entry.size;
+        }
+    }
+
+    /**
+     * Empty the cache
+     */
+    public synchronized void clear() {
+        cache.clear();
+        currentSize = 0;
+    }
+
+    /**
+     * Evict least recently used entries until the estimated size is at most size
+     * 
+     * @param size the target size in bytes
+     */
+    public synchronized void trim(long size) {
+        Iterator<Rings> it = cache.values().iterator();
+        while (currentSize > size && it.hasNext()) {
+            currentSize -= it.next().size;
+            it.remove();
+        }
+        if (size == 0) {
+            Log.d(DEBUG_TAG, "cache trimmed");
+        }
+    }
+
+    /**
+     * Set the maximum size, trimming the cache if necessary
+     * 
+     * @param maxSize the maximum estimated size in bytes
+     */
+    public synchronized void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        trim(maxSize);
+    }
+
+    /**
+     * Get the estimated size of the cache contents
+     * 
+     * @return the estimated size in bytes
+     */
+    public synchronized long getSize() {
+        return currentSize;
+    }
+
+    /**
+     * Get the number of cached Relations
+     * 
+     * @return the number of entries
+     */
+    public synchronized int getCount() {
+        return cache.size();
+    }
+}
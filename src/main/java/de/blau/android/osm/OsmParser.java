@@ -90,6 +90,25 @@ public class OsmParser extends DefaultHandler {
 
     private String characters = null;
 
+    /**
+     * Handler for blocks of elements, allows to process the output while parsing
+     */
+    public interface BlockHandler {
+        /**
+         * Called with the elements that have been parsed since the last call
+         * 
+         * @param block a Storage holding the complete elements of the block
+         * @param elements the number of elements parsed so far
+         * @throws SAXException to abort parsing
+         */
+        void onBlock(@NonNull Storage block, int elements) throws SAXException;
+    }
+
+    private BlockHandler blockHandler = null;
+    private int          blockSize    = 0;
+    private int          parsed       = 0;
+    private Storage      block        = null;
+
     /**
      * Construct a new instance of the parser
      */
@@ -120,6 +139,85 @@ public class OsmParser extends DefaultHandler {
         missingRelations.clear();
     }
 
+    /**
+     * Hand elements to a BlockHandler in blocks while parsing
+     * 
+     * Elements are only handed over once they are complete, as ways can only reference nodes that have already been
+     * parsed a block will only contain ways for which all nodes are in the same or a previous block. The parser Storage
+     * will still contain all elements.
+     * 
+     * Elements that have been handed over may be in use elsewhere, so the parser doesn't change them afterwards: back
+     * links from members to relations are not set and members that are relations parsed later are not resolved, the
+     * handler needs to do this when it merges the blocks, for example with
+     * {@link StorageDelegator#mergeData(Storage, PostMergeHandler)}.
+     * 
+     * @param blockSize the number of elements in a block
+     * @param handler the BlockHandler
+     */
+    public void setBlockHandler(int blockSize, @NonNull BlockHandler handler) {
+        this.blockSize = blockSize;
+        this.blockHandler = handler;
+        parsed = 0;
+        block = new Storage();
+    }
+
+    /**
+     * Add an element to the current block and hand the block to the handler if it is full
+     * 
+     * @param e the OsmElement
+     * @throws SAXException if the handler aborted parsing or there were errors
+     */
+    private void addToBlock(@NonNull OsmElement e) throws SAXException {
+        if (blockHandler == null) {
+            return;
+        }
+        if (e instanceof Node) {
+            block.insertNodeUnsafe((Node) e);
+        } else if (e instanceof Way) {
+            block.insertWayUnsafe((Way) e);
+        } else {
+            block.insertRelationUnsafe((Relation) e);
+        }
+        parsed++;
+        if (parsed % blockSize == 0) {
+            flushBlock();
+        }
+    }
+
+    /**
+     * Hand the current block to the handler
+     * 
+     * @throws SAXException if the handler aborted parsing or there were errors
+     */
+    private void flushBlock() throws SAXException {
+        if (!exceptions.isEmpty()) {
+            // don't hand over potentially incomplete elements
+            throw new SAXException(new OsmParseException(exceptions));
+        }
+        if (!block.isEmpty()) {
+            Storage full = block;
+            block = new Storage();
+            blockHandler.onBlock(full, parsed);
+        }
+    }
+
+    /**
+     * Resolve relation members that are relations that were parsed after the relation referring to them
+     */
+    private void resolveMissingRelations() {
+        Log.d(DEBUG_TAG, "Post processing relations.");
+        for (MissingRelation mr : missingRelations) {
+            RelationMember rm = mr.member;
+            Relation r = storage.getRelation(rm.ref);
+            if (r != null) {
+                rm.setElement(r);
+                r.addParentRelation(mr.parent);
+                Log.d(DEBUG_TAG, "Added relation " + rm.ref);
+            }
+        }
+        missingRelations.clear();
+    }
+
     /**
      * Get the Storage instance associated with the parser
      * 
@@ -152,15 +250,10 @@ public class OsmParser extends DefaultHandler {
      */
     @Override
     public void endDocument() throws SAXException {
-        Log.d(DEBUG_TAG, "Post processing relations.");
-        for (MissingRelation mr : missingRelations) {
-            RelationMember rm = mr.member;
-            Relation r = storage.getRelation(rm.ref);
-            if (r != null) {
-                rm.setElement(r);
-                r.addParentRelation(mr.parent);
-                Log.d(DEBUG_TAG, "Added relation " + rm.ref);
-            }
+        if (blockHandler != null) {
+            flushBlock();
+        } else {
+            resolveMissingRelations();
         }
         Log.d(DEBUG_TAG, "Finished parsing input.");
         if (!exceptions.isEmpty()) {
@@ -229,6 +322,7 @@ public class OsmParser extends DefaultHandler {
                 }
                 addTags(currentNode);
                 storage.insertNodeUnsafe(currentNode);
+                addToBlock(currentNode);
                 currentNode = null;
                 break;
             case Way.NAME:
@@ -238,6 +332,7 @@ public class OsmParser extends DefaultHandler {
                 addTags(currentWay);
                 if (!currentWay.getNodes().isEmpty() || allowEmptyWays) {
                     storage.insertWayUnsafe(currentWay);
+                    addToBlock(currentWay);
                 } else {
                     Log.e(DEBUG_TAG, "Way " + currentWay.getOsmId() + " has no nodes! Ignored.");
                 }
@@ -249,6 +344,7 @@ public class OsmParser extends DefaultHandler {
                 }
                 addTags(currentRelation);
                 storage.insertRelationUnsafe(currentRelation);
+                addToBlock(currentRelation);
                 currentRelation = null;
                 break;
             case API_ERROR:
@@ -449,7 +545,7 @@ public class OsmParser extends DefaultHandler {
             case Node.NAME:
                 Node n = nodeIndex.get(ref);
                 if (n != null) {
-                    n.addParentRelation(currentRelation);
+                    addParentRelation(n);
                     member = new RelationMember(role, n);
                 } else {
                     member = new RelationMember(type, ref, role);
@@ -458,7 +554,7 @@ public class OsmParser extends DefaultHandler {
             case Way.NAME:
                 Way w = wayIndex.get(ref);
                 if (w != null) {
-                    w.addParentRelation(currentRelation);
+                    addParentRelation(w);
                     member = new RelationMember(role, w);
                 } else {
                     member = new RelationMember(type, ref, role);
@@ -467,13 +563,15 @@ public class OsmParser extends DefaultHandler {
             case Relation.NAME:
                 Relation r = storage.getRelation(ref);
                 if (r != null) {
-                    r.addParentRelation(currentRelation);
+                    addParentRelation(r);
                     member = new RelationMember(role, r);
                 } else {
-                    // these need to be saved and reprocessed
                     member = new RelationMember(type, ref, role);
-                    MissingRelation mr = new MissingRelation(member, currentRelation);
-                    missingRelations.add(mr);
+                    if (blockHandler == null) {
+                        // these need to be saved and reprocessed
+                        MissingRelation mr = new MissingRelation(member, currentRelation);
+                        missingRelations.add(mr);
+                    }
                 }
                 break;
             default:
@@ -485,6 +583,17 @@ public class OsmParser extends DefaultHandler {
         }
     }
 
+    /**
+     * Add the current relation as parent to a member unless the member may already have been handed to a BlockHandler
+     * 
+     * @param e the member
+     */
+    private void addParentRelation(@NonNull OsmElement e) {
+        if (blockHandler == null) {
+            e.addParentRelation(currentRelation);
+        }
+    }
+
     /**
      * Clear the list of bounding boxes
      */
@@ -71,15 +71,22 @@ public final class OsmXml {
      */
     public static void writeOsmChange(@NonNull Storage storage, @NonNull OutputStream outputStream, @Nullable Long changeSetId, int maxChanges,
             @NonNull String generator) throws IllegalArgumentException, IllegalStateException, IOException, XmlPullParserException {
-        int count = 0;
-        Log.d(DEBUG_TAG, "writing osm change with changesetid " + changeSetId);
-        XmlSerializer serializer = XmlPullParserFactory.newInstance().newSerializer();
-        serializer.setOutput(outputStream, UTF_8);
-        serializer.startDocument(UTF_8, null);
-        serializer.startTag(null, OSM_CHANGE);
-        serializer.attribute(null, GENERATOR, generator);
-        serializer.attribute(null, VERSION, VERSION_0_6);
+        List<OsmElement> changes = getUploadOrder(storage);
+        writeOsmChange(changes.size() > maxChanges ? changes.subList(0, maxChanges) : changes, outputStream, changeSetId, generator);
+    }
 
+    /**
+     * Get the changed elements in a Storage in an order that allows them to be uploaded in consecutive chunks
+     * 
+     * Created and modified elements come first, nodes before ways before relations, child relations before their
+     * parents, followed by deleted elements in the opposite order. Any prefix of the returned List only references
+     * elements that are contained in the prefix or that already exist on the server.
+     * 
+     * @param storage a Storage object with the changes
+     * @return a List of the changed elements
+     */
+    @NonNull
+    public static List<OsmElement> getUploadOrder(@NonNull Storage storage) {
         List<Node> createdNodes = new ArrayList<>();
         List<Node> modifiedNodes = new ArrayList<>();
         List<Node> deletedNodes = new ArrayList<>();
@@ -90,73 +97,10 @@ public final class OsmXml {
         List<Relation> modifiedRelations = new ArrayList<>();
         List<Relation> deletedRelations = new ArrayList<>();
 
-        for (Node elem : storage.getNodes()) {
-            Log.d(DEBUG_TAG, "node added to list for upload, id " + elem.getOsmId());
-            switch (elem.state) {
-            case OsmElement.STATE_CREATED:
-                createdNodes.add(elem);
-                break;
-            case OsmElement.STATE_MODIFIED:
-                modifiedNodes.add(elem);
-                break;
-            case OsmElement.STATE_DELETED:
-                deletedNodes.add(elem);
-                break;
-            default:
-                logNotModified(elem);
-                continue;
-            }
-            count++;
-            if (count >= maxChanges) {
-                break;
-            }
-        }
-        if (count < maxChanges) {
-            for (Way elem : storage.getWays()) {
-                Log.d(DEBUG_TAG, "way added to list for upload, id " + elem.osmId);
-                switch (elem.state) {
-                case OsmElement.STATE_CREATED:
-                    createdWays.add(elem);
-                    break;
-                case OsmElement.STATE_MODIFIED:
-                    modifiedWays.add(elem);
-                    break;
-                case OsmElement.STATE_DELETED:
-                    deletedWays.add(elem);
-                    break;
-                default:
-                    logNotModified(elem);
-                    continue;
-                }
-                count++;
-                if (count >= maxChanges) {
-                    break;
-                }
-            }
-        }
-        if (count < maxChanges) {
-            for (Relation elem : storage.getRelations()) {
-                Log.d(DEBUG_TAG, "relation added to list for upload, id " + elem.osmId);
-                switch (elem.state) {
-                case OsmElement.STATE_CREATED:
-                    createdRelations.add(elem);
-                    break;
-                case OsmElement.STATE_MODIFIED:
-                    modifiedRelations.add(elem);
-                    break;
-                case OsmElement.STATE_DELETED:
-                    deletedRelations.add(elem);
-                    break;
-                default:
-                    logNotModified(elem);
-                    continue;
-                }
-                count++;
-                if (count >= maxChanges) {
-                    break;
-                }
-            }
-        }
+        sortByState(storage.getNodes(), createdNodes, modifiedNodes, deletedNodes);
+        sortByState(storage.getWays(), createdWays, modifiedWays, deletedWays);
+        sortByState(storage.getRelations(), createdRelations, modifiedRelations, deletedRelations);
+
         if (!createdRelations.isEmpty()) {
             // sort the relations so that children come first, will not handle loops and similar brokenness
             Collections.sort(createdRelations, relationOrder);
@@ -180,82 +124,111 @@ public final class OsmXml {
 
         // NOTE as deleted elements cannot be referenced we need to undelete them in MODIFY elements before we reference
         // them, this will not always work for relations, see below
-        serializeCreatedElements(serializer, changeSetId, createdNodes);
-        serializeModifiedElements(serializer, changeSetId, modifiedNodes);
-
-        serializeCreatedElements(serializer, changeSetId, createdWays);
-        serializeModifiedElements(serializer, changeSetId, modifiedWays);
-
+        List<OsmElement> result = new ArrayList<>(createdNodes.size() + modifiedNodes.size() + deletedNodes.size() + createdWays.size()
+                + modifiedWays.size() + deletedWays.size() + createdRelations.size() + modifiedRelations.size() + deletedRelations.size());
+        result.addAll(createdNodes);
+        result.addAll(modifiedNodes);
+        result.addAll(createdWays);
+        result.addAll(modifiedWays);
         // if a newly created relation references deleted relations, they would need to be undeleted in a separate pass
-        serializeCreatedElements(serializer, changeSetId, createdRelations);
-        serializeModifiedElements(serializer, changeSetId, modifiedRelations);
-
+        result.addAll(createdRelations);
+        result.addAll(modifiedRelations);
         // delete in opposite order
-        if (!deletedNodes.isEmpty() || !deletedWays.isEmpty() || !deletedRelations.isEmpty()) {
-            serializer.startTag(null, DELETE);
-            for (OsmElement elem : deletedRelations) {
-                elem.toXml(serializer, changeSetId);
-            }
-            for (OsmElement elem : deletedWays) {
-                elem.toXml(serializer, changeSetId);
-            }
-            for (OsmElement elem : deletedNodes) {
-                elem.toXml(serializer, changeSetId);
-            }
-            serializer.endTag(null, DELETE);
-        }
-
-        serializer.endTag(null, OSM_CHANGE);
-        serializer.endDocument();
+        result.addAll(deletedRelations);
+        result.addAll(deletedWays);
+        result.addAll(deletedNodes);
+        return result;
     }
 
     /**
-     * Serialize a MODIFY section
+     * Distribute changed elements to Lists per state, unchanged elements are ignored
      * 
-     * @param <T> type of element to serialize
-     * @param serializer the serializer
-     * @param changeSetId the changeset id
-     * @param modifiedElements the list of elements
-     * @throws IOException if serializing fails
+     * @param <T> type of the elements
+     * @param elements the input elements
+     * @param created List for created elements
+     * @param modified List for modified elements
+     * @param deleted List for deleted elements
      */
-    private static <T extends OsmElement> void serializeModifiedElements(@NonNull XmlSerializer serializer, @NonNull Long changeSetId,
-            @NonNull List<T> modifiedElements) throws IOException {
-        if (!modifiedElements.isEmpty()) {
-            serializer.startTag(null, MODIFY);
-            for (OsmElement elem : modifiedElements) {
-                elem.toXml(serializer, changeSetId);
+    private static <T extends OsmElement> void sortByState(@NonNull List<T> elements, @NonNull List<T> created, @NonNull List<T> modified,
+            @NonNull List<T> deleted) {
+        for (T elem : elements) {
+            switch (elem.state) {
+            case OsmElement.STATE_CREATED:
+                created.add(elem);
+                break;
+            case OsmElement.STATE_MODIFIED:
+                modified.add(elem);
+                break;
+            case OsmElement.STATE_DELETED:
+                deleted.add(elem);
+                break;
+            default:
+                // not modified
             }
-            serializer.endTag(null, MODIFY);
         }
     }
 
     /**
-     * Serialize a CREATE section
+     * Writes a List of changed elements to outputStream in OsmChange format
      * 
-     * @param <T> type of element to serialize
-     * @param serializer the serializer
-     * @param changeSetId the changeset id
-     * @param createdElements the list of elements
-     * @throws IOException if serializing fails
+     * The elements are written in the order given, consecutive elements with the same state are written to the same
+     * create, modify or delete section, see {@link #getUploadOrder(Storage)}
+     * 
+     * @param changes the changed elements
+     * @param outputStream stream to write to
+     * @param changeSetId the allocated changeset id or null if non
+     * @param generator a String for the generator attribute
+     * @throws IllegalArgumentException
+     * @throws IllegalStateException
+     * @throws IOException
+     * @throws XmlPullParserException
      */
-    private static <T extends OsmElement> void serializeCreatedElements(@NonNull XmlSerializer serializer, @NonNull Long changeSetId,
-            @NonNull List<T> createdElements) throws IOException {
-        if (!createdElements.isEmpty()) {
-            serializer.startTag(null, CREATE);
-            for (OsmElement elem : createdElements) {
-                elem.toXml(serializer, changeSetId);
+    public static void writeOsmChange(@NonNull List<OsmElement> changes, @NonNull OutputStream outputStream, @Nullable Long changeSetId,
+            @NonNull String generator) throws IllegalArgumentException, IllegalStateException, IOException, XmlPullParserException {
+        Log.d(DEBUG_TAG, "writing osm change with changesetid " + changeSetId + " " + changes.size() + " elements");
+        XmlSerializer serializer = XmlPullParserFactory.newInstance().newSerializer();
+        serializer.setOutput(outputStream, UTF_8);
+        serializer.startDocument(UTF_8, null);
+        serializer.startTag(null, OSM_CHANGE);
+        serializer.attribute(null, GENERATOR, generator);
+        serializer.attribute(null, VERSION, VERSION_0_6);
+
+        String section = null;
+        for (OsmElement elem : changes) {
+            String elemSection = sectionFor(elem);
+            if (!elemSection.equals(section)) {
+                if (section != null) {
+                    serializer.endTag(null, section);
+                }
+                section = elemSection;
+                serializer.startTag(null, section);
             }
-            serializer.endTag(null, CREATE);
+            elem.toXml(serializer, changeSetId);
+        }
+        if (section != null) {
+            serializer.endTag(null, section);
         }
+
+        serializer.endTag(null, OSM_CHANGE);
+        serializer.endDocument();
     }
 
     /**
-     * Log that the element hasn't been modified
+     * Get the name of the OsmChange section an element belongs in
      * 
      * @param elem the OsmElement
+     * @return CREATE, MODIFY or DELETE
      */
-    private static void logNotModified(@NonNull OsmElement elem) {
-        Log.d(DEBUG_TAG, elem.getName() + " id " + elem.getOsmId() + " not modified");
+    @NonNull
+    private static String sectionFor(@NonNull OsmElement elem) {
+        switch (elem.state) {
+        case OsmElement.STATE_CREATED:
+            return CREATE;
+        case OsmElement.STATE_DELETED:
+            return DELETE;
+        default:
+            return MODIFY;
+        }
     }
 
     /**
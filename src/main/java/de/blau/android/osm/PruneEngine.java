@@ -0,0 +1,620 @@
+package de.blau.android.osm;
+
+import static de.blau.android.contract.Constants.LOG_TAG_LEN;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.content.ComponentCallbacks2;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import de.blau.android.App;
+import de.blau.android.Logic;
+import de.blau.android.util.collections.LongHashSet;
+import de.blau.android.util.rtree.BoundedObject;
+import de.blau.android.util.rtree.RTree;
+
+/**
+ * Memory pressure aware pruning of downloaded data
+ * 
+ * For every downloaded BoundingBox the ids of the elements it contained and an estimate of their heap cost are
+ * recorded. When the estimated cost of the loaded data, or the number of nodes or boxes, exceeds the limits, the least
+ * recently viewed boxes without local modifications are removed first, together with the elements that were only
+ * downloaded in them. Only these elements are checked, pruning doesn't walk the whole storage, and boxes are removed in
+ * small batches so that the storage is only locked for short periods.
+ * 
+ * The limits are temporarily lowered when the system reports memory pressure via onTrimMemory.
+ */
+public class PruneEngine {
+
+    private static final int    TAG_LEN   = Math.min(LOG_TAG_LEN, PruneEngine.class.getSimpleName().length());
+    private static final String DEBUG_TAG = PruneEngine.class.getSimpleName().substring(0, TAG_LEN);
+
+    /**
+     * Rough average heap cost of elements including tags, way nodes and members
+     */
+    static final int NODE_COST     = 80;
+    static final int WAY_COST      = 450;
+    static final int RELATION_COST = 1000;
+
+    /**
+     * Fraction of the maximum heap size that downloaded data may use
+     */
+    static final float DEFAULT_MEMORY_FRACTION = 0.25f;
+
+    /**
+     * Fraction of the limits we prune down to, so that we don't prune again on the next download
+     */
+    static final float TARGET = 0.75f;
+
+    /**
+     * Maximum number of boxes removed while holding the lock
+     */
+    static final int MAX_BATCH = 4;
+
+    private static final long PRESSURE_DURATION = 60000; // ms
+
+    /**
+     * Elements downloaded in a BoundingBox
+     */
+    private static final class Record implements BoundedObject {
+        final BoundingBox box;
+        final LongHashSet nodes     = new LongHashSet();
+        final LongHashSet ways      = new LongHashSet();
+        final LongHashSet relations = new LongHashSet();
+        long              lastViewed;
+        boolean           pinned;
+
+        /**
+         * Construct a new Record
+         * 
+         * @param box the BoundingBox, a copy will be made
+         */
+        Record(@NonNull BoundingBox box) {
+            this.box = new BoundingBox(box);
+            lastViewed = System.currentTimeMillis();
+        }
+
+        /**
+         * Get the estimated heap cost of the elements
+         * 
+         * @return the cost in bytes
+         */
+        long getCost() {
+            return (long) nodes.size() * NODE_COST + (long) ways.size() * WAY_COST + (long) relations.size() * RELATION_COST;
+        }
+
+        /**
+         * Check if any of the elements is in a Storage
+         * 
+         * @param storage the Storage, typically the api storage
+         * @return true if any element was found
+         */
+        boolean containsAny(@NonNull Storage storage) {
+            for (Node n : storage.getNodes()) {
+                if (nodes.contains(n.getOsmId())) {
+                    return true;
+                }
+            }
+            for (Way w : storage.getWays()) {
+                if (ways.contains(w.getOsmId())) {
+                    return true;
+                }
+            }
+            for (Relation r : storage.getRelations()) {
+                if (relations.contains(r.getOsmId())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public BoundingBox getBounds() {
+            return box;
+        }
+    }
+
+    private final StorageDelegator delegator;
+    private final RTree<Record>    records = new RTree<>(2, 20);
+    private long                   budget;
+    private float                  pressure      = 1f;
+    private long                   pressureUntil = 0;
+    private int                    nodeLimit     = Integer.MAX_VALUE;
+    private int                    boxLimit      = Integer.MAX_VALUE;
+    private final AtomicBoolean    pruning       = new AtomicBoolean();
+    private ExecutorService        executor;
+
+    /**
+     * Construct a new instance
+     * 
+     * @param delegator the StorageDelegator holding the data
+     */
+    PruneEngine(@NonNull StorageDelegator delegator) {
+        this.delegator = delegator;
+        budget = (long) (Runtime.getRuntime().maxMemory() * DEFAULT_MEMORY_FRACTION);
+    }
+
+    /**
+     * Set the maximum estimated heap cost of the loaded data
+     * 
+     * @param budget the budget in bytes
+     */
+    public synchronized void setBudget(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Get the maximum estimated heap cost of the loaded data
+     * 
+     * @return the budget in bytes
+     */
+    public synchronized long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Record the elements downloaded for a BoundingBox
+     * 
+     * If the box was downloaded in parts this can be called for each part
+     * 
+     * @param box the BoundingBox
+     * @param downloaded the Storage holding the downloaded elements
+     */
+    public synchronized void add(@NonNull BoundingBox box, @NonNull Storage downloaded) {
+        Record record = find(box);
+        if (record == null) {
+            record = new Record(box);
+            records.insert(record);
+        }
+        for (Node n : downloaded.getNodes()) {
+            record.nodes.put(n.getOsmId());
+        }
+        for (Way w : downloaded.getWays()) {
+            record.ways.put(w.getOsmId());
+        }
+        for (Relation r : downloaded.getRelations()) {
+            record.relations.put(r.getOsmId());
+        }
+        record.lastViewed = System.currentTimeMillis();
+    }
+
+    /**
+     * Protect a BoundingBox from being pruned
+     * 
+     * @param box the BoundingBox, this should be the same as was used when the data for it was added
+     */
+    public synchronized void pin(@NonNull BoundingBox box) {
+        Record record = find(box);
+        if (record == null) {
+            record = new Record(box);
+            records.insert(record);
+        }
+        record.pinned = true;
+    }
+
+    /**
+     * Allow all BoundingBoxes to be pruned again
+     */
+    public synchronized void unpinAll() {
+        List<Record> all = new ArrayList<>();
+        records.query(all);
+        for (Record r : all) {
+            r.pinned = false;
+        }
+    }
+
+    /**
+     * Find the Record for a BoundingBox
+     * 
+     * @param box the BoundingBox
+     * @return the Record or null if none was found
+     */
+    @Nullable
+    private Record find(@NonNull BoundingBox box) {
+        List<Record> result = new ArrayList<>();
+        records.query(result, box);
+        for (Record r : result) {
+            if (r.box.equals(box)) {
+                return r;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Note that an area has been viewed
+     * 
+     * @param view the viewed BoundingBox
+     */
+    public synchronized void viewed(@NonNull BoundingBox view) {
+        List<Record> result = new ArrayList<>();
+        records.query(result, view);
+        long now = System.currentTimeMillis();
+        for (Record r : result) {
+            r.lastViewed = now;
+        }
+    }
+
+    /**
+     * Get the estimated heap cost of the loaded data
+     * 
+     * @return the cost in bytes
+     */
+    public long getEstimatedCost() {
+        Storage storage = delegator.getCurrentStorage();
+        return (long) storage.getNodeCount() * NODE_COST + (long) storage.getWayCount() * WAY_COST + (long) storage.getRelationCount() * RELATION_COST;
+    }
+
+    /**
+     * Check if the limits have been exceeded
+     * 
+     * @param nodeLimit the maximum number of nodes
+     * @param boxLimit the maximum number of BoundingBoxes
+     * @return true if data should be pruned
+     */
+    public boolean pruneNeeded(int nodeLimit, int boxLimit) {
+        float factor = getPressure();
+        return getEstimatedCost() > getBudget() * factor || delegator.getCurrentStorage().getNodeCount() > nodeLimit * factor
+                || delegator.getBoundingBoxes().size() > boxLimit;
+    }
+
+    /**
+     * Get the current factor to apply to the limits
+     * 
+     * @return a value between 0 and 1
+     */
+    private synchronized float getPressure() {
+        if (pressure < 1f && System.currentTimeMillis() > pressureUntil) {
+            pressure = 1f;
+        }
+        return pressure;
+    }
+
+    /**
+     * Prune in the background
+     * 
+     * If a prune is already running this does nothing
+     * 
+     * @param logic the current Logic instance if null element selection will not be tested
+     * @param keep data in this BoundingBox will be retained
+     * @param nodeLimit the maximum number of nodes
+     * @param boxLimit the maximum number of BoundingBoxes
+     */
+    public void schedule(@Nullable final Logic logic, @NonNull final BoundingBox keep, final int nodeLimit, final int boxLimit) {
+        if (pruning.get()) {
+            return;
+        }
+        try {
+            getExecutor().execute(() -> prune(logic, keep, nodeLimit, boxLimit));
+        } catch (RejectedExecutionException rjee) {
+            Log.e(DEBUG_TAG, "Prune execution rejected " + rjee.getMessage());
+        }
+    }
+
+    /**
+     * Get the executor for background pruning
+     * 
+     * @return an ExecutorService
+     */
+    @NonNull
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor();
+        }
+        return executor;
+    }
+
+    /**
+     * Remove the least recently viewed boxes till the data is below the limits
+     * 
+     * @param logic the current Logic instance if null element selection will not be tested
+     * @param keep boxes intersecting this BoundingBox will be retained
+     * @param nodeLimit the maximum number of nodes
+     * @param boxLimit the maximum number of BoundingBoxes
+     * @return the number of boxes removed
+     */
+    public int prune(@Nullable Logic logic, @NonNull BoundingBox keep, int nodeLimit, int boxLimit) {
+        if (!pruning.compareAndSet(false, true)) {
+            return 0;
+        }
+        try {
+            synchronized (this) {
+                this.nodeLimit = nodeLimit;
+                this.boxLimit = boxLimit;
+            }
+            adoptUntracked();
+            int removed = 0;
+            while (true) {
+                float factor = getPressure();
+                Storage storage = delegator.getCurrentStorage();
+                long excessCost = getEstimatedCost() - (long) (getBudget() * factor * TARGET);
+                long excessNodes = storage.getNodeCount() - (long) (nodeLimit * factor * TARGET);
+                long excessBoxes = delegator.getBoundingBoxes().size() - (long) (boxLimit * TARGET);
+                if (excessCost <= 0 && excessNodes <= 0 && excessBoxes <= 0) {
+                    break;
+                }
+                List<Record> batch = new ArrayList<>();
+                LongHashSet nodes = new LongHashSet();
+                LongHashSet ways = new LongHashSet();
+                LongHashSet relations = new LongHashSet();
+                synchronized (this) {
+                    selectBatch(keep, excessCost, excessNodes, excessBoxes, batch);
+                    if (batch.isEmpty()) {
+                        Log.w(DEBUG_TAG, "Nothing left to prune");
+                        break;
+                    }
+                    candidates(batch, nodes, ways, relations);
+                }
+                List<BoundingBox> boxes = new ArrayList<>();
+                for (Record r : batch) {
+                    boxes.add(r.box);
+                }
+                delegator.evict(logic, boxes, nodes, ways, relations);
+                synchronized (this) {
+                    for (Record r : batch) {
+                        records.remove(r);
+                    }
+                }
+                removed += batch.size();
+            }
+            Log.d(DEBUG_TAG, "Removed " + removed + " boxes, estimated cost now " + getEstimatedCost());
+            return removed;
+        } finally {
+            pruning.set(false);
+        }
+    }
+
+    /**
+     * Select the next boxes to remove
+     * 
+     * Unmodified boxes come first, each group ordered by when they were last viewed, pinned boxes are never selected
+     * 
+     * @param keep boxes intersecting this BoundingBox will be retained
+     * @param excessCost estimated heap cost that should be freed
+     * @param excessNodes number of nodes that should be removed
+     * @param excessBoxes number of boxes that should be removed
+     * @param batch List to add the selected Records to
+     */
+    private void selectBatch(@NonNull BoundingBox keep, long excessCost, long excessNodes, long excessBoxes, @NonNull List<Record> batch) {
+        List<Record> all = new ArrayList<>();
+        records.query(all);
+        Set<Record> protectedRecords = new HashSet<>();
+        records.query(protectedRecords, keep);
+        Storage apiStorage = delegator.getApiStorage();
+        List<Record> unmodified = new ArrayList<>();
+        List<Record> modified = new ArrayList<>();
+        for (Record r : all) {
+            if (!r.pinned && !protectedRecords.contains(r)) {
+                (r.containsAny(apiStorage) ? modified : unmodified).add(r);
+            }
+        }
+        Comparator<Record> byLastViewed = (r1, r2) -> Long.compare(r1.lastViewed, r2.lastViewed);
+        Collections.sort(unmodified, byLastViewed);
+        Collections.sort(modified, byLastViewed);
+        unmodified.addAll(modified);
+        long cost = 0;
+        long nodeCount = 0;
+        for (Record r : unmodified) {
+            if (batch.size() >= MAX_BATCH || (cost >= excessCost && nodeCount >= excessNodes && batch.size() >= excessBoxes)) {
+                break;
+            }
+            batch.add(r);
+            cost += r.getCost();
+            nodeCount += r.nodes.size();
+        }
+    }
+
+    /**
+     * Determine the elements that were only downloaded in the boxes that are being removed
+     * 
+     * @param batch the Records for the boxes that are being removed
+     * @param nodes set to add the candidate Node ids to
+     * @param ways set to add the candidate Way ids to
+     * @param relations set to add the candidate Relation ids to
+     */
+    private void candidates(@NonNull List<Record> batch, @NonNull LongHashSet nodes, @NonNull LongHashSet ways, @NonNull LongHashSet relations) {
+        for (Record r : batch) {
+            addAll(nodes, r.nodes);
+            addAll(ways, r.ways);
+            addAll(relations, r.relations);
+        }
+        // a single pass over the remaining records instead of searching them for every id
+        List<Record> remaining = new ArrayList<>();
+        records.query(remaining);
+        remaining.removeAll(batch);
+        for (Record r : remaining) {
+            removeAll(nodes, r.nodes);
+            removeAll(ways, r.ways);
+            removeAll(relations, r.relations);
+        }
+    }
+
+    /**
+     * Add the ids downloaded in a box to the candidates
+     * 
+     * @param candidates the candidate ids
+     * @param ids the ids downloaded in a box that is being removed
+     */
+    private static void addAll(@NonNull LongHashSet candidates, @NonNull LongHashSet ids) {
+        for (long id : ids.values()) {
+            candidates.put(id);
+        }
+    }
+
+    /**
+     * Remove the ids downloaded in a box from the candidates
+     * 
+     * Iterates over the smaller of the two sets
+     * 
+     * @param candidates the candidate ids
+     * @param ids the ids downloaded in a remaining box
+     */
+    private static void removeAll(@NonNull LongHashSet candidates, @NonNull LongHashSet ids) {
+        if (candidates.size() <= ids.size()) {
+            for (long id : candidates.values()) {
+                if (ids.contains(id)) {
+                    candidates.remove(id);
+                }
+            }
+            return;
+        }
+        for (long id : ids.values()) {
+            candidates.remove(id);
+        }
+    }
+
+    /**
+     * Drop Records for boxes that have been removed and create Records for boxes we don't know about
+     * 
+     * The latter happens when the data was loaded from saved state or a file, determining their contents requires a
+     * single pass over all elements.
+     */
+    private void adoptUntracked() {
+        List<Record> untracked = new ArrayList<>();
+        synchronized (this) {
+            List<BoundingBox> boxes = delegator.getBoundingBoxes();
+            List<Record> all = new ArrayList<>();
+            records.query(all);
+            for (Record r : all) {
+                if (!boxes.contains(r.box)) {
+                    records.remove(r);
+                }
+            }
+            for (BoundingBox box : boxes) {
+                if (find(box) == null) {
+                    untracked.add(new Record(box));
+                }
+            }
+        }
+        if (untracked.isEmpty()) {
+            return;
+        }
+        Log.i(DEBUG_TAG, "Adopting " + untracked.size() + " boxes");
+        try {
+            delegator.lock();
+            Storage storage = delegator.getCurrentStorage();
+            for (Way w : storage.getWays()) {
+                BoundingBox bounds = w.getBounds();
+                for (Record r : untracked) {
+                    if (r.box.intersects(bounds)) {
+                        r.ways.put(w.getOsmId());
+                        for (Node n : w.getNodes()) {
+                            r.nodes.put(n.getOsmId());
+                        }
+                    }
+                }
+            }
+            for (Node n : storage.getNodes()) {
+                for (Record r : untracked) {
+                    if (r.box.contains(n.getLon(), n.getLat())) {
+                        r.nodes.put(n.getOsmId());
+                    }
+                }
+            }
+            for (Relation rel : storage.getRelations()) {
+                for (Record r : untracked) {
+                    if (hasMemberIn(rel, r)) {
+                        r.relations.put(rel.getOsmId());
+                    }
+                }
+            }
+        } finally {
+            delegator.unlock();
+        }
+        synchronized (this) {
+            for (Record r : untracked) {
+                records.insert(r);
+            }
+        }
+    }
+
+    /**
+     * Check if a Relation has a downloaded member recorded for a box
+     * 
+     * @param relation the Relation
+     * @param record the Record for the box
+     * @return true if a member was found
+     */
+    private static boolean hasMemberIn(@NonNull Relation relation, @NonNull Record record) {
+        for (RelationMember member : relation.getMembers()) {
+            OsmElement e = member.getElement();
+            if ((e instanceof Node && record.nodes.contains(e.getOsmId())) || (e instanceof Way && record.ways.contains(e.getOsmId()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the number of tracked boxes
+     * 
+     * @return the count
+     */
+    public synchronized int size() {
+        return records.count();
+    }
+
+    /**
+     * React to memory pressure reported by the system
+     * 
+     * The limits are lowered for a short time depending on the level and a background prune is started
+     * 
+     * @param level the level as passed to onTrimMemory
+     */
+    public void onTrimMemory(int level) {
+        if (!lowerLimits(level)) {
+            return;
+        }
+        int currentNodeLimit;
+        int currentBoxLimit;
+        synchronized (this) {
+            currentNodeLimit = nodeLimit;
+            currentBoxLimit = boxLimit;
+        }
+        Logic logic = App.getLogic();
+        if (logic != null) {
+            schedule(logic, logic.getViewBox(), currentNodeLimit, currentBoxLimit);
+        }
+    }
+
+    /**
+     * Lower the limits for a short time depending on the memory pressure level
+     * 
+     * @param level the level as passed to onTrimMemory
+     * @return true if the limits were lowered
+     */
+    synchronized boolean lowerLimits(int level) {
+        float factor;
+        switch (level) {
+        case ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE:
+        case ComponentCallbacks2.TRIM_MEMORY_BACKGROUND:
+            factor = 0.75f;
+            break;
+        case ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW:
+        case ComponentCallbacks2.TRIM_MEMORY_MODERATE:
+            factor = 0.5f;
+            break;
+        case ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL:
+        case ComponentCallbacks2.TRIM_MEMORY_COMPLETE:
+            factor = 0.25f;
+            break;
+        default:
+            return false;
+        }
+        // relative to what is currently loaded so that this always frees memory
+        float loaded = Math.min(1f, getEstimatedCost() / (float) Math.max(1, budget));
+        pressure = Math.min(pressure, factor * loaded);
+        pressureUntil = System.currentTimeMillis() + PRESSURE_DURATION;
+        return true;
+    }
+}
@@ -11,6 +11,7 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.fragment.app.FragmentActivity;
 
+import org.xml.sax.SAXException;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlPullParserFactory;
@@ -18,9 +19,12 @@ import org.xmlpull.v1.XmlSerializer;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.net.HttpURLConnection;
@@ -28,15 +32,27 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.xml.parsers.ParserConfigurationException;
+
 import de.blau.android.App;
 import de.blau.android.Authorize;
 import de.blau.android.ErrorCodes;
@@ -51,6 +67,7 @@ import de.blau.android.exception.OsmIOException;
 import de.blau.android.exception.OsmServerException;
 import de.blau.android.net.OAuth1aHelper;
 import de.blau.android.net.OAuth2Interceptor;
+import de.blau.android.net.ReadAheadInputStream;
 import de.blau.android.prefs.API;
 import de.blau.android.prefs.API.Auth;
 import de.blau.android.services.util.MBTileProviderDataBase;
@@ -59,6 +76,7 @@ import de.blau.android.tasks.Note;
 import de.blau.android.tasks.NoteComment;
 import de.blau.android.util.BasicAuthInterceptor;
 import de.blau.android.util.ScreenMessage;
+import de.blau.android.util.Util;
 import okhttp3.Call;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
@@ -89,6 +107,10 @@ public class Server {
     //
     // see https://wiki.openstreetmap.org/wiki/API_v0.6#Multi_fetch:_GET_/api/0.6/[nodes|ways|relations]?#parameters
     public static final int MULTI_FETCH_MAX_ELEMENTS = 200;
+    // maximum URL length for multi-fetch calls, some proxies and servers refuse longer request lines
+    public static final int MULTI_FETCH_MAX_URL_LENGTH = 2000;
+    // number of concurrent multi-fetch calls
+    public static final int MULTI_FETCH_CONNECTIONS = 4;
 
     private static final String VERSION_KEY         = "version";
     private static final String GENERATOR_KEY       = "generator";
@@ -500,6 +522,8 @@ public class Server {
     /**
      * Open a connection to an OSM server and request all data in box
      * 
+     * The returned stream reads ahead on a background thread so that parsing overlaps with the transfer
+     * 
      * @param context Android context
      * @param box the specified bounding box
      * @return the stream
@@ -509,7 +533,7 @@ public class Server {
     public InputStream getStreamForBox(@Nullable final Context context, @NonNull final BoundingBox box) throws IOException {
         Log.d(DEBUG_TAG, "getStreamForBox");
         URL url = new URL(getReadOnlyUrl() + "map?bbox=" + box.toApiString());
-        return openConnection(context, url);
+        return new ReadAheadInputStream(openConnection(context, url));
     }
 
     /**
@@ -542,13 +566,37 @@ public class Server {
     @NonNull
     public InputStream getStreamForElements(@Nullable final Context context, @NonNull final String type, final long[] ids) throws IOException {
         Log.d(DEBUG_TAG, "getStreamForElements");
+        return new ReadAheadInputStream(openConnection(context, getMultiFetchUrl(type, ids)));
+    }
 
+    /**
+     * Get the start of a multi-fetch URL for a type of element
+     * 
+     * @param type type (node, way, relation) of the objects
+     * @return a StringBuilder holding the URL without ids
+     */
+    @NonNull
+    private StringBuilder getMultiFetchUrlPrefix(@NonNull final String type) {
         StringBuilder urlString = new StringBuilder();
         urlString.append(hasMapSplitSource() ? getReadWriteUrl() : getReadOnlyUrl());
         urlString.append(type);
         urlString.append("s?"); // that's a plural s
         urlString.append(type);
         urlString.append("s="); // and another one
+        return urlString;
+    }
+
+    /**
+     * Get a multi-fetch URL
+     * 
+     * @param type type (node, way, relation) of the objects
+     * @param ids array containing the OSM ids of the objects
+     * @return the URL
+     * @throws MalformedURLException if the URL is invalid
+     */
+    @NonNull
+    private URL getMultiFetchUrl(@NonNull final String type, @NonNull final long[] ids) throws MalformedURLException {
+        StringBuilder urlString = getMultiFetchUrlPrefix(type);
         int size = ids.length;
         for (int i = 0; i < size; i++) {
             urlString.append(Long.toString(ids[i]));
@@ -556,8 +604,133 @@ public class Server {
                 urlString.append(',');
             }
         }
-        URL url = new URL(urlString.toString());
-        return openConnection(context, url);
+        return new URL(urlString.toString());
+    }
+
+    /**
+     * Split ids in to batches that can be retrieved with one multi-fetch call each
+     * 
+     * A batch contains at most MULTI_FETCH_MAX_ELEMENTS ids and the resulting URL will not be longer than
+     * MULTI_FETCH_MAX_URL_LENGTH
+     * 
+     * @param type type (node, way, relation) of the objects
+     * @param ids array containing the OSM ids of the objects
+     * @return a List of arrays of ids
+     */
+    @NonNull
+    List<long[]> getMultiFetchBatches(@NonNull final String type, @NonNull final long[] ids) {
+        final int prefixLength = getMultiFetchUrlPrefix(type).length();
+        List<long[]> batches = new ArrayList<>();
+        int start = 0;
+        while (start < ids.length) {
+            int end = start;
+            int length = prefixLength;
+            while (end < ids.length && end - start < MULTI_FETCH_MAX_ELEMENTS) {
+                int idLength = Long.toString(ids[end]).length() + (end > start ? 1 : 0); // plus separator
+                if (end > start && length + idLength > MULTI_FETCH_MAX_URL_LENGTH) {
+                    break;
+                }
+                length += idLength;
+                end++;
+            }
+            batches.add(Arrays.copyOfRange(ids, start, end));
+            start = end;
+        }
+        return batches;
+    }
+
+    /**
+     * Retrieve elements with multi-fetch calls and parse them
+     * 
+     * The ids of each type are split in to batches with {@link #getMultiFetchBatches(String, long[])}, the batches are
+     * downloaded concurrently, but parsed in order, types in the iteration order of ids, so that the parser can resolve
+     * references to elements of earlier types. At most {@link #MULTI_FETCH_CONNECTIONS} responses are buffered at any
+     * time.
+     * 
+     * @param context Android context
+     * @param osmParser the OsmParser that will hold the results
+     * @param ids a Map from element type to the ids of the elements to retrieve
+     * @throws IOException on network or server errors
+     * @throws SAXException if the data couldn't be parsed
+     * @throws ParserConfigurationException if the parser couldn't be configured
+     */
+    public void getElements(@Nullable final Context context, @NonNull final OsmParser osmParser, @NonNull final Map<String, long[]> ids)
+            throws IOException, SAXException, ParserConfigurationException {
+        List<URL> urls = new ArrayList<>();
+        for (Entry<String, long[]> entry : ids.entrySet()) {
+            for (long[] batch : getMultiFetchBatches(entry.getKey(), entry.getValue())) {
+                urls.add(getMultiFetchUrl(entry.getKey(), batch));
+            }
+        }
+        if (urls.isEmpty()) {
+            return;
+        }
+        final int connections = Math.min(MULTI_FETCH_CONNECTIONS, urls.size());
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(connections);
+        try {
+            // only submit a new request when a response has been parsed, this limits the number of buffered responses
+            Deque<Future<byte[]>> responses = new ArrayDeque<>();
+            Iterator<URL> pending = urls.iterator();
+            while (pending.hasNext() && responses.size() < connections) {
+                responses.add(submitRequest(context, executor, pending.next()));
+            }
+            while (!responses.isEmpty()) {
+                byte[] data = getResponse(responses.poll());
+                if (pending.hasNext()) {
+                    responses.add(submitRequest(context, executor, pending.next()));
+                }
+                osmParser.reinit();
+                osmParser.start(new ByteArrayInputStream(data));
+            }
+        } finally {
+            Util.shutDownThreadPool(executor);
+        }
+        Log.d(DEBUG_TAG, "getElements " + urls.size() + " requests");
+    }
+
+    /**
+     * Submit a multi-fetch request
+     * 
+     * @param context Android context
+     * @param executor the ExecutorService to run the request on
+     * @param url the URL
+     * @return a Future for the response data
+     */
+    @NonNull
+    private static Future<byte[]> submitRequest(@Nullable final Context context, @NonNull ExecutorService executor, @NonNull final URL url) {
+        return executor.submit(() -> {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (InputStream in = openConnection(context, url)) {
+                StreamUtils.copy(in, out);
+            }
+            return out.toByteArray();
+        });
+    }
+
+    /**
+     * Wait for a multi-fetch response
+     * 
+     * @param response the Future for the response
+     * @return the response data
+     * @throws IOException if the request failed or we were interrupted
+     */
+    @NonNull
+    private static byte[] getResponse(@NonNull Future<byte[]> response) throws IOException {
+        try {
+            return response.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
     }
 
     /**
@@ -578,6 +751,9 @@ public class Server {
     /**
      * Given an URL, open the connection and return the InputStream
      * 
+     * As we don't set an Accept-Encoding header OkHttp will request gzip compressed data and transparently decompress
+     * the response
+     * 
      * @param context Android context
      * @param url the URL
      * @param connectTimeout connection timeout in ms
@@ -901,13 +1077,16 @@ public class Server {
     /**
      * Upload edits in OCS format and process the server response
      * 
+     * The ids and versions of the uploaded elements are updated before this returns, so that further chunks of a large
+     * upload can reference newly created elements
+     * 
      * @param delegator reference to the StorageDelegator
-     * @param storage a Storage element hold the elements to upload
+     * @param changes the elements to upload in upload order, see {@link OsmXml#getUploadOrder(Storage)}
      * @throws IOException if writing the output doesn't work
      */
-    public void diffUpload(@NonNull final StorageDelegator delegator, @NonNull final Storage storage) throws IOException {
+    public void diffUpload(@NonNull final StorageDelegator delegator, @NonNull final List<OsmElement> changes) throws IOException {
         try {
-            for (OsmElement elem : storage.getElements()) {
+            for (OsmElement elem : changes) {
                 if (elem.state != OsmElement.STATE_DELETED) {
                     discardedTags.remove(elem);
                 }
@@ -916,8 +1095,7 @@ public class Server {
                 @Override
                 public void writeTo(BufferedSink sink) throws IOException {
                     try {
-                        OsmXml.writeOsmChange(storage, sink.outputStream(), changesetId, getCachedCapabilities().getMaxElementsInChangeset(),
-                                App.getUserAgent());
+                        OsmXml.writeOsmChange(changes, sink.outputStream(), changesetId, App.getUserAgent());
                     } catch (IllegalArgumentException | IllegalStateException | XmlPullParserException e) {
                         throw new IOException(e);
                     }
@@ -932,6 +1110,7 @@ public class Server {
     }
 
     public static final Pattern ERROR_MESSAGE_BAD_OAUTH_REQUEST = Pattern.compile("(?i)Bad OAuth request.*");
+    public static final Pattern ERROR_MESSAGE_TOO_MANY_NODES    = Pattern.compile("(?i)You requested too many nodes.*", Pattern.DOTALL);
 
     /**
      * Process the results of uploading a diff to the API, here because it needs to manipulate the stored data
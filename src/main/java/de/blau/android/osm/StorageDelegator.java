@@ -69,6 +69,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
 
     public static final int  MIN_NODES_CIRCLE            = 3;
     private static final int MINIMUN_NODES_FOR_WAY_SPLIT = 3;
+    public static final int  UPLOAD_CHUNK_SIZE           = 1000;
 
     private Storage currentStorage;
 
@@ -92,6 +93,40 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      */
     private transient boolean dirty;
 
+    /**
+     * Incremented on every change of the contents
+     */
+    private transient volatile long modificationCount = 0;
+
+    /**
+     * Last read-only snapshot of currentStorage, created on demand
+     */
+    private transient volatile Snapshot snapshot;
+
+    /**
+     * Copy of the indices of currentStorage at a specific modification count
+     */
+    private static final class Snapshot {
+        final Storage storage;
+        final long    modificationCount;
+
+        /**
+         * Construct a new Snapshot
+         * 
+         * @param storage the copied Storage
+         * @param modificationCount the modification count at the time of copying
+         */
+        Snapshot(@NonNull Storage storage, long modificationCount) {
+            this.storage = storage;
+            this.modificationCount = modificationCount;
+        }
+    }
+
+    /**
+     * Assembled multipolygon rings for rendering
+     */
+    private transient MultipolygonCache multipolygonCache = new MultipolygonCache();
+
     /**
      * if false we need to check if the current imagery has been recorded
      */
@@ -102,6 +137,11 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
 
     private transient SavingHelper<StorageDelegator> savingHelper = new SavingHelper<>();
 
+    /**
+     * Tracks the downloaded areas for memory pressure aware pruning, not persisted
+     */
+    private transient PruneEngine pruneEngine;
+
     /**
      * A OsmElementFactory that is used to create new elements. Needs to be persisted together with
      * currentStorage/apiStorage to avoid duplicate IDs when the application is restarted after some elements have been
@@ -129,6 +169,9 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
         try {
             lock();
             this.dirty = dirty;
+            modified();
+            multipolygonCache.clear();
+            snapshot = null;
             apiStorage = new Storage();
             currentStorage = new Storage();
             undo = new UndoStorage(currentStorage, apiStorage);
@@ -147,7 +190,8 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
     public void setCurrentStorage(@NonNull final Storage currentStorage) {
         try {
             lock();
-            dirty = true;
+            setDirty();
+            multipolygonCache.clear();
             apiStorage = new Storage();
             this.currentStorage = currentStorage;
             undo = new UndoStorage(currentStorage, apiStorage);
@@ -169,10 +213,125 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      * set dirty to true
      */
     public void dirty() {
-        dirty = true;
+        setDirty();
+        // this is called after undo and similar operations that don't tell us what has changed
+        multipolygonCache.clear();
         Log.d(DEBUG_TAG, "setting delegator to dirty");
     }
 
+    /**
+     * Set dirty to true and note that the contents have changed
+     */
+    private void setDirty() {
+        dirty = true;
+        modified();
+    }
+
+    /**
+     * Note that the contents have changed
+     * 
+     * This has to be called after the change, when changing with the lock held before releasing it. Snapshots are only
+     * created holding the lock, so one created before the change is not returned afterwards.
+     */
+    private synchronized void modified() {
+        modificationCount++; // NOSONAR only incremented holding the monitor, readers only need visibility
+        snapshot = null;
+    }
+
+    /**
+     * Get the cache for assembled multipolygon rings
+     * 
+     * @return the MultipolygonCache
+     */
+    @NonNull
+    public MultipolygonCache getMultipolygonCache() {
+        return multipolygonCache;
+    }
+
+    /**
+     * Get a counter that is incremented each time the contents of the storage change
+     * 
+     * This can be used to determine if data derived from the storage needs to be regenerated, the value has no meaning
+     * beyond that and is not persisted
+     * 
+     * @return the current modification count
+     */
+    public long getModificationCount() {
+        return modificationCount;
+    }
+
+    /**
+     * Get a read-only snapshot of the current Storage
+     * 
+     * The snapshot contains copies of the element indices of the current Storage, it will not change when elements are
+     * added or removed later on and can be read without holding the lock. The returned Storage must not be modified.
+     * 
+     * This is not an immutable snapshot of the data: the elements themselves are shared with the current Storage and
+     * are changed in place by edits, so readers on other threads than the one editing need to be prepared for tags,
+     * node lists and positions changing while they read. Readers that need a consistent view of the elements have to
+     * hold the lock instead.
+     * 
+     * Copying the indices is O(n) in the number of elements, so changes don't create a snapshot, it is only created
+     * the first time it is requested after a change, holding the lock for the copy, and is then shared by all callers
+     * until the contents change again. Callers should avoid requesting one after every edit.
+     * 
+     * @return a Storage with the same contents as the current one
+     */
+    @NonNull
+    public Storage getSnapshot() {
+        Snapshot current = snapshot;
+        if (current != null && current.modificationCount == modificationCount) {
+            return current.storage;
+        }
+        try {
+            lock();
+            return newSnapshot();
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Get an up to date read-only snapshot of the current Storage if that is possible without waiting for the lock
+     * 
+     * As the modification count is only changed when a background merge has completed, this will typically succeed
+     * while a merge is still in progress
+     * 
+     * @return a Storage with the same contents as the current one or null if the lock is held by somebody else
+     * @see #getSnapshot()
+     */
+    @Nullable
+    public Storage peekSnapshot() {
+        Snapshot current = snapshot;
+        if (current != null && current.modificationCount == modificationCount) {
+            return current.storage;
+        }
+        if (tryLock()) {
+            try {
+                return newSnapshot();
+            } finally {
+                unlock();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Copy the indices of currentStorage, the caller needs to hold the lock
+     * 
+     * @return the copied Storage
+     */
+    @NonNull
+    private Storage newSnapshot() {
+        Snapshot current = snapshot;
+        long count = modificationCount;
+        if (current == null || current.modificationCount != count) {
+            current = new Snapshot(new Storage(currentStorage), count);
+            snapshot = current;
+        }
+        return current.storage;
+    }
+
     /**
      * Get the current undo instance. For immediate use only - DO NOT CACHE THIS.
      * 
@@ -242,7 +401,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
     public void insertElementSafe(@NonNull final OsmElement elem) {
         try {
             lock();
-            dirty = true;
+            setDirty();
             undo.save(elem);
             try {
                 apiStorage.insertElementSafe(elem);
@@ -265,7 +424,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
     private void insertElementUnsafe(@NonNull final OsmElement elem) {
         try {
             lock();
-            dirty = true;
+            setDirty();
             undo.save(elem);
             try {
                 apiStorage.insertElementUnsafe(elem);
@@ -289,7 +448,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
     public void setTags(@NonNull final OsmElement elem, @Nullable final Map<String, String> tags) {
         try {
             lock();
-            dirty = true;
+            setDirty();
             undo.save(elem);
 
             if (elem.setTags(tags)) {
@@ -326,6 +485,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
             for (OsmElement e : post) {
                 e.stamp();
                 e.resetHasProblem();
+                multipolygonCache.invalidate(e);
                 if (e instanceof Way) {
                     ((Way) e).invalidateBoundingBox();
                 } else if (e instanceof Node) {
@@ -350,6 +510,11 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
                 filter.onElementChanged(pre, post);
             }
         }
+        if (post == null) {
+            multipolygonCache.clear();
+        }
+        // most edits mark the storage dirty before changing it without holding the lock
+        modified();
     }
 
     /**
@@ -541,7 +706,6 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
     @NonNull
     public Relation createAndInsertRelation(@Nullable List<OsmElement> members) {
         // undo - nothing done here, relation gets saved/marked on insert
-        dirty = true;
         Relation relation = factory.createRelationWithNewId();
         try {
             lock();
@@ -556,6 +720,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
                 }
             }
         } finally {
+            setDirty();
             unlock();
         }
         return relation;
@@ -570,7 +735,6 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
     @NonNull
     public Relation createAndInsertRelationFromMembers(@NonNull List<RelationMember> members) {
         // undo - nothing done here, relation gets saved/marked on insert
-        dirty = true;
         Relation relation = factory.createRelationWithNewId();
         try {
             lock();
@@ -587,6 +751,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
                 }
             }
         } finally {
+            setDirty();
             unlock();
         }
         return relation;
@@ -600,13 +765,13 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      */
     public Way createAndInsertWay(@NonNull final Node firstWayNode) {
         // undo - nothing done here, way gets saved/marked on insert
-        dirty = true;
         Way way = factory.createWayWithNewId();
         way.addNode(firstWayNode);
         try {
             lock();
             insertElementUnsafe(way);
         } finally {
+            setDirty();
             unlock();
         }
         return way;
@@ -621,7 +786,6 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      *             constraint
      */
     public void addNodeToWay(@NonNull final Node node, @NonNull final Way way) {
-        dirty = true;
         undo.save(way);
         validateWayNodeCount(way.nodeCount() + 1);
         try {
@@ -630,6 +794,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
             way.addNode(node);
             way.updateState(OsmElement.STATE_MODIFIED);
         } finally {
+            setDirty();
             unlock();
         }
         onElementChanged(null, way);
@@ -644,7 +809,6 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      *             constraint
      */
     public void addNodesToWay(@NonNull final List<Node> nodes, @NonNull final Way way) {
-        dirty = true;
         undo.save(way);
         validateWayNodeCount(way.nodeCount() + nodes.size());
         try {
@@ -653,6 +817,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
             way.addNodes(nodes, false);
             way.updateState(OsmElement.STATE_MODIFIED);
         } finally {
+            setDirty();
             unlock();
         }
         onElementChanged(null, way);
@@ -667,7 +832,6 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      *             constraint
      */
     public void replaceWayNodes(@NonNull final List<Node> nodes, @NonNull final Way way) {
-        dirty = true;
         undo.save(way);
         validateWayNodeCount(nodes.size());
         try {
@@ -677,6 +841,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
             way.addNodes(nodes, false);
             way.updateState(OsmElement.STATE_MODIFIED);
         } finally {
+            setDirty();
             unlock();
         }
         onElementChanged(null, way);
@@ -708,7 +873,6 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      *             constraint
      */
     public void addNodeToWayAfter(final int nodeBeforeIndex, @NonNull final Node newNode, @NonNull final Way way) throws OsmIllegalOperationException {
-        dirty = true;
         undo.save(way);
         validateWayNodeCount(way.nodeCount() + 1);
         try {
@@ -718,6 +882,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
             way.updateState(OsmElement.STATE_MODIFIED);
             onElementChanged(null, way);
         } finally {
+            setDirty();
             unlock();
         }
     }
@@ -732,7 +897,6 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      *             constraint
      */
     public void appendNodeToWay(@NonNull final Node refNode, @NonNull final Node nextNode, @NonNull final Way way) throws OsmIllegalOperationException {
-        dirty = true;
         undo.save(way);
         validateWayNodeCount(way.nodeCount() + 1);
         try {
@@ -742,6 +906,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
             way.updateState(OsmElement.STATE_MODIFIED);
             onElementChanged(null, way);
         } finally {
+            setDirty();
             unlock();
         }
     }
@@ -755,7 +920,6 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      */
     public void moveNode(@NonNull final Node node, final int latE7, final int lonE7) {
         validateCoordinates(latE7, lonE7);
-        dirty = true;
         undo.save(node);
         try {
             lock();
@@ -763,6 +927,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
             updateLatLon(node, latE7, lonE7);
             onElementChanged(null, node);
         } finally {
+            setDirty();
             unlock();
         }
     }
@@ -831,7 +996,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
             Log.e(DEBUG_TAG, "moveNodes  no nodes!");
             return;
         }
-        dirty = true;
+        setDirty();
 
         Set<Node> nodes = new HashSet<>(allNodes); // Guarantee uniqueness
         // check that all coordinates are valid before moving
@@ -915,7 +1080,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
             undo.save(nd);
         }
 
-        dirty = true;
+        setDirty();
 
         invalidateWayBoundingBox(nodes);
 
@@ -1064,7 +1229,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
         final double upperThreshold = Math.cos(threshold * Math.PI / 180);
         final double epsilon = 1e-5;
 
-        dirty = true;
+        setDirty();
         // save nodes for undo
         // adding to a Set first removes duplication
         Set<Node> save = new HashSet<>();
@@ -1203,7 +1368,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
             Log.e(DEBUG_TAG, "rotateWay angle is NaN");
             return;
         }
-        dirty = true;
+        setDirty();
         double cos = Math.cos(angle);
         double sin = Math.sin(angle);
         Set<Node> uniqueNodes = new HashSet<>(nodes); // Guarantee uniqueness
@@ -1229,7 +1394,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      */
     public void removeNode(@NonNull final Node node) {
         // undo - node saved here, affected ways saved in removeWayNodes
-        dirty = true;
+        setDirty();
         if (node.state == OsmElement.STATE_DELETED) {
             Log.e(DEBUG_TAG, "removeNode: node already deleted " + node.getOsmId());
             return; // node was already deleted
@@ -1267,7 +1432,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
         Result resultOrig = new Result();
         Result resultNew = new Result();
         // undo - old way is saved here, new way is saved at insert
-        dirty = true;
+        setDirty();
         undo.save(way);
 
         List<Node> nodes = way.getNodes();
@@ -1420,7 +1585,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
         Log.d(DEBUG_TAG, "splitAtNode way " + way.getOsmId() + " node " + node.getOsmId());
         Result result = new Result();
         // undo - old way is saved here, new way is saved at insert
-        dirty = true;
+        setDirty();
         undo.save(way);
 
         List<Node> nodes = way.getNodes();
@@ -1570,7 +1735,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
         // check for relation membership
         if (way.getParentRelations() != null) {
             Set<Relation> relations = new HashSet<>(way.getParentRelations()); // copy and only unique relations!
-            dirty = true;
+            setDirty();
             /*
              * iterate through relations, for all except restrictions add the new way to the relation, for now simply
              * after the old way
@@ -1709,7 +1874,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
         if (targetSize < Way.MINIMUM_NODES_IN_WAY || (closed && targetSize < Way.MINIMUM_NODES_IN_CLOSED_WAY)) {
             throw new OsmIllegalOperationException("No Nodes can be removed from this Way. This is a bug.");
         }
-        dirty = true;
+        setDirty();
         undo.save(way);
         if (closed && way.isEndNode(node)) {
             way.removeNode(node);
@@ -1737,7 +1902,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      * @param deleteNode delete the node after removing it from the way
      */
     public void removeEndNodeFromWay(boolean fromEnd, @NonNull Way way, boolean deleteNode) {
-        dirty = true;
+        setDirty();
         undo.save(way);
         List<Node> nodes = way.getNodes();
         int size = nodes.size();
@@ -1833,7 +1998,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
     @NonNull
     private Node replaceWayNode(@NonNull final Node node, @NonNull final Way way) {
         List<OsmElement> changedElements = new ArrayList<>();
-        dirty = true;
+        setDirty();
         // create a new node that duplicates the given node
         Node newNode = factory.createNodeWithNewId(node.lat, node.lon);
         newNode.addTags(node.getTags());
@@ -1902,7 +2067,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
         if (!ways.isEmpty()) {
             Node newNode = factory.createNodeWithNewId(node.lat, node.lon);
             insertElementUnsafe(newNode);
-            dirty = true;
+            setDirty();
             for (Way way : ways) {
                 replaceNodeInWay(node, newNode, way);
             }
@@ -1920,7 +2085,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
     @NonNull
     public List<Result> reverseWay(@NonNull final Way way) {
         List<Result> result = new ArrayList<>();
-        dirty = true;
+        setDirty();
         undo.save(way);
         // check for direction dependent tags
         Map<String, String> dirTags = Reverse.getDirectionDependentTags(way);
@@ -1995,7 +2160,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      * @param way the Way to exchange the Node in
      */
     void replaceNodeInWay(@NonNull final Node existingNode, @NonNull final Node newNode, @NonNull final Way way) {
-        dirty = true;
+        setDirty();
         undo.save(way);
         way.replaceNode(existingNode, newNode);
         way.updateState(OsmElement.STATE_MODIFIED);
@@ -2019,7 +2184,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      */
     private int removeWayNode(@NonNull final Node node) {
         // undo - node is not changed, affected way(s) are stored below
-        dirty = true;
+        setDirty();
         int deleted = 0;
         List<Way> ways = currentStorage.getWays(node);
         List<OsmElement> changedElements = new ArrayList<>();
@@ -2063,7 +2228,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      * @param way way to delete
      */
     public void removeWay(@NonNull final Way way) {
-        dirty = true;
+        setDirty();
         undo.save(way);
         try {
             currentStorage.removeWay(way);
@@ -2092,7 +2257,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      */
     public void removeRelation(@NonNull final Relation relation) {
         // undo - relation saved here, affected ways saved in removeRelationFromMembers
-        dirty = true;
+        setDirty();
         undo.save(relation);
         try {
             if (relation.state == OsmElement.STATE_CREATED) {
@@ -2142,7 +2307,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
             List<OsmElement> changedElements = new ArrayList<>();
             for (Relation r : relations) {
 
-                dirty = true;
+                setDirty();
                 undo.save(r);
                 r.removeMember(r.getMember(element));
                 r.updateState(OsmElement.STATE_MODIFIED);
@@ -2167,7 +2332,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      */
     public void removeRelationMembersFromRelation(@NonNull Relation r, @NonNull List<RelationMember> members) {
         Log.i(DEBUG_TAG, "removing members from relation " + r.getDescription(true));
-        dirty = true;
+        setDirty();
         undo.save(r);
         for (RelationMember member : members) {
             Log.i(DEBUG_TAG, "removing " + member.getType() + " #" + member.getRef() + " from relation #" + r.getOsmId());
@@ -2195,7 +2360,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      */
     private void removeElementFromRelation(@NonNull final OsmElement element, @NonNull final Relation r) {
         Log.i(DEBUG_TAG, "remove " + element.getName() + " #" + element.getOsmId() + " from relation #" + r.getOsmId());
-        dirty = true;
+        setDirty();
         undo.save(r);
         r.removeMember(r.getMember(element));
         r.updateState(OsmElement.STATE_MODIFIED);
@@ -2215,7 +2380,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      * @param rel relation to add the element to
      */
     private void addElementToRelation(@NonNull final OsmElement e, final int pos, final String role, @NonNull final Relation rel) {
-        dirty = true;
+        setDirty();
         undo.save(rel);
         undo.save(e);
         validateRelationMemberCount(rel, 1);
@@ -2242,7 +2407,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
             return;
         }
 
-        dirty = true;
+        setDirty();
         undo.save(rel);
 
         undo.save(e);
@@ -2296,7 +2461,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
                 // leftOver contains any remaining existing members
                 // newMembers members that we didn't find
                 if (!newMembers.isEmpty() || !leftOvers.isEmpty()) {
-                    dirty = true;
+                    setDirty();
                     undo.save(o);
                     for (RelationMemberPosition newMember : newMembers) {
                         if (!leftOvers.isEmpty()) {
@@ -2339,7 +2504,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      * @param members new list of members
      */
     public void updateRelation(@NonNull Relation r, @NonNull List<RelationMemberDescription> members) {
-        dirty = true;
+        setDirty();
         undo.save(r);
         validateRelationMemberCount(r, members.size() - r.getMemberCount());
         boolean changed = false;
@@ -2404,7 +2569,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      * @param members list of new members
      */
     public void addMembersToRelation(@NonNull Relation relation, @NonNull List<OsmElement> members) {
-        dirty = true;
+        setDirty();
         undo.save(relation);
         validateRelationMemberCount(relation, members.size());
         for (OsmElement e : members) {
@@ -2425,7 +2590,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      * @param members list of new RelationMembers
      */
     public void addRelationMembersToRelation(@NonNull Relation relation, @NonNull List<RelationMember> members) {
-        dirty = true;
+        setDirty();
         undo.save(relation);
         validateRelationMemberCount(relation, members.size());
         for (RelationMember member : members) {
@@ -2451,7 +2616,6 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      * @param newElement the replacement element
      */
     public void replaceRelationMemberElement(@NonNull Relation relation, @NonNull OsmElement origElement, @NonNull OsmElement newElement) {
-        dirty = true;
         undo.save(relation);
         undo.save(origElement);
         undo.save(newElement);
@@ -2467,6 +2631,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
             relation.updateState(OsmElement.STATE_MODIFIED);
             insertElementSafe(relation);
         } finally {
+            setDirty();
             unlock();
         }
     }
@@ -2522,7 +2687,6 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      * @param lon longitude where it was located
      */
     public void copyToClipboard(@NonNull List<OsmElement> elements, int lat, int lon) {
-        dirty = true; // otherwise clipboard will not get saved without other changes
         List<OsmElement> toCopy = new ArrayList<>();
         Map<Long, Node> processedNodes = new HashMap<>();
         try {
@@ -2553,6 +2717,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
                 clipboard.copyTo(toCopy, lat, lon);
             }
         } finally {
+            setDirty();
             unlock();
         }
     }
@@ -2565,7 +2730,6 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      * @param lon longitude where it was located
      */
     public void cutToClipboard(@NonNull List<OsmElement> elements, int lat, int lon) {
-        dirty = true; // otherwise clipboard will not get saved without other changes
         List<OsmElement> toCut = new ArrayList<>();
         Map<Long, Node> replacedNodes = new HashMap<>();
         try {
@@ -2624,6 +2788,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
             }
             clipboard.cutTo(toCut, lat, lon);
         } finally {
+            setDirty();
             unlock();
         }
     }
@@ -2797,22 +2962,22 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      * @param box the initial BoundingBox
      */
     public void setOriginalBox(@NonNull final BoundingBox box) {
-        dirty = true;
         try {
             lock();
             currentStorage.setBoundingBox(box);
         } finally {
+            setDirty();
             unlock();
         }
     }
 
     @Override
     public void addBoundingBox(@NonNull BoundingBox box) {
-        dirty = true;
         try {
             lock();
             currentStorage.addBoundingBox(box);
         } finally {
+            setDirty();
             unlock();
         }
     }
@@ -2823,11 +2988,11 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      * @param box the BoundingBox to delete
      */
     public void deleteBoundingBox(@NonNull BoundingBox box) {
-        dirty = true;
         try {
             lock();
             currentStorage.deleteBoundingBox(box);
         } finally {
+            setDirty();
             unlock();
         }
     }
@@ -2842,7 +3007,6 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      */
     public void mergeBoundingBox(@NonNull BoundingBox box) {
         // if we are simply expanding the area no need keep the old bounding boxes
-        dirty = true;
         try {
             lock();
             List<BoundingBox> bbs = new ArrayList<>(currentStorage.getBoundingBoxes());
@@ -2860,6 +3024,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
             }
             currentStorage.addBoundingBox(box);
         } finally {
+            setDirty();
             unlock();
         }
     }
@@ -3016,6 +3181,8 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
                 clipboard = newDelegator.clipboard;
                 factory = newDelegator.factory;
                 dirty = false; // data was just read, i.e. memory and file are in sync
+                modified();
+                multipolygonCache.clear();
                 return true;
             } else {
                 Log.d(DEBUG_TAG, "saved state null");
@@ -3113,54 +3280,94 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      */
     public void uploadToServer(@NonNull final Server server, @Nullable final String comment, @Nullable String source, boolean closeOpenChangeset,
             boolean closeChangeset, @Nullable Map<String, String> extraTags, @Nullable List<OsmElement> elements) throws IOException {
+        uploadToServer(server, comment, source, closeOpenChangeset, closeChangeset, extraTags, elements, null);
+    }
 
-        dirty = true; // storages will get modified as data is uploaded, these changes need to be saved to file
+    /**
+     * Upload created, modified and deleted data in diff format
+     * 
+     * The changes are uploaded in dependency order in chunks of at most UPLOAD_CHUNK_SIZE elements, the server
+     * response for each chunk is applied before the next one is sent. As uploaded elements are no longer considered
+     * changed, restarting an interrupted upload will continue with the elements that haven't been uploaded yet.
+     * 
+     * @param server Server to upload changes to.
+     * @param comment Changeset comment tag
+     * @param source Changeset source tag
+     * @param closeOpenChangeset if true close any open Changeset first
+     * @param closeChangeset if true close the Changeset
+     * @param extraTags Additional tags to add
+     * @param elements List of OsmElement to upload if null all changed elements will be uploaded
+     * @param listener if not null will be called after every chunk
+     * @throws IOException if the upload doesn't work
+     */
+    public void uploadToServer(@NonNull final Server server, @Nullable final String comment, @Nullable String source, boolean closeOpenChangeset,
+            boolean closeChangeset, @Nullable Map<String, String> extraTags, @Nullable List<OsmElement> elements, @Nullable UploadProgressListener listener)
+            throws IOException {
+
+        setDirty(); // storages will get modified as data is uploaded, these changes need to be saved to file
         removeUnchanged();
         // upload methods set dirty flag too, in case the file is saved during an upload
         boolean fullUpload = elements == null;
-        int uploadElementCount = fullUpload ? getApiElementCount() : elements.size();
-        int notUploadedElementCount = getApiElementCount() - uploadElementCount; // will be zero for normal uploads
-        boolean split = uploadElementCount > server.getCapabilities().getMaxElementsInChangeset();
+        List<OsmElement> changes;
+        try {
+            lock();
+            if (fullUpload) {
+                changes = OsmXml.getUploadOrder(getApiStorage());
+            } else {
+                Storage storage = new Storage();
+                storage.addChangedElements(elements);
+                changes = OsmXml.getUploadOrder(storage);
+            }
+        } finally {
+            unlock();
+        }
+        final int total = changes.size();
+        final int maxElementsInChangeset = server.getCapabilities().getMaxElementsInChangeset();
+        boolean split = total > maxElementsInChangeset;
         int part = 1;
-        int elementCount = uploadElementCount;
-        while (elementCount > 0) {
+        int uploaded = 0;
+        long start = System.currentTimeMillis();
+        while (uploaded < total) {
             String tmpSource = source;
             if (split) {
                 tmpSource = source + " [" + part + "]";
             }
             server.openChangeset(closeOpenChangeset, comment, tmpSource, Util.toOsmList(imagery), extraTags);
-            try {
-                lock();
-                if (fullUpload) {
-                    server.diffUpload(this, getApiStorage());
-                } else {
-                    Storage storage = new Storage();
-                    // if we are uploading more than the limit elements
-                    // this will work as uploaded elements will have
-                    // unmodified status
-                    storage.addChangedElements(elements);
-                    server.diffUpload(this, storage);
+            int changesetEnd = Math.min(total, uploaded + maxElementsInChangeset);
+            while (uploaded < changesetEnd) {
+                int chunkEnd = Math.min(changesetEnd, uploaded + UPLOAD_CHUNK_SIZE);
+                int elementCount = getApiElementCount();
+                try {
+                    lock();
+                    server.diffUpload(this, changes.subList(uploaded, chunkEnd));
+                } finally {
+                    modified();
+                    unlock();
+                }
+                if (getApiElementCount() >= elementCount) {
+                    // element count didn't do anything, that should cause an exception to be
+                    // thrown in diffUpload, but it is conceivable that that doesn't happen
+                    Log.e(DEBUG_TAG, "Upload had no effect, API element count " + elementCount);
+                    throw new ProtocolException("Upload had no effect");
+                }
+                ElementHistory history = App.getElementHistory();
+                if (history != null) {
+                    history.record(changes.subList(uploaded, chunkEnd));
+                }
+                uploaded = chunkEnd;
+                long elapsed = Math.max(1, System.currentTimeMillis() - start);
+                Log.i(DEBUG_TAG, "Uploaded " + uploaded + " of " + total + " elements, " + (uploaded * 1000L / elapsed) + " elements/s");
+                if (listener != null) {
+                    listener.onChunkUploaded(uploaded, total);
                 }
-            } finally {
-                unlock();
             }
-
             if (closeChangeset || split) { // always close when splitting
                 server.closeChangeset();
             }
             part++;
-            int currentElementCount = getApiElementCount();
-            if (currentElementCount < notUploadedElementCount + elementCount) {
-                elementCount = currentElementCount - notUploadedElementCount;
-            } else {
-                // element count didn't do anything, that should cause an exception to be
-                // thrown in diffUpload, but it is conceivable that that doesn't happen
-                Log.e(DEBUG_TAG, "Upload had no effect, API element count " + elementCount);
-                throw new ProtocolException("Upload had no effect");
-            }
         }
         // yes, again, just to be sure
-        dirty = true;
+        setDirty();
 
         // reset imagery recording for next upload
         imagery = new ArrayList<>();
@@ -3204,6 +3411,13 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
             return;
         }
 
+        // copy the versions before merging so that the server versions are available if there is a conflict, they are
+        // written in the background
+        ElementHistory history = App.getElementHistory();
+        if (history != null) {
+            history.recordAsync(storage);
+        }
+
         List<OsmElement> newElements = new ArrayList<>(); // elements that we need to run postMerg on
 
         try {
@@ -3369,6 +3583,10 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
 
             currentStorage = temp;
             undo.setCurrentStorage(temp);
+            modified();
+            for (OsmElement e : newElements) {
+                multipolygonCache.invalidate(e);
+            }
         } finally {
             unlock();
         }
@@ -3638,6 +3856,111 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
         dirty();
     }
 
+    /**
+     * Get the PruneEngine for this instance
+     * 
+     * @return the PruneEngine
+     */
+    @NonNull
+    public synchronized PruneEngine getPruneEngine() {
+        if (pruneEngine == null) {
+            pruneEngine = new PruneEngine(this);
+        }
+        return pruneEngine;
+    }
+
+    /**
+     * Remove the unchanged elements from a set of candidates and the BoundingBoxes they were downloaded in
+     * 
+     * Candidates are elements that were only downloaded in the removed boxes, as with
+     * {@link #prune(Logic, BoundingBox)} modified and selected elements, way nodes of ways that are retained and
+     * relations with downloaded members are retained.
+     * 
+     * @param logic the current Logic instance if null element selection will not be tested
+     * @param boxes the BoundingBoxes to remove
+     * @param nodes ids of candidate Nodes
+     * @param ways ids of candidate Ways
+     * @param relations ids of candidate Relations
+     */
+    void evict(@Nullable Logic logic, @NonNull Collection<BoundingBox> boxes, @NonNull LongHashSet nodes, @NonNull LongHashSet ways,
+            @NonNull LongHashSet relations) {
+        LongHashSet keepNodes = new LongHashSet();
+        LongHashSet keepWays = new LongHashSet();
+        LongHashSet keepRelations = new LongHashSet();
+        if (logic != null) {
+            for (Selection s : logic.getSelectionStack()) {
+                Selection.Ids ids = s.getIds();
+                keepNodes.putAll(ids.getNodes());
+                keepWays.putAll(ids.getWays());
+                keepRelations.putAll(ids.getRelations());
+            }
+        }
+        try {
+            lock();
+            for (Way w : apiStorage.getWays()) {
+                for (Node n : w.getNodes()) {
+                    keepNodes.put(n.getOsmId());
+                }
+            }
+            for (long wayId : ways.values()) {
+                Way w = currentStorage.getWay(wayId);
+                if (w == null) {
+                    continue;
+                }
+                if (apiStorage.getWay(wayId) == null && !keepWays.contains(wayId) && !hasModifiedNodes(w) && !inIdSet(w.getParentRelations(), keepRelations)) {
+                    currentStorage.removeWay(w);
+                    removeReferenceFromParents(logic, w);
+                } else {
+                    for (Node n : w.getNodes()) {
+                        keepNodes.put(n.getOsmId());
+                    }
+                }
+            }
+            List<Node> removeNodes = new ArrayList<>();
+            BoundingBox nodeBox = null;
+            for (long nodeId : nodes.values()) {
+                Node n = currentStorage.getNode(nodeId);
+                if (n != null && apiStorage.getNode(nodeId) == null && !keepNodes.contains(nodeId) && !inIdSet(n.getParentRelations(), keepRelations)) {
+                    removeNodes.add(n);
+                    if (nodeBox == null) {
+                        nodeBox = new BoundingBox(n.getLon(), n.getLat());
+                    } else {
+                        nodeBox.union(n.getLon(), n.getLat());
+                    }
+                }
+            }
+            if (nodeBox != null) {
+                // ways that were not downloaded in the removed boxes, for example loaded individually or by an
+                // Overpass query, may still reference candidate nodes, all of them have to intersect nodeBox
+                for (Way w : currentStorage.getWays(nodeBox)) {
+                    for (Node n : w.getNodes()) {
+                        keepNodes.put(n.getOsmId());
+                    }
+                }
+            }
+            for (Node n : removeNodes) {
+                if (!keepNodes.contains(n.getOsmId())) {
+                    currentStorage.removeNode(n);
+                    removeReferenceFromParents(logic, n);
+                }
+            }
+            for (long relationId : relations.values()) {
+                Relation r = currentStorage.getRelation(relationId);
+                if (r != null && apiStorage.getRelation(relationId) == null && !keepRelations.contains(relationId) && !r.hasDownloadedMembers()
+                        && !inIdSet(r.getParentRelations(), keepRelations)) {
+                    currentStorage.removeRelation(r);
+                    removeReferenceFromParents(logic, r);
+                }
+            }
+            for (BoundingBox box : boxes) {
+                currentStorage.deleteBoundingBox(box);
+            }
+        } finally {
+            unlock();
+        }
+        dirty();
+    }
+
     /**
      * Check if a list of relations has an id in a set
      * 
@@ -3973,6 +4296,8 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
             undo = tempUndo;
             currentStorage = tempCurrent;
             apiStorage = tempApi;
+            modified();
+            multipolygonCache.clear();
         } finally {
             unlock();
         }
@@ -0,0 +1,233 @@
+package de.blau.android.osm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import de.blau.android.exception.OsmIllegalOperationException;
+
+/**
+ * Merge local and server changes to an element against the common base version
+ * 
+ * Changes that were only made on one side are applied, changes made on both sides are conflicts.
+ */
+public final class ThreeWayMerge {
+
+    /**
+     * Maximum number of entries in the table used for determining changes, larger differences are treated as one change
+     */
+    static final int MAX_DIFF_CELLS = 250000;
+
+    /**
+     * Private constructor to stop instantiation
+     */
+    private ThreeWayMerge() {
+        // private
+    }
+
+    /**
+     * Merge tags
+     * 
+     * For keys that were changed differently on both sides the values are merged as in
+     * {@link MergeAction#mergeTags(OsmElement, Map)}, if a key was removed on one side and changed on the other the
+     * changed value is retained. In both cases the key is added to conflicts.
+     * 
+     * @param base the tags of the common base version
+     * @param local the local tags
+     * @param server the tags of the server version
+     * @param conflicts a Set that the keys with conflicting changes will be added to
+     * @return the merged tags
+     * @throws OsmIllegalOperationException if a merged value is too long
+     */
+    @NonNull
+    public static SortedMap<String, String> mergeTags(@NonNull Map<String, String> base, @NonNull Map<String, String> local,
+            @NonNull Map<String, String> server, @NonNull Set<String> conflicts) {
+        SortedMap<String, String> merged = new TreeMap<>();
+        Set<String> keys = new HashSet<>(base.keySet());
+        keys.addAll(local.keySet());
+        keys.addAll(server.keySet());
+        for (String key : keys) {
+            String baseValue = base.get(key);
+            String localValue = local.get(key);
+            String serverValue = server.get(key);
+            String value;
+            if (Objects.equals(localValue, serverValue) || Objects.equals(baseValue, serverValue)) {
+                value = localValue;
+            } else if (Objects.equals(baseValue, localValue)) {
+                value = serverValue;
+            } else {
+                conflicts.add(key);
+                if (localValue == null) {
+                    value = serverValue;
+                } else if (serverValue == null) {
+                    value = localValue;
+                } else {
+                    value = MergeAction.mergeValues(key, serverValue, localValue);
+                }
+            }
+            if (value != null) {
+                merged.put(key, value);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Merge way node lists
+     * 
+     * The changes from the base version to the local and server versions are determined, if they don't touch the same
+     * part of the base list both are applied.
+     * 
+     * @param base the way node ids of the common base version
+     * @param local the local way node ids
+     * @param server the way node ids of the server version
+     * @return the merged ids or null if the changes conflict
+     */
+    @Nullable
+    public static long[] mergeNodes(@NonNull long[] base, @NonNull long[] local, @NonNull long[] server) {
+        if (Arrays.equals(base, server) || Arrays.equals(local, server)) {
+            return local;
+        }
+        if (Arrays.equals(base, local)) {
+            return server;
+        }
+        List<int[]> localChanges = diff(base, local);
+        List<int[]> serverChanges = diff(base, server);
+        List<Long> result = new ArrayList<>();
+        int pos = 0;
+        int l = 0;
+        int s = 0;
+        while (l < localChanges.size() || s < serverChanges.size()) {
+            int[] localChange = l < localChanges.size() ? localChanges.get(l) : null;
+            int[] serverChange = s < serverChanges.size() ? serverChanges.get(s) : null;
+            if (localChange != null && serverChange != null && overlap(localChange, serverChange)) {
+                if (!sameChange(localChange, local, serverChange, server)) {
+                    return null;
+                }
+                serverChange = null; // apply once
+                s++;
+            }
+            long[] source;
+            int[] change;
+            if (serverChange == null || (localChange != null && localChange[0] < serverChange[0])) {
+                source = local;
+                change = localChange;
+                l++;
+            } else {
+                source = server;
+                change = serverChange;
+                s++;
+            }
+            for (int i = pos; i < change[0]; i++) {
+                result.add(base[i]);
+            }
+            for (int i = change[2]; i < change[3]; i++) {
+                result.add(source[i]);
+            }
+            pos = change[1];
+        }
+        for (int i = pos; i < base.length; i++) {
+            result.add(base[i]);
+        }
+        long[] merged = new long[result.size()];
+        for (int i = 0; i < merged.length; i++) {
+            merged[i] = result.get(i);
+        }
+        return merged;
+    }
+
+    /**
+     * Check if two changes touch the same part of the base list
+     * 
+     * Insertions at the same position are considered overlapping as their order can't be determined
+     * 
+     * @param a the first change
+     * @param b the second change
+     * @return true if the changes overlap
+     */
+    private static boolean overlap(@NonNull int[] a, @NonNull int[] b) {
+        return (a[0] < b[1] && b[0] < a[1]) || a[0] == b[0];
+    }
+
+    /**
+     * Check if two changes are identical
+     * 
+     * @param a the first change
+     * @param aTarget the list the first change refers to
+     * @param b the second change
+     * @param bTarget the list the second change refers to
+     * @return true if the changes are identical
+     */
+    private static boolean sameChange(@NonNull int[] a, @NonNull long[] aTarget, @NonNull int[] b, @NonNull long[] bTarget) {
+        return a[0] == b[0] && a[1] == b[1] && Arrays.equals(Arrays.copyOfRange(aTarget, a[2], a[3]), Arrays.copyOfRange(bTarget, b[2], b[3]));
+    }
+
+    /**
+     * Determine the changes between two lists
+     * 
+     * Each change is an array holding the start and end of the replaced range in the base list and the start and end of
+     * the replacement in the target list, the changes are ordered by position. If the differing middle parts of the lists
+     * are too large to compare in reasonable time and memory, they are returned as a single change.
+     * 
+     * @param base the base list
+     * @param target the changed list
+     * @return a List of changes
+     */
+    @NonNull
+    static List<int[]> diff(@NonNull long[] base, @NonNull long[] target) {
+        // common prefix and suffix are not changed, this keeps the table below small for typical edits
+        int prefix = 0;
+        while (prefix < base.length && prefix < target.length && base[prefix] == target[prefix]) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < base.length - prefix && suffix < target.length - prefix && base[base.length - 1 - suffix] == target[target.length - 1 - suffix]) {
+            suffix++;
+        }
+        int n = base.length - prefix - suffix;
+        int m = target.length - prefix - suffix;
+        List<int[]> changes = new ArrayList<>();
+        if ((long) n * m > MAX_DIFF_CELLS) {
+            changes.add(new int[] { prefix, prefix + n, prefix, prefix + m });
+            return changes;
+        }
+        // lcs[i][j] is the length of the longest common subsequence of the remaining elements
+        int[][] lcs = new int[n + 1][m + 1];
+        for (int i = n - 1; i >= 0; i--) {
+            for (int j = m - 1; j >= 0; j--) {
+                lcs[i][j] = base[prefix + i] == target[prefix + j] ? lcs[i + 1][j + 1] + 1 : Math.max(lcs[i + 1][j], lcs[i][j + 1]);
+            }
+        }
+        int i = 0;
+        int j = 0;
+        int[] current = null;
+        while (i < n || j < m) {
+            if (i < n && j < m && base[prefix + i] == target[prefix + j]) {
+                current = null;
+                i++;
+                j++;
+                continue;
+            }
+            if (current == null) {
+                current = new int[] { prefix + i, prefix + i, prefix + j, prefix + j };
+                changes.add(current);
+            }
+            if (j >= m || (i < n && lcs[i + 1][j] >= lcs[i][j + 1])) {
+                i++;
+                current[1] = prefix + i;
+            } else {
+                j++;
+                current[3] = prefix + j;
+            }
+        }
+        return changes;
+    }
+}
@@ -0,0 +1,310 @@
+package de.blau.android.osm;
+
+import static de.blau.android.contract.Constants.LOG_TAG_LEN;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.xml.sax.SAXException;
+
+import android.content.Context;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import de.blau.android.exception.DataConflictException;
+import de.blau.android.exception.OsmServerException;
+import de.blau.android.util.Util;
+
+/**
+ * Download a BoundingBox that is too large for a single map call as a quadtree of smaller boxes
+ * 
+ * The box is split in quadrants till each part is smaller than the maximum area the API allows, parts are downloaded
+ * concurrently with a limited number of connections and merged in to storage in the order the downloads complete.
+ * Parts that fail because they contain too many nodes are split further, the node density seen so far is used to split
+ * parts that would likely fail before they are requested.
+ */
+public class TiledBoxDownloader {
+
+    private static final int    TAG_LEN   = Math.min(LOG_TAG_LEN, TiledBoxDownloader.class.getSimpleName().length());
+    private static final String DEBUG_TAG = TiledBoxDownloader.class.getSimpleName().substring(0, TAG_LEN);
+
+    public static final int DEFAULT_CONNECTIONS = 4;
+
+    /**
+     * Maximum number of nodes the API returns for a map call, currently not available from the capabilities
+     */
+    static final int         MAX_NODES = 50000;
+    private static final int MAX_DEPTH = 10;
+
+    /**
+     * Download and parse the data for a BoundingBox
+     */
+    public interface Fetcher {
+        /**
+         * Retrieve the data for box
+         * 
+         * @param box the BoundingBox
+         * @return a Storage with the data
+         * @throws IOException on network or server errors
+         * @throws SAXException if the data couldn't be parsed
+         * @throws ParserConfigurationException if the parser couldn't be configured
+         */
+        @NonNull
+        Storage fetch(@NonNull BoundingBox box) throws IOException, SAXException, ParserConfigurationException;
+    }
+
+    /**
+     * Callback for progress reporting
+     */
+    public interface ProgressListener {
+        /**
+         * Called after each part has been merged
+         * 
+         * @param done number of parts downloaded so far
+         * @param pending number of parts still to be downloaded
+         */
+        void onProgress(int done, int pending);
+    }
+
+    /**
+     * A part of the area to download
+     */
+    private static final class Tile {
+        final BoundingBox box;
+        final int         depth;
+
+        /**
+         * Construct a new Tile
+         * 
+         * @param box the BoundingBox
+         * @param depth the depth in the quadtree
+         */
+        Tile(@NonNull BoundingBox box, int depth) {
+            this.box = box;
+            this.depth = depth;
+        }
+    }
+
+    private final Fetcher fetcher;
+    private final float   maxArea;
+    private final int     connections;
+    private double        density = 0; // highest nodes per square degree seen
+
+    /**
+     * Construct a new instance
+     * 
+     * @param fetcher the Fetcher to use for the parts
+     * @param maxArea the maximum area of a part in square degrees
+     * @param connections the maximum number of concurrent downloads
+     */
+    public TiledBoxDownloader(@NonNull Fetcher fetcher, float maxArea, int connections) {
+        this.fetcher = fetcher;
+        this.maxArea = maxArea;
+        this.connections = connections;
+    }
+
+    /**
+     * Get an instance that downloads from an API Server
+     * 
+     * @param context an Android Context
+     * @param server the Server
+     * @param connections the maximum number of concurrent downloads
+     * @return a TiledBoxDownloader
+     */
+    @NonNull
+    public static TiledBoxDownloader forServer(@Nullable final Context context, @NonNull final Server server, int connections) {
+        return new TiledBoxDownloader(box -> {
+            try (InputStream in = server.getStreamForBox(context, box)) {
+                final OsmParser osmParser = new OsmParser();
+                osmParser.start(in);
+                return osmParser.getStorage();
+            }
+        }, server.getCachedCapabilities().getMaxArea(), connections);
+    }
+
+    /**
+     * Download box and merge the data in to storage
+     * 
+     * Each part is added to the delegator as a BoundingBox of its own and registered with its PruneEngine, so that parts
+     * can be pruned individually.
+     * 
+     * If an exception is thrown the data of the parts that were downloaded successfully will have been merged
+     * 
+     * @param box the BoundingBox to download
+     * @param delegator the StorageDelegator to merge the data in to
+     * @param postMerge handler to call for merged elements
+     * @param listener optional listener for progress reports
+     * @return the number of parts downloaded
+     * @throws IOException on network or server errors
+     * @throws SAXException if the data couldn't be parsed
+     * @throws ParserConfigurationException if the parser couldn't be configured
+     * @throws DataConflictException if merging the data failed
+     */
+    public int download(@NonNull BoundingBox box, @NonNull StorageDelegator delegator, @Nullable PostMergeHandler postMerge,
+            @Nullable ProgressListener listener) throws IOException, SAXException, ParserConfigurationException, DataConflictException {
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(connections);
+        CompletionService<Storage> completionService = new ExecutorCompletionService<>(executor);
+        Map<Future<Storage>, Tile> running = new HashMap<>();
+        try {
+            List<Tile> initial = new ArrayList<>();
+            split(new Tile(box, 0), initial);
+            for (Tile tile : initial) {
+                submit(completionService, running, tile);
+            }
+            int done = 0;
+            while (!running.isEmpty()) {
+                Future<Storage> future = completionService.take();
+                Tile tile = running.remove(future);
+                try {
+                    Storage storage = future.get();
+                    updateDensity(tile.box, storage.getNodeCount());
+                    delegator.mergeData(storage, postMerge);
+                    delegator.mergeBoundingBox(tile.box);
+                    delegator.getPruneEngine().add(tile.box, storage);
+                    done++;
+                    if (listener != null) {
+                        listener.onProgress(done, running.size());
+                    }
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (tooManyNodes(cause) && tile.depth < MAX_DEPTH) {
+                        Log.w(DEBUG_TAG, "Too many nodes in " + tile.box + " splitting");
+                        for (BoundingBox quadrant : quadrants(tile.box)) {
+                            submit(completionService, running, new Tile(quadrant, tile.depth + 1));
+                        }
+                        continue;
+                    }
+                    rethrow(cause);
+                }
+            }
+            return done;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Download interrupted");
+        } finally {
+            Util.shutDownThreadPool(executor);
+        }
+    }
+
+    /**
+     * Submit a Tile for download, splitting it first if our density estimate indicates that it has too many nodes
+     * 
+     * @param completionService the CompletionService
+     * @param running map of running downloads
+     * @param tile the Tile
+     */
+    private void submit(@NonNull CompletionService<Storage> completionService, @NonNull Map<Future<Storage>, Tile> running, @NonNull Tile tile) {
+        if (tile.depth < MAX_DEPTH && density * area(tile.box) > MAX_NODES) {
+            for (BoundingBox quadrant : quadrants(tile.box)) {
+                submit(completionService, running, new Tile(quadrant, tile.depth + 1));
+            }
+            return;
+        }
+        running.put(completionService.submit(() -> fetcher.fetch(tile.box)), tile);
+    }
+
+    /**
+     * Split a Tile till all parts are small enough for the API
+     * 
+     * @param tile the Tile
+     * @param result a List to add the parts to
+     */
+    private void split(@NonNull Tile tile, @NonNull List<Tile> result) {
+        if (tile.box.isValidForApi(maxArea) || tile.depth >= MAX_DEPTH) {
+            result.add(tile);
+            return;
+        }
+        for (BoundingBox quadrant : quadrants(tile.box)) {
+            split(new Tile(quadrant, tile.depth + 1), result);
+        }
+    }
+
+    /**
+     * Split a BoundingBox in to four equal parts
+     * 
+     * @param box the BoundingBox
+     * @return an array with the four parts
+     */
+    @NonNull
+    static BoundingBox[] quadrants(@NonNull BoundingBox box) {
+        int midLon = (int) (((long) box.getLeft() + box.getRight()) / 2);
+        int midLat = (int) (((long) box.getBottom() + box.getTop()) / 2);
+        return new BoundingBox[] { new BoundingBox(box.getLeft(), box.getBottom(), midLon, midLat),
+                new BoundingBox(midLon, box.getBottom(), box.getRight(), midLat), new BoundingBox(box.getLeft(), midLat, midLon, box.getTop()),
+                new BoundingBox(midLon, midLat, box.getRight(), box.getTop()) };
+    }
+
+    /**
+     * Get the area of a BoundingBox in square degrees
+     * 
+     * @param box the BoundingBox
+     * @return the area
+     */
+    private static double area(@NonNull BoundingBox box) {
+        return box.getWidth() / 1E7D * box.getHeight() / 1E7D;
+    }
+
+    /**
+     * Update the density estimate
+     * 
+     * @param box the BoundingBox downloaded
+     * @param nodes the number of nodes it contained
+     */
+    private void updateDensity(@NonNull BoundingBox box, int nodes) {
+        double area = area(box);
+        if (area > 0) {
+            density = Math.max(density, nodes / area);
+        }
+    }
+
+    /**
+     * Check if an exception indicates that the requested area contained too many nodes
+     * 
+     * @param t the Throwable
+     * @return true if the area should be split
+     */
+    private static boolean tooManyNodes(@Nullable Throwable t) {
+        if (t instanceof OsmServerException && ((OsmServerException) t).getHttpErrorCode() == HttpURLConnection.HTTP_BAD_REQUEST) {
+            String message = t.getMessage();
+            return message != null && Server.ERROR_MESSAGE_TOO_MANY_NODES.matcher(message).matches();
+        }
+        return false;
+    }
+
+    /**
+     * Rethrow the cause of an ExecutionException
+     * 
+     * @param cause the cause
+     * @throws IOException on network or server errors
+     * @throws SAXException if the data couldn't be parsed
+     * @throws ParserConfigurationException if the parser couldn't be configured
+     */
+    private static void rethrow(@Nullable Throwable cause) throws IOException, SAXException, ParserConfigurationException {
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        }
+        if (cause instanceof SAXException) {
+            throw (SAXException) cause;
+        }
+        if (cause instanceof ParserConfigurationException) {
+            throw (ParserConfigurationException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        throw new IOException(cause);
+    }
+}
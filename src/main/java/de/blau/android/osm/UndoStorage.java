@@ -5,6 +5,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -41,6 +42,10 @@ import de.blau.android.util.Util;
  * Avoid calling functions that change the state from other threads except the main one. This may mess up your menu due
  * to calls to updateIcon. You have been warned.
  * 
+ * To keep the history compact, saved tags, parent relation lists and way node lists that are unchanged from the last
+ * saved state of the same element are shared and not copied. When the estimated size of all undo checkpoints exceeds
+ * the memory budget, the oldest checkpoints are discarded.
+ * 
  * @author Jan Schejbal
  * @author Simon Poole
  */
@@ -56,6 +61,27 @@ public class UndoStorage implements Serializable {
     private final LinkedList<Checkpoint> undoCheckpoints = new LinkedList<>();
     private final LinkedList<Checkpoint> redoCheckpoints = new LinkedList<>();
 
+    public static final int DEFAULT_MEMORY_BUDGET_MB = 16;
+
+    private static long memoryBudget = DEFAULT_MEMORY_BUDGET_MB * 1024L * 1024L;
+
+    /**
+     * Number of checkpoints that are searched for a previous state of an element that can be shared
+     */
+    private static final int SHARE_LOOKBACK = 10;
+
+    /**
+     * Shared empty tags, never modified
+     */
+    private static final TreeMap<String, String> NO_TAGS = new TreeMap<>();
+
+    // rough estimates of the memory used in bytes
+    private static final int ELEMENT_SIZE   = 96; // UndoElement and its entry in the Checkpoint
+    private static final int TAG_SIZE       = 40; // a TreeMap entry, keys and values are shared with the element
+    private static final int LIST_SIZE      = 40; // an ArrayList and its array
+    private static final int REFERENCE_SIZE = 4;
+    private static final int MEMBER_SIZE    = 40; // a RelationMember and its reference
+
     static final Comparator<UndoElement> elementOrder = (ue1, ue2) -> {
         OsmElement e1 = ue1.element;
         OsmElement e2 = ue2.element;
@@ -149,6 +175,7 @@ public class UndoStorage implements Serializable {
      */
     public void createCheckpoint(@NonNull String name) {
         if (undoCheckpoints.isEmpty() || !undoCheckpoints.getLast().isEmpty()) {
+            trim(memoryBudget);
             undoCheckpoints.add(new Checkpoint(name));
         } else {
             // Empty checkpoint exists, just rename it
@@ -156,6 +183,61 @@ public class UndoStorage implements Serializable {
         }
     }
 
+    /**
+     * Set the memory budget for the undo history
+     * 
+     * @param budget the budget in bytes
+     */
+    public static void setMemoryBudget(long budget) {
+        memoryBudget = budget;
+    }
+
+    /**
+     * Discard the oldest undo checkpoints till the estimated size of the remaining ones is below a limit, the newest
+     * checkpoint is always retained
+     * 
+     * @param limit the limit in bytes
+     */
+    void trim(long limit) {
+        long total = getSize();
+        while (total > limit && undoCheckpoints.size() > 1) {
+            Checkpoint oldest = undoCheckpoints.removeFirst();
+            total -= oldest.size;
+            Log.i(DEBUG_TAG, "Discarding checkpoint " + oldest.getName() + " size " + oldest.size);
+        }
+    }
+
+    /**
+     * Get the estimated size of the undo checkpoints
+     * 
+     * @return the size in bytes
+     */
+    public long getSize() {
+        long total = 0;
+        for (Checkpoint checkpoint : undoCheckpoints) {
+            total += checkpoint.size;
+        }
+        return total;
+    }
+
+    /**
+     * Find the most recently saved state of an element in the last SHARE_LOOKBACK undo checkpoints
+     * 
+     * @param element the OsmElement
+     * @return an UndoElement or null if none found
+     */
+    @Nullable
+    private UndoElement findPrevious(@NonNull OsmElement element) {
+        Iterator<Checkpoint> it = undoCheckpoints.descendingIterator();
+        for (int i = 0; i < SHARE_LOOKBACK && it.hasNext(); i++) {
+            UndoElement previous = it.next().elements.get(element);
+            if (previous != null) {
+                return previous;
+            }
+        }
+        return null;
+    }
+
     /**
      * remove checkpoint from list. typically called when we otherwise would have an empty checkpoint at the top
      * 
@@ -465,6 +547,7 @@ public class UndoStorage implements Serializable {
 
         private final Map<OsmElement, UndoElement> elements = new HashMap<>();
         private String                             name;
+        private long                               size = 0;
 
         /**
          * Construct a new checkpoint
@@ -482,6 +565,7 @@ public class UndoStorage implements Serializable {
          */
         private Checkpoint(@NonNull Checkpoint cp) {
             name = cp.name;
+            size = cp.size;
             elements.putAll(cp.elements);
         }
 
@@ -507,15 +591,18 @@ public class UndoStorage implements Serializable {
             if (elements.containsKey(element)) {
                 return;
             }
+            UndoElement undoElement;
             if (element instanceof Node) {
-                elements.put(element, new UndoNode((Node) element, inCurrentStorage, inApiStorage));
+                undoElement = new UndoNode((Node) element, inCurrentStorage, inApiStorage);
             } else if (element instanceof Way) {
-                elements.put(element, new UndoWay((Way) element, inCurrentStorage, inApiStorage));
+                undoElement = new UndoWay((Way) element, inCurrentStorage, inApiStorage);
             } else if (element instanceof Relation) {
-                elements.put(element, new UndoRelation((Relation) element, inCurrentStorage, inApiStorage));
+                undoElement = new UndoRelation((Relation) element, inCurrentStorage, inApiStorage);
             } else {
                 throw new IllegalArgumentException("Unsupported element type");
             }
+            elements.put(element, undoElement);
+            size += undoElement.size;
         }
 
         /**
@@ -524,10 +611,10 @@ public class UndoStorage implements Serializable {
          * @param element the element for which remove the saved state
          */
         private void remove(@NonNull OsmElement element) {
-            if (!elements.containsKey(element)) {
-                return;
+            UndoElement undoElement = elements.remove(element);
+            if (undoElement != null) {
+                size -= undoElement.size;
             }
-            elements.remove(element);
         }
 
         /**
@@ -639,6 +726,8 @@ public class UndoStorage implements Serializable {
 
         private final List<Relation> parentRelations;
 
+        protected int size; // estimated memory use in bytes
+
         /**
          * Create a new undo object
          * 
@@ -655,9 +744,27 @@ public class UndoStorage implements Serializable {
             osmId = originalElement.getOsmId();
             osmVersion = originalElement.getOsmVersion();
             state = originalElement.getState();
-            tags = originalElement.getTags().isEmpty() ? new TreeMap<>() : new TreeMap<>(originalElement.getTags());
+            size = ELEMENT_SIZE;
+            UndoElement previous = findPrevious(originalElement);
+            SortedMap<String, String> originalTags = originalElement.getTags();
+            if (originalTags.isEmpty()) {
+                tags = NO_TAGS;
+            } else if (previous != null && previous.tags.equals(originalTags)) {
+                tags = previous.tags;
+            } else {
+                tags = new TreeMap<>(originalTags);
+                size += LIST_SIZE + tags.size() * TAG_SIZE;
+            }
 
-            parentRelations = element.getParentRelations() != null ? new ArrayList<>(element.getParentRelations()) : null;
+            List<Relation> originalParents = element.getParentRelations();
+            if (originalParents == null) {
+                parentRelations = null;
+            } else if (previous != null && previous.parentRelations != null && previous.parentRelations.equals(originalParents)) {
+                parentRelations = previous.parentRelations;
+            } else {
+                parentRelations = new ArrayList<>(originalParents);
+                size += LIST_SIZE + parentRelations.size() * REFERENCE_SIZE;
+            }
         }
 
         /**
@@ -883,7 +990,18 @@ public class UndoStorage implements Serializable {
          */
         public UndoWay(@NonNull Way originalWay, boolean inCurrentStorage, boolean inApiStorage) {
             super(originalWay, inCurrentStorage, inApiStorage);
-            nodes = inCurrentStorage || inApiStorage ? new ArrayList<>(originalWay.getNodes()) : new ArrayList<>();
+            if (inCurrentStorage || inApiStorage) {
+                UndoElement previous = findPrevious(originalWay);
+                List<Node> originalNodes = originalWay.getNodes();
+                if (previous instanceof UndoWay && ((UndoWay) previous).nodes.equals(originalNodes)) {
+                    nodes = ((UndoWay) previous).nodes;
+                } else {
+                    nodes = new ArrayList<>(originalNodes);
+                    size += LIST_SIZE + nodes.size() * REFERENCE_SIZE;
+                }
+            } else {
+                nodes = new ArrayList<>();
+            }
         }
 
         @Override
@@ -986,6 +1104,7 @@ public class UndoStorage implements Serializable {
                     members.add(new RelationMember(member));
                 }
             }
+            size += LIST_SIZE + members.size() * MEMBER_SIZE;
         }
 
         @Override
@@ -0,0 +1,19 @@
+package de.blau.android.osm;
+
+/**
+ * Callback for progress of a chunked upload
+ * 
+ * The results of the chunks uploaded so far have been applied to the in memory storage when this is called, saving
+ * the state at this point allows an interrupted upload to resume with the next chunk
+ *
+ */
+public interface UploadProgressListener {
+
+    /**
+     * Call after a chunk has been uploaded and the server response processed
+     * 
+     * @param uploaded number of elements uploaded so far
+     * @param total total number of elements to upload
+     */
+    public void onChunkUploaded(int uploaded, int total);
+}
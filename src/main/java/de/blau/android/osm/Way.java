@@ -40,6 +40,11 @@ public class Way extends StyledOsmElement implements WayInterface, BoundedObject
      */
     private transient ElementType elementType;
 
+    /**
+     * Incremented every time the node list changes or the cached bounding box is invalidated
+     */
+    private transient int geometryVersion = 0;
+
     public static final String NAME = "way";
 
     /**
@@ -80,6 +85,7 @@ public class Way extends StyledOsmElement implements WayInterface, BoundedObject
             return;
         }
         nodes.add(node);
+        geometryChanged();
     }
 
     @Override
@@ -226,6 +232,7 @@ public class Way extends StyledOsmElement implements WayInterface, BoundedObject
         while (nodes.remove(node)) {
             count++;
         }
+        geometryChanged();
         if (count > 1) {
             Log.i(DEBUG_TAG, "removeNode removed " + (count - 1) + " duplicate node(s)");
         }
@@ -238,6 +245,7 @@ public class Way extends StyledOsmElement implements WayInterface, BoundedObject
      */
     public void removeAllNodes() {
         nodes.clear();
+        geometryChanged();
     }
 
     @Override
@@ -267,6 +275,7 @@ public class Way extends StyledOsmElement implements WayInterface, BoundedObject
         } else if (nodes.get(nodes.size() - 1) == refNode) {
             nodes.add(newNode);
         }
+        geometryChanged();
     }
 
     /**
@@ -283,6 +292,7 @@ public class Way extends StyledOsmElement implements WayInterface, BoundedObject
             return;
         }
         nodes.add(beforeIndex + 1, newNode);
+        geometryChanged();
     }
 
     /**
@@ -304,6 +314,7 @@ public class Way extends StyledOsmElement implements WayInterface, BoundedObject
                 return;
             }
             nodes.addAll(0, newNodes);
+            geometryChanged();
         } else {
             if (!nodes.isEmpty() && newNodes.get(0) == nodes.get(nodes.size() - 1)) { // user error
                 Log.i(DEBUG_TAG, "addNodes attempt to add same node");
@@ -315,6 +326,7 @@ public class Way extends StyledOsmElement implements WayInterface, BoundedObject
                 return;
             }
             nodes.addAll(newNodes);
+            geometryChanged();
         }
     }
 
@@ -323,6 +335,7 @@ public class Way extends StyledOsmElement implements WayInterface, BoundedObject
      */
     void reverse() {
         Collections.reverse(nodes);
+        geometryChanged();
     }
 
     /**
@@ -345,6 +358,7 @@ public class Way extends StyledOsmElement implements WayInterface, BoundedObject
                 nodes.remove(idx);
             }
         }
+        geometryChanged();
     }
 
     /**
@@ -559,6 +573,23 @@ public class Way extends StyledOsmElement implements WayInterface, BoundedObject
         left = Integer.MIN_VALUE;
         // changing geometry might chage the type
         elementType = null;
+        geometryChanged();
+    }
+
+    /**
+     * Note that the node list or the position of nodes has changed
+     */
+    private void geometryChanged() {
+        geometryVersion++; // NOSONAR
+    }
+
+    /**
+     * Get a value that changes every time the geometry of this way changes
+     * 
+     * @return the geometry version
+     */
+    public int getGeometryVersion() {
+        return geometryVersion;
     }
 
     /**
@@ -613,5 +644,6 @@ public class Way extends StyledOsmElement implements WayInterface, BoundedObject
         setState(e.getState());
         nodes.clear();
         nodes.addAll(((Way) e).getNodes());
+        geometryChanged();
     }
 }
\ No newline at end of file
@@ -0,0 +1,348 @@
+package de.blau.android.osm;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Grid based spatial index of the segments of a set of Ways
+ * 
+ * The index is updated incrementally, only ways that are new or whose geometry has changed (as indicated by
+ * {@link Way#getGeometryVersion()}) are re-indexed. Ways that are no longer part of the indexed set are ignored by
+ * queries and are only removed from the grid when they have been deleted or the number of indexed segments exceeds a
+ * limit, so that panning back and forth doesn't require re-indexing.
+ * 
+ * Coordinates are WGS84*1E7, segments that would span more than MAX_CELLS_PER_SEGMENT cells are kept in a separate
+ * list that is checked for every query.
+ */
+public class WaySegmentIndex {
+
+    private static final int CELL_SHIFT            = 12;     // cells are 4096 E7 units wide and high
+    private static final int MAX_CELLS_PER_SEGMENT = 64;
+    public static final int  DEFAULT_MAX_SEGMENTS  = 500000;
+
+    /**
+     * The segments in one grid cell
+     */
+    private static final class Cell {
+        Way[] ways     = new Way[4];
+        int[] segments = new int[4];
+        int   size     = 0;
+
+        /**
+         * Add a segment
+         * 
+         * @param way the Way
+         * @param segment the index of the first node of the segment
+         */
+        void add(@NonNull Way way, int segment) {
+            if (size == ways.length) {
+                Way[] tempWays = new Way[size * 2];
+                System.arraycopy(ways, 0, tempWays, 0, size);
+                ways = tempWays;
+                int[] tempSegments = new int[size * 2];
+                System.arraycopy(segments, 0, tempSegments, 0, size);
+                segments = tempSegments;
+            }
+            ways[size] = way;
+            segments[size] = segment;
+            size++;
+        }
+
+        /**
+         * Remove all segments of a Way
+         * 
+         * @param way the Way
+         */
+        void remove(@NonNull Way way) {
+            int j = 0;
+            for (int i = 0; i < size; i++) {
+                if (ways[i] != way) {
+                    ways[j] = ways[i];
+                    segments[j] = segments[i];
+                    j++;
+                }
+            }
+            for (int i = j; i < size; i++) {
+                ways[i] = null;
+            }
+            size = j;
+        }
+
+        /**
+         * Remove all segments
+         */
+        void clear() {
+            ways = new Way[4];
+            segments = new int[4];
+            size = 0;
+        }
+    }
+
+    /**
+     * Book keeping for an indexed Way
+     */
+    private static final class Registration {
+        int     geometryVersion;
+        int     generation;
+        long[]  cells;
+        int     cellCount;
+        int     segmentCount;
+        boolean large;
+
+        /**
+         * Record that a segment was added to a cell
+         * 
+         * Consecutive segments are likely to be in the same cell, we only avoid storing the same key twice in a row
+         * 
+         * @param cell the cell key
+         */
+        void addCell(long cell) {
+            if (cellCount > 0 && cells[cellCount - 1] == cell) {
+                return;
+            }
+            if (cells == null) {
+                cells = new long[4];
+            } else if (cellCount == cells.length) {
+                long[] temp = new long[cellCount * 2];
+                System.arraycopy(cells, 0, temp, 0, cellCount);
+                cells = temp;
+            }
+            cells[cellCount++] = cell;
+        }
+    }
+
+    private final HashMap<Long, Cell>        grid          = new HashMap<>();
+    private final HashMap<Way, Registration> registrations = new HashMap<>();
+    private final Cell                       largeSegments = new Cell();
+    private final int                        maxSegments;
+    private int                              generation    = 0;
+    private int                              segmentCount  = 0;
+
+    /**
+     * Construct a new index with the default segment limit
+     */
+    public WaySegmentIndex() {
+        this(DEFAULT_MAX_SEGMENTS);
+    }
+
+    /**
+     * Construct a new index
+     * 
+     * @param maxSegments number of segments above which ways that are not in the current set are removed
+     */
+    public WaySegmentIndex(int maxSegments) {
+        this.maxSegments = maxSegments;
+    }
+
+    /**
+     * Calculate the key for a grid cell
+     * 
+     * @param cellLon the cell x coordinate
+     * @param cellLat the cell y coordinate
+     * @return the key
+     */
+    private static long key(int cellLon, int cellLat) {
+        return ((long) cellLat << 32) | (cellLon & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Make the index reflect a set of Ways
+     * 
+     * @param ways the Ways that subsequent queries should return results for
+     */
+    public synchronized void update(@NonNull Collection<Way> ways) {
+        generation++;
+        for (Way w : ways) {
+            Registration r = registrations.get(w);
+            if (r != null && r.geometryVersion != w.getGeometryVersion()) {
+                remove(w, r);
+                r = null;
+            }
+            if (r == null) {
+                r = add(w);
+            }
+            r.generation = generation;
+        }
+        final boolean overLimit = segmentCount > maxSegments;
+        List<Way> stale = new ArrayList<>();
+        for (Entry<Way, Registration> e : registrations.entrySet()) {
+            if (e.getValue().generation != generation && (overLimit || e.getKey().getState() == OsmElement.STATE_DELETED)) {
+                stale.add(e.getKey());
+            }
+        }
+        for (Way w : stale) {
+            remove(w, registrations.get(w));
+        }
+    }
+
+    /**
+     * Add the segments of a Way to the grid
+     * 
+     * @param way the Way
+     * @return the Registration for the Way
+     */
+    @NonNull
+    private Registration add(@NonNull Way way) {
+        Registration r = new Registration();
+        r.geometryVersion = way.getGeometryVersion();
+        List<Node> nodes = way.getNodes();
+        int size = nodes.size();
+        for (int i = 0; i < size - 1; i++) {
+            Node n1 = nodes.get(i);
+            Node n2 = nodes.get(i + 1);
+            int left = Math.min(n1.getLon(), n2.getLon()) >> CELL_SHIFT;
+            int right = Math.max(n1.getLon(), n2.getLon()) >> CELL_SHIFT;
+            int bottom = Math.min(n1.getLat(), n2.getLat()) >> CELL_SHIFT;
+            int top = Math.max(n1.getLat(), n2.getLat()) >> CELL_SHIFT;
+            if ((long) (right - left + 1) * (top - bottom + 1) > MAX_CELLS_PER_SEGMENT) {
+                largeSegments.add(way, i);
+                r.large = true;
+            } else {
+                for (int cellLon = left; cellLon <= right; cellLon++) {
+                    for (int cellLat = bottom; cellLat <= top; cellLat++) {
+                        long key = key(cellLon, cellLat);
+                        Cell cell = grid.get(key);
+                        if (cell == null) {
+                            cell = new Cell();
+                            grid.put(key, cell);
+                        }
+                        cell.add(way, i);
+                        r.addCell(key);
+                    }
+                }
+            }
+            r.segmentCount++;
+        }
+        segmentCount += r.segmentCount;
+        registrations.put(way, r);
+        return r;
+    }
+
+    /**
+     * Remove the segments of a Way from the grid
+     * 
+     * @param way the Way
+     * @param r its Registration
+     */
+    private void remove(@NonNull Way way, @NonNull Registration r) {
+        for (int i = 0; i < r.cellCount; i++) {
+            Cell cell = grid.get(r.cells[i]);
+            if (cell != null) {
+                cell.remove(way);
+                if (cell.size == 0) {
+                    grid.remove(r.cells[i]);
+                }
+            }
+        }
+        if (r.large) {
+            largeSegments.remove(way);
+        }
+        segmentCount -= r.segmentCount;
+        registrations.remove(way);
+    }
+
+    /**
+     * Find all segments whose bounding box intersects a box
+     * 
+     * Only Ways that were in the Collection passed to the last call of {@link #update(Collection)} are returned
+     * 
+     * @param box the BoundingBox to search in
+     * @param result a Map that will contain the Ways found, the set bits indicate the index of the first Node of each
+     *            segment
+     */
+    public synchronized void query(@NonNull BoundingBox box, @NonNull Map<Way, BitSet> result) {
+        final int boxLeft = box.getLeft();
+        final int boxBottom = box.getBottom();
+        final int boxRight = box.getRight();
+        final int boxTop = box.getTop();
+        final int left = boxLeft >> CELL_SHIFT;
+        final int right = boxRight >> CELL_SHIFT;
+        final int bottom = boxBottom >> CELL_SHIFT;
+        final int top = boxTop >> CELL_SHIFT;
+        for (int cellLon = left; cellLon <= right; cellLon++) {
+            for (int cellLat = bottom; cellLat <= top; cellLat++) {
+                Cell cell = grid.get(key(cellLon, cellLat));
+                if (cell != null) {
+                    query(cell, boxLeft, boxBottom, boxRight, boxTop, result);
+                }
+            }
+        }
+        query(largeSegments, boxLeft, boxBottom, boxRight, boxTop, result);
+    }
+
+    /**
+     * Add the segments in a Cell that intersect the box to the result
+     * 
+     * @param cell the Cell
+     * @param boxLeft left side of the box
+     * @param boxBottom bottom of the box
+     * @param boxRight right side of the box
+     * @param boxTop top of the box
+     * @param result the result Map
+     */
+    private void query(@NonNull Cell cell, int boxLeft, int boxBottom, int boxRight, int boxTop, @NonNull Map<Way, BitSet> result) {
+        for (int i = 0; i < cell.size; i++) {
+            Way way = cell.ways[i];
+            Registration r = registrations.get(way);
+            if (r == null || r.generation != generation) {
+                continue;
+            }
+            int segment = cell.segments[i];
+            List<Node> nodes = way.getNodes();
+            if (segment + 1 >= nodes.size()) {
+                // changed without the geometry version being updated, will be re-indexed if the version changes
+                continue;
+            }
+            Node n1 = nodes.get(segment);
+            Node n2 = nodes.get(segment + 1);
+            int lon1 = n1.getLon();
+            int lon2 = n2.getLon();
+            int lat1 = n1.getLat();
+            int lat2 = n2.getLat();
+            if (Math.max(lon1, lon2) < boxLeft || Math.min(lon1, lon2) > boxRight || Math.max(lat1, lat2) < boxBottom || Math.min(lat1, lat2) > boxTop) {
+                continue;
+            }
+            BitSet segments = result.get(way);
+            if (segments == null) {
+                segments = new BitSet();
+                result.put(way, segments);
+            }
+            segments.set(segment);
+        }
+    }
+
+    /**
+     * Remove everything from the index
+     */
+    public synchronized void clear() {
+        grid.clear();
+        registrations.clear();
+        largeSegments.clear();
+        segmentCount = 0;
+    }
+
+    /**
+     * Get the number of indexed segments
+     * 
+     * @return the segment count
+     */
+    public synchronized int getSegmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * Get the number of indexed Ways
+     * 
+     * @return the Way count
+     */
+    public synchronized int getWayCount() {
+        return registrations.size();
+    }
+}
@@ -16,6 +16,7 @@ import org.xml.sax.SAXException;
 import android.content.Context;
 import android.util.Log;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import de.blau.android.App;
 import de.blau.android.AsyncResult;
 import de.blau.android.ErrorCodes;
@@ -27,6 +28,7 @@ import de.blau.android.exception.OsmServerException;
 import de.blau.android.exception.StorageException;
 import de.blau.android.geocode.QueryNominatim;
 import de.blau.android.geocode.Search.SearchResult;
+import de.blau.android.net.ReadAheadInputStream;
 import de.blau.android.osm.BoundingBox;
 import de.blau.android.osm.Node;
 import de.blau.android.osm.OsmElement;
@@ -67,6 +69,44 @@ public final class Server {
 
     private static final long OVERPASS_AREA_ID_OFFSET = 3600000000L;
 
+    /**
+     * Number of elements parsed before they are merged
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 10000;
+
+    /**
+     * Callback for progress reporting and cancelling while a query result is merged
+     */
+    public interface QueryListener {
+        /**
+         * Called after each block of elements has been merged, this is called on the thread running the query
+         * 
+         * @param elements the number of elements merged so far
+         */
+        void onProgress(int elements);
+
+        /**
+         * Check if the query should be stopped, the data merged so far will be retained
+         * 
+         * @return true if the query should be stopped
+         */
+        boolean isCancelled();
+    }
+
+    /**
+     * Exception used to stop parsing when the query was cancelled
+     */
+    private static class QueryCancelledException extends SAXException {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Construct a new exception
+         */
+        QueryCancelledException() {
+            super("Query cancelled");
+        }
+    }
+
     /**
      * Private constructor to stop instantiation
      */
@@ -207,48 +247,137 @@ public final class Server {
      * @param query the query
      * @param merge merge the received data instead of replacing existing data
      * @param select if true select results
-     * @param handler a listener to call when we are done
+     * @return an AsyncResult indicating success or failure
      */
     @NonNull
     public static AsyncResult query(@NonNull final Context context, @NonNull String query, boolean merge, boolean select) {
+        return query(context, query, merge, select, DEFAULT_BLOCK_SIZE, null);
+    }
+
+    /**
+     * Query the configured Overpass server
+     * 
+     * The result is merged in blocks while it is being parsed, if the query is cancelled the blocks merged up to then
+     * are retained. If merge is false existing data is replaced when the first block is received.
+     * 
+     * Each block is merged with {@link StorageDelegator#mergeData(Storage, de.blau.android.osm.PostMergeHandler)} which copies the indices
+     * of the current data, so the block size shouldn't be too small for large results.
+     * 
+     * @param context an Android Context
+     * @param query the query
+     * @param merge merge the received data instead of replacing existing data
+     * @param select if true select results
+     * @param blockSize the number of elements to parse before merging
+     * @param listener optional listener for progress and cancellation
+     * @return an AsyncResult indicating success or failure
+     */
+    @NonNull
+    public static AsyncResult query(@NonNull final Context context, @NonNull String query, boolean merge, boolean select, int blockSize,
+            @Nullable QueryListener listener) {
         final String url = App.getPreferences(context).getOverpassServer();
         Log.d(DEBUG_TAG, "querying " + url + " for " + query);
+        final StorageDelegator delegator = App.getDelegator();
+        final OsmParser osmParser = new OsmParser();
+        final BlockMerger merger = new BlockMerger(context, delegator, merge, listener);
+        osmParser.setBlockHandler(blockSize, merger);
         try {
-            Storage storage = execQuery(url, query);
-            if (storage.isEmpty()) {
+            try {
+                execQuery(url, query, osmParser);
+            } catch (QueryCancelledException cex) {
+                // the relations in the merged blocks have been linked by the merge
+                Log.i(DEBUG_TAG, "query cancelled after " + merger.elements + " elements");
+            }
+            if (merger.elements == 0) {
                 return new AsyncResult(ErrorCodes.NOT_FOUND);
             }
-            final StorageDelegator delegator = App.getDelegator();
-            final BoundingBox box = storage.calcBoundingBoxFromData();
-            if (merge) {
-                delegator.mergeData(storage, (OsmElement e) -> e.hasProblem(context, App.getDefaultValidator(context)));
-                delegator.mergeBoundingBox(box);
-            } else {
-                delegator.reset(false);
-                delegator.setCurrentStorage(storage); // this sets dirty flag
-                delegator.setOriginalBox(box);
+            // a result without nodes, for example only relations, doesn't have an extent
+            if (merger.box != null) {
+                if (merge) {
+                    delegator.mergeBoundingBox(merger.box);
+                } else {
+                    delegator.setOriginalBox(merger.box);
+                }
             }
             if (select) {
-                selectResult(storage, delegator);
+                selectResult(osmParser.getStorage(), delegator);
             }
             return new AsyncResult(ErrorCodes.OK);
         } catch (StorageException sex) {
             return new AsyncResult(ErrorCodes.OUT_OF_MEMORY);
         } catch (OsmServerException e) {
             return new AsyncResult(ErrorCodes.UNKNOWN_ERROR, e.getMessage());
-        } catch (DataConflictException dce) {
-            return new AsyncResult(ErrorCodes.DATA_CONFLICT);
         } catch (IllegalStateException iex) {
             return new AsyncResult(ErrorCodes.CORRUPTED_DATA);
         } catch (OsmException e) {
             return new AsyncResult(ErrorCodes.NOT_FOUND, e.getMessage());
         } catch (SAXException e) {
+            if (e.getException() instanceof DataConflictException) {
+                return new AsyncResult(ErrorCodes.DATA_CONFLICT);
+            }
             return new AsyncResult(ErrorCodes.INVALID_DATA_RECEIVED, e.getMessage());
         } catch (IOException e) {
             return new AsyncResult(ErrorCodes.NO_CONNECTION, e.getMessage());
         }
     }
 
+    /**
+     * Merge blocks of parsed elements in to storage
+     */
+    private static class BlockMerger implements OsmParser.BlockHandler {
+        private final Context          context;
+        private final StorageDelegator delegator;
+        private final boolean          merge;
+        private final QueryListener    listener;
+        private int                    elements = 0;
+        private BoundingBox            box      = null;
+
+        /**
+         * Construct a new instance
+         * 
+         * @param context an Android Context
+         * @param delegator the StorageDelegator to merge in to
+         * @param merge if false existing data is replaced when the first block is merged
+         * @param listener optional listener for progress and cancellation
+         */
+        BlockMerger(@NonNull Context context, @NonNull StorageDelegator delegator, boolean merge, @Nullable QueryListener listener) {
+            this.context = context;
+            this.delegator = delegator;
+            this.merge = merge;
+            this.listener = listener;
+        }
+
+        @Override
+        public void onBlock(@NonNull Storage block, int parsed) throws SAXException {
+            try {
+                // mergeData holds the delegator lock and links the new relations and their members
+                if (merge) {
+                    delegator.mergeData(block, (OsmElement e) -> e.hasProblem(context, App.getDefaultValidator(context)));
+                } else {
+                    if (elements == 0) {
+                        delegator.reset(true);
+                    }
+                    delegator.mergeData(block, null);
+                }
+            } catch (DataConflictException dce) {
+                throw new SAXException(dce);
+            }
+            for (Node n : block.getNodes()) {
+                if (box == null) {
+                    box = new BoundingBox(n.getLon(), n.getLat());
+                } else {
+                    box.union(n.getLon(), n.getLat());
+                }
+            }
+            elements = parsed;
+            if (listener != null) {
+                listener.onProgress(elements);
+                if (listener.isCancelled()) {
+                    throw new QueryCancelledException();
+                }
+            }
+        }
+    }
+
     /**
      * Select the elements in storage, trying to avoid way nodes
      * 
@@ -261,14 +390,23 @@ public final class Server {
         List<Node> wayNodes = storage.getWayNodes();
         for (Node n : storage.getNodes()) {
             if (n.hasTags() || !wayNodes.contains(n)) {
-                logic.addSelectedNode((Node) delegator.getOsmElement(Node.NAME, n.getOsmId()));
+                Node merged = (Node) delegator.getOsmElement(Node.NAME, n.getOsmId());
+                if (merged != null) {
+                    logic.addSelectedNode(merged);
+                }
             }
         }
         for (Way w : storage.getWays()) {
-            logic.addSelectedWay((Way) delegator.getOsmElement(Way.NAME, w.getOsmId()));
+            Way merged = (Way) delegator.getOsmElement(Way.NAME, w.getOsmId());
+            if (merged != null) {
+                logic.addSelectedWay(merged);
+            }
         }
         for (Relation r : storage.getRelations()) {
-            logic.addSelectedRelation((Relation) delegator.getOsmElement(Relation.NAME, r.getOsmId()));
+            Relation merged = (Relation) delegator.getOsmElement(Relation.NAME, r.getOsmId());
+            if (merged != null) {
+                logic.addSelectedRelation(merged);
+            }
         }
     }
 
@@ -277,12 +415,11 @@ public final class Server {
      * 
      * @param url API url of the server
      * @param query the query
-     * @return a Storage object holding the results
+     * @param osmParser the OsmParser to use, the results are available from its Storage
      * @throws IOException an IO error
-     * @throws SAXException if the input fails parsing
+     * @throws SAXException if the input fails parsing or the parser was stopped
      */
-    @NonNull
-    private static Storage execQuery(@NonNull String url, @NonNull String query) throws IOException, SAXException {
+    private static void execQuery(@NonNull String url, @NonNull String query, @NonNull OsmParser osmParser) throws IOException, SAXException {
         Request.Builder requestBuilder = new Request.Builder().url(url);
 
         RequestBody body = new FormBody.Builder().add(BODY_DATA, query).build();
@@ -292,13 +429,12 @@ public final class Server {
 
         Response response = client.newCall(request).execute();
         if (response.isSuccessful()) {
-            final OsmParser osmParser = new OsmParser();
-            try (ResponseBody responseBody = response.body(); InputStream in = responseBody.byteStream()) {
+            try (ResponseBody responseBody = response.body(); InputStream in = new ReadAheadInputStream(responseBody.byteStream())) {
                 osmParser.start(in);
             } catch (ParserConfigurationException pcex) {
                 throw new IOException(pcex);
             }
-            return osmParser.getStorage();
+            return;
         }
         throw new OsmServerException(response.code(), de.blau.android.osm.Server.readStream(response.body().byteStream()));
     }
@@ -6,8 +6,17 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.acra.ACRA;
 
@@ -35,7 +44,7 @@ import de.blau.android.contract.Paths;
 import de.blau.android.osm.BoundingBox;
 import de.blau.android.prefs.Preferences;
 import de.blau.android.util.ACRAHelper;
-import de.blau.android.util.ContentResolverUtil;
+import de.blau.android.util.GeoMath;
 import de.blau.android.util.SavingHelper;
 import de.blau.android.util.Util;
 import de.blau.android.util.rtree.RTree;
@@ -44,11 +53,11 @@ import de.blau.android.util.rtree.RTree;
  * Scan the system for geo ref photos and store is in a DB
  * 
  * @author Simon
- *
+ * 
  */
 public class PhotoIndex extends SQLiteOpenHelper {
 
-    private static final int   DATA_VERSION = 7;
+    private static final int   DATA_VERSION = 9;
     public static final String DB_NAME      = PhotoIndex.class.getSimpleName();
 
     private static final int    TAG_LEN   = Math.min(LOG_TAG_LEN, PhotoIndex.class.getSimpleName().length());
@@ -56,12 +65,16 @@ public class PhotoIndex extends SQLiteOpenHelper {
 
     private static final String NOVESPUCCI = ".novespucci";
 
-    private static final String MEDIA_STORE = "MediaStore";
+    static final String         MEDIA_STORE = "MediaStore";
     private static final String OSMTRACKER  = "osmtracker";
     private static final String DCIM        = "DCIM";
 
     private static final String SOURCES_TABLE      = "directories";
     private static final String PHOTOS_TABLE       = "photos";
+    private static final String MEDIA_STORE_TABLE  = "mediastore";
+    private static final String RTREE_TABLE        = "photos_rtree";
+    private static final String ID_COLUMN          = "id";
+    private static final String MODIFIED_COLUMN    = "modified";
     private static final String NAME_COLUMN        = "name";
     private static final String SOURCE_COLUMN      = "source";
     private static final String LAT_COLUMN         = "lat";
@@ -73,6 +86,8 @@ public class PhotoIndex extends SQLiteOpenHelper {
     private static final String LAST_SCAN_COLUMN   = "last_scan";
     private static final String TAG_COLUMN         = "tag";
 
+    private static final String PHOTO_COLUMNS = "lat, lon, direction, dir, name, orientation";
+
     private static final String INSERT_INTO = "INSERT INTO ";
     private static final String ALTER_TABLE = "ALTER TABLE ";
     private static final String DELETE_FROM = "DELETE FROM ";
@@ -84,8 +99,71 @@ public class PhotoIndex extends SQLiteOpenHelper {
     private static final int NAME_INDEX        = 4;
     private static final int ORIENTATION_INDEX = 5;
 
+    private static final int MAX_INDEXING_THREADS = 4;
+    private static final int BATCH_SIZE           = 50;
+
+    /**
+     * Fraction of the size of the requested area that is added on each side when querying the database
+     */
+    private static final double QUERY_MARGIN = 0.5;
+
+    /**
+     * Incremented on every change to the on device index
+     */
+    private static final AtomicInteger generation = new AtomicInteger();
+
     private final Context context;
 
+    private volatile boolean cancelled = false;
+
+    private Boolean spatialIndex = null;
+
+    private final Object      cacheLock        = new Object();
+    private BoundingBox       cachedBox        = null;
+    private List<Photo>       cachedPhotos     = null;
+    private int               cachedGeneration = -1;
+
+    /**
+     * Callback for progress reporting
+     */
+    public interface ProgressListener {
+        /**
+         * Called after each batch of images has been processed
+         * 
+         * @param done number of images processed so far
+         * @param total number of images that need to be processed
+         */
+        void onProgress(int done, int total);
+    }
+
+    /**
+     * An image from the MediaStore that needs to be indexed
+     */
+    private static final class MediaStoreImage {
+        final long    id;
+        final long    modified;
+        final Uri     uri;
+        final String  displayName;
+        final boolean parse;
+
+        /**
+         * Construct a new instance
+         * 
+         * @param id the MediaStore id
+         * @param modified the generation or date the image was last modified
+         * @param uri the Uri of the image
+         * @param displayName a name for display purposes
+         * @param parse if false the image is already indexed and only needs to be recorded as seen
+         */
+        MediaStoreImage(long id, long modified, @NonNull Uri uri, @NonNull String displayName, boolean parse) {
+            this.id = id;
+            this.modified = modified;
+            this.uri = uri;
+            this.displayName = displayName;
+            this.parse = parse;
+        }
+    }
+
     /**
      * Provide access to the on disk Photo index
      * 
@@ -103,16 +181,66 @@ public class PhotoIndex extends SQLiteOpenHelper {
                 + " (lat int, lon int, direction int DEFAULT NULL, dir VARCHAR, name VARCHAR, source VARCHAR DEFAULT NULL, orientation int DEFAULT 0);");
         db.execSQL("CREATE INDEX latidx ON " + PHOTOS_TABLE + " (lat)");
         db.execSQL("CREATE INDEX lonidx ON " + PHOTOS_TABLE + " (lon)");
+        createSpatialIndex(db);
         db.execSQL("CREATE TABLE IF NOT EXISTS " + SOURCES_TABLE + " (dir VARCHAR, last_scan int8, tag VARCHAR DEFAULT NULL);");
+        createMediaStoreTable(db);
         initSource(db, DCIM, null);
         initSource(db, Paths.DIRECTORY_PATH_VESPUCCI, null);
         initSource(db, OSMTRACKER, null);
         initSource(db, MEDIA_STORE, "");
     }
 
+    /**
+     * Create an R*Tree over the photo locations that is kept up to date with triggers and fill it with the existing
+     * photos
+     * 
+     * Not all SQLite builds include the R*Tree module, without it queries use the lat and lon indices.
+     * 
+     * @param db a writable database
+     */
+    private void createSpatialIndex(@NonNull SQLiteDatabase db) {
+        try {
+            db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS " + RTREE_TABLE + " USING rtree(id, minlat, maxlat, minlon, maxlon)");
+            db.execSQL("CREATE TRIGGER IF NOT EXISTS photos_insert AFTER INSERT ON " + PHOTOS_TABLE + " BEGIN INSERT OR REPLACE INTO " + RTREE_TABLE
+                    + " VALUES (new.rowid, new.lat, new.lat, new.lon, new.lon); END");
+            db.execSQL("CREATE TRIGGER IF NOT EXISTS photos_delete AFTER DELETE ON " + PHOTOS_TABLE + " BEGIN DELETE FROM " + RTREE_TABLE
+                    + " WHERE id = old.rowid; END");
+            db.execSQL("CREATE TRIGGER IF NOT EXISTS photos_update AFTER UPDATE OF lat, lon ON " + PHOTOS_TABLE + " BEGIN UPDATE " + RTREE_TABLE
+                    + " SET minlat = new.lat, maxlat = new.lat, minlon = new.lon, maxlon = new.lon WHERE id = new.rowid; END");
+            db.execSQL("INSERT OR REPLACE INTO " + RTREE_TABLE + " SELECT rowid, lat, lat, lon, lon FROM " + PHOTOS_TABLE);
+        } catch (SQLiteException e) {
+            Log.w(DEBUG_TAG, "No spatial index " + e.getMessage());
+        }
+    }
+
+    /**
+     * Check if the database has the R*Tree index
+     * 
+     * @param db a readable database
+     * @return true if the spatial index is available
+     */
+    private boolean hasSpatialIndex(@NonNull SQLiteDatabase db) {
+        if (spatialIndex == null) {
+            try (Cursor dbresult = db.query("sqlite_master", new String[] { NAME_COLUMN }, "type = 'table' AND name = ?", new String[] { RTREE_TABLE }, null,
+                    null, null, null)) {
+                spatialIndex = dbresult.getCount() > 0;
+            }
+        }
+        return spatialIndex;
+    }
+
+    /**
+     * Create the table that records which MediaStore images have been processed
+     * 
+     * @param db a writable database
+     */
+    private void createMediaStoreTable(@NonNull SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + MEDIA_STORE_TABLE + " (id int8 PRIMARY KEY, modified int8);");
+    }
+
     /**
      * Initialize a source entry
-     *
+     * 
      * @param db a writable database
      * @param source the source to init
      * @param tag the initial tag
@@ -141,6 +269,13 @@ public class PhotoIndex extends SQLiteOpenHelper {
             db.execSQL(DELETE_FROM + PHOTOS_TABLE);
             updateSources(db, MEDIA_STORE, null, System.currentTimeMillis());
         }
+        if (oldVersion <= 7) {
+            // already indexed photos will be recorded on the next scan
+            createMediaStoreTable(db);
+        }
+        if (oldVersion <= 8) {
+            createSpatialIndex(db);
+        }
     }
 
     @Override
@@ -148,13 +283,25 @@ public class PhotoIndex extends SQLiteOpenHelper {
         Log.d(DEBUG_TAG, "Recreate from scratch");
         db.execSQL("DROP TABLE " + PHOTOS_TABLE);
         db.execSQL("DROP TABLE " + SOURCES_TABLE);
+        db.execSQL("DROP TABLE IF EXISTS " + MEDIA_STORE_TABLE);
+        db.execSQL("DROP TABLE IF EXISTS " + RTREE_TABLE);
+        spatialIndex = null;
         onCreate(db);
     }
 
     /**
      * Create or update the index of images on the device
      */
-    public synchronized void createOrUpdateIndex() {
+    public void createOrUpdateIndex() {
+        createOrUpdateIndex(null);
+    }
+
+    /**
+     * Create or update the index of images on the device
+     * 
+     * @param listener optional listener for progress reports on indexing the MediaStore
+     */
+    public synchronized void createOrUpdateIndex(@Nullable ProgressListener listener) {
         Log.d(DEBUG_TAG, "starting scan");
         indexDirectories();
         Logic logic = App.getLogic();
@@ -163,15 +310,17 @@ public class PhotoIndex extends SQLiteOpenHelper {
             final boolean accessMediaLocation = Util.permissionGranted(context, Manifest.permission.ACCESS_MEDIA_LOCATION);
             Log.d(DEBUG_TAG, "ACCESS_MEDIA_LOCATION permission " + accessMediaLocation);
             if (prefs.scanMediaStore() && (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q || accessMediaLocation)) {
-                indexMediaStore();
+                indexMediaStore(listener);
             } else {
                 // delete scanned photos from index
                 try (SQLiteDatabase db = getWritableDatabase()) {
                     db.delete(PHOTOS_TABLE, SOURCE_COLUMN + "= ?", new String[] { MEDIA_STORE });
+                    db.delete(MEDIA_STORE_TABLE, null, null);
                     updateSources(db, MEDIA_STORE, "", 0);
                 }
             }
         }
+        generation.incrementAndGet();
     }
 
     /**
@@ -181,50 +330,280 @@ public class PhotoIndex extends SQLiteOpenHelper {
         try (SQLiteDatabase db = getWritableDatabase()) {
             db.execSQL(DELETE_FROM + PHOTOS_TABLE);
             db.execSQL(DELETE_FROM + SOURCES_TABLE);
+            db.execSQL(DELETE_FROM + MEDIA_STORE_TABLE);
         }
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Stop indexing the MediaStore
+     * 
+     * Already processed images remain in the index, a later run will continue where this one stopped. Any further
+     * indexing with this instance will return immediately.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Check if indexing has been cancelled
+     * 
+     * @return true if {@link #cancel()} has been called
+     */
+    public boolean isCancelled() {
+        return cancelled;
     }
 
     /**
      * Index photos from the MediaStore
      */
     public void indexMediaStore() {
+        indexMediaStore(null);
+    }
+
+    /**
+     * Incrementally index photos from the MediaStore
+     * 
+     * The generation (or on older devices the modification date) of every image that has been processed is recorded,
+     * only new and modified images are parsed. Parsing is done in parallel, the results are written in batches.
+     * Everything is reindexed if the MediaStore has been recreated.
+     * 
+     * @param listener optional listener for progress reports
+     */
+    public void indexMediaStore(@Nullable ProgressListener listener) {
         Log.d(DEBUG_TAG, "scanning MediaStore");
         try (SQLiteDatabase db = getWritableDatabase()) {
             final String mediaStoreVersion = MediaStore.getVersion(context);
-            if (mediaStoreVersion.equals(getTag(db, MEDIA_STORE))) {
-                Log.d(DEBUG_TAG, "MediaStore unchanged");
-                return;
+            if (!mediaStoreVersion.equals(getTag(db, MEDIA_STORE))) {
+                // ids and generations of a recreated MediaStore are not comparable
+                Log.i(DEBUG_TAG, "MediaStore version changed, reindexing");
+                db.delete(PHOTOS_TABLE, SOURCE_COLUMN + " = ?", new String[] { MEDIA_STORE });
+                db.delete(MEDIA_STORE_TABLE, null, null);
+                updateSources(db, MEDIA_STORE, mediaStoreVersion, 0);
             }
-            db.delete(PHOTOS_TABLE, SOURCE_COLUMN + " = ?", new String[] { MEDIA_STORE });
-            String[] projection = new String[] { BaseColumns._ID, MediaStore.MediaColumns.DISPLAY_NAME, MediaColumns.MIME_TYPE };
+            Map<Long, Long> seen = getSeenMediaStoreImages(db);
+            Set<String> indexed = getIndexedRefs(db);
+            final String modifiedColumn = Build.VERSION.SDK_INT >= Build.VERSION_CODES.R ? MediaColumns.GENERATION_MODIFIED : MediaColumns.DATE_MODIFIED;
+            String[] projection = new String[] { BaseColumns._ID, MediaStore.MediaColumns.DISPLAY_NAME, MediaColumns.MIME_TYPE, MediaColumns.DATA, // NOSONAR
+                    modifiedColumn };
+            List<MediaStoreImage> changed = new ArrayList<>();
             try (Cursor cursor = context.getContentResolver().query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, projection,
                     MediaColumns.MIME_TYPE + " = ? OR " + MediaColumns.MIME_TYPE + " = ?", new String[] { MimeTypes.JPEG, MimeTypes.HEIC }, null)) {
+                if (cursor == null) {
+                    Log.e(DEBUG_TAG, "MediaStore query failed");
+                    return;
+                }
                 Log.d(DEBUG_TAG, "Media store contains " + cursor.getCount() + " entries");
                 // Cache column indices.
                 int idColumn = cursor.getColumnIndexOrThrow(BaseColumns._ID);
                 int displayNameColumn = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.DISPLAY_NAME);
                 int mimeTypeColumn = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.MIME_TYPE);
+                int dataColumn = cursor.getColumnIndexOrThrow(MediaColumns.DATA); // NOSONAR
+                int modifiedColumnIndex = cursor.getColumnIndexOrThrow(modifiedColumn);
                 while (cursor.moveToNext()) {
                     if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q && MimeTypes.HEIC.equals(cursor.getString(mimeTypeColumn))) {
                         // skip HEIC images is we are on an old Android version
                         continue;
                     }
-                    Uri photoUri = Uri.withAppendedPath(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, cursor.getString(idColumn));
-                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-                        photoUri = MediaStore.setRequireOriginal(photoUri);
+                    long id = cursor.getLong(idColumn);
+                    long modified = cursor.getLong(modifiedColumnIndex);
+                    Long previous = seen.remove(id);
+                    if (previous != null && previous == modified) {
+                        continue;
                     }
-                    if (!isIndexed(db, photoUri)) {
-                        String path = ContentResolverUtil.getDataColumn(context, photoUri, null, null);
-                        if (path == null || !isIndexed(db, path)) {
-                            addPhoto(context, db, photoUri, cursor.getString(displayNameColumn));
-                        }
+                    Uri photoUri = getMediaStoreUri(id);
+                    String displayName = cursor.getString(displayNameColumn);
+                    // photos found in directories are not added again, photos added individually don't need to be
+                    // parsed again
+                    String path = cursor.getString(dataColumn);
+                    boolean inDirectory = path != null && indexed.contains(path);
+                    boolean parse = !inDirectory && (previous != null || !indexed.contains(photoUri.toString()));
+                    changed.add(new MediaStoreImage(id, modified, photoUri, displayName != null ? displayName : Long.toString(id), parse));
+                }
+            }
+            // what is left has been removed from the MediaStore
+            removeMediaStoreImages(db, seen.keySet());
+            Log.i(DEBUG_TAG, "MediaStore new or modified " + changed.size() + " removed " + seen.size());
+            updateMediaStoreImages(db, changed, listener);
+            if (!cancelled) {
+                updateSources(db, MEDIA_STORE, mediaStoreVersion, System.currentTimeMillis());
+            }
+        }
+    }
+
+    /**
+     * Get the Uri we use for a MediaStore image
+     * 
+     * @param id the MediaStore id
+     * @return an Uri
+     */
+    @NonNull
+    private Uri getMediaStoreUri(long id) {
+        Uri photoUri = Uri.withAppendedPath(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, Long.toString(id));
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            photoUri = MediaStore.setRequireOriginal(photoUri);
+        }
+        return photoUri;
+    }
+
+    /**
+     * Get the MediaStore images that have already been processed
+     * 
+     * @param db a readable database
+     * @return a Map from MediaStore id to generation or modification date
+     */
+    @NonNull
+    private Map<Long, Long> getSeenMediaStoreImages(@NonNull SQLiteDatabase db) {
+        Map<Long, Long> result = new HashMap<>();
+        try (Cursor dbresult = db.query(MEDIA_STORE_TABLE, new String[] { ID_COLUMN, MODIFIED_COLUMN }, null, null, null, null, null, null)) {
+            while (dbresult.moveToNext()) {
+                result.put(dbresult.getLong(0), dbresult.getLong(1));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the references of all photos in the index
+     * 
+     * @param db a readable database
+     * @return a Set of Uris and paths
+     */
+    @NonNull
+    private Set<String> getIndexedRefs(@NonNull SQLiteDatabase db) {
+        Set<String> result = new HashSet<>();
+        try (Cursor dbresult = db.query(PHOTOS_TABLE, new String[] { URI_COLUMN }, null, null, null, null, null, null)) {
+            while (dbresult.moveToNext()) {
+                result.add(dbresult.getString(0));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Remove images that are no longer in the MediaStore
+     * 
+     * @param db a writable database
+     * @param ids the MediaStore ids
+     */
+    private void removeMediaStoreImages(@NonNull SQLiteDatabase db, @NonNull Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        db.beginTransaction();
+        try {
+            for (Long id : ids) {
+                db.delete(PHOTOS_TABLE, URI_WHERE, new String[] { getMediaStoreUri(id).toString() });
+                db.delete(MEDIA_STORE_TABLE, ID_COLUMN + " = ?", new String[] { Long.toString(id) });
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Parse new and modified images in parallel and write the results to the database in batches
+     * 
+     * @param db a writable database
+     * @param images the images to process
+     * @param listener optional listener for progress reports
+     */
+    private void updateMediaStoreImages(@NonNull SQLiteDatabase db, @NonNull List<MediaStoreImage> images, @Nullable ProgressListener listener) {
+        final int total = images.size();
+        if (total == 0) {
+            return;
+        }
+        final int threads = Math.max(1, Math.min(MAX_INDEXING_THREADS, Runtime.getRuntime().availableProcessors()));
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(threads);
+        try {
+            // the next batch is parsed while the current one is written
+            List<Future<Photo>> next = submit(executor, images, 0);
+            for (int start = 0; start < total && !cancelled; start += BATCH_SIZE) {
+                List<Future<Photo>> current = next;
+                next = submit(executor, images, start + BATCH_SIZE);
+                List<MediaStoreImage> batch = images.subList(start, Math.min(total, start + BATCH_SIZE));
+                db.beginTransaction();
+                try {
+                    for (int i = 0; i < batch.size(); i++) {
+                        writeMediaStoreImage(db, batch.get(i), getPhoto(current.get(i)));
                     }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                generation.incrementAndGet();
+                if (listener != null) {
+                    listener.onProgress(start + batch.size(), total);
                 }
             }
-            updateSources(db, MEDIA_STORE, mediaStoreVersion, System.currentTimeMillis());
+        } catch (InterruptedException e) {
+            Log.w(DEBUG_TAG, "MediaStore indexing interrupted");
+            Thread.currentThread().interrupt();
+        } finally {
+            Util.shutDownThreadPool(executor);
         }
     }
 
+    /**
+     * Submit a batch of images for parsing
+     * 
+     * @param executor the ThreadPoolExecutor
+     * @param images all images
+     * @param start the index of the first image of the batch
+     * @return a List of Futures, null for images that don't need to be parsed
+     */
+    @NonNull
+    private List<Future<Photo>> submit(@NonNull ThreadPoolExecutor executor, @NonNull List<MediaStoreImage> images, int start) {
+        List<Future<Photo>> result = new ArrayList<>();
+        for (int i = start; i < Math.min(images.size(), start + BATCH_SIZE); i++) {
+            final MediaStoreImage image = images.get(i);
+            result.add(image.parse ? executor.submit(() -> new Photo(context, image.uri, image.displayName)) : null);
+        }
+        return result;
+    }
+
+    /**
+     * Wait for the result of parsing an image
+     * 
+     * @param future the Future or null
+     * @return a Photo or null if the image wasn't parsed or has no location
+     * @throws InterruptedException if we were interrupted
+     */
+    @Nullable
+    private Photo getPhoto(@Nullable Future<Photo> future) throws InterruptedException {
+        if (future == null) {
+            return null;
+        }
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            // ignore silently, broken pictures are not our business
+            return null;
+        }
+    }
+
+    /**
+     * Write the result of processing an image to the database
+     * 
+     * @param db a writable database
+     * @param image the image
+     * @param photo the Photo or null
+     */
+    private void writeMediaStoreImage(@NonNull SQLiteDatabase db, @NonNull MediaStoreImage image, @Nullable Photo photo) {
+        if (image.parse) {
+            db.delete(PHOTOS_TABLE, URI_WHERE, new String[] { image.uri.toString() });
+            if (photo != null) {
+                insertPhoto(db, photo, image.displayName, MEDIA_STORE);
+            }
+        }
+        ContentValues values = new ContentValues();
+        values.put(ID_COLUMN, image.id);
+        values.put(MODIFIED_COLUMN, image.modified);
+        db.insertWithOnConflict(MEDIA_STORE_TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
     /**
      * Update a source record
      * 
@@ -395,9 +774,7 @@ public class PhotoIndex extends SQLiteOpenHelper {
     @Nullable
     public synchronized Photo addPhoto(@NonNull File f) {
         try (SQLiteDatabase db = getWritableDatabase()) {
-            Photo p = addPhoto(db, f.getParentFile(), f);
-            addToIndex(p);
-            return p;
+            return addPhoto(db, f.getParentFile(), f);
         }
     }
 
@@ -410,7 +787,6 @@ public class PhotoIndex extends SQLiteOpenHelper {
         SQLiteDatabase db = getWritableDatabase();
         insertPhoto(db, p, p.getRef(), null);
         db.close();
-        addToIndex(p);
     }
 
     /**
@@ -517,16 +893,18 @@ public class PhotoIndex extends SQLiteOpenHelper {
     }
 
     /**
-     * Add the photo to the in memory index
+     * Add a photo that can't be stored in the on device index to the in memory index
      * 
      * @param p the Photo
      */
     public static void addToIndex(@Nullable Photo p) {
-        RTree<Photo> index = App.getPhotoIndex();
-        if (p != null && index != null) { // if nothing is in the index the complete DB including this photo will be
-                                          // added
-            index.insert(p);
+        if (p == null) {
+            return;
         }
+        if (App.getPhotoIndex() == null) {
+            App.resetPhotoIndex();
+        }
+        App.getPhotoIndex().insert(p);
     }
 
     /**
@@ -552,6 +930,7 @@ public class PhotoIndex extends SQLiteOpenHelper {
             }
             values.put(ORIENTATION_COLUMN, photo.getOrientation());
             db.insert(PHOTOS_TABLE, null, values);
+            generation.incrementAndGet();
         } catch (SQLiteException sqex) {
             Log.d(DEBUG_TAG, sqex.toString());
             ACRAHelper.nocrashReport(sqex, sqex.getMessage());
@@ -583,6 +962,22 @@ public class PhotoIndex extends SQLiteOpenHelper {
         return null;
     }
 
+    /**
+     * Get the time a source was last scanned completely
+     * 
+     * @param source the source
+     * @return the time in ms since the epoch or 0 if it hasn't been scanned
+     */
+    long getLastScan(@NonNull String source) {
+        try (SQLiteDatabase db = getReadableDatabase();
+                Cursor dbresult = db.query(SOURCES_TABLE, new String[] { LAST_SCAN_COLUMN }, URI_WHERE, new String[] { source }, null, null, null, null)) {
+            if (dbresult.moveToFirst()) {
+                return dbresult.getLong(0);
+            }
+        }
+        return 0;
+    }
+
     /**
      * Try to remove an entry from both the in memory and the on device index
      * 
@@ -607,26 +1002,21 @@ public class PhotoIndex extends SQLiteOpenHelper {
      */
     public boolean deletePhoto(@NonNull Context context, @NonNull String uriString) {
         Log.d(DEBUG_TAG, "deletePhoto " + uriString);
-        try (SQLiteDatabase db = getWritableDatabase();
-                Cursor dbresult = db.query(PHOTOS_TABLE, new String[] { URI_COLUMN, LON_COLUMN, LAT_COLUMN }, URI_WHERE, new String[] { uriString }, null, null,
-                        null, null)) {
-            if (dbresult.getCount() > 0) {
-                RTree<Photo> index = App.getPhotoIndex();
-                if (index != null) {
-                    dbresult.moveToFirst();
-                    Collection<Photo> existing = getPhotosFromIndex(index, new BoundingBox(dbresult.getInt(1), dbresult.getInt(2)));
-                    boolean removed = false;
-                    for (Photo p : existing) {
-                        if (p.getRef().equals(uriString) && index.remove(p)) {
-                            removed = true;
-                            break;
-                        }
-                    }
-                    if (!removed) {
-                        Log.e(DEBUG_TAG, "deletePhoto uri not removed from RTree");
-                    }
+        RTree<Photo> index = App.getPhotoIndex();
+        if (index != null) {
+            // photos that are only in memory
+            List<Photo> inMemory = new ArrayList<>();
+            index.query(inMemory);
+            for (Photo p : inMemory) {
+                if (p.getRef().equals(uriString) && index.remove(p)) {
+                    return true;
                 }
-                return db.delete(PHOTOS_TABLE, URI_WHERE, new String[] { uriString }) > 0;
+            }
+        }
+        try (SQLiteDatabase db = getWritableDatabase()) {
+            if (db.delete(PHOTOS_TABLE, URI_WHERE, new String[] { uriString }) > 0) {
+                generation.incrementAndGet();
+                return true;
             }
             Log.e(DEBUG_TAG, "deletePhoto uri not found in database");
             return false;
@@ -641,11 +1031,108 @@ public class PhotoIndex extends SQLiteOpenHelper {
      */
     @NonNull
     public List<Photo> getPhotos(@NonNull BoundingBox box) {
+        List<Photo> result = new ArrayList<>();
+        synchronized (cacheLock) {
+            int current = generation.get();
+            if (cachedPhotos == null || cachedGeneration != current || !cachedBox.contains(box)) {
+                // query a larger area so that small movements of the map can be served from the cache
+                BoundingBox queryBox = expand(box, QUERY_MARGIN);
+                cachedPhotos = queryPhotos(queryBox);
+                cachedBox = queryBox;
+                cachedGeneration = current;
+            }
+            for (Photo p : cachedPhotos) {
+                if (box.contains(p.getLon(), p.getLat())) {
+                    result.add(p);
+                }
+            }
+        }
         RTree<Photo> index = App.getPhotoIndex();
-        if (index == null) {
-            return new ArrayList<>();
+        if (index != null) {
+            result.addAll(getPhotosFromIndex(index, box));
         }
-        return getPhotosFromIndex(index, box);
+        return result;
+    }
+
+    /**
+     * Get the number of photos in the on device index
+     * 
+     * @return the photo count
+     */
+    public int count() {
+        try (SQLiteDatabase db = getReadableDatabase(); Cursor dbresult = db.rawQuery("SELECT count(*) FROM " + PHOTOS_TABLE, null)) {
+            return dbresult.moveToFirst() ? dbresult.getInt(0) : 0;
+        }
+    }
+
+    /**
+     * Query the on device index for photos in a BoundingBox
+     * 
+     * @param box the BoundingBox
+     * @return a List of Photos
+     */
+    @NonNull
+    private List<Photo> queryPhotos(@NonNull BoundingBox box) {
+        List<Photo> result = new ArrayList<>();
+        String left = Integer.toString(box.getLeft());
+        String bottom = Integer.toString(box.getBottom());
+        String right = Integer.toString(box.getRight());
+        String top = Integer.toString(box.getTop());
+        try {
+            SQLiteDatabase db = getReadableDatabase();
+            String query;
+            String[] args;
+            if (hasSpatialIndex(db)) {
+                // the R*Tree stores 32 bit floats, so the candidates are filtered with the exact values
+                query = "SELECT " + PHOTO_COLUMNS + " FROM " + PHOTOS_TABLE + " p JOIN " + RTREE_TABLE
+                        + " r ON p.rowid = r.id WHERE r.minlat <= ? AND r.maxlat >= ? AND r.minlon <= ? AND r.maxlon >= ?"
+                        + " AND p.lat BETWEEN ? AND ? AND p.lon BETWEEN ? AND ?";
+                args = new String[] { top, bottom, right, left, bottom, top, left, right };
+            } else {
+                query = "SELECT " + PHOTO_COLUMNS + " FROM " + PHOTOS_TABLE + " WHERE lat BETWEEN ? AND ? AND lon BETWEEN ? AND ?";
+                args = new String[] { bottom, top, left, right };
+            }
+            try (Cursor dbresult = db.rawQuery(query, args)) {
+                while (dbresult.moveToNext()) {
+                    result.add(photoFromCursor(dbresult));
+                }
+            }
+        } catch (SQLiteException ex) {
+            Log.e(DEBUG_TAG, "queryPhotos " + ex.getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * Create a Photo from the current row of a Cursor
+     * 
+     * @param dbresult the Cursor, columns in the order of PHOTO_COLUMNS
+     * @return a Photo
+     */
+    @NonNull
+    private static Photo photoFromCursor(@NonNull Cursor dbresult) {
+        String name = dbresult.getString(NAME_INDEX);
+        String dir = dbresult.getString(DIR_INDEX);
+        if (dbresult.isNull(DIRECTION_INDEX)) { // no direction
+            return new Photo(dbresult.getInt(LAT_INDEX), dbresult.getInt(LON_INDEX), dir, name, dbresult.getInt(ORIENTATION_INDEX));
+        }
+        return new Photo(dbresult.getInt(LAT_INDEX), dbresult.getInt(LON_INDEX), dbresult.getInt(DIRECTION_INDEX), dir, name,
+                dbresult.getInt(ORIENTATION_INDEX));
+    }
+
+    /**
+     * Expand a BoundingBox on all sides
+     * 
+     * @param box the original BoundingBox
+     * @param margin the fraction of the width and height to add on each side
+     * @return a new BoundingBox
+     */
+    @NonNull
+    private static BoundingBox expand(@NonNull BoundingBox box, double margin) {
+        long dx = (long) (box.getWidth() * margin);
+        long dy = (long) (box.getHeight() * margin);
+        return new BoundingBox((int) Math.max(-GeoMath.MAX_LON_E7, box.getLeft() - dx), (int) Math.max(-GeoMath.MAX_LAT_E7, box.getBottom() - dy),
+                (int) Math.min(GeoMath.MAX_LON_E7, box.getRight() + dx), (int) Math.min(GeoMath.MAX_LAT_E7, box.getTop() + dy));
     }
 
     /**
@@ -667,15 +1154,7 @@ public class PhotoIndex extends SQLiteOpenHelper {
             Log.i(DEBUG_TAG, "Query returned " + photoCount + " photos");
             //
             for (int i = 0; i < photoCount; i++) {
-                String name = dbresult.getString(NAME_INDEX);
-                String dir = dbresult.getString(DIR_INDEX);
-                Photo newPhoto;
-                if (dbresult.isNull(DIRECTION_INDEX)) { // no direction
-                    newPhoto = new Photo(dbresult.getInt(LAT_INDEX), dbresult.getInt(LON_INDEX), dir, name, dbresult.getInt(ORIENTATION_INDEX));
-                } else {
-                    newPhoto = new Photo(dbresult.getInt(LAT_INDEX), dbresult.getInt(LON_INDEX), dbresult.getInt(DIRECTION_INDEX), dir, name,
-                            dbresult.getInt(ORIENTATION_INDEX));
-                }
+                Photo newPhoto = photoFromCursor(dbresult);
                 if (!index.contains(newPhoto)) {
                     index.insert(newPhoto);
                 }
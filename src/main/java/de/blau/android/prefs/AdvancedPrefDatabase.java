@@ -29,6 +29,7 @@ import de.blau.android.osm.Server;
 import de.blau.android.prefs.API.Auth;
 import de.blau.android.presets.AutoPreset;
 import de.blau.android.presets.Preset;
+import de.blau.android.presets.PresetCache;
 import de.blau.android.propertyeditor.CustomPreset;
 import de.blau.android.resources.TileLayerSource;
 import de.blau.android.util.FileUtil;
@@ -558,7 +559,7 @@ public class AdvancedPrefDatabase extends SQLiteOpenHelper implements AutoClosea
             PresetInfo pi = presetInfos[i];
             try {
                 Log.d(DEBUG_TAG, "Adding preset " + pi.name);
-                activePresets[i] = new Preset(context, getPresetDirectory(pi.id), pi.useTranslations);
+                activePresets[i] = PresetCache.getPreset(context, getPresetDirectory(pi.id), pi.useTranslations);
                 Preset preset = activePresets[i];
                 if (preset != null) {
                     setAdditionalFieldsFromPreset(pi, preset);
@@ -74,7 +74,10 @@ public class Preferences {
     private final int         autoPruneBoundingBoxLimit;
     private final int         autoPruneNodeLimit;
     private final int         autoPruneTaskLimit;
+    private final int         undoMemoryBudget;              // in MB
+    private final int         elementHistoryLimit;           // in thousands of versions
     private final int         panAndZoomLimit;
+    private final int         prefetchBudget;                // in MB
     private int               bugDownloadRadius;
     private float             maxBugDownloadSpeed;           // in km/h
     private Set<String>       taskFilter;
@@ -120,6 +123,8 @@ public class Preferences {
     private final boolean     alwaysDrawBoundingBoxes;
     private final boolean     jsConsoleEnabled;
     private final boolean     hwAccelerationEnabled;
+    private final boolean     rasterizeVectorTiles;
+    private final boolean     tiledDownload;
     private final int         connectedNodeTolerance;
     private final int         orthogonalizeThreshold;
     private final boolean     autoformatPhoneNumbers;
@@ -198,7 +203,10 @@ public class Preferences {
         autoPruneBoundingBoxLimit = getIntPref(R.string.config_autoPruneBoundingBoxLimit_key, de.blau.android.layer.data.MapOverlay.DEFAULT_DOWNLOADBOX_LIMIT);
         autoPruneNodeLimit = getIntPref(R.string.config_autoPruneNodeLimit_key, de.blau.android.layer.data.MapOverlay.DEFAULT_AUTOPRUNE_NODE_LIMIT);
         autoPruneTaskLimit = getIntPref(R.string.config_autoPruneTaskLimit_key, de.blau.android.layer.tasks.MapOverlay.DEFAULT_AUTOPRUNE_TASK_LIMIT);
+        undoMemoryBudget = getIntPref(R.string.config_undoMemoryBudget_key, de.blau.android.osm.UndoStorage.DEFAULT_MEMORY_BUDGET_MB);
+        elementHistoryLimit = getIntPref(R.string.config_elementHistoryLimit_key, de.blau.android.osm.ElementHistory.DEFAULT_LIMIT / 1000);
         panAndZoomLimit = getIntPref(R.string.config_panAndZoomLimit_key, de.blau.android.layer.data.MapOverlay.PAN_AND_ZOOM_LIMIT);
+        prefetchBudget = getIntPref(R.string.config_prefetchBudget_key, de.blau.android.services.PrefetchPlanner.DEFAULT_BUDGET_MB);
 
         bugDownloadRadius = getIntPref(R.string.config_bugDownloadRadius_key, 200);
         maxBugDownloadSpeed = getIntPref(R.string.config_maxBugDownloadSpeed_key, 30);
@@ -304,6 +312,8 @@ public class Preferences {
         jsConsoleEnabled = prefs.getBoolean(r.getString(R.string.config_js_console_key), false);
 
         hwAccelerationEnabled = prefs.getBoolean(r.getString(R.string.config_enableHwAcceleration_key), false);
+        rasterizeVectorTiles = prefs.getBoolean(r.getString(R.string.config_rasterizeVectorTiles_key), false);
+        tiledDownload = prefs.getBoolean(r.getString(R.string.config_tiledDownload_key), false);
 
         connectedNodeTolerance = getIntPref(R.string.config_connectedNodeTolerance_key, 2);
 
@@ -721,6 +731,24 @@ public class Preferences {
         return autoPruneTaskLimit;
     }
 
+    /**
+     * Get the memory budget for the undo history
+     * 
+     * @return the budget in MB
+     */
+    public int getUndoMemoryBudget() {
+        return undoMemoryBudget;
+    }
+
+    /**
+     * Get the maximum number of element versions to keep for conflict resolution
+     * 
+     * @return the limit in thousands of versions, 0 if versions shouldn't be recorded
+     */
+    public int getElementHistoryLimit() {
+        return elementHistoryLimit;
+    }
+
     /**
      * Get the minimum zoom for pan and zoom auto-download
      * 
@@ -730,6 +758,15 @@ public class Preferences {
         return panAndZoomLimit;
     }
 
+    /**
+     * Get the maximum size of the data downloaded when prefetching along a track
+     * 
+     * @return the budget in MB
+     */
+    public int getPrefetchBudget() {
+        return prefetchBudget;
+    }
+
     /**
      * Get the configured download radius for tasks
      * 
@@ -1481,6 +1518,24 @@ public class Preferences {
         return hwAccelerationEnabled;
     }
 
+    /**
+     * Check if vector tiles should be rendered to bitmaps in the background
+     * 
+     * @return true if vector tiles should be rasterised
+     */
+    public boolean rasterizeVectorTiles() {
+        return rasterizeVectorTiles;
+    }
+
+    /**
+     * Check if areas that are too large for a single API call should be downloaded in parts
+     * 
+     * @return true if large areas should be downloaded in parts
+     */
+    public boolean tiledDownload() {
+        return tiledDownload;
+    }
+
     /**
      * Enable/disable the simple actions
      * 
@@ -155,9 +155,10 @@ public class Preset implements Serializable {
     private final MultiHashMap<String, PresetItem> searchIndex           = new MultiHashMap<>();
     private final MultiHashMap<String, PresetItem> translatedSearchIndex = new MultiHashMap<>();
 
-    private Po po = null;
+    private transient Po po = null;
 
-    private final PresetMRUInfo mru;
+    private transient PresetMRUInfo mru;
+    private String                  hash;
     private String              externalPackage;
     private final boolean       isDefault;
 
@@ -212,37 +213,13 @@ public class Preset implements Serializable {
             isDefault = AdvancedPrefDatabase.ID_DEFAULT.equals(directory.getName());
             if (isDefault) {
                 Log.i(DEBUG_TAG, "Loading default preset");
-                iconManager = new PresetIconManager(ctx, null, null);
-                fileStream = iconManager.openAsset(PRESETXML, true);
-                if (useTranslations) {
-                    // get translations
-                    Locale locale = Locale.getDefault();
-                    String language = locale.getLanguage();
-                    poFileStream = iconManager.openAsset(DEFAULT_PRESET_TRANSLATION + locale + "." + FileExtensions.PO, true);
-                    if (poFileStream == null) {
-                        poFileStream = iconManager.openAsset(DEFAULT_PRESET_TRANSLATION + language + "." + FileExtensions.PO, true);
-                    }
-                }
             } else {
                 Log.i(DEBUG_TAG, "Loading downloaded preset, directory=" + directory);
-                iconManager = new PresetIconManager(ctx, directory.getAbsolutePath(), null);
-                String presetFilename = getPresetFileName(directory);
-                if (presetFilename == null) {
-                    throw new IOException(ctx.getString(R.string.toast_missing_preset_file, directory));
-                }
-
-                Log.i(DEBUG_TAG, "Preset file name " + presetFilename);
-                fileStream = new FileInputStream(new File(directory, presetFilename));
-                if (useTranslations) {
-                    // get translations
-                    presetFilename = presetFilename.substring(0, presetFilename.length() - 4);
-                    // try to open .po files either with the same name as the preset file or the standard
-                    // name
-                    poFileStream = getPoInputStream(directory, presetFilename + "_", Locale.getDefault());
-                    if (poFileStream == null) {
-                        poFileStream = getPoInputStream(directory, DEFAULT_PRESET_TRANSLATION, Locale.getDefault());
-                    }
-                }
+            }
+            iconManager = new PresetIconManager(ctx, isDefault ? null : directory.getAbsolutePath(), null);
+            fileStream = openPresetFile(ctx, directory, iconManager);
+            if (useTranslations) {
+                poFileStream = openTranslations(directory, iconManager);
             }
 
             po = de.blau.android.util.Util.parsePoFile(poFileStream);
@@ -250,12 +227,12 @@ public class Preset implements Serializable {
             try (DigestInputStream hashStream = new DigestInputStream(fileStream, MessageDigest.getInstance("SHA-256"))) {
                 PresetParser.parseXML(this, hashStream, App.getPreferences(ctx).supportPresetLabels());
                 // Finish hash
-                String hashValue = Hash.toHex(hashStream.getMessageDigest().digest());
+                hash = Hash.toHex(hashStream.getMessageDigest().digest());
                 // in theory, it could be possible that the stream parser does not read the entire file
                 // and maybe even randomly stops at a different place each time.
                 // in practice, it does read the full file, which means this gives the actual sha256 of the file,
                 // - even if you add a 1 MB comment after the document-closing tag.
-                mru = PresetMRUInfo.getMRU(directory, hashValue);
+                mru = PresetMRUInfo.getMRU(directory, hash);
             }
             Log.d(DEBUG_TAG, "search index length: " + searchIndex.getKeys().size());
         } finally {
@@ -264,6 +241,87 @@ public class Preset implements Serializable {
         }
     }
 
+    /**
+     * Open the preset XML file in a preset directory
+     * 
+     * @param ctx an Android Context
+     * @param directory the preset directory
+     * @param iconManager the PresetIconManager for the preset
+     * @return an InputStream for the file
+     * @throws IOException if the file is missing or can't be opened
+     */
+    @NonNull
+    static InputStream openPresetFile(@NonNull Context ctx, @NonNull File directory, @NonNull PresetIconManager iconManager) throws IOException {
+        InputStream fileStream;
+        if (AdvancedPrefDatabase.ID_DEFAULT.equals(directory.getName())) {
+            fileStream = iconManager.openAsset(PRESETXML, true);
+        } else {
+            String presetFilename = getPresetFileName(directory);
+            if (presetFilename == null) {
+                throw new IOException(ctx.getString(R.string.toast_missing_preset_file, directory));
+            }
+            Log.i(DEBUG_TAG, "Preset file name " + presetFilename);
+            fileStream = new FileInputStream(new File(directory, presetFilename));
+        }
+        if (fileStream == null) {
+            throw new IOException(ctx.getString(R.string.toast_missing_preset_file, directory));
+        }
+        return fileStream;
+    }
+
+    /**
+     * Open the translations for the current Locale for the preset in a preset directory
+     * 
+     * @param directory the preset directory
+     * @param iconManager the PresetIconManager for the preset
+     * @return an InputStream for the .po file or null if there is none
+     * @throws FileNotFoundException if the file can't be opened
+     */
+    @Nullable
+    static InputStream openTranslations(@NonNull File directory, @NonNull PresetIconManager iconManager) throws FileNotFoundException {
+        Locale locale = Locale.getDefault();
+        if (AdvancedPrefDatabase.ID_DEFAULT.equals(directory.getName())) {
+            InputStream poFileStream = iconManager.openAsset(DEFAULT_PRESET_TRANSLATION + locale + "." + FileExtensions.PO, true);
+            if (poFileStream == null) {
+                poFileStream = iconManager.openAsset(DEFAULT_PRESET_TRANSLATION + locale.getLanguage() + "." + FileExtensions.PO, true);
+            }
+            return poFileStream;
+        }
+        String presetFilename = getPresetFileName(directory);
+        if (presetFilename == null) {
+            return null;
+        }
+        presetFilename = presetFilename.substring(0, presetFilename.length() - 4);
+        // try to open .po files either with the same name as the preset file or the standard
+        // name
+        InputStream poFileStream = getPoInputStream(directory, presetFilename + "_", locale);
+        if (poFileStream == null) {
+            poFileStream = getPoInputStream(directory, DEFAULT_PRESET_TRANSLATION, locale);
+        }
+        return poFileStream;
+    }
+
+    /**
+     * Restore the state that is not retained when a Preset is read from the cache
+     * 
+     * @param po the translations or null
+     * @param mru the PresetMRUInfo
+     */
+    void restore(@Nullable Po po, @NonNull PresetMRUInfo mru) {
+        this.po = po;
+        this.mru = mru;
+    }
+
+    /**
+     * Get the SHA-256 hash of the preset file this was created from
+     * 
+     * @return the hash or null if this Preset wasn't read from a file
+     */
+    @Nullable
+    String getHash() {
+        return hash;
+    }
+
     /**
      * Get an input stream for a .po file, try full locale string first then just the language
      * 
@@ -273,7 +331,7 @@ public class Preset implements Serializable {
      * @return the InputStream or null if it doesn't exist
      */
     @Nullable
-    private FileInputStream getPoInputStream(@NonNull File directory, @NonNull String presetFilename, @NonNull Locale locale) throws FileNotFoundException {
+    private static FileInputStream getPoInputStream(@NonNull File directory, @NonNull String presetFilename, @NonNull Locale locale) throws FileNotFoundException {
         try {
             return new FileInputStream(new File(directory, presetFilename + locale.toString() + "." + FileExtensions.PO));
         } catch (FileNotFoundException fnfe) {
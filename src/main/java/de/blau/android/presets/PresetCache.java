@@ -0,0 +1,198 @@
+package de.blau.android.presets;
+
+import static de.blau.android.contract.Constants.LOG_TAG_LEN;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.xml.sax.SAXException;
+
+import android.content.Context;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import ch.poole.poparser.Po;
+import de.blau.android.App;
+import de.blau.android.BuildConfig;
+import de.blau.android.contract.Files;
+import de.blau.android.prefs.AdvancedPrefDatabase;
+import de.blau.android.util.Hash;
+import de.blau.android.util.Util;
+
+/**
+ * Cache for parsed presets
+ * 
+ * After a preset XML file has been parsed, the Preset including all its indices is serialized to a file in the preset
+ * directory. When the preset is loaded again this is used instead of parsing the XML file if the hash of the file, the
+ * app version, the locale and the relevant settings haven't changed. If the cache is missing, stale or can't be read
+ * we fall back to parsing the XML file.
+ * 
+ * Translations and the MRU are not cached, they are read separately.
+ */
+public final class PresetCache {
+
+    private static final int    TAG_LEN   = Math.min(LOG_TAG_LEN, PresetCache.class.getSimpleName().length());
+    private static final String DEBUG_TAG = PresetCache.class.getSimpleName().substring(0, TAG_LEN);
+
+    /**
+     * Increment when the format of the cache changes in a way that isn't covered by the app version
+     */
+    private static final int VERSION = 1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Private constructor to prevent instantiation
+     */
+    private PresetCache() {
+        // nothing
+    }
+
+    /**
+     * Get the Preset in a directory, using the cache if possible
+     * 
+     * @param ctx an Android Context
+     * @param directory the preset directory
+     * @param useTranslations if true use included translations
+     * @return the Preset
+     * @throws ParserConfigurationException if the XML file needs to be parsed and that fails
+     * @throws SAXException if the XML file needs to be parsed and that fails
+     * @throws IOException if the preset file can't be read
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    @NonNull
+    public static Preset getPreset(@NonNull Context ctx, @NonNull File directory, boolean useTranslations)
+            throws ParserConfigurationException, SAXException, IOException, NoSuchAlgorithmException {
+        File cacheFile = new File(directory, Files.FILE_NAME_PRESET_CACHE);
+        if (cacheFile.exists()) {
+            Preset preset = readCache(ctx, directory, cacheFile, useTranslations);
+            if (preset != null) {
+                return preset;
+            }
+        }
+        Preset preset = new Preset(ctx, directory, useTranslations);
+        String hash = preset.getHash();
+        if (hash != null) {
+            writeCache(cacheFile, getKey(ctx, hash, useTranslations), preset);
+        }
+        return preset;
+    }
+
+    /**
+     * Read a Preset from the cache
+     * 
+     * @param ctx an Android Context
+     * @param directory the preset directory
+     * @param cacheFile the cache file
+     * @param useTranslations if true use included translations
+     * @return the Preset or null if the cache is stale or couldn't be read
+     * @throws IOException if the preset file can't be read
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    @Nullable
+    private static Preset readCache(@NonNull Context ctx, @NonNull File directory, @NonNull File cacheFile, boolean useTranslations)
+            throws IOException, NoSuchAlgorithmException {
+        long start = System.currentTimeMillis();
+        PresetIconManager iconManager = new PresetIconManager(ctx,
+                AdvancedPrefDatabase.ID_DEFAULT.equals(directory.getName()) ? null : directory.getAbsolutePath(), null);
+        String hash;
+        try (InputStream fileStream = Preset.openPresetFile(ctx, directory, iconManager)) {
+            hash = hash(fileStream);
+        }
+        Preset preset;
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(cacheFile), BUFFER_SIZE))) {
+            if (!getKey(ctx, hash, useTranslations).equals(in.readUTF())) {
+                Log.i(DEBUG_TAG, "Stale cache for " + directory);
+                return null;
+            }
+            preset = (Preset) in.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            Log.e(DEBUG_TAG, "Reading cache for " + directory + " failed " + e.getMessage());
+            return null;
+        }
+        Po po = null;
+        if (useTranslations) {
+            try (InputStream poFileStream = Preset.openTranslations(directory, iconManager)) {
+                po = Util.parsePoFile(poFileStream);
+            }
+        }
+        preset.restore(po, PresetMRUInfo.getMRU(directory, hash));
+        preset.setIconManager(iconManager);
+        Log.i(DEBUG_TAG, "Read cached preset " + directory + " in " + (System.currentTimeMillis() - start) + " ms");
+        return preset;
+    }
+
+    /**
+     * Write a Preset to the cache
+     * 
+     * The cache is written to a temporary file first so that an interrupted write doesn't leave a truncated cache
+     * behind
+     * 
+     * @param cacheFile the cache file
+     * @param key the key for the current state of the preset
+     * @param preset the Preset
+     */
+    private static void writeCache(@NonNull File cacheFile, @NonNull String key, @NonNull Preset preset) {
+        long start = System.currentTimeMillis();
+        File tempFile = new File(cacheFile.getParentFile(), cacheFile.getName() + ".tmp");
+        try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), BUFFER_SIZE))) {
+            out.writeUTF(key);
+            out.writeObject(preset);
+        } catch (IOException e) {
+            Log.e(DEBUG_TAG, "Writing cache " + cacheFile + " failed " + e.getMessage());
+            tempFile.delete(); // NOSONAR
+            return;
+        }
+        if (!tempFile.renameTo(cacheFile)) {
+            Log.e(DEBUG_TAG, "Renaming " + tempFile + " failed");
+            tempFile.delete(); // NOSONAR
+            return;
+        }
+        Log.i(DEBUG_TAG, "Wrote cache " + cacheFile + " in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Get the key that has to match for the cached Preset to be used
+     * 
+     * @param ctx an Android Context
+     * @param hash the hash of the preset file
+     * @param useTranslations if true use included translations
+     * @return a String containing the key
+     */
+    @NonNull
+    private static String getKey(@NonNull Context ctx, @NonNull String hash, boolean useTranslations) {
+        return VERSION + "|" + BuildConfig.VERSION_CODE + "|" + hash + "|" + (useTranslations ? Locale.getDefault().toString() : "") + "|"
+                + App.getPreferences(ctx).supportPresetLabels();
+    }
+
+    /**
+     * Calculate the SHA-256 hash of the contents of an InputStream
+     * 
+     * @param is the InputStream
+     * @return the hash as a hex String
+     * @throws IOException if reading fails
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    @NonNull
+    private static String hash(@NonNull InputStream is) throws IOException, NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = is.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+        return Hash.toHex(digest.digest());
+    }
+}
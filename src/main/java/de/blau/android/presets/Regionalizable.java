@@ -1,12 +1,15 @@
 package de.blau.android.presets;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-public abstract class Regionalizable {
+public abstract class Regionalizable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     private List<String> regions        = null;
     private boolean      excludeRegions = false;
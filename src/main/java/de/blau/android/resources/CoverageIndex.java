@@ -0,0 +1,124 @@
+package de.blau.android.resources;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import androidx.annotation.NonNull;
+import de.blau.android.osm.BoundingBox;
+import de.blau.android.resources.TileLayerSource.Provider;
+import de.blau.android.resources.TileLayerSource.Provider.CoverageArea;
+import de.blau.android.util.rtree.BoundedObject;
+import de.blau.android.util.rtree.RTree;
+
+/**
+ * Spatial index over the coverage areas of a set of TileLayerSources
+ * 
+ * Every CoverageArea with a bounding box is stored in an RTree, sources without any coverage information are kept in
+ * a separate list as they cover everything. A query returns the candidates that potentially cover a bounding box, the
+ * exact test is only run on these.
+ */
+class CoverageIndex {
+
+    /**
+     * An RTree entry for a single CoverageArea
+     */
+    private static final class Entry implements BoundedObject, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final BoundingBox     box;
+        final TileLayerSource source;
+
+        /**
+         * Construct a new Entry
+         * 
+         * @param box the bounding box of the CoverageArea
+         * @param source the TileLayerSource the CoverageArea belongs to
+         */
+        Entry(@NonNull BoundingBox box, @NonNull TileLayerSource source) {
+            this.box = box;
+            this.source = source;
+        }
+
+        @Override
+        public BoundingBox getBounds() {
+            return box;
+        }
+    }
+
+    private final RTree<Entry>          tree   = new RTree<>(2, 12);
+    private final List<TileLayerSource> global = new ArrayList<>();
+
+    /**
+     * Construct a new index for the supplied sources
+     * 
+     * @param sources the TileLayerSources to index
+     */
+    CoverageIndex(@NonNull Collection<TileLayerSource> sources) {
+        for (TileLayerSource source : sources) {
+            if (source == null) {
+                continue;
+            }
+            if (!add(source)) {
+                global.add(source);
+            }
+        }
+    }
+
+    /**
+     * Add the coverage areas of a source to the RTree
+     * 
+     * @param source the TileLayerSource
+     * @return false if the source has no or unbounded coverage and needs to be added to the global list
+     */
+    private boolean add(@NonNull TileLayerSource source) {
+        List<Provider> providers = source.getProviders();
+        if (providers.isEmpty()) {
+            return false;
+        }
+        List<Entry> entries = new ArrayList<>();
+        for (Provider p : providers) {
+            List<CoverageArea> areas = p.getCoverageAreas();
+            if (areas.isEmpty()) {
+                return false;
+            }
+            for (CoverageArea area : areas) {
+                BoundingBox box = area.getBoundingBox();
+                if (box == null) {
+                    return false;
+                }
+                entries.add(new Entry(box, source));
+            }
+        }
+        for (Entry e : entries) {
+            tree.insert(e);
+        }
+        return true;
+    }
+
+    /**
+     * Get the sources that cover a bounding box
+     * 
+     * @param box the BoundingBox
+     * @return a Collection of the TileLayerSources covering box
+     */
+    @NonNull
+    Collection<TileLayerSource> query(@NonNull BoundingBox box) {
+        List<Entry> entries = new ArrayList<>();
+        tree.query(entries, box);
+        Set<TileLayerSource> candidates = new HashSet<>(global);
+        for (Entry e : entries) {
+            candidates.add(e.source);
+        }
+        List<TileLayerSource> result = new ArrayList<>(candidates.size());
+        for (TileLayerSource source : candidates) {
+            if (source.covers(box)) {
+                result.add(source);
+            }
+        }
+        return result;
+    }
+}
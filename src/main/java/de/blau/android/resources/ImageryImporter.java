@@ -0,0 +1,159 @@
+package de.blau.android.resources;
+
+import static de.blau.android.contract.Constants.LOG_TAG_LEN;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.mapbox.geojson.Feature;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import de.blau.android.BuildConfig;
+import de.blau.android.resources.eli.Eli;
+import de.blau.android.resources.eli.EliReader;
+
+/**
+ * Incrementally update the layers of a source in TileLayerDatabase from one or more imagery configuration files
+ * 
+ * The hash of the configuration each layer was created from is stored with the layer, layers that are unchanged are
+ * neither converted nor written. Entries in earlier files take precedence over entries with the same id in later
+ * files. The caller is responsible for wrapping the update in a transaction.
+ */
+class ImageryImporter implements EliReader.FeatureHandler {
+
+    private static final int    TAG_LEN   = Math.min(LOG_TAG_LEN, ImageryImporter.class.getSimpleName().length());
+    private static final String DEBUG_TAG = ImageryImporter.class.getSimpleName().substring(0, TAG_LEN);
+
+    /**
+     * Stored hashes include the app version so that changes to the conversion code are picked up
+     */
+    private static final String HASH_PREFIX = BuildConfig.VERSION_CODE + ":";
+
+    private final Context             ctx;
+    private final SQLiteDatabase      db;
+    private final String              source;
+    private final boolean             async;
+    private final Map<String, String> existing;
+    private final Set<String>         seen = new HashSet<>();
+
+    private int unchanged = 0;
+    private int added     = 0;
+    private int updated   = 0;
+
+    /**
+     * Construct a new importer
+     * 
+     * @param ctx an Android Context
+     * @param db a writable SQLiteDatabase
+     * @param source the source the layers belong to
+     * @param async obtain meta data async (bing only)
+     */
+    ImageryImporter(@NonNull Context ctx, @NonNull SQLiteDatabase db, @NonNull String source, boolean async) {
+        this.ctx = ctx;
+        this.db = db;
+        this.source = source;
+        this.async = async;
+        existing = TileLayerDatabase.getLayerHashes(db, source);
+    }
+
+    /**
+     * Read an imagery configuration file and update the changed layers
+     * 
+     * @param is the InputStream to read from
+     * @throws IOException if reading or parsing failed
+     */
+    void read(@NonNull InputStream is) throws IOException {
+        EliReader.read(is, this);
+    }
+
+    @Override
+    public boolean changed(@Nullable String id, @NonNull String hash) {
+        if (id == null) {
+            return true;
+        }
+        if (seen.contains(id)) {
+            return false;
+        }
+        if ((HASH_PREFIX + hash).equals(existing.get(id))) {
+            seen.add(id);
+            unchanged++;
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void handle(@NonNull Feature feature, @NonNull String hash, boolean fakeMultiPolygon) {
+        TileLayerSource layer = Eli.geojsonToServer(ctx, feature, async, fakeMultiPolygon);
+        if (layer == null) {
+            Log.w(DEBUG_TAG, "Imagery layer config couldn't be parsed/unsupported");
+            return;
+        }
+        String id = layer.getId();
+        if (!seen.add(id)) {
+            Log.w(DEBUG_TAG, "Duplicate layer " + id);
+            return;
+        }
+        if (existing.containsKey(id)) {
+            // this will remove coverages and headers too
+            TileLayerDatabase.deleteLayerWithId(db, id);
+            updated++;
+        } else {
+            added++;
+        }
+        TileLayerDatabase.addLayer(db, source, layer, HASH_PREFIX + hash);
+    }
+
+    /**
+     * Finish the update
+     * 
+     * @param removeMissing if true remove layers from the source that were not in any of the files
+     */
+    void finish(boolean removeMissing) {
+        int removed = 0;
+        if (removeMissing) {
+            for (String id : existing.keySet()) {
+                if (!seen.contains(id)) {
+                    TileLayerDatabase.deleteLayerWithId(db, id);
+                    removed++;
+                }
+            }
+        }
+        TileLayerDatabase.updateSource(db, source, System.currentTimeMillis());
+        Log.i(DEBUG_TAG, source + " unchanged " + unchanged + " added " + added + " updated " + updated + " removed " + removed);
+    }
+
+    /**
+     * Get the number of layers that were skipped as unchanged
+     * 
+     * @return the number of unchanged layers
+     */
+    int getUnchanged() {
+        return unchanged;
+    }
+
+    /**
+     * Get the number of layers that were added
+     * 
+     * @return the number of added layers
+     */
+    int getAdded() {
+        return added;
+    }
+
+    /**
+     * Get the number of layers that were replaced
+     * 
+     * @return the number of updated layers
+     */
+    int getUpdated() {
+        return updated;
+    }
+}
@@ -32,7 +32,7 @@ public class TileLayerDatabase extends SQLiteOpenHelper {
     protected static final String DEBUG_TAG = TileLayerDatabase.class.getSimpleName().substring(0, TAG_LEN);
 
     public static final String DATABASE_NAME    = "tilelayers";
-    private static final int   DATABASE_VERSION = 9;
+    private static final int   DATABASE_VERSION = 10;
 
     public static final String SOURCE_ELI          = "eli";    // editor-layer-index
     public static final String SOURCE_JOSM_IMAGERY = "josm";   // josm.openstreetmap.de/wiki/maps
@@ -71,6 +71,7 @@ public class TileLayerDatabase extends SQLiteOpenHelper {
     private static final String LOGO_FIELD               = "logo";
     private static final String DESCRIPTION_FIELD        = "description";
     private static final String PRIVACY_POLICY_URL_FIELD = "privacy_policy_url";
+    private static final String HASH_FIELD               = "hash";
 
     public static final String  COVERAGES_TABLE = "coverages";
     private static final String LEFT_FIELD      = "left";
@@ -108,7 +109,7 @@ public class TileLayerDatabase extends SQLiteOpenHelper {
                             + " over_zoom_max INTEGER NOT NULL DEFAULT 4, tile_width INTEGER NOT NULL DEFAULT 256, tile_height INTEGER NOT NULL DEFAULT 256,"
                             + " proj TEXT DEFAULT NULL, preference INTEGER NOT NULL DEFAULT 0, start_date INTEGER DEFAULT NULL, end_date INTEGER DEFAULT NULL,"
                             + " no_tile_header TEXT DEFAULT NULL, no_tile_value TEXT DEFAULT NULL, no_tile_tile BLOB DEFAULT NULL, logo_url TEXT DEFAULT NULL, logo BLOB DEFAULT NULL,"
-                            + " description TEXT DEFAULT NULL, privacy_policy_url TEXT DEFAULT NULL, attribution_url TEXT DEFAULT NULL, FOREIGN KEY(source) REFERENCES sources(name) ON DELETE CASCADE)");
+                            + " description TEXT DEFAULT NULL, privacy_policy_url TEXT DEFAULT NULL, attribution_url TEXT DEFAULT NULL, hash TEXT DEFAULT NULL, FOREIGN KEY(source) REFERENCES sources(name) ON DELETE CASCADE)");
             db.execSQL("CREATE INDEX layers_overlay_idx ON layers(overlay)");
             db.execSQL("CREATE INDEX layers_source_idx ON layers(source)");
             db.execSQL("CREATE TABLE coverages (id TEXT NOT NULL, zoom_min INTEGER NOT NULL DEFAULT 0, zoom_max INTEGER NOT NULL DEFAULT 18,"
@@ -150,6 +151,9 @@ public class TileLayerDatabase extends SQLiteOpenHelper {
         if (oldVersion <= 8 && newVersion >= 9) {
             createHeadersTable(db);
         }
+        if (oldVersion <= 9 && newVersion >= 10) {
+            db.execSQL("ALTER TABLE layers ADD COLUMN hash TEXT DEFAULT NULL");
+        }
     }
 
     /**
@@ -237,7 +241,22 @@ public class TileLayerDatabase extends SQLiteOpenHelper {
      * @param layer a TileLayerSource object
      */
     public static void addLayer(@NonNull SQLiteDatabase db, @NonNull String source, @NonNull TileLayerSource layer) {
+        addLayer(db, source, layer, null);
+    }
+
+    /**
+     * Add a layer, will add coverage areas to the coverage and headers to the headers table
+     * 
+     * @param db writable database
+     * @param source source the layer comes from
+     * @param layer a TileLayerSource object
+     * @param hash hash of the configuration the layer was created from or null
+     */
+    public static void addLayer(@NonNull SQLiteDatabase db, @NonNull String source, @NonNull TileLayerSource layer, @Nullable String hash) {
         ContentValues values = getContentValuesForLayer(source, layer);
+        if (hash != null) {
+            values.put(HASH_FIELD, hash);
+        }
         try {
             db.insertOrThrow(LAYERS_TABLE, null, values);
             addCoverageFromLayer(db, layer);
@@ -356,6 +375,24 @@ public class TileLayerDatabase extends SQLiteOpenHelper {
         db.delete(LAYERS_TABLE, SOURCE_FIELD + "=?", new String[] { source });
     }
 
+    /**
+     * Get the configuration hashes of all layers from a source
+     * 
+     * @param db readable SQLiteDatabase
+     * @param source name of the source
+     * @return a Map from layer id to hash, the hash is null if it isn't known
+     */
+    @NonNull
+    public static Map<String, String> getLayerHashes(@NonNull SQLiteDatabase db, @NonNull String source) {
+        Map<String, String> result = new HashMap<>();
+        try (Cursor cursor = db.query(LAYERS_TABLE, new String[] { ID_FIELD, HASH_FIELD }, SOURCE_FIELD + "=?", new String[] { source }, null, null, null)) {
+            while (cursor.moveToNext()) {
+                result.put(cursor.getString(0), cursor.getString(1));
+            }
+        }
+        return result;
+    }
+
     /**
      * Retrieve a single layer identified by its id
      * 
@@ -537,6 +574,7 @@ public class TileLayerDatabase extends SQLiteOpenHelper {
         Log.d(DEBUG_TAG, "Updating layer " + id);
         deleteCoverage(db, id);
         ContentValues values = getContentValuesForLayer(null, layer);
+        values.putNull(HASH_FIELD); // no longer matches the configuration
         db.update(LAYERS_TABLE, values, "id=?", new String[] { id });
         addCoverageFromLayer(db, layer);
     }
@@ -35,9 +35,7 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.google.gson.JsonSyntaxException;
-import com.mapbox.geojson.Feature;
 
-import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.res.AssetManager;
 import android.content.res.Resources;
@@ -66,8 +64,6 @@ import de.blau.android.osm.ViewBox;
 import de.blau.android.resources.KeyDatabaseHelper.EntryType;
 import de.blau.android.resources.TileLayerSource.Provider.CoverageArea;
 import de.blau.android.resources.bing.Bing;
-import de.blau.android.resources.eli.Eli;
-import de.blau.android.resources.eli.EliFeatureCollection;
 import de.blau.android.services.util.MapTile;
 import de.blau.android.services.util.MapTileDownloader;
 import de.blau.android.util.Density;
@@ -507,6 +503,9 @@ public class TileLayerSource implements Serializable {
     private static List<String>                 imageryBlacklist     = null;
     private static boolean                      fullyPopulated       = false;
 
+    private static volatile CoverageIndex backgroundCoverageIndex = null;
+    private static volatile CoverageIndex overlayCoverageIndex    = null;
+
     private static Map<String, Drawable> logoCache = new HashMap<>();
     private static final Drawable        NOLOGO    = new ColorDrawable();
 
@@ -531,6 +530,7 @@ public class TileLayerSource implements Serializable {
                 // load meta information from Bing (or from other sources using the same format)
                 Bing.loadMeta(ctx, this, parser);
                 metadataLoaded = true;
+                invalidateCoverageIndices(); // providers have changed
                 // once we've got here, a selected layer that was previously non-available might now be available ...
                 // re-set configuration
                 if (ctx instanceof Main && ((Main) ctx).getMap() != null) {
@@ -800,24 +800,12 @@ public class TileLayerSource implements Serializable {
      * @param async obtain meta data async (bing only)
      * @throws IOException if there was an IO error
      */
-    @SuppressLint("NewApi") // StandardCharsets is desugared for APIs < 19.
     public static void parseImageryFile(@NonNull Context ctx, @NonNull SQLiteDatabase writeableDb, @NonNull String source, @NonNull InputStream is,
             final boolean async) throws IOException {
-        BufferedReader rd = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
         try {
-            EliFeatureCollection fc = EliFeatureCollection.fromJson(FileUtil.readToString(rd));
-            Version formatVersion = fc.formatVersion();
-            Log.i(DEBUG_TAG, "Reading imagery configuration version " + (formatVersion == null ? "unknown" : formatVersion.toString()));
-            boolean fakeMultiPolygons = formatVersion == null || !formatVersion.largerThanOrEqual(Eli.VERSION_1_1);
-            for (Feature f : fc.features()) {
-                TileLayerSource osmts = Eli.geojsonToServer(ctx, f, async, fakeMultiPolygons);
-                if (osmts != null) {
-                    TileLayerDatabase.addLayer(writeableDb, source, osmts);
-                } else {
-                    Log.w(DEBUG_TAG, "Imagery layer config couldn't be parsed/unsupported");
-                }
-            }
-            TileLayerDatabase.updateSource(writeableDb, source, System.currentTimeMillis());
+            ImageryImporter importer = new ImageryImporter(ctx, writeableDb, source, async);
+            importer.read(is);
+            importer.finish(false);
         } catch (Exception e) {
             Log.e(DEBUG_TAG, "Fatal error parsing " + source + " " + e.getMessage());
         }
@@ -876,6 +864,7 @@ public class TileLayerSource implements Serializable {
                     } else {
                         backgroundServerList.put(layer.getId(), layer);
                     }
+                    invalidateCoverageIndices();
                 }
                 return layer;
             }
@@ -901,19 +890,22 @@ public class TileLayerSource implements Serializable {
             writableDb.beginTransaction();
             // entries in earlier files will not be overwritten by later ones
             if (newConfig) {
-                // delete old
+                // layers from ELI can't be compared with the bundled configuration
                 TileLayerDatabase.deleteSource(writableDb, TileLayerDatabase.SOURCE_ELI);
-                TileLayerDatabase.deleteSource(writableDb, TileLayerDatabase.SOURCE_JOSM_IMAGERY);
                 TileLayerDatabase.addSource(writableDb, TileLayerDatabase.SOURCE_JOSM_IMAGERY);
             }
+            ImageryImporter importer = new ImageryImporter(ctx, writableDb, TileLayerDatabase.SOURCE_JOSM_IMAGERY, async);
+            boolean complete = true;
             String[] imageryFiles = { Files.FILE_NAME_VESPUCCI_IMAGERY, Files.FILE_NAME_IMAGERY };
             for (String fn : imageryFiles) {
                 try (InputStream is = assetManager.open(Paths.DIRECTORY_PATH_IMAGERY + Paths.DELIMITER + fn)) {
-                    parseImageryFile(ctx, writableDb, TileLayerDatabase.SOURCE_JOSM_IMAGERY, is, async);
+                    importer.read(is);
                 } catch (IOException e) {
                     Log.e(DEBUG_TAG, "reading conf file " + fn + " got " + e.getMessage());
+                    complete = false;
                 }
             }
+            importer.finish(complete);
             writableDb.setTransactionSuccessful();
         } finally {
             writableDb.endTransaction();
@@ -939,14 +931,11 @@ public class TileLayerSource implements Serializable {
             if (lastDatabaseUpdate == 0 || newConfig) {
                 try {
                     writeableDb.beginTransaction();
-                    if (newConfig) {
-                        // delete old
-                        TileLayerDatabase.deleteSource(writeableDb, TileLayerDatabase.SOURCE_CUSTOM);
-                        TileLayerDatabase.addSource(writeableDb, TileLayerDatabase.SOURCE_CUSTOM);
-                    }
+                    ImageryImporter importer = new ImageryImporter(ctx, writeableDb, TileLayerDatabase.SOURCE_CUSTOM, async);
                     try (InputStream is = new FileInputStream(userImageryFile)) {
-                        parseImageryFile(ctx, writeableDb, TileLayerDatabase.SOURCE_CUSTOM, is, async);
+                        importer.read(is);
                     }
+                    importer.finish(true);
                     writeableDb.setTransactionSuccessful();
                 } finally {
                     writeableDb.endTransaction();
@@ -971,17 +960,19 @@ public class TileLayerSource implements Serializable {
         AssetManager assetManager = ctx.getAssets();
         try {
             writeableDb.beginTransaction();
-            // delete old
-            TileLayerDatabase.deleteSource(writeableDb, TileLayerDatabase.SOURCE_ELI);
-            TileLayerDatabase.deleteSource(writeableDb, TileLayerDatabase.SOURCE_JOSM_IMAGERY);
-            // add source back
+            // layers from the other source can't be compared, delete them
+            TileLayerDatabase.deleteSource(writeableDb,
+                    TileLayerDatabase.SOURCE_ELI.equals(source) ? TileLayerDatabase.SOURCE_JOSM_IMAGERY : TileLayerDatabase.SOURCE_ELI);
+            // add source if it doesn't exist
             TileLayerDatabase.addSource(writeableDb, source);
-
+            ImageryImporter importer = new ImageryImporter(ctx, writeableDb, source, true);
+            boolean complete = true;
             // still need to read our base config first
             try (InputStream is = assetManager.open(Paths.DIRECTORY_PATH_IMAGERY + Paths.DELIMITER + Files.FILE_NAME_VESPUCCI_IMAGERY)) {
-                parseImageryFile(ctx, writeableDb, source, is, true);
+                importer.read(is);
             } catch (IOException e) {
                 Log.e(DEBUG_TAG, "reading conf files got " + e.getMessage());
+                complete = false;
             }
 
             Request request = new Request.Builder().url(url).build();
@@ -992,7 +983,8 @@ public class TileLayerSource implements Serializable {
             if (imageryCallResponse.isSuccessful()) {
                 ResponseBody responseBody = imageryCallResponse.body();
                 try (InputStream is = responseBody.byteStream()) {
-                    parseImageryFile(ctx, writeableDb, source, is, true);
+                    importer.read(is);
+                    importer.finish(complete);
                     writeableDb.setTransactionSuccessful();
                     getListsLocked(ctx, writeableDb, true);
                 }
@@ -1043,6 +1035,7 @@ public class TileLayerSource implements Serializable {
             background = TileLayerDatabase.getLayer(ctx, db, LAYER_MAPNIK);
             overlayServerList.put(LAYER_MAPNIK, background);
         }
+        invalidateCoverageIndices();
         Log.d(DEBUG_TAG, "Generating TileLayer lists took " + (System.currentTimeMillis() - start) / 1000);
         setTranslations(ctx);
     }
@@ -1434,7 +1427,9 @@ public class TileLayerSource implements Serializable {
             TileType tileType, @Nullable BoundingBox box) {
         TileLayerSource noneLayer = null;
         List<TileLayerSource> list = new ArrayList<>();
-        for (TileLayerSource osmts : servers.values()) {
+        CoverageIndex index = filtered && box != null ? getCoverageIndex(servers) : null;
+        Collection<TileLayerSource> sources = index != null ? index.query(box) : servers.values();
+        for (TileLayerSource osmts : sources) {
             if (Category.internal.equals(osmts.getCategory())) {
                 // never return internal configs
                 continue;
@@ -1446,7 +1441,7 @@ public class TileLayerSource implements Serializable {
                 if (tileType != null && !tileType.equals(osmts.getTileType())) {
                     continue;
                 }
-                if (box != null && !osmts.covers(box)) {
+                if (index == null && box != null && !osmts.covers(box)) {
                     continue;
                 }
             }
@@ -1487,6 +1482,41 @@ public class TileLayerSource implements Serializable {
         return list;
     }
 
+    /**
+     * Get the, potentially cached, CoverageIndex for one of the server lists
+     * 
+     * @param servers the server list
+     * @return a CoverageIndex or null if servers isn't the background or overlay list
+     */
+    @Nullable
+    private static CoverageIndex getCoverageIndex(@NonNull Map<String, TileLayerSource> servers) {
+        if (servers == backgroundServerList) {
+            CoverageIndex index = backgroundCoverageIndex;
+            if (index == null) {
+                index = new CoverageIndex(servers.values());
+                backgroundCoverageIndex = index;
+            }
+            return index;
+        }
+        if (servers == overlayServerList) {
+            CoverageIndex index = overlayCoverageIndex;
+            if (index == null) {
+                index = new CoverageIndex(servers.values());
+                overlayCoverageIndex = index;
+            }
+            return index;
+        }
+        return null;
+    }
+
+    /**
+     * Drop the CoverageIndexes, they will be rebuilt on the next filtered query
+     */
+    private static void invalidateCoverageIndices() {
+        backgroundCoverageIndex = null;
+        overlayCoverageIndex = null;
+    }
+
     /**
      * Calculate the coverage size in WGS84 degrees^2
      * 
@@ -1988,6 +2018,7 @@ public class TileLayerSource implements Serializable {
                     removeMatchingSource(overlayServerList, p);
                 }
             }
+            invalidateCoverageIndices();
         }
     }
 
@@ -2277,6 +2308,7 @@ public class TileLayerSource implements Serializable {
         if (provider != null) {
             getProviders().add(provider);
         }
+        invalidateCoverageIndices();
     }
 
     /**
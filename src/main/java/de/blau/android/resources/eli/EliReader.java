@@ -0,0 +1,210 @@
+package de.blau.android.resources.eli;
+
+import static de.blau.android.contract.Constants.LOG_TAG_LEN;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.mapbox.geojson.Feature;
+import com.mapbox.geojson.GeometryAdapterFactory;
+
+import android.annotation.SuppressLint;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import de.blau.android.util.Hash;
+import de.blau.android.util.Version;
+
+/**
+ * Streaming reader for ELI and JOSM format imagery configurations
+ * 
+ * Contrary to EliFeatureCollection, features are read and handed over one by one, so the complete configuration is
+ * never held in memory. Each feature comes with a hash of its JSON representation that allows the caller to skip
+ * unchanged entries without converting them.
+ * 
+ * How Polygons with more than one ring are interpreted depends on the format version in the meta object, which may
+ * follow the features. Such features are held back until the end of the input if the version isn't known yet, all
+ * others are handed over immediately.
+ */
+public final class EliReader {
+
+    private static final int    TAG_LEN   = Math.min(LOG_TAG_LEN, EliReader.class.getSimpleName().length());
+    private static final String DEBUG_TAG = EliReader.class.getSimpleName().substring(0, TAG_LEN);
+
+    private static final String NAME_FEATURES    = "features";
+    private static final String NAME_META        = "meta";
+    private static final String NAME_GEOMETRY    = "geometry";
+    private static final String NAME_PROPERTIES  = "properties";
+    private static final String NAME_TYPE        = "type";
+    private static final String NAME_COORDINATES = "coordinates";
+    private static final String NAME_ID          = "id";
+    private static final String TYPE_POLYGON     = "Polygon";
+
+    /**
+     * Callback for the features read
+     */
+    public interface FeatureHandler {
+
+        /**
+         * Check if a feature needs to be converted
+         * 
+         * @param id the id from the properties of the feature or null if it hasn't got one
+         * @param hash the hash of the feature
+         * @return true if handle should be called for the feature
+         */
+        boolean changed(@Nullable String id, @NonNull String hash);
+
+        /**
+         * Process a feature
+         * 
+         * @param feature the Feature
+         * @param hash the hash of the feature
+         * @param fakeMultiPolygon if true Polygon rings are separate outer rings
+         */
+        void handle(@NonNull Feature feature, @NonNull String hash, boolean fakeMultiPolygon);
+    }
+
+    /**
+     * Private constructor to stop instantiation
+     */
+    private EliReader() {
+        // private
+    }
+
+    /**
+     * Read an imagery configuration from an InputStream
+     * 
+     * @param is the InputStream, will not be closed
+     * @param handler the FeatureHandler that processes the features
+     * @throws IOException if reading or parsing failed
+     */
+    @SuppressLint("NewApi") // StandardCharsets is desugared for APIs < 19.
+    public static void read(@NonNull InputStream is, @NonNull FeatureHandler handler) throws IOException {
+        GsonBuilder builder = new GsonBuilder();
+        builder.registerTypeAdapterFactory(EliGeoJsonAdapterFactory.create());
+        builder.registerTypeAdapterFactory(GeometryAdapterFactory.create());
+        Gson gson = builder.create();
+        TypeAdapter<JsonElement> elementAdapter = gson.getAdapter(JsonElement.class);
+
+        JsonReader reader = new JsonReader(new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8)));
+        Meta meta = null;
+        List<JsonObject> deferred = new ArrayList<>();
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                    continue;
+                }
+                switch (name) {
+                case NAME_META:
+                    meta = gson.getAdapter(Meta.class).read(reader);
+                    break;
+                case NAME_FEATURES:
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        JsonElement element = elementAdapter.read(reader);
+                        if (!element.isJsonObject()) {
+                            continue;
+                        }
+                        JsonObject feature = element.getAsJsonObject();
+                        if (meta == null && isMultiRingPolygon(feature)) {
+                            deferred.add(feature);
+                        } else {
+                            process(gson, handler, feature, fakeMultiPolygon(meta));
+                        }
+                    }
+                    reader.endArray();
+                    break;
+                default:
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException | JsonParseException e) {
+            throw new IOException(e.getMessage());
+        }
+        Version formatVersion = meta != null ? meta.formatVersion : null;
+        Log.i(DEBUG_TAG, "Read imagery configuration version " + (formatVersion == null ? "unknown" : formatVersion.toString()));
+        boolean fakeMultiPolygon = fakeMultiPolygon(meta);
+        for (JsonObject feature : deferred) {
+            process(gson, handler, feature, fakeMultiPolygon);
+        }
+    }
+
+    /**
+     * Hash a feature and convert it if necessary
+     * 
+     * @param gson the Gson instance used for converting
+     * @param handler the FeatureHandler
+     * @param feature the JSON representation of the feature
+     * @param fakeMultiPolygon if true Polygon rings are separate outer rings
+     */
+    private static void process(@NonNull Gson gson, @NonNull FeatureHandler handler, @NonNull JsonObject feature, boolean fakeMultiPolygon) {
+        String json = feature.toString();
+        // the interpretation of multi-ring polygons changes with the format version
+        String hash = Hash.sha256(isMultiRingPolygon(feature) ? fakeMultiPolygon + json : json);
+        if (handler.changed(getId(feature), hash)) {
+            handler.handle(gson.fromJson(feature, Feature.class), hash, fakeMultiPolygon);
+        }
+    }
+
+    /**
+     * Determine how Polygons should be interpreted
+     * 
+     * @param meta the Meta object or null
+     * @return true if Polygon rings are separate outer rings
+     */
+    private static boolean fakeMultiPolygon(@Nullable Meta meta) {
+        Version formatVersion = meta != null ? meta.formatVersion : null;
+        return formatVersion == null || !formatVersion.largerThanOrEqual(Eli.VERSION_1_1);
+    }
+
+    /**
+     * Check if the geometry of a feature is a Polygon with more than one ring
+     * 
+     * @param feature the JSON representation of the feature
+     * @return true if the interpretation of the geometry depends on the format version
+     */
+    private static boolean isMultiRingPolygon(@NonNull JsonObject feature) {
+        JsonElement geometry = feature.get(NAME_GEOMETRY);
+        if (geometry == null || !geometry.isJsonObject()) {
+            return false;
+        }
+        JsonObject g = geometry.getAsJsonObject();
+        JsonElement type = g.get(NAME_TYPE);
+        JsonElement coordinates = g.get(NAME_COORDINATES);
+        return type != null && type.isJsonPrimitive() && TYPE_POLYGON.equals(type.getAsString()) && coordinates != null && coordinates.isJsonArray()
+                && coordinates.getAsJsonArray().size() > 1;
+    }
+
+    /**
+     * Get the id of a feature
+     * 
+     * @param feature the JSON representation of the feature
+     * @return the id or null if none is set
+     */
+    @Nullable
+    private static String getId(@NonNull JsonObject feature) {
+        JsonElement properties = feature.get(NAME_PROPERTIES);
+        if (properties == null || !properties.isJsonObject()) {
+            return null;
+        }
+        JsonElement id = properties.getAsJsonObject().get(NAME_ID);
+        return id != null && id.isJsonPrimitive() ? id.getAsString() : null;
+    }
+}
@@ -0,0 +1,385 @@
+package de.blau.android.services;
+
+import static de.blau.android.contract.Constants.LOG_TAG_LEN;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.content.Context;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import de.blau.android.App;
+import de.blau.android.AsyncResult;
+import de.blau.android.ErrorCodes;
+import de.blau.android.osm.BoundingBox;
+import de.blau.android.osm.GeoPoint;
+import de.blau.android.osm.OsmElement;
+import de.blau.android.osm.PostMergeHandler;
+import de.blau.android.osm.Server;
+import de.blau.android.osm.Storage;
+import de.blau.android.osm.StorageDelegator;
+import de.blau.android.prefs.Preferences;
+import de.blau.android.resources.TileLayerSource;
+import de.blau.android.services.util.MapAsyncTileProvider;
+import de.blau.android.services.util.MapTile;
+import de.blau.android.tasks.Task;
+import de.blau.android.tasks.TaskStorage;
+import de.blau.android.tasks.TransferTasks;
+import de.blau.android.util.GeoMath;
+import de.blau.android.validation.Validator;
+import de.blau.android.views.layers.MapTilesLayer;
+import de.blau.android.views.util.MapTileProviderCallback;
+
+/**
+ * Download OSM data, tasks and imagery tiles along a route ahead of time
+ * 
+ * The route, for example a GPX track or the nodes of a way, is covered with cells of the same size and alignment as
+ * the boxes auto-download uses, the cells are processed in route order and downloading stops once the budget has been
+ * used up or the prefetch has been cancelled, so that the start of the route is always complete. The size of OSM data
+ * and tasks is estimated from the number of objects added, imagery tiles are counted with their actual size including
+ * tiles that were already in the tile cache.
+ * 
+ * The OSM data downloaded by the most recent prefetch is protected from being pruned.
+ */
+public class PrefetchPlanner {
+
+    private static final int    TAG_LEN   = Math.min(LOG_TAG_LEN, PrefetchPlanner.class.getSimpleName().length());
+    private static final String DEBUG_TAG = PrefetchPlanner.class.getSimpleName().substring(0, TAG_LEN);
+
+    public static final int DEFAULT_BUDGET_MB = 100;
+
+    static final int MIN_TILE_ZOOM = 15;
+    static final int MAX_TILE_ZOOM = 18;
+
+    /**
+     * Rough average size of an element and a task as downloaded
+     */
+    static final int BYTES_PER_ELEMENT = 150;
+    static final int BYTES_PER_TASK    = 1000;
+
+    private static final long TILE_TIMEOUT = 60; // seconds
+
+    /**
+     * Download and merge the OSM data for a BoundingBox
+     */
+    interface DataLoader {
+        /**
+         * Download the data for box and merge it in to the current storage
+         * 
+         * @param context an Android Context
+         * @param box the BoundingBox
+         * @return an AsyncResult indicating success or failure
+         */
+        @NonNull
+        AsyncResult load(@NonNull Context context, @NonNull BoundingBox box);
+    }
+
+    private final int        radius;
+    private final long       budget;
+    private final DataLoader loader;
+    private final AtomicLong used      = new AtomicLong();
+    private volatile boolean cancelled = false;
+
+    /**
+     * Construct a new planner
+     * 
+     * @param radius the minimum distance in meters from the route that should be covered
+     * @param budget the maximum number of bytes to download
+     */
+    public PrefetchPlanner(int radius, long budget) {
+        this(radius, budget, null);
+    }
+
+    /**
+     * Construct a new planner
+     * 
+     * @param radius the minimum distance in meters from the route that should be covered
+     * @param budget the maximum number of bytes to download
+     * @param loader the DataLoader to use for OSM data, if null data is downloaded from the current API
+     */
+    PrefetchPlanner(int radius, long budget, @Nullable DataLoader loader) {
+        this.radius = radius;
+        this.budget = budget;
+        this.loader = loader;
+    }
+
+    /**
+     * Stop a running prefetch, downloads that are in progress will be completed
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Check if the prefetch has been cancelled
+     * 
+     * @return true if cancel has been called
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Get the cells covering the corridor around a route
+     * 
+     * The cells are 2*radius wide, for each point on the route the 2x2 block of cells closest to it is added, this
+     * guarantees that at least radius meters on each side of the route are covered.
+     * 
+     * @param route the points of the route in order
+     * @return a List of BoundingBox in route order
+     */
+    @NonNull
+    public List<BoundingBox> getCorridor(@NonNull List<? extends GeoPoint> route) {
+        double width = 2 * GeoMath.convertMetersToGeoDistance(radius);
+        Set<Long> cells = new LinkedHashSet<>();
+        GeoPoint prev = null;
+        for (GeoPoint p : route) {
+            double lon = p.getLon() / 1E7D;
+            double mlat = GeoMath.latE7ToMercator(p.getLat());
+            if (prev == null) {
+                addCells(lon, mlat, width, cells);
+            } else {
+                // sample the segment so that no cell it passes through is skipped
+                double prevLon = prev.getLon() / 1E7D;
+                double prevMlat = GeoMath.latE7ToMercator(prev.getLat());
+                int steps = (int) Math.ceil(Math.max(Math.abs(lon - prevLon), Math.abs(mlat - prevMlat)) / (width / 4));
+                for (int i = 1; i <= steps; i++) {
+                    addCells(prevLon + (lon - prevLon) * i / steps, prevMlat + (mlat - prevMlat) * i / steps, width, cells);
+                }
+            }
+            prev = p;
+        }
+        List<BoundingBox> result = new ArrayList<>();
+        for (long cell : cells) {
+            int x = (int) (cell >> 32);
+            int y = (int) cell;
+            int left = (int) (x * width * 1E7);
+            int right = (int) ((x + 1) * width * 1E7);
+            int bottom = (int) (GeoMath.mercatorToLat(y * width) * 1E7);
+            int top = (int) (GeoMath.mercatorToLat((y + 1) * width) * 1E7);
+            result.add(new BoundingBox(left, bottom, right, top));
+        }
+        return result;
+    }
+
+    /**
+     * Add the 2x2 block of cells closest to a point
+     * 
+     * @param lon the longitude
+     * @param mlat the mercator latitude
+     * @param width the cell width in degrees
+     * @param cells the Set of cells to add to
+     */
+    private static void addCells(double lon, double mlat, double width, @NonNull Set<Long> cells) {
+        int x = (int) Math.floor(lon / width - 0.5);
+        int y = (int) Math.floor(mlat / width - 0.5);
+        for (int i = 0; i < 2; i++) {
+            for (int j = 0; j < 2; j++) {
+                cells.add(((long) (x + i) << 32) | ((y + j) & 0xFFFFFFFFL));
+            }
+        }
+    }
+
+    /**
+     * Get the tiles covering a BoundingBox, ordered from low to high zoom
+     * 
+     * @param rendererId the tile source id
+     * @param box the BoundingBox
+     * @param minZoom the minimum zoom level
+     * @param maxZoom the maximum zoom level
+     * @return a List of MapTile
+     */
+    @NonNull
+    public static List<MapTile> getTiles(@NonNull String rendererId, @NonNull BoundingBox box, int minZoom, int maxZoom) {
+        List<MapTile> result = new ArrayList<>();
+        for (int zoom = minZoom; zoom <= maxZoom; zoom++) {
+            final int n = 1 << zoom;
+            int left = MapTilesLayer.tileLeft(box.getLeft(), 0, n);
+            int right = MapTilesLayer.tileRight(box.getRight(), 0, n);
+            int top = MapTilesLayer.tileTop(box.getTop(), 0, n);
+            int bottom = MapTilesLayer.tileBottom(box.getBottom(), 0, n);
+            for (int x = left; x <= right; x++) {
+                for (int y = top; y <= bottom; y++) {
+                    result.add(new MapTile(rendererId, zoom, x, y));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Download everything along the route, this should be run in the background
+     * 
+     * @param context an Android Context
+     * @param route the points of the route in order
+     * @param tasks if true download tasks
+     * @param tileSource the imagery to download or null
+     * @return the number of bytes downloaded
+     */
+    public long prefetch(@NonNull Context context, @NonNull List<? extends GeoPoint> route, boolean tasks, @Nullable TileLayerSource tileSource) {
+        final Preferences prefs = App.getPreferences(context);
+        final Server server = prefs.getServer();
+        final Validator validator = App.getDefaultValidator(context);
+        final PostMergeHandler postMerge = (OsmElement e) -> e.hasProblem(context, validator);
+        final DataLoader dataLoader = loader != null ? loader
+                : (Context ctx, BoundingBox b) -> App.getLogic().download(ctx, server, b, postMerge, null, true, true);
+        // only the data from this prefetch is protected from pruning
+        App.getDelegator().getPruneEngine().unpinAll();
+        boolean data = true;
+        boolean tiles = tileSource != null && !tileSource.isLocalFile();
+        Set<String> tilesSeen = new HashSet<>();
+        for (BoundingBox box : getCorridor(route)) {
+            if (cancelled) {
+                Log.i(DEBUG_TAG, "Cancelled");
+                break;
+            }
+            if (overBudget()) {
+                Log.i(DEBUG_TAG, "Budget used up");
+                break;
+            }
+            data = data && downloadData(context, dataLoader, box);
+            if (tasks) {
+                downloadTasks(context, server, prefs, box);
+            }
+            if (tiles) {
+                tiles = downloadTiles(context, tileSource, box, prefs.getMaxTileDownloadThreads(), tilesSeen);
+            }
+        }
+        return used.get();
+    }
+
+    /**
+     * Download the parts of box that we don't have data for yet
+     * 
+     * @param context an Android Context
+     * @param dataLoader the DataLoader to use
+     * @param box the BoundingBox
+     * @return false if downloading failed and shouldn't be retried
+     */
+    private boolean downloadData(@NonNull Context context, @NonNull DataLoader dataLoader, @NonNull BoundingBox box) {
+        final StorageDelegator delegator = App.getDelegator();
+        for (BoundingBox b : BoundingBox.newBoxes(new ArrayList<>(delegator.getBoundingBoxes()), box)) {
+            if (cancelled || overBudget()) {
+                break;
+            }
+            if (b.getWidth() <= 1 || b.getHeight() <= 1) {
+                continue; // ignore super small bb likely due to rounding errors
+            }
+            delegator.addBoundingBox(b);
+            int before = elementCount(delegator.getCurrentStorage());
+            AsyncResult result = dataLoader.load(context, b);
+            if (result.getCode() != ErrorCodes.OK) {
+                Log.e(DEBUG_TAG, "Data download failed " + result.getCode() + " " + result.getMessage());
+                delegator.deleteBoundingBox(b);
+                return false;
+            }
+            delegator.getPruneEngine().pin(b);
+            used.addAndGet((long) Math.max(0, elementCount(delegator.getCurrentStorage()) - before) * BYTES_PER_ELEMENT);
+        }
+        return true;
+    }
+
+    /**
+     * Get the number of elements in a Storage
+     * 
+     * @param storage the Storage
+     * @return the element count
+     */
+    private static int elementCount(@NonNull Storage storage) {
+        return storage.getNodeCount() + storage.getWayCount() + storage.getRelationCount();
+    }
+
+    /**
+     * Download the tasks for the parts of box that we don't have tasks for yet
+     * 
+     * @param context an Android Context
+     * @param server the current Server
+     * @param prefs the current Preferences
+     * @param box the BoundingBox
+     */
+    private void downloadTasks(@NonNull Context context, @NonNull Server server, @NonNull Preferences prefs, @NonNull BoundingBox box) {
+        final TaskStorage taskStorage = App.getTaskStorage();
+        for (BoundingBox b : BoundingBox.newBoxes(taskStorage.getBoundingBoxes(), box)) {
+            if (cancelled) {
+                break;
+            }
+            if (b.getWidth() <= 1 || b.getHeight() <= 1) {
+                continue;
+            }
+            taskStorage.addBoundingBox(b);
+            Collection<Task> result = TransferTasks.downloadBoxSync(context, server, b, true, taskStorage, prefs.taskFilter(), TransferTasks.MAX_PER_REQUEST);
+            used.addAndGet((long) result.size() * BYTES_PER_TASK);
+        }
+    }
+
+    /**
+     * Load the tiles for box in to the tile cache
+     * 
+     * As the tile provider silently ignores requests for tiles that are already queued we only wait a limited time for
+     * a free slot.
+     * 
+     * @param context an Android Context
+     * @param source the imagery source
+     * @param box the BoundingBox
+     * @param connections the maximum number of concurrent tile downloads
+     * @param tilesSeen ids of the tiles already requested
+     * @return false if downloading was interrupted
+     */
+    private boolean downloadTiles(@NonNull Context context, @NonNull TileLayerSource source, @NonNull BoundingBox box, int connections,
+            @NonNull Set<String> tilesSeen) {
+        final MapAsyncTileProvider provider = App.getMapTileFilesystemProvider(context);
+        final Semaphore slots = new Semaphore(connections);
+        final MapTileProviderCallback callback = new MapTileProviderCallback() {
+
+            @Override
+            public void mapTileLoaded(@NonNull String rendererID, int zoomLevel, int tileX, int tileY, @NonNull byte[] data) throws IOException {
+                used.addAndGet(data.length);
+                slots.release();
+            }
+
+            @Override
+            public void mapTileFailed(@NonNull String rendererID, int zoomLevel, int tileX, int tileY, int reason, @Nullable String message)
+                    throws IOException {
+                slots.release();
+            }
+        };
+        int minZoom = Math.max(source.getMinZoomLevel(), MIN_TILE_ZOOM);
+        int maxZoom = Math.min(source.getMaxZoomLevel(), MAX_TILE_ZOOM);
+        try {
+            for (MapTile tile : getTiles(source.getId(), box, minZoom, maxZoom)) {
+                if (cancelled || overBudget()) {
+                    break;
+                }
+                if (tilesSeen.add(tile.toId()) && slots.tryAcquire(TILE_TIMEOUT, TimeUnit.SECONDS)) {
+                    provider.loadMapTileAsync(tile, callback);
+                }
+            }
+            // wait for outstanding tiles so that they are included in the budget
+            if (slots.tryAcquire(connections, TILE_TIMEOUT, TimeUnit.SECONDS)) {
+                slots.release(connections);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Check if the budget has been used up
+     * 
+     * @return true if nothing more should be downloaded
+     */
+    private boolean overBudget() {
+        return used.get() >= budget;
+    }
+}
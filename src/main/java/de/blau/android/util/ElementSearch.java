@@ -58,11 +58,11 @@ public class ElementSearch {
         Map<String, Double> distancesByNames = new HashMap<>();
         List<Way> ways;
         try {
-            ways = distanceFilter ? delegator.getCurrentStorage().getWays(GeoMath.createBoundingBoxForCoordinates(location, MAX_DISTANCE))
-                    : delegator.getCurrentStorage().getWays();
+            ways = distanceFilter ? delegator.getSnapshot().getWays(GeoMath.createBoundingBoxForCoordinates(location, MAX_DISTANCE))
+                    : delegator.getSnapshot().getWays();
         } catch (OsmException e) {
             Log.e(DEBUG_STREET_TAG, "BoundingBox caclulation failed with " + e.getMessage());
-            ways = delegator.getCurrentStorage().getWays();
+            ways = delegator.getSnapshot().getWays();
         }
         for (Way way : ways) {
             if (way.getTagWithKey(Tags.KEY_HIGHWAY) != null) {
@@ -138,7 +138,7 @@ public class ElementSearch {
         try {
             final BoundingBox box = GeoMath.createBoundingBoxForCoordinates(location, MAX_DISTANCE);
             Log.d(DEBUG_PLACE_TAG, "searching for place ways...");
-            final Storage currentStorage = App.getDelegator().getCurrentStorage();
+            final Storage currentStorage = App.getDelegator().getSnapshot();
             List<Way> ways = distanceFilter ? currentStorage.getWays(box) : currentStorage.getWays();
             List<Node> nodes = distanceFilter ? currentStorage.getNodes(box) : currentStorage.getNodes();
             processElementsForPlace(location, ways, distancesByName);
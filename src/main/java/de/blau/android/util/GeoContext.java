@@ -46,7 +46,7 @@ public class GeoContext {
     private static final String LANGUAGES         = "languages";
     private static final String ADDRESS_KEYS      = "address-keys";
 
-    private final CountryBoundaries countryBoundaries;
+    private final IsoCodeCache isoCodeCache;
 
     /**
      * Wrapper to return country and state values for a location
@@ -148,7 +148,8 @@ public class GeoContext {
     public GeoContext(@NonNull Context context) {
         Log.d(DEBUG_TAG, "Initalizing");
         AssetManager assetManager = context.getAssets();
-        countryBoundaries = getCountryBoundariesFromAssets(assetManager, Files.FILE_NAME_BOUNDARIES);
+        CountryBoundaries countryBoundaries = getCountryBoundariesFromAssets(assetManager, Files.FILE_NAME_BOUNDARIES);
+        isoCodeCache = countryBoundaries != null ? new IsoCodeCache(countryBoundaries) : null;
         properties = getPropertiesMap(assetManager, Files.FILE_NAME_GEOCONTEXT);
     }
 
@@ -300,16 +301,17 @@ public class GeoContext {
      */
     @Nullable
     public List<String> getIsoCodes(double lon, double lat) {
-        if (countryBoundaries == null) {
+        if (isoCodeCache == null) {
             return null;
         }
-        return countryBoundaries.getIds(lon, lat);
+        return isoCodeCache.getIds(lon, lat);
     }
 
     /**
      * Get a list of ISO country codes that this element is in
      * 
-     * Currently this uses a centroid of the object which is probably a bad idea
+     * Currently this uses a centroid of the object which is probably a bad idea, lookups are answered from a spatial
+     * cache if possible
      * 
      * @param e the OsmElement in question
      * @return a List of ISO country codes as Strings, or null if nothing found
@@ -317,7 +319,7 @@ public class GeoContext {
     @Nullable
     public List<String> getIsoCodes(@NonNull OsmElement e) {
         try {
-            if (countryBoundaries == null) {
+            if (isoCodeCache == null) {
                 throw new IllegalArgumentException("countryBoundaries null");
             }
             double lon;
@@ -326,6 +328,14 @@ public class GeoContext {
                 lon = ((Node) e).getLon() / 1E7D;
                 lat = ((Node) e).getLat() / 1E7D;
             } else if (e instanceof Way) {
+                // if the way lies in a single cell we don't need the centroid
+                BoundingBox box = e.getBounds();
+                if (box != null) {
+                    List<String> ids = isoCodeCache.getIds(box.getLeft() / 1E7D, box.getBottom() / 1E7D, box.getRight() / 1E7D, box.getTop() / 1E7D);
+                    if (ids != null) {
+                        return ids;
+                    }
+                }
                 double[] coords = Geometry.centroidLonLat((Way) e);
                 if (coords.length != 2) {
                     throw new IllegalArgumentException("way " + e.getOsmId() + " no coords");
@@ -342,7 +352,7 @@ public class GeoContext {
                     throw new IllegalArgumentException("way " + e.getOsmId() + " no coords");
                 }
             }
-            return countryBoundaries.getIds(lon, lat);
+            return isoCodeCache.getIds(lon, lat);
         } catch (IllegalStateException | IllegalArgumentException ex) {
             Log.e(DEBUG_TAG, ex.getMessage() + " " + e);
             return null;
@@ -0,0 +1,193 @@
+package de.blau.android.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import de.westnordost.countryboundaries.CountryBoundaries;
+
+/**
+ * Spatial cache for CountryBoundaries lookups
+ * 
+ * The world is divided in to one degree cells that are lazily subdivided as a quadtree. A cell that lies completely
+ * inside the same set of territories stores their ISO codes, lookups for locations in such a cell don't require any
+ * polygon tests. Cells that cross a border are subdivided until MAX_DEPTH is reached, lookups in cells below that fall
+ * back to CountryBoundaries.
+ * 
+ * As downloaded data typically lies in one or two territories, nearly all lookups are answered from a small number of
+ * cells.
+ */
+class IsoCodeCache {
+
+    /**
+     * Cells at this depth are 1/64 of a degree in size, roughly 1.7 km at the equator
+     */
+    static final int MAX_DEPTH = 6;
+
+    private static final int COLUMNS = 360;
+    private static final int ROWS    = 180;
+
+    /**
+     * Marker for cells at MAX_DEPTH that cross a border
+     */
+    private static final Object BORDER = new Object();
+
+    /**
+     * Inner node of the quadtree
+     */
+    private static final class Quad {
+        final Object[] children = new Object[4];
+    }
+
+    private final CountryBoundaries boundaries;
+    private final Object[]          cells = new Object[COLUMNS * ROWS];
+
+    private int hits;
+    private int misses;
+
+    /**
+     * Construct a new cache
+     * 
+     * @param boundaries the CountryBoundaries to use
+     */
+    IsoCodeCache(@NonNull CountryBoundaries boundaries) {
+        this.boundaries = boundaries;
+    }
+
+    /**
+     * Get the ISO codes of the territories a location is in
+     * 
+     * @param lon WGS84 longitude of the location
+     * @param lat WGS84 latitude of the location
+     * @return an unmodifiable List of ISO codes
+     */
+    @NonNull
+    synchronized List<String> getIds(double lon, double lat) {
+        Object leaf = getLeaf(lon, lat);
+        if (leaf instanceof List) {
+            hits++;
+            @SuppressWarnings("unchecked")
+            List<String> ids = (List<String>) leaf;
+            return ids;
+        }
+        misses++;
+        return boundaries.getIds(lon, lat);
+    }
+
+    /**
+     * Get the ISO codes for a bounding box if it lies completely inside a cell that is inside the same set of
+     * territories
+     * 
+     * @param left WGS84 longitude of the left edge
+     * @param bottom WGS84 latitude of the bottom edge
+     * @param right WGS84 longitude of the right edge
+     * @param top WGS84 latitude of the top edge
+     * @return an unmodifiable List of ISO codes or null if the box crosses cells or a border
+     */
+    @Nullable
+    synchronized List<String> getIds(double left, double bottom, double right, double top) {
+        Object leaf = getLeaf(left, bottom);
+        if (leaf instanceof List && leaf == getLeaf(right, top)) {
+            hits++;
+            @SuppressWarnings("unchecked")
+            List<String> ids = (List<String>) leaf;
+            return ids;
+        }
+        return null;
+    }
+
+    /**
+     * Find the leaf cell for a location, creating it if necessary
+     * 
+     * @param lon WGS84 longitude of the location
+     * @param lat WGS84 latitude of the location
+     * @return a List of ISO codes if the cell is inside a single set of territories, BORDER otherwise
+     */
+    @NonNull
+    private Object getLeaf(double lon, double lat) {
+        double x = lon + COLUMNS / 2D;
+        double y = lat + ROWS / 2D;
+        if (!(x >= 0 && x < COLUMNS && y >= 0 && y < ROWS)) { // also catches NaN
+            return BORDER;
+        }
+        int column = (int) x;
+        int row = (int) y;
+        int index = row * COLUMNS + column;
+        double left = column - COLUMNS / 2D;
+        double bottom = row - ROWS / 2D;
+        double size = 1D;
+        Object cell = cells[index];
+        if (cell == null) {
+            cell = classify(left, bottom, size, 0);
+            cells[index] = cell;
+        }
+        int depth = 0;
+        while (cell instanceof Quad) {
+            size /= 2;
+            depth++;
+            int quadrant = 0;
+            if (lon >= left + size) {
+                quadrant |= 1;
+                left += size;
+            }
+            if (lat >= bottom + size) {
+                quadrant |= 2;
+                bottom += size;
+            }
+            Object[] children = ((Quad) cell).children;
+            Object child = children[quadrant];
+            if (child == null) {
+                child = classify(left, bottom, size, depth);
+                children[quadrant] = child;
+            }
+            cell = child;
+        }
+        return cell;
+    }
+
+    /**
+     * Determine what a cell contains
+     * 
+     * If every territory that intersects the cell contains it completely, all locations in the cell have the same ISO
+     * codes
+     * 
+     * @param left WGS84 longitude of the left edge
+     * @param bottom WGS84 latitude of the bottom edge
+     * @param size the size of the cell in degrees
+     * @param depth the depth in the quadtree
+     * @return a List of ISO codes, a new Quad or BORDER
+     */
+    @NonNull
+    private Object classify(double left, double bottom, double size, int depth) {
+        double right = left + size;
+        double top = bottom + size;
+        Collection<String> containing = boundaries.getContainingIds(left, bottom, right, top);
+        Collection<String> intersecting = boundaries.getIntersectingIds(left, bottom, right, top);
+        if (containing.size() == intersecting.size()) {
+            // use a lookup for the ordering
+            return Collections.unmodifiableList(new ArrayList<>(boundaries.getIds(left + size / 2, bottom + size / 2)));
+        }
+        return depth < MAX_DEPTH ? new Quad() : BORDER;
+    }
+
+    /**
+     * Get the number of lookups answered from the cache
+     * 
+     * @return the number of hits
+     */
+    synchronized int getHits() {
+        return hits;
+    }
+
+    /**
+     * Get the number of lookups that needed an exact test
+     * 
+     * @return the number of misses
+     */
+    synchronized int getMisses() {
+        return misses;
+    }
+}
@@ -18,6 +18,7 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import de.blau.android.App;
+import de.blau.android.nsi.Names;
 import de.blau.android.nsi.Names.NameAndTags;
 import de.blau.android.nsi.Names.TagMap;
 import de.blau.android.osm.OsmElement.ElementType;
@@ -207,8 +208,8 @@ public final class SearchIndexUtils {
 
         // search in NSI
         if (App.getPreferences(ctx).nameSuggestionPresetsEnabled()) {
-            MultiHashMap<String, NameAndTags> nsi = App.getNameSearchIndex(ctx);
-            Set<String> names = nsi.getKeys();
+            Names nsi = App.getNames(ctx);
+            List<String> names = nsi.getSearchKeys();
             Preset[] presets = App.getCurrentPresets(ctx);
             Preset preset = Preset.dummyInstance();
             for (String name : names) {
@@ -219,7 +220,7 @@ public final class SearchIndexUtils {
                     distance = 0;
                 }
                 if ((distance >= 0 && distance <= maxDistance)) {
-                    Set<NameAndTags> nats = nsi.get(name);
+                    List<NameAndTags> nats = nsi.getByNormalizedName(name);
                     for (NameAndTags nat : nats) {
                         if (nat.inUseIn(regions)) {
                             TagMap tags = nat.getTags();
@@ -347,14 +348,23 @@ public final class SearchIndexUtils {
      */
     @Nullable
     public static NameAndTags searchInNames(@NonNull Context ctx, @NonNull String name, int maxDistance) {
-        MultiHashMap<String, NameAndTags> namesSearchIndex = App.getNameSearchIndex(ctx);
+        Names names = App.getNames(ctx);
         NameAndTags result = null;
         int lastDistance = Integer.MAX_VALUE;
         name = normalize(name);
-        for (String key : namesSearchIndex.getKeys()) {
+        // exact matches don't require scanning all names
+        for (NameAndTags nt : names.getByNormalizedName(name)) {
+            if (result == null || nt.getCount() > result.getCount()) {
+                result = nt;
+            }
+        }
+        if (result != null) {
+            return result;
+        }
+        for (String key : names.getSearchKeys()) {
             int distance = OptimalStringAlignment.editDistance(key, name, maxDistance);
             if (distance >= 0 && distance <= maxDistance && distance < lastDistance) {
-                Set<NameAndTags> list = namesSearchIndex.get(key);
+                List<NameAndTags> list = names.getByNormalizedName(key);
                 for (NameAndTags nt : list) {
                     if (result == null || nt.getCount() > result.getCount()) {
                         result = nt;
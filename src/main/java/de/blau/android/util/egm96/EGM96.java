@@ -5,13 +5,17 @@
 
 package de.blau.android.util.egm96;
 
+import static de.blau.android.contract.Constants.LOG_TAG_LEN;
+
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.ByteBuffer;
+import java.io.RandomAccessFile;
 import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 
+import android.util.Log;
 import androidx.annotation.NonNull;
 
 /**
@@ -22,6 +26,9 @@ import androidx.annotation.NonNull;
  * values. Each row corresponding to a latitude, with the first row corresponding to +90 degrees (90 North). The integer
  * values must be in centimeters.
  * <p>
+ * The file is memory mapped read only on the first call of getOffset, the corner values of recently used grid cells
+ * are cached as consecutive positions from a GPS track will nearly always be in the same cell.
+ * <p>
  * Once constructed, the instance can be passed to
  * {@link gov.nasa.worldwind.globes.EllipsoidalGlobe#applyEGMA96Offsets(String)} to apply the offsets to elevations
  * produced by the globe.
@@ -30,7 +37,17 @@ import androidx.annotation.NonNull;
  * @version $Id: EGM96.java 770 2012-09-13 02:48:23Z tgaskins $
  */
 public class EGM96 {
+    private static final int    TAG_LEN   = Math.min(LOG_TAG_LEN, EGM96.class.getSimpleName().length());
+    private static final String DEBUG_TAG = EGM96.class.getSimpleName().substring(0, TAG_LEN);
+
+    private static final int CACHE_SIZE = 16; // must be a power of 2
+
+    private final File  egm;
     private ShortBuffer deltas;
+    private boolean     loadFailed = false;
+
+    private final int[]    cellKeys   = new int[CACHE_SIZE];
+    private final double[] cellValues = new double[CACHE_SIZE * 4];
 
     /**
      * Construct a new instance using a file with the EGM96 data specified by a file system path
@@ -39,32 +56,29 @@ public class EGM96 {
      * @throws IOException if the file can't be found or read
      */
     public EGM96(@NonNull String path) throws IOException {
-        loadOffsetFile(path);
+        egm = new File(path);
+        if (!egm.isFile() || !egm.canRead()) {
+            throw new FileNotFoundException("File " + path + " not found or not readable");
+        }
+        Arrays.fill(cellKeys, -1);
     }
 
     /**
-     * Load the offset file give its path
+     * Map the offset file if that hasn't happened yet
      * 
-     * @param path the path
-     * @throws IOException if the file can't be read
+     * @return true if the offsets are available
      */
-    private void loadOffsetFile(@NonNull String path) throws IOException {
-        File egm = new File(path);
-        int length = (int) egm.length(); // the file is 2MB large
-        byte[] temp = new byte[length];
-        try (InputStream is = new FileInputStream(path)) {
-            int read = 0;
-            int available = is.available();
-            while (available > 0) {
-                read += is.read(temp, read, available);
-                available = is.available();
+    private boolean load() {
+        if (deltas == null && !loadFailed) {
+            try (RandomAccessFile file = new RandomAccessFile(egm, "r"); FileChannel channel = file.getChannel()) {
+                // the mapping stays valid after the channel has been closed
+                deltas = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).asShortBuffer();
+            } catch (IOException e) {
+                Log.e(DEBUG_TAG, "Mapping " + egm.getPath() + " failed " + e.getMessage());
+                loadFailed = true;
             }
-            if (read != length) {
-                throw new IOException("File " + path + " not completely read");
-            }
-            ByteBuffer byteBuffer = ByteBuffer.wrap(temp);
-            deltas = ((ByteBuffer) (byteBuffer.rewind())).asShortBuffer(); // NOSONAR not compilable without cast
         }
+        return deltas != null;
     }
 
     // Description of the EGMA96 offsets file:
@@ -91,11 +105,11 @@ public class EGM96 {
      * @param lon WGS84 longitude
      * @return the offset in meters
      */
-    public double getOffset(double lat, double lon) {
+    public synchronized double getOffset(double lat, double lon) {
 
         // Return 0 for all offsets if the file failed to load. A log message of the failure will have been generated
         // by the load method.
-        if (this.deltas == null) {
+        if (!load()) {
             return 0;
         }
 
@@ -121,10 +135,21 @@ public class EGM96 {
         double lonLeft = leftCol * INTERVAL;
 
         try {
-            double ul = this.gePostOffset(topRow, leftCol);
-            double ll = this.gePostOffset(bottomRow, leftCol);
-            double lr = this.gePostOffset(bottomRow, rightCol);
-            double ur = this.gePostOffset(topRow, rightCol);
+            int key = topRow * NUM_COLS + leftCol;
+            int slot = (topRow * 31 + leftCol) & (CACHE_SIZE - 1);
+            int base = slot * 4;
+            if (cellKeys[slot] != key) {
+                cellKeys[slot] = -1; // invalid until all values have been retrieved
+                cellValues[base] = this.gePostOffset(topRow, leftCol);
+                cellValues[base + 1] = this.gePostOffset(bottomRow, leftCol);
+                cellValues[base + 2] = this.gePostOffset(bottomRow, rightCol);
+                cellValues[base + 3] = this.gePostOffset(topRow, rightCol);
+                cellKeys[slot] = key;
+            }
+            double ul = cellValues[base];
+            double ll = cellValues[base + 1];
+            double lr = cellValues[base + 2];
+            double ur = cellValues[base + 3];
 
             double u = (lon - lonLeft) / INTERVAL;
             double v = (lat - latBottom) / INTERVAL;
@@ -151,7 +176,7 @@ public class EGM96 {
      */
     private double gePostOffset(int row, int col) {
         int k = row * NUM_COLS + col;
-        if (k >= this.deltas.limit()) {
+        if (k < 0 || k >= this.deltas.limit()) {
             throw new IllegalArgumentException("row " + row + " col " + col + " out of range");
         }
         return this.deltas.get(k);
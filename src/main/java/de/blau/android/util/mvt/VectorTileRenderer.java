@@ -3,12 +3,18 @@ package de.blau.android.util.mvt;
 import static de.blau.android.contract.Constants.LOG_TAG_LEN;
 
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.locks.ReentrantLock;
 
 import com.google.gson.JsonArray;
 import com.mapbox.geojson.CoordinateContainer;
@@ -16,14 +22,17 @@ import com.mapbox.geojson.Geometry;
 import com.mapbox.geojson.GeometryCollection;
 import com.mapbox.geojson.Point;
 
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Picture;
 import android.graphics.Rect;
 import android.util.Log;
+import android.util.LruCache;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import de.blau.android.util.GeoJSONConstants;
+import de.blau.android.util.Util;
 import de.blau.android.util.mvt.style.Background;
 import de.blau.android.util.mvt.style.Fill;
 import de.blau.android.util.mvt.style.Layer;
@@ -36,6 +45,9 @@ import de.blau.android.views.util.MapTileProvider.TileDecoder;
 /**
  * Very simple Mapbox Vector Tile renderer
  * 
+ * Optionally everything but symbols can be rasterised per tile to a bitmap on a background thread, the bitmaps are
+ * cached and only re-rendered if the style or the integer zoom level changes. Until a bitmap is available the tile is
+ * rendered directly or a stale bitmap is used.
  * 
  * @author Simon Poole
  *
@@ -63,13 +75,143 @@ public class VectorTileRenderer implements MapTilesLayer.TileRenderer<Map<String
     private Canvas  symbolCanvas;
     private boolean renderPass;
 
+    /**
+     * Rasterising support
+     */
+    private static final int MAX_RASTER_SIZE = 1024; // px, larger tiles are rendered directly
+
+    private boolean                         rasterize       = false;
+    private Runnable                        onRasterized;
+    private volatile int                    styleGeneration = 0;
+    private final ReentrantLock             renderLock      = new ReentrantLock(); // layers hold rendering state
+    private final LruCache<TileKey, Raster> rasterCache;
+    private final Set<TileKey>              pendingRasters  = Collections.synchronizedSet(new HashSet<>());
+    private ThreadPoolExecutor              rasterExecutor;
+
+    /**
+     * Key for the raster cache, uses the identity of the decoded tile without keeping it from being garbage collected
+     */
+    private static final class TileKey {
+        private final WeakReference<Map<String, List<VectorTileDecoder.Feature>>> tile;
+        private final int                                                         hash;
+
+        /**
+         * Construct a new key
+         * 
+         * @param tile the decoded tile
+         */
+        TileKey(@NonNull Map<String, List<VectorTileDecoder.Feature>> tile) {
+            this.tile = new WeakReference<>(tile);
+            hash = System.identityHashCode(tile);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof TileKey)) {
+                return false;
+            }
+            Object referent = tile.get();
+            return referent != null && referent == ((TileKey) obj).tile.get();
+        }
+    }
+
+    /**
+     * A rasterised tile
+     */
+    private static final class Raster {
+        final Bitmap bitmap;
+        final int    zoom;
+        final int    styleGeneration;
+
+        /**
+         * Construct a new instance
+         * 
+         * @param bitmap the rendered tile
+         * @param zoom the zoom level it was rendered for
+         * @param styleGeneration the style generation it was rendered with
+         */
+        Raster(@NonNull Bitmap bitmap, int zoom, int styleGeneration) {
+            this.bitmap = bitmap;
+            this.zoom = zoom;
+            this.styleGeneration = styleGeneration;
+        }
+    }
+
     /**
      * Create a new instance
      */
     public VectorTileRenderer() {
+        rasterCache = new LruCache<TileKey, Raster>((int) Math.min(Runtime.getRuntime().maxMemory() / 16, 32L * 1024 * 1024)) {
+            @Override
+            protected int sizeOf(TileKey key, Raster value) {
+                return value.bitmap.getByteCount();
+            }
+        };
         resetStyle();
     }
 
+    /**
+     * Turn rasterising of tiles on or off
+     * 
+     * @param rasterize if true render tiles to bitmaps in the background
+     * @param onRasterized called when a tile has been rasterised, typically to invalidate the view
+     */
+    public synchronized void setRasterize(boolean rasterize, @Nullable Runnable onRasterized) {
+        this.rasterize = rasterize;
+        this.onRasterized = onRasterized;
+        if (rasterize && rasterExecutor == null) {
+            rasterExecutor = (ThreadPoolExecutor) Executors.newFixedThreadPool(1);
+        } else if (!rasterize) {
+            shutdownRasterizer();
+        }
+    }
+
+    /**
+     * Check if tiles are rasterised
+     * 
+     * @return true if tiles are rendered to bitmaps in the background
+     */
+    public boolean isRasterizing() {
+        return rasterize;
+    }
+
+    /**
+     * Indicate that the style has been changed and any rasterised tiles need to be re-rendered
+     */
+    public void styleChanged() {
+        styleGeneration++; // NOSONAR only written on the UI thread
+    }
+
+    /**
+     * Stop the background rasteriser and free the cached bitmaps
+     */
+    private synchronized void shutdownRasterizer() {
+        if (rasterExecutor != null) {
+            Util.shutDownThreadPool(rasterExecutor);
+            rasterExecutor = null;
+        }
+        pendingRasters.clear();
+        rasterCache.evictAll();
+    }
+
+    @Override
+    public void onLowMemory() {
+        rasterCache.evictAll();
+    }
+
+    @Override
+    public void onDestroy() {
+        shutdownRasterizer();
+    }
+
     /**
      * Set the style for the renderer
      * 
@@ -78,6 +220,7 @@ public class VectorTileRenderer implements MapTilesLayer.TileRenderer<Map<String
     public void setStyle(@NonNull Style style) {
         this.style = style;
         lastZoom = -1;
+        styleChanged();
     }
 
     /**
@@ -166,40 +309,200 @@ public class VectorTileRenderer implements MapTilesLayer.TileRenderer<Map<String
             layerToRender.addAll(temp);
         }
 
-        for (Layer layer : layerToRender) {
-            if (layer.isVisible() && z >= layer.getMinZoom() && (layer.getMaxZoom() == -1 || z <= layer.getMaxZoom())) {
-                if (layer instanceof Background) {
-                    if (z != lastZoom) {
-                        layer.onZoomChange(style, null, z);
+        boolean renderDirectly = true;
+        boolean locked = false;
+        if (rasterize) {
+            renderDirectly = !drawRaster(c, features, z, destinationRect, paint);
+            if (renderDirectly) {
+                // no raster, not even a stale one, wait for the rasteriser to finish its current tile and draw this one
+                // directly, otherwise it would be blank till it has been rasterised
+                renderLock.lock();
+                locked = true;
+            }
+        }
+        try {
+            for (Layer layer : layerToRender) {
+                if (layer.isVisible() && z >= layer.getMinZoom() && (layer.getMaxZoom() == -1 || z <= layer.getMaxZoom())) {
+                    if (layer instanceof Background) {
+                        if (renderDirectly) {
+                            if (z != lastZoom) {
+                                layer.onZoomChange(style, null, z);
+                            }
+                            layer.render(c, style, null, z, screenRect, destinationRect, scaleX, scaleX);
+                        }
+                        continue;
+                    }
+                    if (!renderDirectly && !(layer instanceof Symbol)) {
+                        continue;
+                    }
+                    // feature rendering
+                    List<VectorTileDecoder.Feature> list = features.get(layer.getSourceLayer());
+                    if (list != null) {
+                        JsonArray filter = layer.getFilter();
+                        featuresToRender.clear();
+                        for (VectorTileDecoder.Feature feature : list) {
+                            if (intersectsScreen(feature) && (filter == null || layer.evaluateFilter(filter, feature))) {
+                                featuresToRender.add(feature);
+                            }
+                        }
+                        // FIXME sort here when implemented
+                        if (layer instanceof Symbol) {
+                            // labels and icons are not clipped at tile boundaries, further to avoid covering them if
+                            // they do exceed tile boundaries, we record to symbolCanvas and then draw all of them when
+                            // everything else has been done
+                            renderFeatures(symbolCanvas, layer, z, destinationRect, featuresToRender);
+                        } else {
+                            c.save();
+                            c.clipRect(destinationRect);
+                            renderFeatures(c, layer, z, destinationRect, featuresToRender);
+                            c.restore();
+                        }
+                    }
+                }
+            }
+        } finally {
+            if (locked) {
+                renderLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Draw a rasterised version of the tile if available and schedule rasterising if necessary
+     * 
+     * @param c the Canvas
+     * @param features the decoded tile
+     * @param z current zoom level
+     * @param destinationRect destination rect on screen
+     * @param paint Paint to use for drawing the bitmap
+     * @return true if a bitmap was drawn
+     */
+    private boolean drawRaster(@NonNull Canvas c, @NonNull Map<String, List<VectorTileDecoder.Feature>> features, int z, @NonNull Rect destinationRect,
+            @NonNull Paint paint) {
+        int width = destinationRect.width();
+        int height = destinationRect.height();
+        if (width > MAX_RASTER_SIZE || height > MAX_RASTER_SIZE || width <= 0 || height <= 0) {
+            return false;
+        }
+        TileKey key = new TileKey(features);
+        Raster raster = rasterCache.get(key);
+        if (!isCurrent(raster, z)) {
+            requestRaster(key, features, z, width, height);
+        }
+        if (raster != null) { // possibly stale, but better than nothing till the new one is ready
+            c.drawBitmap(raster.bitmap, null, destinationRect, paint);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Check if a Raster is up to date
+     * 
+     * @param raster the Raster or null
+     * @param z the current zoom level
+     * @return true if raster is not null and was rendered for z with the current style
+     */
+    private boolean isCurrent(@Nullable Raster raster, int z) {
+        return raster != null && raster.zoom == z && raster.styleGeneration == styleGeneration;
+    }
+
+    /**
+     * Check if an up to date rasterised version of a tile is cached
+     * 
+     * @param features the decoded tile
+     * @param z the zoom level
+     * @return true if a current raster is available
+     */
+    boolean hasRaster(@NonNull Map<String, List<VectorTileDecoder.Feature>> features, int z) {
+        return isCurrent(rasterCache.get(new TileKey(features)), z);
+    }
+
+    /**
+     * Queue a tile for rasterising if it isn't already
+     * 
+     * @param key the key for the tile
+     * @param features the decoded tile
+     * @param z the zoom level to render for
+     * @param width width of the bitmap
+     * @param height height of the bitmap
+     */
+    private synchronized void requestRaster(@NonNull TileKey key, @NonNull Map<String, List<VectorTileDecoder.Feature>> features, int z, int width,
+            int height) {
+        if (rasterExecutor == null || !pendingRasters.add(key)) {
+            return;
+        }
+        final int generation = styleGeneration;
+        try {
+            rasterExecutor.execute(() -> {
+                try {
+                    Bitmap bitmap = rasterizeTile(features, z, width, height);
+                    if (generation == styleGeneration) {
+                        rasterCache.put(key, new Raster(bitmap, z, generation));
                     }
-                    layer.render(c, style, null, z, screenRect, destinationRect, scaleX, scaleX);
+                } catch (OutOfMemoryError oom) {
+                    Log.e(DEBUG_TAG, "rasterizing tile got " + oom.getMessage());
+                    rasterCache.evictAll();
+                } finally {
+                    pendingRasters.remove(key);
+                }
+                Runnable callback = onRasterized;
+                if (callback != null) {
+                    callback.run();
+                }
+            });
+        } catch (RejectedExecutionException rjee) {
+            pendingRasters.remove(key);
+            Log.e(DEBUG_TAG, "rasterizing rejected " + rjee.getMessage());
+        }
+    }
+
+    /**
+     * Render everything but symbols to a bitmap
+     * 
+     * @param features the decoded tile
+     * @param z the zoom level to render for
+     * @param width width of the bitmap
+     * @param height height of the bitmap
+     * @return a Bitmap
+     */
+    @NonNull
+    private Bitmap rasterizeTile(@NonNull Map<String, List<VectorTileDecoder.Feature>> features, int z, int width, int height) {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        Rect rect = new Rect(0, 0, width, height);
+        float scale = width / 256f;
+        List<Layer> layers;
+        List<Layer> temp = style.getLayers();
+        synchronized (temp) { // protect against CME
+            layers = new ArrayList<>(temp);
+        }
+        renderLock.lock();
+        try {
+            for (Layer layer : layers) {
+                if (layer instanceof Symbol || !layer.isVisible() || z < layer.getMinZoom() || (layer.getMaxZoom() != -1 && z > layer.getMaxZoom())) {
+                    continue;
+                }
+                if (layer instanceof Background) {
+                    layer.onZoomChange(style, null, z);
+                    layer.render(canvas, style, null, z, rect, rect, scale, scale);
                     continue;
                 }
-                // feature rendering
                 List<VectorTileDecoder.Feature> list = features.get(layer.getSourceLayer());
                 if (list != null) {
                     JsonArray filter = layer.getFilter();
-                    featuresToRender.clear();
                     for (VectorTileDecoder.Feature feature : list) {
-                        if (intersectsScreen(feature) && (filter == null || layer.evaluateFilter(filter, feature))) {
-                            featuresToRender.add(feature);
+                        if (filter == null || layer.evaluateFilter(filter, feature)) {
+                            layer.onZoomChange(style, feature, z);
+                            layer.render(canvas, style, feature, z, rect, rect, scale, scale);
                         }
                     }
-                    // FIXME sort here when implemented
-                    if (layer instanceof Symbol) {
-                        // labels and icons are not clipped at tile boundaries, further to avoid covering them if they
-                        // do exceed tile boundaries, we record to symbolCanvas and then draw all of them when
-                        // everything else has been done
-                        renderFeatures(symbolCanvas, layer, z, destinationRect, featuresToRender);
-                    } else {
-                        c.save();
-                        c.clipRect(destinationRect);
-                        renderFeatures(c, layer, z, destinationRect, featuresToRender);
-                        c.restore();
-                    }
                 }
             }
+        } finally {
+            renderLock.unlock();
         }
+        return bitmap;
     }
 
     /**
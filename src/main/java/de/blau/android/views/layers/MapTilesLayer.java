@@ -174,6 +174,20 @@ public class MapTilesLayer<T> extends MapViewLayer implements ExtentInterface, L
         default void postRender(@NonNull Canvas c, int z) {
             // do nothing
         }
+
+        /**
+         * Release any memory that can be recreated
+         */
+        default void onLowMemory() {
+            // do nothing
+        }
+
+        /**
+         * Release all resources
+         */
+        default void onDestroy() {
+            // do nothing
+        }
     }
 
     public static class BitmapTileRenderer implements TileRenderer<Bitmap> {
@@ -282,6 +296,7 @@ public class MapTilesLayer<T> extends MapViewLayer implements ExtentInterface, L
     public void onDestroy() {
         super.onDestroy();
         mTileProvider.clear();
+        mTileRenderer.onDestroy();
     }
 
     /**
@@ -292,6 +307,7 @@ public class MapTilesLayer<T> extends MapViewLayer implements ExtentInterface, L
         super.onLowMemory();
         // The tile provider with its cache consumes the most memory.
         mTileProvider.onLowMemory();
+        mTileRenderer.onLowMemory();
     }
 
     /**
@@ -19,7 +19,9 @@ import androidx.test.filters.LargeTest;
 import de.blau.android.osm.Node;
 import de.blau.android.osm.OsmElement;
 import de.blau.android.osm.Result;
+import de.blau.android.osm.StorageDelegator;
 import de.blau.android.osm.Way;
+import de.blau.android.util.Geometry;
 import de.blau.android.util.Util;
 
 @Config(shadows = { ShadowWorkManager.class }, sdk = 33)
@@ -127,4 +129,59 @@ public class LogicTest {
         }
         return result;
     }
+
+    /**
+     * Check that hit testing finds all ways a brute force search finds and report the tap latency
+     */
+    @Test
+    public void tapLatency() {
+        StorageDelegator d = UnitTestUtils.loadTestData(getClass(), "test2.osm");
+        main.zoomTo(new ArrayList<>(d.getCurrentStorage().getWays()));
+        Logic logic = App.getLogic();
+        Map map = main.getMap();
+        final float tolerance = map.getDataStyle().getCurrent().getWayToleranceValue() / 2;
+        final int step = 10;
+        List<Way> ways = d.getCurrentStorage().getWays(map.getViewBox());
+        int taps = 0;
+        long total = 0;
+        for (int x = 0; x < map.getWidth(); x += step) {
+            for (int y = 0; y < map.getHeight(); y += step) {
+                long start = System.nanoTime();
+                logic.getClickedNodesAndWays(x, y);
+                total += System.nanoTime() - start;
+                taps++;
+                List<Way> clicked = logic.getClickedWays(true, x, y);
+                for (Way w : ways) {
+                    if (onWay(logic, w, tolerance, x, y)) {
+                        assertTrue(clicked.contains(w));
+                    }
+                }
+            }
+        }
+        assertTrue(taps > 0);
+        System.out.println("Average tap latency " + (total / taps / 1000) + " us for " + taps + " taps"); // NOSONAR
+    }
+
+    /**
+     * Check if a screen position is in tolerance of a way
+     * 
+     * @param logic the current Logic instance
+     * @param way the Way
+     * @param tolerance the tolerance in pixels
+     * @param x screen x
+     * @param y screen y
+     * @return true if the position is within tolerance of one of the segments
+     */
+    private boolean onWay(@NonNull Logic logic, @NonNull Way way, float tolerance, float x, float y) {
+        List<Node> nodes = way.getNodes();
+        for (int i = 0; i < nodes.size() - 1; i++) {
+            Node n1 = nodes.get(i);
+            Node n2 = nodes.get(i + 1);
+            if (Geometry.isPositionOnLine(tolerance, x, y, logic.lonE7ToX(n1.getLon()), logic.latE7ToY(n1.getLat()), logic.lonE7ToX(n2.getLon()),
+                    logic.latE7ToY(n2.getLat())) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
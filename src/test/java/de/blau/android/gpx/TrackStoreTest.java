@@ -0,0 +1,316 @@
+package de.blau.android.gpx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import androidx.annotation.NonNull;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.filters.LargeTest;
+import de.blau.android.osm.BoundingBox;
+import de.blau.android.osm.ViewBox;
+import de.blau.android.util.GeoMath;
+import de.blau.android.util.collections.FloatPrimitiveList;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+@LargeTest
+public class TrackStoreTest {
+
+    private static final int POINTS = 10 * TrackStore.CHUNK_SIZE + 17;
+
+    private static final int LARGE_TRACK_POINTS = 200000;
+    private static final int SCREEN_WIDTH       = 1080;
+    private static final int SCREEN_HEIGHT      = 1920;
+
+    private File file;
+
+    /**
+     * Pre-test setup
+     */
+    @Before
+    public void setup() {
+        file = new File(ApplicationProvider.getApplicationContext().getFilesDir(), "test-chunks.dat");
+        file.delete(); // NOSONAR
+    }
+
+    /**
+     * Post-test teardown
+     */
+    @After
+    public void teardown() {
+        file.delete(); // NOSONAR
+    }
+
+    /**
+     * Store and retrieve points in memory
+     */
+    @Test
+    public void roundTrip() {
+        List<TrackPoint> points = createPoints();
+        TrackStore store = new TrackStore();
+        store.addAll(points);
+        assertEquals(POINTS, store.size());
+        assertEquals(POINTS - POINTS % TrackStore.CHUNK_SIZE, store.getSealedSize());
+        compare(points, store);
+        // random access
+        for (int i = POINTS - 1; i >= 0; i -= 97) {
+            compare(points.get(i), store.get(i));
+        }
+    }
+
+    /**
+     * Check that only chunks in the BoundingBox are returned and that they are connected to the previous point
+     */
+    @Test
+    public void viewportQuery() {
+        List<TrackPoint> points = createPoints();
+        TrackStore store = new TrackStore();
+        store.addAll(points);
+        BoundingBox bounds = store.getBounds();
+        assertNotNull(bounds);
+        assertEquals(1, store.getTrackPoints(bounds).size());
+        assertEquals(POINTS, store.getTrackPoints(bounds).get(0).size());
+
+        // a box around the points 1000 to 1010 (chunk 3)
+        TrackPoint p = points.get(1005);
+        BoundingBox box = new BoundingBox(p.getLongitude() - 0.00005, p.getLatitude() - 0.00005, p.getLongitude() + 0.00005, p.getLatitude() + 0.00005);
+        List<List<TrackPoint>> runs = store.getTrackPoints(box);
+        assertEquals(2, runs.size()); // chunk 3 plus the unsealed tail
+        List<TrackPoint> run = runs.get(0);
+        assertEquals(TrackStore.CHUNK_SIZE + 1, run.size());
+        compare(points.get(3 * TrackStore.CHUNK_SIZE - 1), run.get(0));
+        compare(points.get(4 * TrackStore.CHUNK_SIZE - 1), run.get(TrackStore.CHUNK_SIZE));
+        assertEquals(POINTS % TrackStore.CHUNK_SIZE + 1, runs.get(1).size());
+    }
+
+    /**
+     * Seal chunks to a file, reopen it and append more
+     */
+    @Test
+    public void fileBacked() {
+        List<TrackPoint> points = createPoints();
+        try {
+            TrackStore store = new TrackStore(file);
+            assertEquals(0, store.open());
+            store.addAll(points.subList(0, 1000));
+            assertTrue(store.seal());
+            assertEquals(3 * TrackStore.CHUNK_SIZE, store.getSealedSize());
+            assertEquals(1000 - 3 * TrackStore.CHUNK_SIZE, store.getUnsealed().size());
+
+            // reopen and add the rest, tail has to be supplied by the caller
+            store = new TrackStore(file);
+            assertEquals(3 * TrackStore.CHUNK_SIZE, store.open());
+            store.addUnsealed(new ArrayList<>(points.subList(3 * TrackStore.CHUNK_SIZE, 1000)));
+            store.addAll(points.subList(1000, POINTS));
+            assertTrue(store.seal());
+            assertFalse(store.seal());
+            compare(points, store);
+
+            // a partially written chunk is removed
+            long length = file.length();
+            try (FileOutputStream out = new FileOutputStream(file, true)) {
+                out.write(new byte[] { 0, 0, 0, 100, 0, 0, 1, 0 });
+            }
+            store = new TrackStore(file);
+            assertEquals(10 * TrackStore.CHUNK_SIZE, store.open());
+            assertEquals(length, file.length());
+            compare(points.subList(0, 10 * TrackStore.CHUNK_SIZE), store);
+
+            store.clear();
+            assertEquals(0, store.size());
+            assertEquals(0, new TrackStore(file).open());
+        } catch (IOException e) {
+            throw new AssertionError(e.getMessage());
+        }
+    }
+
+    /**
+     * Compare rendering a large track with and without simplification and check that the simplified version stays
+     * within the tolerance
+     */
+    @Test
+    public void simplifiedRendering() {
+        Random random = new Random(4711);
+        List<TrackPoint> points = new ArrayList<>(LARGE_TRACK_POINTS);
+        double lat = 47.3976;
+        double lon = 8.5384;
+        long time = 1700000000000L;
+        double heading = 0;
+        for (int i = 0; i < LARGE_TRACK_POINTS; i++) {
+            heading += random.nextGaussian() * 0.2;
+            lat += Math.cos(heading) * 0.00004 + random.nextGaussian() * 0.000005;
+            lon += Math.sin(heading) * 0.00006 + random.nextGaussian() * 0.000005;
+            time += 1000;
+            points.add(new TrackPoint(i % 50000 == 0 ? TrackPoint.FLAG_NEWSEGMENT : 0, lat, lon, time));
+        }
+        TrackStore store = new TrackStore();
+        store.addAll(points);
+        BoundingBox bounds = store.getBounds();
+        assertNotNull(bounds);
+        ViewBox viewBox = new ViewBox(bounds);
+        float tolerance = 0.5f * viewBox.getWidth() / SCREEN_WIDTH;
+        assertTrue(tolerance >= TrackStore.MIN_TOLERANCE);
+
+        FloatPrimitiveList linePoints = new FloatPrimitiveList();
+        long start = System.nanoTime();
+        int fullCount = project(store.getTrackPoints(viewBox), viewBox, linePoints);
+        long fullTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        List<List<TrackPoint>> runs = store.getTrackPoints(viewBox, tolerance);
+        int simplifiedCount = project(runs, viewBox, linePoints);
+        long simplifiedTime = System.nanoTime() - start;
+        System.out.println("Track points " + LARGE_TRACK_POINTS + " full " + fullCount + " in " + fullTime / 1000000 + " ms, simplified " + simplifiedCount
+                + " in " + simplifiedTime / 1000000 + " ms");
+        assertEquals(LARGE_TRACK_POINTS, fullCount);
+        assertTrue(simplifiedCount < fullCount / 10);
+        assertEquals(1, runs.size());
+
+        // every point has to be within the tolerance of the simplified line
+        List<TrackPoint> run = runs.get(0);
+        int k = 0;
+        for (TrackPoint p : points) {
+            while (k < run.size() - 1 && run.get(k + 1).time <= p.time) {
+                k++;
+            }
+            if (p.isNewSegment()) {
+                assertEquals(p.time, run.get(k).time);
+            }
+            if (run.get(k).time == p.time) {
+                continue;
+            }
+            TrackPoint a = run.get(k);
+            TrackPoint b = run.get(k + 1);
+            double yScale = 1 / Math.cos(Math.toRadians(p.latitude));
+            double d = distanceToSegment(p.longitude * 1E7, p.latitude * 1E7 * yScale, a.longitude * 1E7, a.latitude * 1E7 * yScale, b.longitude * 1E7,
+                    b.latitude * 1E7 * yScale);
+            assertTrue(d <= tolerance * 1.01);
+        }
+
+        // small tolerances return the full track
+        assertEquals(LARGE_TRACK_POINTS, store.getTrackPoints(viewBox, TrackStore.MIN_TOLERANCE / 2).get(0).size());
+    }
+
+    /**
+     * Project runs of points to screen coordinates similar to what the GPX layer does
+     * 
+     * @param runs the runs of TrackPoints
+     * @param viewBox the ViewBox
+     * @param linePoints the output list
+     * @return the number of points
+     */
+    private int project(@NonNull List<List<TrackPoint>> runs, @NonNull ViewBox viewBox, @NonNull FloatPrimitiveList linePoints) {
+        int count = 0;
+        for (List<TrackPoint> run : runs) {
+            linePoints.clear();
+            float prevX = 0;
+            float prevY = 0;
+            boolean first = true;
+            for (TrackPoint p : run) {
+                float x = GeoMath.lonE7ToX(SCREEN_WIDTH, viewBox, p.getLon());
+                float y = GeoMath.latE7ToY(SCREEN_HEIGHT, SCREEN_WIDTH, viewBox, p.getLat());
+                if (!first && !p.isInterrupted()) {
+                    linePoints.add(prevX);
+                    linePoints.add(prevY);
+                    linePoints.add(x);
+                    linePoints.add(y);
+                }
+                first = false;
+                prevX = x;
+                prevY = y;
+                count++;
+            }
+            GeoMath.squashPointsArray(linePoints, 2f);
+        }
+        return count;
+    }
+
+    /**
+     * Calculate the distance of a point from a line segment
+     * 
+     * @param px x coordinate of the point
+     * @param py y coordinate of the point
+     * @param x1 x coordinate of the start of the segment
+     * @param y1 y coordinate of the start of the segment
+     * @param x2 x coordinate of the end of the segment
+     * @param y2 y coordinate of the end of the segment
+     * @return the distance
+     */
+    private static double distanceToSegment(double px, double py, double x1, double y1, double x2, double y2) {
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, ((px - x1) * dx + (py - y1) * dy) / lengthSquared));
+        return Math.hypot(px - (x1 + t * dx), py - (y1 + t * dy));
+    }
+
+    /**
+     * Create a test track moving roughly north east with some segments and missing altitudes
+     *
+     * @return a List of TrackPoint
+     */
+    @NonNull
+    private List<TrackPoint> createPoints() {
+        List<TrackPoint> points = new ArrayList<>();
+        double lat = 47.3976;
+        double lon = 8.5384;
+        double ele = 410.5;
+        long time = 1700000000000L;
+        for (int i = 0; i < POINTS; i++) {
+            lat += 0.0001 + (i % 7) * 0.0000013;
+            lon += 0.0001 - (i % 5) * 0.0000021;
+            ele += (i % 11) - 5.25;
+            time += 1000 + (i % 3) * 7;
+            byte flags = i % 500 == 0 ? TrackPoint.FLAG_NEWSEGMENT : 0;
+            points.add(new TrackPoint(flags, lat, lon, i % 13 == 0 ? Double.NaN : ele, time));
+        }
+        return points;
+    }
+
+    /**
+     * Compare two lists of points
+     *
+     * @param expected the expected points
+     * @param actual the stored points
+     */
+    private void compare(@NonNull List<TrackPoint> expected, @NonNull List<TrackPoint> actual) {
+        assertEquals(expected.size(), actual.size());
+        int i = 0;
+        for (TrackPoint p : actual) {
+            compare(expected.get(i++), p);
+        }
+    }
+
+    /**
+     * Compare two points
+     *
+     * @param expected the expected point
+     * @param actual the stored point
+     */
+    private void compare(@NonNull TrackPoint expected, @NonNull TrackPoint actual) {
+        assertEquals(expected.flags, actual.flags);
+        assertEquals(expected.latitude, actual.latitude, 1E-7);
+        assertEquals(expected.longitude, actual.longitude, 1E-7);
+        assertEquals(expected.time, actual.time);
+        if (Double.isNaN(expected.altitude)) {
+            assertTrue(Double.isNaN(actual.altitude));
+        } else {
+            assertEquals(expected.altitude, actual.altitude, 0.001);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package de.blau.android.layer.data;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import androidx.test.filters.LargeTest;
+import de.blau.android.App;
+import de.blau.android.UnitTestUtils;
+import de.blau.android.osm.BoundingBox;
+import de.blau.android.osm.Node;
+import de.blau.android.osm.StorageDelegator;
+import de.blau.android.osm.Tags;
+import de.blau.android.osm.ViewBox;
+import de.blau.android.osm.Way;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+@LargeTest
+public class DisplayListTest {
+
+    private StorageDelegator delegator;
+    private ViewBox          viewBox;
+
+    /**
+     * Pre test setup
+     */
+    @Before
+    public void setup() {
+        App.newLogic();
+        delegator = UnitTestUtils.loadTestData(getClass(), "test2.osm");
+        viewBox = new ViewBox(new BoundingBox(8.3863771, 47.3881338, 8.3911514, 47.3908067));
+    }
+
+    /**
+     * Check that the list contains what a direct query returns and that ways are sorted
+     */
+    @Test
+    public void content() {
+        DisplayList list = new DisplayList(delegator.getCurrentStorage(), viewBox, delegator.getModificationCount(), null, null, null, true);
+        List<Node> nodes = delegator.getCurrentStorage().getNodes(viewBox);
+        assertTrue(list.getNodes().containsAll(nodes));
+        List<Way> ways = delegator.getCurrentStorage().getWays(viewBox);
+        assertTrue(list.getWays().containsAll(ways));
+        assertTrue(list.getHiddenWays().isEmpty());
+        for (int i = 0; i < list.getNodes().size(); i++) {
+            assertTrue(list.isIncluded(i));
+        }
+        MapOverlay.LayerComparator comparator = new MapOverlay.LayerComparator();
+        List<Way> sorted = list.getWays();
+        for (int i = 1; i < sorted.size(); i++) {
+            assertTrue(comparator.compare(sorted.get(i - 1), sorted.get(i)) <= 0);
+        }
+    }
+
+    /**
+     * Check that the list is invalidated by changes to the data and selection
+     */
+    @Test
+    public void invalidation() {
+        DisplayList list = new DisplayList(delegator.getCurrentStorage(), viewBox, delegator.getModificationCount(), null, null, null, true);
+        final int emptySelection = DisplayList.selectionHash(null, null);
+        assertTrue(list.isCurrent(delegator.getModificationCount(), null, emptySelection, true));
+
+        Way w = delegator.getCurrentStorage().getWays(viewBox).get(0);
+        assertNotNull(w);
+        List<Way> selectedWays = new ArrayList<>();
+        selectedWays.add(w);
+        assertFalse(list.isCurrent(delegator.getModificationCount(), null, DisplayList.selectionHash(null, selectedWays), true));
+
+        Map<String, String> tags = new TreeMap<>(w.getTags());
+        tags.put(Tags.KEY_NAME, "test");
+        delegator.setTags(w, tags);
+        assertFalse(list.isCurrent(delegator.getModificationCount(), null, emptySelection, true));
+    }
+
+    /**
+     * Check that coverage is determined correctly
+     */
+    @Test
+    public void coverage() {
+        DisplayList list = new DisplayList(delegator.getCurrentStorage(), viewBox, delegator.getModificationCount(), null, null, null, true);
+        assertTrue(list.covers(viewBox));
+        ViewBox larger = new ViewBox(viewBox);
+        larger.scale(DisplayList.MARGIN_FACTOR * 1.1);
+        assertFalse(list.covers(larger));
+        ViewBox smaller = new ViewBox(viewBox);
+        smaller.scale(1D / (DisplayList.MAX_OVERSIZE * 2));
+        assertFalse(list.covers(smaller));
+    }
+}
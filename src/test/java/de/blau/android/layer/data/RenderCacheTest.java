@@ -0,0 +1,117 @@
+package de.blau.android.layer.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import androidx.test.filters.LargeTest;
+import de.blau.android.App;
+import de.blau.android.osm.Node;
+import de.blau.android.osm.StorageDelegator;
+import de.blau.android.osm.Tags;
+import de.blau.android.osm.Way;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+@LargeTest
+public class RenderCacheTest {
+
+    private StorageDelegator delegator;
+    private RenderCache      cache;
+
+    /**
+     * Pre test setup
+     */
+    @Before
+    public void setup() {
+        App.newLogic();
+        delegator = App.getDelegator();
+        cache = new RenderCache();
+    }
+
+    /**
+     * Create a Node with tags
+     * 
+     * @param name value for the name tag
+     * @return a new Node
+     */
+    private Node createNode(String name) {
+        Node n = delegator.getFactory().createNodeWithNewId(0, 0);
+        Map<String, String> tags = new TreeMap<>();
+        tags.put(Tags.KEY_NAME, name);
+        delegator.setTags(n, tags);
+        return n;
+    }
+
+    /**
+     * Check that elements with the same tags share entries and that negative results are cached
+     */
+    @Test
+    public void sharedEntries() {
+        Node n1 = createNode("test");
+        Node n2 = createNode("test");
+        assertNull(cache.getLabel(n1));
+        cache.putLabel(n1, "test");
+        assertEquals("test", cache.getLabel(n2));
+
+        Node n3 = createNode("other");
+        assertNull(cache.getLabel(n3));
+        cache.putLabel(n3, null);
+        assertSame(RenderCache.NONE, cache.getLabel(n3));
+        assertNull(RenderCache.valueOf(cache.getLabel(n3)));
+
+        // changing the tags of the original element must not change the key
+        Map<String, String> tags = new TreeMap<>(n1.getTags());
+        tags.put(Tags.KEY_NAME, "changed");
+        delegator.setTags(n1, tags);
+        assertNull(cache.getLabel(n1));
+        assertEquals("test", cache.getLabel(n2));
+
+        cache.clearPresetDependent();
+        assertNull(cache.getLabel(n2));
+    }
+
+    /**
+     * Check that preset matches are keyed on the element type and regions too
+     */
+    @Test
+    public void matchKey() {
+        Node n = createNode("test");
+        Way w = delegator.getFactory().createWayWithNewId();
+        delegator.setTags(w, n.getTags());
+        cache.putMatch(n, null, null);
+        assertSame(RenderCache.NONE, cache.getMatch(n, null));
+        assertNull(cache.getMatch(w, null));
+        assertNull(cache.getMatch(n, Arrays.asList("CH")));
+        cache.putMatch(n, Arrays.asList("CH"), null);
+        assertSame(RenderCache.NONE, cache.getMatch(n, Arrays.asList("CH")));
+        assertNull(cache.getMatch(n, Arrays.asList("DE")));
+    }
+
+    /**
+     * Check that the budget is respected
+     */
+    @Test
+    public void budget() {
+        RenderCache small = new RenderCache(1024, 1024, 1024, 1024);
+        for (int i = 0; i < 100; i++) {
+            Node n = createNode(Integer.toString(i));
+            small.putDirection(n, (float) i);
+        }
+        assertNull(small.getDirection(createNode("0")));
+        assertNotNull(small.getDirection(createNode("99")));
+        small.trim(0);
+        assertNull(small.getDirection(createNode("99")));
+    }
+}
@@ -0,0 +1,127 @@
+package de.blau.android.net;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import androidx.annotation.NonNull;
+import androidx.test.filters.LargeTest;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+@LargeTest
+public class ReadAheadInputStreamTest {
+
+    /**
+     * Read all data in small blocks
+     */
+    @Test(timeout = 10000)
+    public void read() {
+        byte[] data = new byte[10000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        try (InputStream in = new ReadAheadInputStream(new ByteArrayInputStream(data), 100, 2)) {
+            assertArrayEquals(data, readAll(in));
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * A RuntimeException in the source is rethrown after the data read before it
+     */
+    @Test(timeout = 10000)
+    public void runtimeException() {
+        InputStream source = new FailingInputStream(1000, new IllegalStateException("test"));
+        try (InputStream in = new ReadAheadInputStream(source, 100, 2)) {
+            byte[] buffer = new byte[100];
+            int total = 0;
+            try {
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    total += count;
+                }
+                fail("Expected an exception");
+            } catch (IllegalStateException e) {
+                assertEquals(1000, total);
+                assertEquals("test", e.getMessage());
+            }
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * An IOException in the source is rethrown
+     */
+    @Test(timeout = 10000)
+    public void ioException() {
+        InputStream source = new FailingInputStream(10, new IOException("test"));
+        try (InputStream in = new ReadAheadInputStream(source, 100, 2)) {
+            readAll(in);
+            fail("Expected an exception");
+        } catch (IOException e) {
+            assertEquals("test", e.getMessage());
+        }
+    }
+
+    /**
+     * Read a stream to the end
+     * 
+     * @param in the InputStream
+     * @return the data
+     * @throws IOException if reading fails
+     */
+    @NonNull
+    private static byte[] readAll(@NonNull InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[37];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * InputStream that fails after returning a number of bytes
+     */
+    private static class FailingInputStream extends InputStream {
+        private final Throwable failure;
+        private int             remaining;
+
+        /**
+         * Construct a new instance
+         * 
+         * @param length the number of bytes to return before failing
+         * @param failure the IOException or RuntimeException to throw
+         */
+        FailingInputStream(int length, @NonNull Throwable failure) {
+            this.remaining = length;
+            this.failure = failure;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining == 0) {
+                if (failure instanceof IOException) {
+                    throw (IOException) failure;
+                }
+                throw (RuntimeException) failure;
+            }
+            remaining--;
+            return 0;
+        }
+    }
+}
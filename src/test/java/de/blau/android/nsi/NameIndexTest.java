@@ -0,0 +1,109 @@
+package de.blau.android.nsi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import androidx.annotation.NonNull;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.filters.LargeTest;
+import de.blau.android.osm.Tags;
+import de.blau.android.util.SearchIndexUtils;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+@LargeTest
+public class NameIndexTest {
+
+    private static final String KEY = "test";
+
+    private File directory;
+
+    /**
+     * Pre test setup
+     */
+    @Before
+    public void setup() {
+        directory = new File(ApplicationProvider.getApplicationContext().getCacheDir(), "nameindex");
+        directory.mkdirs(); // NOSONAR
+        new File(directory, NameIndex.ENTRIES_FILE).delete(); // NOSONAR
+        new File(directory, NameIndex.INDEX_FILE).delete(); // NOSONAR
+    }
+
+    /**
+     * Build an index, read it back and query it
+     */
+    @Test
+    public void buildAndQuery() {
+        try {
+            NameIndex.Builder builder = new NameIndex.Builder(directory, KEY, new HashSet<>(Arrays.asList(Tags.KEY_AMENITY, Tags.KEY_SHOP)));
+            builder.add("Burger Place", tags(Tags.KEY_AMENITY, Tags.VALUE_FAST_FOOD), null, null);
+            builder.add("Burger Palace", tags(Tags.KEY_AMENITY, Tags.VALUE_FAST_FOOD), Arrays.asList("CH"), null);
+            builder.add("Bakery", tags(Tags.KEY_SHOP, "bakery"), null, Arrays.asList("DE"));
+            builder.add("Burger Place", tags(Tags.KEY_SHOP, "butcher"), null, null);
+            assertNotNull(builder.finish());
+
+            assertNull(NameIndex.open(directory, "other"));
+            NameIndex index = NameIndex.open(directory, KEY);
+            assertNotNull(index);
+            assertEquals(4, index.size());
+
+            int[] fastFood = index.getByTag(Tags.KEY_AMENITY + "=" + Tags.VALUE_FAST_FOOD);
+            assertEquals(2, fastFood.length);
+            assertEquals(0, index.getByTag(Tags.KEY_NAME + "=Bakery").length);
+
+            NameIndex.Entry palace = index.get(1);
+            assertEquals("Burger Palace", palace.name);
+            assertEquals(Tags.VALUE_FAST_FOOD, palace.tags.get(Tags.KEY_AMENITY));
+            assertEquals(Arrays.asList("CH"), palace.includeRegions);
+            assertNull(palace.excludeRegions);
+
+            assertNull(index.inUseIn(null));
+            BitSet ch = index.inUseIn(Arrays.asList("CH"));
+            assertTrue(ch.get(0) && ch.get(1) && ch.get(2) && ch.get(3));
+            BitSet de = index.inUseIn(Arrays.asList("DE"));
+            assertTrue(de.get(0));
+            assertFalse(de.get(1));
+            assertFalse(de.get(2));
+
+            assertEquals(2, index.getByKey(SearchIndexUtils.normalize("Burger Place")).length);
+            List<String> prefix = index.getKeysWithPrefix(SearchIndexUtils.normalize("Burger"));
+            assertEquals(2, prefix.size());
+            assertTrue(index.getKeysWithPrefix("zzz").isEmpty());
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * Create a tag map with a single tag
+     * 
+     * @param key the key
+     * @param value the value
+     * @return a Map containing the tag
+     */
+    @NonNull
+    private Map<String, String> tags(@NonNull String key, @NonNull String value) {
+        Map<String, String> result = new TreeMap<>();
+        result.put(key, value);
+        return result;
+    }
+}
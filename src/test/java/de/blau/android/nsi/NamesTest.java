@@ -18,7 +18,6 @@ import androidx.test.filters.LargeTest;
 import de.blau.android.nsi.Names.NameAndTags;
 import de.blau.android.osm.Tags;
 import de.blau.android.util.SearchIndexUtils;
-import de.blau.android.util.collections.MultiHashMap;
 
 @RunWith(RobolectricTestRunner.class)
 @Config(sdk=33)
@@ -39,8 +38,8 @@ public class NamesTest {
         map.put("cusine", "burger");
         assertTrue(checkForMcD(names.getNames(map, null)));
         //
-        MultiHashMap<String, NameAndTags> index = names.getSearchIndex();
-        assertTrue(checkForMcD(index.get(SearchIndexUtils.normalize(MC_DONALD_S))));
+        assertTrue(checkForMcD(names.getByNormalizedName(SearchIndexUtils.normalize(MC_DONALD_S))));
+        assertTrue(names.getSearchKeys(SearchIndexUtils.normalize("McDon")).contains(SearchIndexUtils.normalize(MC_DONALD_S)));
 
         // now country stuff
         map.clear();
@@ -10,6 +10,8 @@ import static org.robolectric.Shadows.shadowOf;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -17,6 +19,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.parsers.ParserConfigurationException;
 
 import org.junit.After;
 import org.junit.Before;
@@ -25,6 +31,7 @@ import org.junit.runner.RunWith;
 import org.robolectric.Robolectric;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
+import org.xml.sax.SAXException;
 
 import com.orhanobut.mockwebserverplus.MockWebServerPlus;
 
@@ -36,6 +43,7 @@ import de.blau.android.App;
 import de.blau.android.AsyncResult;
 import de.blau.android.Logic;
 import de.blau.android.Main;
+import de.blau.android.MultiFetchDispatcher;
 import de.blau.android.PostAsyncActionHandler;
 import de.blau.android.ShadowWorkManager;
 import de.blau.android.SignalUtils;
@@ -46,7 +54,9 @@ import de.blau.android.prefs.Preferences;
 import de.blau.android.util.Util;
 import de.blau.android.validation.Validator;
 import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
 
 @RunWith(RobolectricTestRunner.class)
 @Config(shadows = { ShadowWorkManager.class }, sdk=33)
@@ -221,10 +231,7 @@ public class ApiTest {
     @Test
     public void dataDownloadMultiFetch() {
         final CountDownLatch signal = new CountDownLatch(1);
-        mockServer.enqueue(MULTIFETCH1_FIXTURE);
-        mockServer.enqueue(MULTIFETCH2_FIXTURE);
-        mockServer.enqueue(MULTIFETCH3_FIXTURE);
-        mockServer.enqueue(MULTIFETCH4_FIXTURE);
+        setMultiFetchDispatcher(MULTIFETCH1_FIXTURE, MULTIFETCH2_FIXTURE, MULTIFETCH3_FIXTURE, MULTIFETCH4_FIXTURE);
         Logic logic = App.getLogic();
 
         List<Long> nodes = new ArrayList<>();
@@ -249,96 +256,157 @@ public class ApiTest {
         SignalUtils.signalAwait(signal, TIMEOUT);
         assertNotNull(App.getDelegator().getOsmElement(Node.NAME, 573380242L));
         assertNotNull(App.getDelegator().getOsmElement(Way.NAME, 35479116L));
+        // nodes, ways and the missing way nodes of both ways
+        assertEquals(3, mockServer.server().getRequestCount());
+        Way way = (Way) App.getDelegator().getOsmElement(Way.NAME, 35479120L);
+        assertNotNull(way);
+        for (Node n : way.getNodes()) {
+            assertEquals(n, App.getDelegator().getOsmElement(Node.NAME, n.getOsmId()));
+        }
+    }
+
+    /**
+     * Set a MultiFetchDispatcher on the mock server
+     * 
+     * @param fixtures the fixtures containing the elements
+     */
+    private void setMultiFetchDispatcher(@NonNull String... fixtures) {
+        try {
+            mockServer.server().setDispatcher(new MultiFetchDispatcher(fixtures));
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
     }
 
+    private static final Long[] LARGE_IDS = new Long[] { 33845733L, 33845734L, 33845736L, 33845737L, 33845738L, 33845740L, 33845741L, 33845784L,
+            101792984L, 275000525L, 275000526L, 275000527L, 275000528L, 289987511L, 289987512L, 289987513L, 289987514L, 289987515L, 289987516L,
+            289987517L, 307847725L, 307847730L, 307847734L, 416426210L, 416426211L, 416426212L, 416426213L, 416426214L, 416426216L, 416426217L,
+            416426220L, 416426221L, 416426224L, 416426243L, 416426254L, 416426260L, 416426261L, 416426338L, 424598263L, 424598264L, 424598265L,
+            424598266L, 424598267L, 424598268L, 424598269L, 424598270L, 424598271L, 424598272L, 424598273L, 424598274L, 424598275L, 424598276L,
+            424598277L, 424598278L, 424598279L, 424598280L, 424598281L, 424598282L, 424598284L, 424598285L, 424598286L, 424598287L, 424598288L,
+            424598289L, 424598290L, 424598291L, 424598292L, 424598293L, 424598314L, 424598315L, 577098653L, 577098660L, 577098663L, 599672189L,
+            599672190L, 599672196L, 599672197L, 599672198L, 599672199L, 599672200L, 599672211L, 599672212L, 599672213L, 599672214L, 599672215L,
+            599672216L, 599672217L, 599672218L, 599672219L, 599672220L, 599672221L, 599672222L, 599672223L, 599672224L, 600181872L, 600181873L,
+            600181874L, 600181877L, 600181925L, 600181926L, 600181937L, 600181945L, 600181947L, 600181973L, 600181974L, 631659160L, 631659172L,
+            631659178L, 631659179L, 631659181L, 631659182L, 631659184L, 632742752L, 632742773L, 632742778L, 632742845L, 633468108L, 633468223L,
+            633468225L, 633468228L, 633468231L, 633468234L, 633468237L, 633468240L, 633468248L, 633468250L, 633468399L, 633468402L, 633468404L,
+            633468409L, 633468411L, 633468413L, 633468419L, 633468421L, 633468423L, 633468425L, 633468428L, 633468436L, 633469164L, 633469166L,
+            633486967L, 633486969L, 633486971L, 634290753L, 634290755L, 634290757L, 634290759L, 635762205L, 635762208L, 635762213L, 635762214L,
+            635762215L, 635762216L, 635762217L, 635762218L, 635762219L, 635762220L, 635762221L, 635762222L, 635762223L, 635762224L, 635870784L,
+            651647602L, 651647639L, 651647649L, 651647651L, 651647658L, 651647661L, 651647665L, 651647679L, 651647682L, 651647689L, 651647691L,
+            651674760L, 651674763L, 651674766L, 651674815L, 651674849L, 651674854L, 651674857L, 651674863L, 651674893L, 665075433L, 667102170L,
+            760592825L, 760592826L, 760592834L, 762032752L, 770132678L, 770132681L, 1027924944L, 1116134144L, 1116134158L, 1116134199L, 1116134202L,
+            1116134204L, 1116134207L, 1116134223L, 1116134245L, 1116134249L, 1116134252L, 1116134254L, 1116134266L, 1116134290L, 1116134295L,
+            1116134307L, 1116134309L, 1116134324L, 1116134330L, 1116134332L, 1116134334L, 1116134354L, 1116134368L, 1116134402L, 1116134404L,
+            1116134417L, 1116134419L, 1116134429L, 1116134431L, 1116134435L, 1116134445L, 1116134453L, 1116134455L, 1116134461L, 1116134469L,
+            1116134472L, 1116134473L, 1116134487L, 1116134489L, 1116134510L, 1116134511L, 1116134512L, 1116134524L, 1116134528L, 1116134560L,
+            1201766157L, 1201766159L, 1201766170L, 1201766174L, 1201766177L, 1201766178L, 1201766179L, 1201766183L, 1201766189L, 1201766190L,
+            1201766192L, 1201766193L, 1201766198L, 1201766205L, 1201766207L, 1201766208L, 1201766209L, 1201766213L, 1201766219L, 1201766220L,
+            1201766222L, 1201766223L, 1201766224L, 1201766225L, 1201766226L, 1201766233L, 1201766235L, 1201766237L, 1201766238L, 1201766240L,
+            1201766241L, 1201766251L, 1201766253L, 1201766255L, 1201766256L, 1201766258L, 1201766259L, 1201766261L, 1201766262L, 1382317430L,
+            1382317431L, 1617097168L, 1776775889L, 1776775891L, 1776775892L, 1776775897L, 1776775902L, 1776775905L, 1776775927L, 1776775936L,
+            1776775942L, 1776775951L, 1776775962L, 1776775965L, 1776775968L, 1962813695L, 1962813702L, 1962813703L, 1962813704L, 1962813705L,
+            1962813706L, 1962813707L, 1962813708L, 1962813709L, 1962813711L, 1962813714L, 1962813715L, 1962813717L, 1962813719L, 1962813721L,
+            1962813723L, 1962813724L, 1962813726L, 1962813728L, 1962813730L, 1962813744L, 1962813747L, 1962813748L, 1962813749L, 1962813750L,
+            1962813752L, 1962813753L, 1962813754L, 1962813755L, 1962813757L, 1962813758L, 1962813760L, 1962813762L, 1962813764L, 1962813765L,
+            1962813776L, 1962813779L, 1962813781L, 1962813783L, 1962813785L, 1962813787L, 1962813789L, 1962813790L, 1962813791L, 1962813792L,
+            1962813793L, 1962813794L, 1962813795L, 1962813796L, 1962813797L, 1962813798L, 1962813799L, 1962813800L, 1962813803L, 1962813804L,
+            1962813815L, 1962813817L, 1962813818L, 1962813821L, 1962813823L, 1962813825L, 1962813827L, 1962813830L, 1962813832L, 1962813834L,
+            1962813835L, 1962813836L, 1962813837L, 1962813839L, 1962813840L, 1962813842L, 1962813852L, 1962813857L, 1963111952L, 1963111969L,
+            1963144407L, 1963144411L, 1963144420L, 1963144423L, 1963144427L, 1963251726L, 1963251729L, 1963251747L, 1963251749L, 1963251751L,
+            1963251753L, 1963251763L, 1963251766L, 1963251768L, 1963251771L, 1963251774L, 1964060743L, 1964271369L, 1990776430L, 2160122160L,
+            2160122163L, 2160122164L, 2160122166L, 2160122169L, 2160122171L, 2160122173L, 2160122175L, 2160122176L, 2160122178L, 2160122179L,
+            2160122181L, 2160122183L, 2160122184L, 2160122186L, 2160122187L, 2160122189L, 2160122190L, 2160122192L, 2160122193L, 2160127195L,
+            2160127196L, 2160127198L, 2160127199L, 2160127201L, 2160127202L, 2160127204L, 2160127205L, 2160127206L, 2164475886L, 2164475887L,
+            2164475888L, 2164475889L, 2202485255L, 2202485256L, 2202485291L, 2205498710L, 2205498715L, 2205498723L, 2205498725L, 2205498735L,
+            2205498737L, 2205498746L, 2205498748L, 2205498756L, 2205498760L, 2205498779L, 2205498781L, 2205498783L, 2205498785L, 2205498792L,
+            2205498794L, 2205498800L, 2205498802L, 2205579593L, 2205579594L, 2205579596L, 2205579598L, 2205579601L, 2205579603L, 2205579605L,
+            2205579606L, 2205579608L, 2205579610L, 2205579611L, 2205579613L, 2205579615L, 2205579617L, 2205579621L, 2205579625L, 2205579627L,
+            2205579628L, 2205579630L, 2205579634L, 2205579639L, 2205579653L, 2205579655L, 2205579657L, 2205579661L, 2205579662L, 2205579666L,
+            2205579668L, 2205579672L, 2205579673L, 2205579675L, 2205579677L, 2205579678L, 2205579679L, 2205579680L, 2205579681L, 2205579682L,
+            2205579683L, 2205579684L, 2205579685L, 2205579686L, 2205579688L, 2205579689L, 2205579691L, 2205579695L, 2205579698L, 2205579700L,
+            2205579702L, 2205579703L, 2205579705L, 2205579714L, 2205579720L, 2205579722L, 2205579724L, 2205579725L, 2205579727L, 2205579729L,
+            2205579738L, 2205579740L, 2205579741L, 2205579743L, 2205579745L, 2205579747L, 2205579749L, 2205579751L, 2205579753L, 2205579754L,
+            2205579757L, 2205579759L, 2205579760L, 2205579762L, 2205579764L, 2205579766L, 2205579767L, 2205579768L, 2205579769L, 2205579770L,
+            2205579771L, 2205579772L, 2205579773L, 2205579774L, 2205579782L, 2205579784L, 2205579786L, 2205579788L, 2205579790L, 2205579792L,
+            2205579794L, 2205579795L, 2205579797L, 2205579799L, 2205579801L, 2205579803L, 2205579804L, 2205579806L, 2205579808L, 2205579810L,
+            2205579811L, 2205579813L, 2205579815L, 2205579817L, 2205579819L, 2205579821L, 2205579823L, 2205579824L, 2205579826L, 2205579828L,
+            2205579830L, 2205579831L, 2205579833L, 2205579835L, 2205579837L, 2205579838L, 2205579840L, 2205579842L, 2205579843L, 2205579845L,
+            2205579850L, 2205579851L, 2205579852L, 2205579853L, 2205579854L, 2205579855L, 2205579856L, 2205579857L, 2205579859L, 2205579861L,
+            2205579863L, 2205579865L, 2205579867L, 2205579869L, 2205579871L, 2205579872L, 2205579874L, 2205579876L, 2205579878L, 2205579880L,
+            2205579882L, 2205579884L, 2205579886L, 2205579888L, 2205579890L, 2205579892L, 2205579894L, 2205579896L, 2205579898L, 2205579900L,
+            2205579902L, 2205579904L, 2205579906L, 2205579908L, 2205579910L, 2205579912L, 2205579922L, 2205579924L, 2205579926L, 2205579928L,
+            2205579930L, 2205579931L, 2205579932L, 2205579933L, 2205579934L, 2205579935L, 2205579936L, 2205579937L, 2205579938L, 2205579939L,
+            2205579940L, 2205579941L, 2205579943L, 2205579945L, 2205579947L, 2206392955L, 2206392959L, 2206392960L, 2206392962L, 2206392963L,
+            2206392965L, 2206392966L, 2206392967L, 2206392968L, 2206392969L, 2206392970L, 2206392971L, 2206392972L, 2206392973L, 2206392974L,
+            2206392975L, 2206392976L, 2206392977L, 2206392978L, 2206392979L, 2206392980L, 2206392981L, 2206392982L, 2206392983L, 2206392984L,
+            2206392985L, 2206392986L, 2206392987L, 2206392988L, 2206392989L, 2206392990L, 2206392991L, 2206392992L, 2206392993L, 2206392994L,
+            2206392996L, 2206392998L, 2206393000L, 2206393001L, 2206393002L, 2206393003L, 2206393004L, 2206393005L, 2206393010L, 2206393013L,
+            2206393014L, 2206393016L, 2206393017L, 2206393018L, 2206393019L, 2206393020L, 2206393021L, 2206393022L, 2206393023L, 2206393024L,
+            2206393025L, 2206393026L, 2206393027L, 2206393028L, 2206393029L, 2206393030L, 2206393031L, 2206393032L, 2206393033L, 2206393034L,
+            2206393035L, 2206393036L, 2206393037L, 2206393038L, 2206393039L, 2206393041L, 2206393043L, 2206393048L, 2206393051L, 2206393073L,
+            2209622070L, 2209622111L, 2209622165L, 2210439786L, 2210439787L, 2210439788L, 2210439789L, 2210439816L, 2212634459L, 2212634468L,
+            2212634473L, 2212634477L, 2212634482L, 2212634487L, 2212634490L, 2212634496L, 2212634502L, 2212634506L, 2212634510L, 2212634513L,
+            2212634518L, 2212634525L, 2212634530L, 2212634534L, 2212634539L, 2212634549L, 2212634553L, 2212634558L, 2212634564L, 2212634569L,
+            2212634575L, 2212634581L, 2212634589L, 2212634594L, 2212634600L, 2212634609L, 2212634615L, 2212634622L, 2212634629L, 2212634659L,
+            2212634669L, 2212634677L, 2212634684L, 2212634691L, 2212634699L, 2212634708L, 2212634717L, 2212634725L, 2212634732L, 2212634740L,
+            2212634749L, 2212634755L, 2212634763L, 2212634544L, 33845718L, 33845724L };
+
     /**
      * Fetch multiple elements in one call
      */
     @Test
     public void dataDownloadMultiFetch2() {
-
-        Long[] ids = new Long[] { 33845733L, 33845734L, 33845736L, 33845737L, 33845738L, 33845740L, 33845741L, 33845784L, 101792984L, 275000525L, 275000526L,
-                275000527L, 275000528L, 289987511L, 289987512L, 289987513L, 289987514L, 289987515L, 289987516L, 289987517L, 307847725L, 307847730L, 307847734L,
-                416426210L, 416426211L, 416426212L, 416426213L, 416426214L, 416426216L, 416426217L, 416426220L, 416426221L, 416426224L, 416426243L, 416426254L,
-                416426260L, 416426261L, 416426338L, 424598263L, 424598264L, 424598265L, 424598266L, 424598267L, 424598268L, 424598269L, 424598270L, 424598271L,
-                424598272L, 424598273L, 424598274L, 424598275L, 424598276L, 424598277L, 424598278L, 424598279L, 424598280L, 424598281L, 424598282L, 424598284L,
-                424598285L, 424598286L, 424598287L, 424598288L, 424598289L, 424598290L, 424598291L, 424598292L, 424598293L, 424598314L, 424598315L, 577098653L,
-                577098660L, 577098663L, 599672189L, 599672190L, 599672196L, 599672197L, 599672198L, 599672199L, 599672200L, 599672211L, 599672212L, 599672213L,
-                599672214L, 599672215L, 599672216L, 599672217L, 599672218L, 599672219L, 599672220L, 599672221L, 599672222L, 599672223L, 599672224L, 600181872L,
-                600181873L, 600181874L, 600181877L, 600181925L, 600181926L, 600181937L, 600181945L, 600181947L, 600181973L, 600181974L, 631659160L, 631659172L,
-                631659178L, 631659179L, 631659181L, 631659182L, 631659184L, 632742752L, 632742773L, 632742778L, 632742845L, 633468108L, 633468223L, 633468225L,
-                633468228L, 633468231L, 633468234L, 633468237L, 633468240L, 633468248L, 633468250L, 633468399L, 633468402L, 633468404L, 633468409L, 633468411L,
-                633468413L, 633468419L, 633468421L, 633468423L, 633468425L, 633468428L, 633468436L, 633469164L, 633469166L, 633486967L, 633486969L, 633486971L,
-                634290753L, 634290755L, 634290757L, 634290759L, 635762205L, 635762208L, 635762213L, 635762214L, 635762215L, 635762216L, 635762217L, 635762218L,
-                635762219L, 635762220L, 635762221L, 635762222L, 635762223L, 635762224L, 635870784L, 651647602L, 651647639L, 651647649L, 651647651L, 651647658L,
-                651647661L, 651647665L, 651647679L, 651647682L, 651647689L, 651647691L, 651674760L, 651674763L, 651674766L, 651674815L, 651674849L, 651674854L,
-                651674857L, 651674863L, 651674893L, 665075433L, 667102170L, 760592825L, 760592826L, 760592834L, 762032752L, 770132678L, 770132681L, 1027924944L,
-                1116134144L, 1116134158L, 1116134199L, 1116134202L, 1116134204L, 1116134207L, 1116134223L, 1116134245L, 1116134249L, 1116134252L, 1116134254L,
-                1116134266L, 1116134290L, 1116134295L, 1116134307L, 1116134309L, 1116134324L, 1116134330L, 1116134332L, 1116134334L, 1116134354L, 1116134368L,
-                1116134402L, 1116134404L, 1116134417L, 1116134419L, 1116134429L, 1116134431L, 1116134435L, 1116134445L, 1116134453L, 1116134455L, 1116134461L,
-                1116134469L, 1116134472L, 1116134473L, 1116134487L, 1116134489L, 1116134510L, 1116134511L, 1116134512L, 1116134524L, 1116134528L, 1116134560L,
-                1201766157L, 1201766159L, 1201766170L, 1201766174L, 1201766177L, 1201766178L, 1201766179L, 1201766183L, 1201766189L, 1201766190L, 1201766192L,
-                1201766193L, 1201766198L, 1201766205L, 1201766207L, 1201766208L, 1201766209L, 1201766213L, 1201766219L, 1201766220L, 1201766222L, 1201766223L,
-                1201766224L, 1201766225L, 1201766226L, 1201766233L, 1201766235L, 1201766237L, 1201766238L, 1201766240L, 1201766241L, 1201766251L, 1201766253L,
-                1201766255L, 1201766256L, 1201766258L, 1201766259L, 1201766261L, 1201766262L, 1382317430L, 1382317431L, 1617097168L, 1776775889L, 1776775891L,
-                1776775892L, 1776775897L, 1776775902L, 1776775905L, 1776775927L, 1776775936L, 1776775942L, 1776775951L, 1776775962L, 1776775965L, 1776775968L,
-                1962813695L, 1962813702L, 1962813703L, 1962813704L, 1962813705L, 1962813706L, 1962813707L, 1962813708L, 1962813709L, 1962813711L, 1962813714L,
-                1962813715L, 1962813717L, 1962813719L, 1962813721L, 1962813723L, 1962813724L, 1962813726L, 1962813728L, 1962813730L, 1962813744L, 1962813747L,
-                1962813748L, 1962813749L, 1962813750L, 1962813752L, 1962813753L, 1962813754L, 1962813755L, 1962813757L, 1962813758L, 1962813760L, 1962813762L,
-                1962813764L, 1962813765L, 1962813776L, 1962813779L, 1962813781L, 1962813783L, 1962813785L, 1962813787L, 1962813789L, 1962813790L, 1962813791L,
-                1962813792L, 1962813793L, 1962813794L, 1962813795L, 1962813796L, 1962813797L, 1962813798L, 1962813799L, 1962813800L, 1962813803L, 1962813804L,
-                1962813815L, 1962813817L, 1962813818L, 1962813821L, 1962813823L, 1962813825L, 1962813827L, 1962813830L, 1962813832L, 1962813834L, 1962813835L,
-                1962813836L, 1962813837L, 1962813839L, 1962813840L, 1962813842L, 1962813852L, 1962813857L, 1963111952L, 1963111969L, 1963144407L, 1963144411L,
-                1963144420L, 1963144423L, 1963144427L, 1963251726L, 1963251729L, 1963251747L, 1963251749L, 1963251751L, 1963251753L, 1963251763L, 1963251766L,
-                1963251768L, 1963251771L, 1963251774L, 1964060743L, 1964271369L, 1990776430L, 2160122160L, 2160122163L, 2160122164L, 2160122166L, 2160122169L,
-                2160122171L, 2160122173L, 2160122175L, 2160122176L, 2160122178L, 2160122179L, 2160122181L, 2160122183L, 2160122184L, 2160122186L, 2160122187L,
-                2160122189L, 2160122190L, 2160122192L, 2160122193L, 2160127195L, 2160127196L, 2160127198L, 2160127199L, 2160127201L, 2160127202L, 2160127204L,
-                2160127205L, 2160127206L, 2164475886L, 2164475887L, 2164475888L, 2164475889L, 2202485255L, 2202485256L, 2202485291L, 2205498710L, 2205498715L,
-                2205498723L, 2205498725L, 2205498735L, 2205498737L, 2205498746L, 2205498748L, 2205498756L, 2205498760L, 2205498779L, 2205498781L, 2205498783L,
-                2205498785L, 2205498792L, 2205498794L, 2205498800L, 2205498802L, 2205579593L, 2205579594L, 2205579596L, 2205579598L, 2205579601L, 2205579603L,
-                2205579605L, 2205579606L, 2205579608L, 2205579610L, 2205579611L, 2205579613L, 2205579615L, 2205579617L, 2205579621L, 2205579625L, 2205579627L,
-                2205579628L, 2205579630L, 2205579634L, 2205579639L, 2205579653L, 2205579655L, 2205579657L, 2205579661L, 2205579662L, 2205579666L, 2205579668L,
-                2205579672L, 2205579673L, 2205579675L, 2205579677L, 2205579678L, 2205579679L, 2205579680L, 2205579681L, 2205579682L, 2205579683L, 2205579684L,
-                2205579685L, 2205579686L, 2205579688L, 2205579689L, 2205579691L, 2205579695L, 2205579698L, 2205579700L, 2205579702L, 2205579703L, 2205579705L,
-                2205579714L, 2205579720L, 2205579722L, 2205579724L, 2205579725L, 2205579727L, 2205579729L, 2205579738L, 2205579740L, 2205579741L, 2205579743L,
-                2205579745L, 2205579747L, 2205579749L, 2205579751L, 2205579753L, 2205579754L, 2205579757L, 2205579759L, 2205579760L, 2205579762L, 2205579764L,
-                2205579766L, 2205579767L, 2205579768L, 2205579769L, 2205579770L, 2205579771L, 2205579772L, 2205579773L, 2205579774L, 2205579782L, 2205579784L,
-                2205579786L, 2205579788L, 2205579790L, 2205579792L, 2205579794L, 2205579795L, 2205579797L, 2205579799L, 2205579801L, 2205579803L, 2205579804L,
-                2205579806L, 2205579808L, 2205579810L, 2205579811L, 2205579813L, 2205579815L, 2205579817L, 2205579819L, 2205579821L, 2205579823L, 2205579824L,
-                2205579826L, 2205579828L, 2205579830L, 2205579831L, 2205579833L, 2205579835L, 2205579837L, 2205579838L, 2205579840L, 2205579842L, 2205579843L,
-                2205579845L, 2205579850L, 2205579851L, 2205579852L, 2205579853L, 2205579854L, 2205579855L, 2205579856L, 2205579857L, 2205579859L, 2205579861L,
-                2205579863L, 2205579865L, 2205579867L, 2205579869L, 2205579871L, 2205579872L, 2205579874L, 2205579876L, 2205579878L, 2205579880L, 2205579882L,
-                2205579884L, 2205579886L, 2205579888L, 2205579890L, 2205579892L, 2205579894L, 2205579896L, 2205579898L, 2205579900L, 2205579902L, 2205579904L,
-                2205579906L, 2205579908L, 2205579910L, 2205579912L, 2205579922L, 2205579924L, 2205579926L, 2205579928L, 2205579930L, 2205579931L, 2205579932L,
-                2205579933L, 2205579934L, 2205579935L, 2205579936L, 2205579937L, 2205579938L, 2205579939L, 2205579940L, 2205579941L, 2205579943L, 2205579945L,
-                2205579947L, 2206392955L, 2206392959L, 2206392960L, 2206392962L, 2206392963L, 2206392965L, 2206392966L, 2206392967L, 2206392968L, 2206392969L,
-                2206392970L, 2206392971L, 2206392972L, 2206392973L, 2206392974L, 2206392975L, 2206392976L, 2206392977L, 2206392978L, 2206392979L, 2206392980L,
-                2206392981L, 2206392982L, 2206392983L, 2206392984L, 2206392985L, 2206392986L, 2206392987L, 2206392988L, 2206392989L, 2206392990L, 2206392991L,
-                2206392992L, 2206392993L, 2206392994L, 2206392996L, 2206392998L, 2206393000L, 2206393001L, 2206393002L, 2206393003L, 2206393004L, 2206393005L,
-                2206393010L, 2206393013L, 2206393014L, 2206393016L, 2206393017L, 2206393018L, 2206393019L, 2206393020L, 2206393021L, 2206393022L, 2206393023L,
-                2206393024L, 2206393025L, 2206393026L, 2206393027L, 2206393028L, 2206393029L, 2206393030L, 2206393031L, 2206393032L, 2206393033L, 2206393034L,
-                2206393035L, 2206393036L, 2206393037L, 2206393038L, 2206393039L, 2206393041L, 2206393043L, 2206393048L, 2206393051L, 2206393073L, 2209622070L,
-                2209622111L, 2209622165L, 2210439786L, 2210439787L, 2210439788L, 2210439789L, 2210439816L, 2212634459L, 2212634468L, 2212634473L, 2212634477L,
-                2212634482L, 2212634487L, 2212634490L, 2212634496L, 2212634502L, 2212634506L, 2212634510L, 2212634513L, 2212634518L, 2212634525L, 2212634530L,
-                2212634534L, 2212634539L, 2212634549L, 2212634553L, 2212634558L, 2212634564L, 2212634569L, 2212634575L, 2212634581L, 2212634589L, 2212634594L,
-                2212634600L, 2212634609L, 2212634615L, 2212634622L, 2212634629L, 2212634659L, 2212634669L, 2212634677L, 2212634684L, 2212634691L, 2212634699L,
-                2212634708L, 2212634717L, 2212634725L, 2212634732L, 2212634740L, 2212634749L, 2212634755L, 2212634763L, 2212634544L, 33845718L, 33845724L };
-
         final CountDownLatch signal = new CountDownLatch(1);
-        mockServer.enqueue(MULTIFETCH_LARGE1_FIXTURE);
-        mockServer.enqueue(MULTIFETCH_LARGE2_FIXTURE);
-        mockServer.enqueue(MULTIFETCH_LARGE3_FIXTURE);
-        mockServer.enqueue(MULTIFETCH_LARGE4_FIXTURE);
+        setMultiFetchDispatcher(MULTIFETCH_LARGE1_FIXTURE, MULTIFETCH_LARGE2_FIXTURE, MULTIFETCH_LARGE3_FIXTURE, MULTIFETCH_LARGE4_FIXTURE);
 
         Logic logic = App.getLogic();
 
-        logic.downloadElements(ApplicationProvider.getApplicationContext(), Arrays.asList(ids), null, null, new FailOnErrorHandler(signal));
+        logic.downloadElements(ApplicationProvider.getApplicationContext(), Arrays.asList(LARGE_IDS), null, null, new FailOnErrorHandler(signal));
         runLooper();
         SignalUtils.signalAwait(signal, TIMEOUT);
         assertNotNull(App.getDelegator().getOsmElement(Node.NAME, 1116134207L));
         assertNotNull(App.getDelegator().getOsmElement(Node.NAME, 33845724L));
     }
 
+    /**
+     * Fetch multiple elements in concurrent batches that respect the URL length limit
+     */
+    @Test
+    public void dataDownloadMultiFetchBatches() {
+        final CountDownLatch signal = new CountDownLatch(1);
+        setMultiFetchDispatcher(MULTIFETCH_LARGE1_FIXTURE, MULTIFETCH_LARGE2_FIXTURE, MULTIFETCH_LARGE3_FIXTURE, MULTIFETCH_LARGE4_FIXTURE);
+
+        Logic logic = App.getLogic();
+        long[] ids = new long[LARGE_IDS.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = LARGE_IDS[i];
+        }
+        List<long[]> batches = prefs.getServer().getMultiFetchBatches(Node.NAME, ids);
+        int count = 0;
+        for (long[] batch : batches) {
+            assertTrue(batch.length <= Server.MULTI_FETCH_MAX_ELEMENTS);
+            count += batch.length;
+        }
+        assertEquals(ids.length, count);
+
+        logic.downloadElements(ApplicationProvider.getApplicationContext(), Arrays.asList(LARGE_IDS), null, null, new FailOnErrorHandler(signal));
+        runLooper();
+        SignalUtils.signalAwait(signal, TIMEOUT);
+        assertEquals(batches.size(), mockServer.server().getRequestCount());
+        for (int i = 0; i < batches.size(); i++) {
+            try {
+                RecordedRequest request = mockServer.server().takeRequest(TIMEOUT, TimeUnit.SECONDS);
+                assertTrue(request.getRequestUrl().toString().length() <= Server.MULTI_FETCH_MAX_URL_LENGTH);
+            } catch (InterruptedException e) {
+                fail(e.getMessage());
+            }
+        }
+        for (long id : ids) {
+            assertNotNull(App.getDelegator().getOsmElement(Node.NAME, id));
+        }
+    }
+
     /**
      * Down load a Relation with members
      */
@@ -356,6 +424,44 @@ public class ApiTest {
         assertNotNull(App.getDelegator().getOsmElement(Way.NAME, 104364414L));
     }
 
+    /**
+     * Download and parse a large gzip compressed box and report the time taken
+     */
+    @Test
+    public void largeCompressedDownload() {
+        final int nodeCount = 50000;
+        Buffer body = new Buffer();
+        try (OutputStreamWriter writer = new OutputStreamWriter(new GZIPOutputStream(body.outputStream()), StandardCharsets.UTF_8)) {
+            writer.write("<?xml version='1.0' encoding='UTF-8'?>\n<osm version=\"0.6\" generator=\"test\">\n");
+            writer.write("<bounds minlat=\"47.0\" minlon=\"8.0\" maxlat=\"47.1\" maxlon=\"8.1\"/>\n");
+            for (int i = 1; i <= nodeCount; i++) {
+                writer.write("<node id=\"" + i + "\" version=\"1\" timestamp=\"2020-01-01T00:00:00Z\" lat=\"47." + String.format("%07d", i)
+                        + "\" lon=\"8.0\"><tag k=\"name\" v=\"node " + i + "\"/></node>\n");
+            }
+            writer.write("</osm>\n");
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+        mockServer.server().enqueue(new MockResponse().setResponseCode(200).addHeader("Content-Encoding", "gzip").setBody(body));
+
+        final Server s = new Server(ApplicationProvider.getApplicationContext(), prefDB.getCurrentAPI(), GENERATOR_NAME);
+        long start = System.currentTimeMillis();
+        try (InputStream in = s.getStreamForBox(null, new BoundingBox(8.0, 47.0, 8.1, 47.1))) {
+            OsmParser parser = new OsmParser();
+            parser.start(in);
+            assertEquals(nodeCount, parser.getStorage().getNodes().size());
+        } catch (IOException | SAXException | ParserConfigurationException e) {
+            fail(e.getMessage());
+        }
+        System.out.println("Download and parse of " + nodeCount + " nodes took " + (System.currentTimeMillis() - start) + " ms"); // NOSONAR
+        try {
+            RecordedRequest request = mockServer.takeRequest();
+            assertEquals("gzip", request.getHeader("Accept-Encoding"));
+        } catch (InterruptedException e) {
+            fail(e.getMessage());
+        }
+    }
+
     /**
      * Upload to changes (mock-)server
      */
@@ -0,0 +1,223 @@
+package de.blau.android.osm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.filters.LargeTest;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk=33)
+@LargeTest
+public class ElementHistoryTest {
+
+    private ElementHistory history;
+
+    /**
+     * Pre test setup
+     */
+    @Before
+    public void setup() {
+        history = new ElementHistory(ApplicationProvider.getApplicationContext());
+        history.clear();
+    }
+
+    /**
+     * Post test cleanup
+     */
+    @After
+    public void teardown() {
+        ElementHistory.setLimit(ElementHistory.DEFAULT_LIMIT);
+        history.close();
+    }
+
+    /**
+     * Record versions and retrieve them
+     */
+    @Test
+    public void recordAndGet() {
+        List<OsmElement> elements = new ArrayList<>();
+        Way way = OsmElementFactory.createWay(10, 3, 1000, OsmElement.STATE_UNCHANGED);
+        for (int i = 1; i <= 3; i++) {
+            Node n = OsmElementFactory.createNode(i, 1, 1000, OsmElement.STATE_UNCHANGED, i * 1000, i * 1000);
+            way.addNode(n);
+            elements.add(n);
+        }
+        Map<String, String> tags = new TreeMap<>();
+        tags.put(Tags.KEY_HIGHWAY, "residential");
+        way.setTags(tags);
+        elements.add(way);
+        Node tagged = OsmElementFactory.createNode(4, 2, 1000, OsmElement.STATE_UNCHANGED, 10, 20);
+        tags.clear();
+        tags.put(Tags.KEY_NAME, "test");
+        tagged.setTags(tags);
+        elements.add(tagged);
+        history.record(elements);
+        // untagged nodes are not recorded
+        assertEquals(2, history.size());
+        assertNull(history.get(Node.NAME, 1, 1));
+
+        ElementHistory.Version version = history.get(Way.NAME, 10, 3);
+        assertNotNull(version);
+        assertEquals("residential", version.getTags().get(Tags.KEY_HIGHWAY));
+        assertArrayEquals(new long[] { 1, 2, 3 }, version.getNodeIds());
+
+        Storage storage = new Storage();
+        for (OsmElement e : elements.subList(0, 3)) {
+            storage.insertNodeUnsafe((Node) e);
+        }
+        OsmElement restored = version.toElement(storage);
+        assertTrue(restored instanceof Way);
+        assertEquals(3, ((Way) restored).nodeCount());
+        assertNull(version.toElement(new Storage()));
+
+        way.setOsmVersion(4);
+        history.record(elements);
+        assertEquals(4, history.getLatest(Way.NAME, 10).getOsmVersion());
+        Node node = (Node) history.get(Node.NAME, 4, 2).toElement(storage);
+        assertEquals(10, node.getLat());
+        assertEquals("test", node.getTags().get(Tags.KEY_NAME));
+    }
+
+    /**
+     * Record a Storage in the background, later changes to the elements must not be recorded
+     */
+    @Test
+    public void recordAsync() {
+        Storage storage = new Storage();
+        Way way = OsmElementFactory.createWay(10, 3, 1000, OsmElement.STATE_UNCHANGED);
+        for (int i = 1; i <= 3; i++) {
+            Node n = OsmElementFactory.createNode(i, 1, 1000, OsmElement.STATE_UNCHANGED, i * 1000, i * 1000);
+            way.addNode(n);
+            storage.insertNodeUnsafe(n);
+        }
+        Map<String, String> tags = new TreeMap<>();
+        tags.put(Tags.KEY_HIGHWAY, "residential");
+        way.setTags(tags);
+        storage.insertWayUnsafe(way);
+        Future<?> result = history.recordAsync(storage);
+        tags.put(Tags.KEY_HIGHWAY, "service");
+        way.setTags(tags);
+        way.removeNode(way.getFirstNode());
+        try {
+            result.get(10, TimeUnit.SECONDS);
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            fail(e.getMessage());
+        }
+        ElementHistory.Version version = history.get(Way.NAME, 10, 3);
+        assertNotNull(version);
+        assertEquals("residential", version.getTags().get(Tags.KEY_HIGHWAY));
+        assertArrayEquals(new long[] { 1, 2, 3 }, version.getNodeIds());
+    }
+
+    /**
+     * Check that the least recently recorded versions are removed
+     */
+    @Test
+    public void limit() {
+        ElementHistory.setLimit(5);
+        List<OsmElement> elements = new ArrayList<>();
+        for (int i = 1; i <= 10; i++) {
+            Way way = OsmElementFactory.createWay(i, 1, 1000, OsmElement.STATE_UNCHANGED);
+            elements.add(way);
+        }
+        history.record(elements);
+        assertEquals(5, history.size());
+        assertNull(history.get(Way.NAME, 1, 1));
+        assertNotNull(history.get(Way.NAME, 10, 1));
+        ElementHistory.setLimit(0);
+        history.record(elements.subList(0, 1));
+        assertNull(history.get(Way.NAME, 1, 1));
+    }
+
+    /**
+     * Three way merge of tags
+     */
+    @Test
+    public void mergeTags() {
+        Map<String, String> base = new TreeMap<>();
+        base.put("a", "1");
+        base.put("b", "1");
+        base.put("c", "1");
+        base.put("d", "1");
+        Map<String, String> local = new TreeMap<>(base);
+        local.put("a", "2"); // changed locally
+        local.remove("c"); // removed locally
+        local.put("d", "3");
+        Map<String, String> server = new TreeMap<>(base);
+        server.put("b", "2"); // changed on server
+        server.put("e", "1"); // added on server
+        server.put("d", "2");
+        Set<String> conflicts = new HashSet<>();
+        Map<String, String> merged = ThreeWayMerge.mergeTags(base, local, server, conflicts);
+        assertEquals("2", merged.get("a"));
+        assertEquals("2", merged.get("b"));
+        assertNull(merged.get("c"));
+        assertEquals("2;3", merged.get("d"));
+        assertEquals("1", merged.get("e"));
+        assertEquals(1, conflicts.size());
+        assertTrue(conflicts.contains("d"));
+    }
+
+    /**
+     * Three way merge of way nodes
+     */
+    @Test
+    public void mergeNodes() {
+        long[] base = { 1, 2, 3, 4, 5, 6 };
+        // node inserted locally, node removed on the server
+        assertArrayEquals(new long[] { 1, 7, 2, 3, 4, 6 }, ThreeWayMerge.mergeNodes(base, new long[] { 1, 7, 2, 3, 4, 5, 6 }, new long[] { 1, 2, 3, 4, 6 }));
+        // same change on both sides
+        assertArrayEquals(new long[] { 1, 2, 8, 4, 5, 6 },
+                ThreeWayMerge.mergeNodes(base, new long[] { 1, 2, 8, 4, 5, 6 }, new long[] { 1, 2, 8, 4, 5, 6 }));
+        // only changed on one side
+        assertArrayEquals(new long[] { 1, 2, 3 }, ThreeWayMerge.mergeNodes(base, base, new long[] { 1, 2, 3 }));
+        // different nodes inserted at the same position
+        assertNull(ThreeWayMerge.mergeNodes(base, new long[] { 1, 2, 7, 3, 4, 5, 6 }, new long[] { 1, 2, 8, 3, 4, 5, 6 }));
+        // node moved locally that was removed on the server
+        assertNull(ThreeWayMerge.mergeNodes(base, new long[] { 1, 2, 9, 4, 5, 6 }, new long[] { 1, 2, 4, 5, 6 }));
+    }
+
+    /**
+     * Check that large differences are treated as a single change
+     */
+    @Test
+    public void diffLimit() {
+        final int size = 1000;
+        long[] base = new long[size];
+        long[] target = new long[size];
+        for (int i = 0; i < size; i++) {
+            base[i] = i;
+            target[i] = size - i;
+        }
+        target[0] = 0;
+        List<int[]> changes = ThreeWayMerge.diff(base, target);
+        assertEquals(1, changes.size());
+        assertArrayEquals(new int[] { 1, size, 1, size }, changes.get(0));
+        // small differences are still determined exactly
+        changes = ThreeWayMerge.diff(new long[] { 1, 2, 3, 4 }, new long[] { 1, 5, 3, 4, 6 });
+        assertEquals(2, changes.size());
+    }
+}
@@ -0,0 +1,89 @@
+package de.blau.android.osm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import androidx.test.filters.LargeTest;
+import de.blau.android.App;
+import de.blau.android.UnitTestUtils;
+import de.blau.android.util.Winding;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+@LargeTest
+public class MultipolygonCacheTest {
+
+    private StorageDelegator  delegator;
+    private MultipolygonCache cache;
+    private Relation          mp;
+
+    /**
+     * Pre test setup
+     */
+    @Before
+    public void setup() {
+        App.newLogic();
+        delegator = UnitTestUtils.loadTestData(getClass(), "test3.osm");
+        cache = delegator.getMultipolygonCache();
+        cache.clear();
+        mp = (Relation) delegator.getOsmElement(Relation.NAME, 57243);
+        assertNotNull(mp);
+    }
+
+    /**
+     * Check that we get an outer and an inner ring with the expected winding and that the result is cached
+     */
+    @Test
+    public void assemble() {
+        List<List<Node>> rings = cache.getRings(mp);
+        assertEquals(2, rings.size());
+        assertEquals(Winding.CLOCKWISE, Winding.winding(rings.get(0)));
+        assertEquals(Winding.COUNTERCLOCKWISE, Winding.winding(rings.get(1)));
+        assertEquals(1, cache.getCount());
+        assertTrue(cache.getSize() > 0);
+        assertSame(rings, cache.getRings(mp));
+    }
+
+    /**
+     * Check that changing a member way invalidates the cached rings
+     */
+    @Test
+    public void invalidation() {
+        List<List<Node>> rings = cache.getRings(mp);
+        Way inner = (Way) delegator.getOsmElement(Way.NAME, 28909632);
+        assertNotNull(inner);
+        Node first = inner.getFirstNode();
+        Node n = delegator.getFactory().createNodeWithNewId(first.getLat() + 10, first.getLon() + 10);
+        delegator.addNodeToWayAfter(0, n, inner);
+        List<List<Node>> rings2 = cache.getRings(mp);
+        assertNotSame(rings, rings2);
+        assertEquals(rings.get(1).size() + 1, rings2.get(1).size());
+    }
+
+    /**
+     * Check that the cache is trimmed to the requested size
+     */
+    @Test
+    public void trim() {
+        cache.getRings(mp);
+        cache.getRings((Relation) delegator.getOsmElement(Relation.NAME, 1678377));
+        assertEquals(2, cache.getCount());
+        long size = cache.getSize();
+        cache.trim(size - 1);
+        assertEquals(1, cache.getCount());
+        cache.trim(0);
+        assertEquals(0, cache.getCount());
+        assertEquals(0, cache.getSize());
+    }
+}
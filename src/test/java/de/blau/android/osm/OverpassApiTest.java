@@ -32,6 +32,7 @@ import androidx.test.core.app.ApplicationProvider;
 import androidx.test.filters.LargeTest;
 import de.blau.android.App;
 import de.blau.android.AsyncResult;
+import de.blau.android.ErrorCodes;
 import de.blau.android.Logic;
 import de.blau.android.Main;
 import de.blau.android.PostAsyncActionHandler;
@@ -53,6 +54,10 @@ public class OverpassApiTest {
 
     public static final int TIMEOUT = 10;
 
+    private static final String QUERY = "[out:xml][timeout:90];" + "(" + "node[highway=residential](47.3795692,8.378648,47.3822631,8.3813708);"
+            + "way[highway=residential](47.3795692,8.378648,47.3822631,8.3813708);"
+            + "relation[highway=residential](47.3795692,8.378648,47.3822631,8.3813708);" + ");" + "(._;>;);" + "out meta;";
+
     private MockWebServerPlus mockServer = null;
     private Main              main       = null;
     private Preferences       prefs      = null;
@@ -122,6 +127,78 @@ public class OverpassApiTest {
         assertFalse(App.getLogic().getSelectedElements().contains(wayNode));
     }
 
+    /**
+     * Overpass query merged in blocks
+     */
+    @Test
+    public void overpassQueryBlocks() {
+        mockServer.enqueue("overpass");
+        final List<Integer> progress = new ArrayList<>();
+        AsyncResult result = de.blau.android.overpass.Server.query(main, QUERY, false, false, 20, new de.blau.android.overpass.Server.QueryListener() {
+            @Override
+            public void onProgress(int elements) {
+                progress.add(elements);
+                // the block has already been merged
+                Storage storage = App.getDelegator().getCurrentStorage();
+                assertEquals(elements, storage.getNodeCount() + storage.getWayCount());
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return false;
+            }
+        });
+        assertEquals(ErrorCodes.OK, result.getCode());
+        assertEquals(6, progress.size());
+        assertEquals(115, (int) progress.get(progress.size() - 1));
+        Way way = (Way) App.getDelegator().getOsmElement(Way.NAME, 47977728L);
+        assertNotNull(way);
+        assertEquals(12, way.getOsmVersion());
+        assertEquals(115, App.getDelegator().getCurrentStorage().getNodeCount() + App.getDelegator().getCurrentStorage().getWayCount());
+    }
+
+    /**
+     * Cancel an Overpass query after the first block
+     */
+    @Test
+    public void overpassQueryCancel() {
+        mockServer.enqueue("overpass");
+        final List<Integer> progress = new ArrayList<>();
+        AsyncResult result = de.blau.android.overpass.Server.query(main, QUERY, false, false, 20, new de.blau.android.overpass.Server.QueryListener() {
+            @Override
+            public void onProgress(int elements) {
+                progress.add(elements);
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return !progress.isEmpty();
+            }
+        });
+        assertEquals(ErrorCodes.OK, result.getCode());
+        assertEquals(1, progress.size());
+        Storage storage = App.getDelegator().getCurrentStorage();
+        assertEquals(20, storage.getNodeCount() + storage.getWayCount());
+        for (Way w : storage.getWays()) {
+            for (Node n : w.getNodes()) {
+                assertNotNull(storage.getNode(n.getOsmId()));
+            }
+        }
+    }
+
+    /**
+     * Overpass query that only returns a relation
+     */
+    @Test
+    public void overpassQueryRelationsOnly() {
+        mockServer.enqueue("overpass-relations");
+        AsyncResult result = de.blau.android.overpass.Server.query(main, QUERY, false, false);
+        assertEquals(ErrorCodes.OK, result.getCode());
+        Relation relation = (Relation) App.getDelegator().getOsmElement(Relation.NAME, 2807173L);
+        assertNotNull(relation);
+        assertEquals(3, relation.getOsmVersion());
+    }
+
     /**
      * Super ugly hack to get the looper to run
      */
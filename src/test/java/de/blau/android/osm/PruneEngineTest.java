@@ -0,0 +1,221 @@
+package de.blau.android.osm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.content.ComponentCallbacks2;
+import androidx.test.filters.LargeTest;
+import de.blau.android.App;
+import de.blau.android.exception.DataConflictException;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+@LargeTest
+public class PruneEngineTest {
+
+    private static final int    COLUMNS       = 20;
+    private static final int    BOXES         = 300;
+    private static final int    NODES_PER_BOX = 400;
+    private static final int    NODES_PER_WAY = 20;
+    private static final double BOX_SIZE      = 0.01;
+    private static final int    BOX_BUDGET    = 20;
+
+    private StorageDelegator delegator;
+    private PruneEngine      engine;
+    private long             ids;
+
+    /**
+     * Pre test setup
+     */
+    @Before
+    public void setup() {
+        App.newLogic();
+        delegator = App.getDelegator();
+        delegator.reset(false);
+        engine = new PruneEngine(delegator);
+        ids = 0;
+    }
+
+    /**
+     * Download many boxes and check that the retained data stays within the budget, that the least recently viewed
+     * unmodified boxes are removed first and that ways are kept intact
+     */
+    @Test
+    public void stress() {
+        long boxCost = (long) NODES_PER_BOX * PruneEngine.NODE_COST + (long) (NODES_PER_BOX / NODES_PER_WAY) * PruneEngine.WAY_COST;
+        engine.setBudget(BOX_BUDGET * boxCost);
+        Node modified = null;
+        Node previousLast = null;
+        BoundingBox first = null;
+        BoundingBox second = null;
+        BoundingBox box = null;
+        for (int i = 0; i < BOXES; i++) {
+            double left = 8.0 + (i % COLUMNS) * BOX_SIZE;
+            double bottom = 47.0 + (i / COLUMNS) * BOX_SIZE;
+            box = new BoundingBox(left, bottom, left + BOX_SIZE, bottom + BOX_SIZE);
+            Storage downloaded = createData(box, previousLast);
+            previousLast = downloaded.getNode(ids);
+            download(box, downloaded);
+            if (i == 0) {
+                first = new BoundingBox(box);
+                modified = delegator.getCurrentStorage().getNode(1);
+                Map<String, String> tags = new TreeMap<>();
+                tags.put(Tags.KEY_NAME, "modified");
+                delegator.setTags(modified, tags);
+            } else if (i == 1) {
+                second = new BoundingBox(box);
+            }
+            if (engine.pruneNeeded(Integer.MAX_VALUE, Integer.MAX_VALUE)) {
+                engine.prune(null, box, Integer.MAX_VALUE, Integer.MAX_VALUE);
+                assertTrue(engine.getEstimatedCost() <= engine.getBudget());
+            }
+            assertTrue(engine.getEstimatedCost() <= engine.getBudget() + boxCost + PruneEngine.WAY_COST);
+        }
+        Storage storage = delegator.getCurrentStorage();
+        assertTrue(storage.getNodeCount() <= (BOX_BUDGET + 1) * (NODES_PER_BOX + 1));
+        assertTrue(delegator.getBoundingBoxes().contains(box));
+        // the least recently viewed unmodified box has been removed, the one with a modification is retained
+        assertFalse(delegator.getBoundingBoxes().contains(second));
+        assertTrue(delegator.getBoundingBoxes().contains(first));
+        assertEquals(delegator.getBoundingBoxes().size(), engine.size());
+        assertNotNull(storage.getNode(modified.getOsmId()));
+        // no way has lost nodes
+        for (Way w : storage.getWays()) {
+            for (Node n : w.getNodes()) {
+                assertNotNull(storage.getNode(n.getOsmId()));
+            }
+        }
+    }
+
+    /**
+     * Check that memory pressure lowers the limits
+     */
+    @Test
+    public void trimMemory() {
+        for (int i = 0; i < 10; i++) {
+            BoundingBox box = new BoundingBox(8.0 + i * BOX_SIZE, 47.0, 8.0 + (i + 1) * BOX_SIZE, 47.0 + BOX_SIZE);
+            download(box, createData(box, null));
+        }
+        long cost = engine.getEstimatedCost();
+        engine.setBudget(cost * 2);
+        assertFalse(engine.pruneNeeded(Integer.MAX_VALUE, Integer.MAX_VALUE));
+        assertTrue(engine.lowerLimits(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL));
+        assertTrue(engine.pruneNeeded(Integer.MAX_VALUE, Integer.MAX_VALUE));
+        engine.prune(null, new BoundingBox(8.0, 47.0, 8.0 + BOX_SIZE, 47.0 + BOX_SIZE), Integer.MAX_VALUE, Integer.MAX_VALUE);
+        assertTrue(engine.getEstimatedCost() < cost / 2);
+    }
+
+    /**
+     * Check that boxes loaded from saved state are adopted
+     */
+    @Test
+    public void adopt() {
+        for (int i = 0; i < 10; i++) {
+            BoundingBox box = new BoundingBox(8.0 + i * BOX_SIZE, 47.0, 8.0 + (i + 1) * BOX_SIZE, 47.0 + BOX_SIZE);
+            download(box, createData(box, null));
+        }
+        long cost = engine.getEstimatedCost();
+        // simulate a restart
+        PruneEngine fresh = new PruneEngine(delegator);
+        assertEquals(0, fresh.size());
+        fresh.setBudget(cost / 2);
+        fresh.prune(null, new BoundingBox(8.0, 47.0, 8.0 + BOX_SIZE, 47.0 + BOX_SIZE), Integer.MAX_VALUE, Integer.MAX_VALUE);
+        assertTrue(fresh.getEstimatedCost() <= cost / 2);
+        assertTrue(fresh.size() > 0);
+    }
+
+    /**
+     * Check that nodes referenced by ways that weren't downloaded in a box are not removed
+     */
+    @Test
+    public void untrackedWays() {
+        BoundingBox first = new BoundingBox(8.0, 47.0, 8.0 + BOX_SIZE, 47.0 + BOX_SIZE);
+        download(first, createData(first, null));
+        BoundingBox second = new BoundingBox(8.0 + BOX_SIZE, 47.0, 8.0 + 2 * BOX_SIZE, 47.0 + BOX_SIZE);
+        download(second, createData(second, null));
+        // a way loaded individually, for example by an Overpass query, that uses a node from the first box
+        Storage untracked = new Storage();
+        Node shared = delegator.getCurrentStorage().getNode(1);
+        untracked.insertNodeUnsafe(shared);
+        Node own = OsmElementFactory.createNode(++ids, 1, 0, OsmElement.STATE_UNCHANGED, second.getBottom() + 1000, second.getLeft() + 1000);
+        untracked.insertNodeUnsafe(own);
+        Way way = OsmElementFactory.createWay(++ids, 1, 0, OsmElement.STATE_UNCHANGED);
+        way.addNode(shared);
+        way.addNode(own);
+        untracked.insertWayUnsafe(way);
+        try {
+            delegator.mergeData(untracked, null);
+        } catch (DataConflictException e) {
+            fail(e.getMessage());
+        }
+        engine.viewed(second);
+        engine.setBudget(engine.getEstimatedCost() / 2);
+        engine.prune(null, second, Integer.MAX_VALUE, Integer.MAX_VALUE);
+        Storage storage = delegator.getCurrentStorage();
+        assertFalse(delegator.getBoundingBoxes().contains(first));
+        assertNotNull(storage.getWay(way.getOsmId()));
+        assertNotNull(storage.getNode(shared.getOsmId()));
+        // other nodes from the first box are gone
+        assertNull(storage.getNode(2));
+    }
+
+    /**
+     * Merge data for a box and record it
+     * 
+     * @param box the BoundingBox
+     * @param downloaded the data
+     */
+    private void download(BoundingBox box, Storage downloaded) {
+        try {
+            delegator.addBoundingBox(box);
+            delegator.mergeData(downloaded, null);
+            engine.add(box, downloaded);
+            engine.viewed(box);
+        } catch (DataConflictException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * Create a grid of nodes connected by ways in a box
+     * 
+     * @param box the BoundingBox
+     * @param previous if not null this node from a neighbouring box is added to the first way, as a download would
+     * @return a Storage with the data
+     */
+    private Storage createData(BoundingBox box, Node previous) {
+        Storage storage = new Storage();
+        Way way = null;
+        if (previous != null) {
+            storage.insertNodeUnsafe(previous);
+        }
+        for (int j = 0; j < NODES_PER_BOX; j++) {
+            int lat = box.getBottom() + (int) ((long) box.getHeight() * (j / NODES_PER_WAY + 1) / (NODES_PER_BOX / NODES_PER_WAY + 2));
+            int lon = box.getLeft() + (int) ((long) box.getWidth() * (j % NODES_PER_WAY + 1) / (NODES_PER_WAY + 2));
+            Node n = OsmElementFactory.createNode(++ids, 1, 0, OsmElement.STATE_UNCHANGED, lat, lon);
+            storage.insertNodeUnsafe(n);
+            if (j % NODES_PER_WAY == 0) {
+                way = OsmElementFactory.createWay(ids, 1, 0, OsmElement.STATE_UNCHANGED);
+                storage.insertWayUnsafe(way);
+                if (j == 0 && previous != null) {
+                    way.addNode(previous);
+                }
+            }
+            way.addNode(n);
+        }
+        return storage;
+    }
+}
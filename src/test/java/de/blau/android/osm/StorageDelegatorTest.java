@@ -5,7 +5,9 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -1477,4 +1479,51 @@ public class StorageDelegatorTest {
         assertEquals(1, members.size());
         assertEquals(w, members.get(0).getElement());
     }
-}
\ No newline at end of file
+
+    /**
+     * Check that snapshots are shared while unchanged and are not affected by later changes
+     */
+    @Test
+    public void snapshot() {
+        StorageDelegator d = new StorageDelegator();
+        Way w = DelegatorUtil.addWayToStorage(d, true);
+        Storage snapshot = d.getSnapshot();
+        assertEquals(d.getCurrentStorage().getNodeCount(), snapshot.getNodeCount());
+        assertSame(snapshot, d.getSnapshot());
+        assertSame(snapshot, d.peekSnapshot());
+
+        Node n = d.getFactory().createNodeWithNewId(toE7(51.477), toE7(0.001));
+        d.insertElementSafe(n);
+        assertNull(snapshot.getNode(n.getOsmId()));
+        Storage snapshot2 = d.getSnapshot();
+        assertNotSame(snapshot, snapshot2);
+        assertNotNull(snapshot2.getNode(n.getOsmId()));
+
+        d.removeWay(w);
+        assertNotNull(snapshot2.getWay(w.getOsmId()));
+        assertNull(d.getSnapshot().getWay(w.getOsmId()));
+
+        Relation r = d.createAndInsertRelation(null);
+        assertNotNull(d.getSnapshot().getRelation(r.getOsmId()));
+
+        // the lock is held by another thread
+        Storage current = d.getSnapshot();
+        d.lock();
+        try {
+            Storage[] result = new Storage[2];
+            Thread t = new Thread(() -> result[0] = d.peekSnapshot());
+            t.start();
+            t.join();
+            assertSame(current, result[0]);
+            d.insertElementSafe(d.getFactory().createNodeWithNewId(toE7(51.477), toE7(0.002)));
+            t = new Thread(() -> result[1] = d.peekSnapshot());
+            t.start();
+            t.join();
+            assertNull(result[1]);
+        } catch (InterruptedException e) {
+            fail(e.getMessage());
+        } finally {
+            d.unlock();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package de.blau.android.osm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.xml.sax.SAXException;
+
+import androidx.test.filters.LargeTest;
+import de.blau.android.App;
+import de.blau.android.exception.DataConflictException;
+import de.blau.android.exception.OsmServerException;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+@LargeTest
+public class TiledBoxDownloaderTest {
+
+    private StorageDelegator delegator;
+
+    /**
+     * Pre test setup
+     */
+    @Before
+    public void setup() {
+        App.newLogic();
+        delegator = App.getDelegator();
+    }
+
+    /**
+     * Check that a large box is split to the maximum area, that parts with too many nodes are split further and that
+     * the data from all parts is merged
+     */
+    @Test
+    public void download() {
+        final AtomicLong ids = new AtomicLong();
+        // parts wider than 0.3° on the eastern half of the box contain "too many nodes"
+        TiledBoxDownloader downloader = new TiledBoxDownloader(box -> {
+            if (box.getWidth() > 3000000 && box.getRight() > 85000000) {
+                throw new OsmServerException(HttpURLConnection.HTTP_BAD_REQUEST, "You requested too many nodes (limit is 50000)");
+            }
+            Storage storage = new Storage();
+            int lat = (int) (((long) box.getBottom() + box.getTop()) / 2);
+            int lon = (int) (((long) box.getLeft() + box.getRight()) / 2);
+            storage.insertNodeUnsafe(OsmElementFactory.createNode(ids.incrementAndGet(), 1, 0, OsmElement.STATE_UNCHANGED, lat, lon));
+            return storage;
+        }, 0.3f, 3);
+        final AtomicInteger progress = new AtomicInteger();
+        try {
+            int parts = downloader.download(new BoundingBox(8.0, 47.0, 9.0, 48.0), delegator, null, (done, pending) -> progress.set(done));
+            // 2 western quadrants plus 2 x 4 eastern sub-quadrants
+            assertEquals(10, parts);
+            assertEquals(10, progress.get());
+            assertEquals(10, delegator.getCurrentStorage().getNodeCount());
+            // each part is tracked separately for pruning
+            assertEquals(10, delegator.getBoundingBoxes().size());
+            assertEquals(10, delegator.getPruneEngine().size());
+        } catch (IOException | SAXException | ParserConfigurationException | DataConflictException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * Check that errors other than too many nodes are passed on
+     */
+    @Test
+    public void error() {
+        TiledBoxDownloader downloader = new TiledBoxDownloader(box -> {
+            throw new OsmServerException(HttpURLConnection.HTTP_UNAVAILABLE, "Service unavailable");
+        }, 0.3f, 3);
+        try {
+            downloader.download(new BoundingBox(8.0, 47.0, 9.0, 48.0), delegator, null, null);
+            fail("Expected an exception");
+        } catch (OsmServerException e) {
+            assertEquals(HttpURLConnection.HTTP_UNAVAILABLE, e.getHttpErrorCode());
+        } catch (IOException | SAXException | ParserConfigurationException | DataConflictException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * Check that bad requests for other reasons than too many nodes are passed on and not split
+     */
+    @Test
+    public void badRequest() {
+        final AtomicInteger requests = new AtomicInteger();
+        TiledBoxDownloader downloader = new TiledBoxDownloader(box -> {
+            requests.incrementAndGet();
+            throw new OsmServerException(HttpURLConnection.HTTP_BAD_REQUEST, "The latitudes must be between -90 and 90");
+        }, 0.3f, 1);
+        try {
+            downloader.download(new BoundingBox(8.0, 47.0, 9.0, 48.0), delegator, null, null);
+            fail("Expected an exception");
+        } catch (OsmServerException e) {
+            assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, e.getHttpErrorCode());
+            // only the initial 4 parts
+            assertTrue(requests.get() <= 4);
+        } catch (IOException | SAXException | ParserConfigurationException | DataConflictException e) {
+            fail(e.getMessage());
+        }
+    }
+}
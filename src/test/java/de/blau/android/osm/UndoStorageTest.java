@@ -7,6 +7,8 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -125,4 +127,55 @@ public class UndoStorageTest {
         assertEquals(2, w.getParentRelations().size());
         assertTrue(w.getParentRelations().contains(r));
     }
+
+    /**
+     * Check that unchanged state is shared between checkpoints and that undo still restores the correct values
+     */
+    @Test
+    public void sharedState() {
+        StorageDelegator d = App.getDelegator();
+        UndoStorage undo = d.getUndo();
+        Way w = addWayToStorage(d, false);
+        Map<String, String> tags = new TreeMap<>();
+        tags.put(Tags.KEY_HIGHWAY, "residential");
+        long size = undo.getSize();
+        undo.createCheckpoint("tag 1");
+        d.setTags(w, tags);
+        long delta1 = undo.getSize() - size;
+        size = undo.getSize();
+        undo.createCheckpoint("tag 2");
+        tags.put(Tags.KEY_NAME, "test");
+        d.setTags(w, tags);
+        long delta2 = undo.getSize() - size;
+        // the node and parent relation lists are not copied again
+        assertTrue(delta2 < delta1);
+        assertNotNull(undo.undo());
+        assertEquals(1, w.getTags().size());
+        assertEquals(4, w.nodeCount());
+        assertNotNull(undo.undo());
+        assertTrue(w.getTags().isEmpty());
+        assertEquals(4, w.nodeCount());
+    }
+
+    /**
+     * Check that the oldest checkpoints are discarded when the memory budget is exceeded
+     */
+    @Test
+    public void trim() {
+        StorageDelegator d = App.getDelegator();
+        UndoStorage undo = d.getUndo();
+        Way w = addWayToStorage(d, false);
+        for (int i = 0; i < 5; i++) {
+            undo.createCheckpoint("tag " + i);
+            Map<String, String> tags = new TreeMap<>();
+            tags.put(Tags.KEY_NAME, "test " + i);
+            d.setTags(w, tags);
+        }
+        assertEquals(6, undo.getUndoActions(ApplicationProvider.getApplicationContext()).length);
+        undo.trim(0);
+        assertEquals(1, undo.getUndoActions(ApplicationProvider.getApplicationContext()).length);
+        assertNotNull(undo.undo());
+        assertEquals("test 3", w.getTags().get(Tags.KEY_NAME));
+        assertFalse(undo.canUndo());
+    }
 }
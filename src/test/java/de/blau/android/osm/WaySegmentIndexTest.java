@@ -0,0 +1,137 @@
+package de.blau.android.osm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import androidx.test.filters.LargeTest;
+import de.blau.android.App;
+import de.blau.android.UnitTestUtils;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+@LargeTest
+public class WaySegmentIndexTest {
+
+    private StorageDelegator delegator;
+    private WaySegmentIndex  index;
+    private List<Way>        ways;
+
+    /**
+     * Pre test setup
+     */
+    @Before
+    public void setup() {
+        App.newLogic();
+        delegator = UnitTestUtils.loadTestData(getClass(), "test2.osm");
+        ways = new ArrayList<>(delegator.getCurrentStorage().getWays());
+        index = new WaySegmentIndex();
+        index.update(ways);
+    }
+
+    /**
+     * Get a Way with at least three nodes
+     * 
+     * @return a Way
+     */
+    private Way getWay() {
+        for (Way w : ways) {
+            if (w.nodeCount() >= 3) {
+                return w;
+            }
+        }
+        throw new IllegalStateException("no suitable way");
+    }
+
+    /**
+     * Check that querying a box around a node returns exactly the segments that start or end at it
+     */
+    @Test
+    public void query() {
+        int segments = 0;
+        for (Way w : ways) {
+            segments += Math.max(0, w.nodeCount() - 1);
+        }
+        assertEquals(segments, index.getSegmentCount());
+        assertEquals(ways.size(), index.getWayCount());
+
+        Way way = getWay();
+        Node n = way.getNodes().get(1);
+        Map<Way, BitSet> result = new HashMap<>();
+        index.query(new BoundingBox(n.getLon(), n.getLat()), result);
+        BitSet found = result.get(way);
+        assertNotNull(found);
+        assertTrue(found.get(0));
+        assertTrue(found.get(1));
+        for (Way w : delegator.getCurrentStorage().getWays(n)) {
+            assertTrue(result.containsKey(w));
+        }
+    }
+
+    /**
+     * Check that changes to the geometry and the indexed set are picked up
+     */
+    @Test
+    public void update() {
+        Way way = getWay();
+        Node n = way.getNodes().get(1);
+        int oldLat = n.getLat();
+        int oldLon = n.getLon();
+        delegator.moveNode(n, oldLat + 100000, oldLon + 100000);
+        index.update(ways);
+
+        Map<Way, BitSet> result = new HashMap<>();
+        index.query(new BoundingBox(n.getLon(), n.getLat()), result);
+        assertTrue(result.containsKey(way));
+
+        // ways that aren't in the current set are not returned
+        ways.remove(way);
+        index.update(ways);
+        result.clear();
+        index.query(new BoundingBox(n.getLon(), n.getLat()), result);
+        assertFalse(result.containsKey(way));
+    }
+
+    /**
+     * Check that removing nodes from a way is picked up and doesn't break queries
+     */
+    @Test
+    public void shrink() {
+        Way way = getWay();
+        Node last = way.getLastNode();
+        int segments = index.getSegmentCount() - (way.nodeCount() - 1);
+        way.removeNode(last);
+        index.update(ways);
+        assertEquals(segments + way.nodeCount() - 1, index.getSegmentCount());
+        Map<Way, BitSet> result = new HashMap<>();
+        index.query(new BoundingBox(last.getLon(), last.getLat()), result);
+        BitSet found = result.get(way);
+        assertTrue(found == null || found.nextSetBit(way.nodeCount() - 1) == -1);
+    }
+
+    /**
+     * Check that deleted ways are removed from the index
+     */
+    @Test
+    public void delete() {
+        Way way = getWay();
+        int wayCount = index.getWayCount();
+        delegator.removeWay(way);
+        ways.remove(way);
+        index.update(ways);
+        assertEquals(wayCount - 1, index.getWayCount());
+    }
+}
@@ -2,6 +2,7 @@ package de.blau.android.osm;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
@@ -12,6 +13,7 @@ import java.io.InputStream;
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.List;
 
 import javax.xml.parsers.ParserConfigurationException;
 
@@ -23,6 +25,8 @@ import org.xml.sax.SAXException;
 import org.xmlpull.v1.XmlPullParserException;
 
 import androidx.test.filters.LargeTest;
+import de.blau.android.App;
+import de.blau.android.UnitTestUtils;
 import de.blau.android.util.Hash;
 
 @RunWith(RobolectricTestRunner.class)
@@ -92,6 +96,39 @@ public class XmlTest {
         }
     }
 
+    /**
+     * Check that any prefix of the upload order only references elements in the prefix and that deletions come last
+     */
+    @Test
+    public void uploadOrder() {
+        App.newLogic();
+        StorageDelegator delegator = UnitTestUtils.loadTestData(getClass(), "test2.osm");
+        Way deleted = delegator.getCurrentStorage().getWays().get(0);
+        delegator.removeWay(deleted);
+        OsmElementFactory factory = delegator.getFactory();
+        Node n1 = factory.createNodeWithNewId(deleted.getFirstNode().getLat(), deleted.getFirstNode().getLon() + 100);
+        Node n2 = factory.createNodeWithNewId(deleted.getFirstNode().getLat() + 100, deleted.getFirstNode().getLon());
+        delegator.insertElementSafe(n1);
+        delegator.insertElementSafe(n2);
+        Way w = delegator.createAndInsertWay(n1);
+        delegator.addNodeToWay(n2, w);
+
+        List<OsmElement> changes = OsmXml.getUploadOrder(delegator.getApiStorage());
+        assertEquals(delegator.getApiElementCount(), changes.size());
+        assertTrue(changes.indexOf(n1) < changes.indexOf(w));
+        assertTrue(changes.indexOf(n2) < changes.indexOf(w));
+        boolean inDelete = false;
+        for (OsmElement e : changes) {
+            if (e.getState() == OsmElement.STATE_DELETED) {
+                inDelete = true;
+            } else {
+                assertFalse(inDelete);
+            }
+        }
+        assertEquals(OsmElement.STATE_DELETED, changes.get(changes.size() - 1).getState());
+        assertTrue(changes.indexOf(deleted) > changes.indexOf(w));
+    }
+
     /**
      * Read an osm file generated with opeverpass into a Storage object, write the object out and compare hash
      */
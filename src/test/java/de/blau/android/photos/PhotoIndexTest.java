@@ -0,0 +1,330 @@
+package de.blau.android.photos;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.provider.BaseColumns;
+import android.provider.MediaStore;
+import android.provider.MediaStore.MediaColumns;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.filters.LargeTest;
+import de.blau.android.App;
+import de.blau.android.contract.MimeTypes;
+import de.blau.android.osm.BoundingBox;
+import de.blau.android.util.FileUtil;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+@LargeTest
+public class PhotoIndexTest {
+
+    private static final int    PHOTOS   = 500;
+    private static final String TEST_JPG = "test.jpg";
+
+    private Context    ctx;
+    private PhotoIndex index;
+
+    /**
+     * Pre-test setup
+     */
+    @Before
+    public void setup() {
+        ctx = ApplicationProvider.getApplicationContext();
+        ctx.deleteDatabase(PhotoIndex.DB_NAME);
+        index = new PhotoIndex(ctx);
+    }
+
+    /**
+     * Post-test teardown
+     */
+    @After
+    public void teardown() {
+        index.close();
+        ctx.deleteDatabase(PhotoIndex.DB_NAME);
+    }
+
+    /**
+     * Query the on device index for a number of areas and compare with the expected result
+     */
+    @Test
+    public void spatialQuery() {
+        Random random = new Random(4711);
+        List<Photo> photos = new ArrayList<>();
+        for (int i = 0; i < PHOTOS; i++) {
+            Photo p = new Photo(473000000 + random.nextInt(2000000), 85000000 + random.nextInt(3000000), "/photos/" + i + ".jpg", i + ".jpg", 0);
+            photos.add(p);
+            index.addPhoto(p);
+        }
+        assertEquals(PHOTOS, index.count());
+        for (int i = 0; i < 20; i++) {
+            int left = 85000000 + random.nextInt(2500000);
+            int bottom = 473000000 + random.nextInt(1500000);
+            BoundingBox box = new BoundingBox(left, bottom, left + random.nextInt(500000), bottom + random.nextInt(500000));
+            assertEquals(expected(photos, box), new HashSet<>(index.getPhotos(box)));
+        }
+
+        // changes are visible in the next query
+        Photo p = photos.get(0);
+        BoundingBox box = new BoundingBox(p.getLon() - 1000, p.getLat() - 1000, p.getLon() + 1000, p.getLat() + 1000);
+        assertTrue(index.getPhotos(box).contains(p));
+        assertTrue(index.deletePhoto(ctx, p.getRef()));
+        assertFalse(index.getPhotos(box).contains(p));
+        assertEquals(PHOTOS - 1, index.count());
+    }
+
+    /**
+     * Photos that are not stored are returned from the in memory index
+     */
+    @Test
+    public void inMemory() {
+        Photo stored = new Photo(473000000, 85000000, "/photos/stored.jpg", "stored.jpg", 0);
+        index.addPhoto(stored);
+        Photo transientPhoto = new Photo(473000100, 85000100, "content://photos/1", "1.jpg", 0);
+        PhotoIndex.addToIndex(transientPhoto);
+        BoundingBox box = new BoundingBox(84999000, 472999000, 85001000, 473001000);
+        List<Photo> result = index.getPhotos(box);
+        assertEquals(2, result.size());
+        assertTrue(result.contains(stored));
+        assertTrue(result.contains(transientPhoto));
+        assertEquals(1, index.count());
+
+        assertTrue(index.deletePhoto(ctx, transientPhoto.getRef()));
+        assertEquals(1, index.getPhotos(box).size());
+        App.resetPhotoIndex();
+    }
+
+    /**
+     * Only new and modified MediaStore images are parsed, removed images are removed from the index
+     */
+    @Test
+    public void mediaStoreIncremental() {
+        TestMediaStore mediaStore = setupMediaStore();
+        mediaStore.images.put(1L, 1L);
+        mediaStore.images.put(2L, 1L);
+        mediaStore.images.put(3L, 1L);
+        index.indexMediaStore();
+        assertEquals(3, index.count());
+        assertEquals(1, mediaStore.opened(1));
+        assertEquals(1, mediaStore.opened(2));
+        assertEquals(1, mediaStore.opened(3));
+        assertTrue(index.getLastScan(PhotoIndex.MEDIA_STORE) > 0);
+
+        mediaStore.images.put(2L, 2L);
+        mediaStore.images.remove(3L);
+        index.indexMediaStore();
+        assertEquals(2, index.count());
+        assertEquals(1, mediaStore.opened(1)); // unchanged
+        assertEquals(2, mediaStore.opened(2)); // modified
+        assertEquals(1, mediaStore.opened(3)); // removed
+    }
+
+    /**
+     * A cancelled run doesn't mark the MediaStore as scanned, the next run only processes the remaining images
+     */
+    @Test
+    public void mediaStoreCancel() {
+        TestMediaStore mediaStore = setupMediaStore();
+        for (long id = 1; id <= 60; id++) {
+            mediaStore.images.put(id, 1L);
+        }
+        final List<int[]> progress = new ArrayList<>();
+        index.indexMediaStore((int done, int total) -> {
+            progress.add(new int[] { done, total });
+            index.cancel();
+        });
+        assertEquals(1, progress.size());
+        assertEquals(50, progress.get(0)[0]);
+        assertEquals(0, index.getLastScan(PhotoIndex.MEDIA_STORE));
+
+        index.close();
+        index = new PhotoIndex(ctx);
+        progress.clear();
+        index.indexMediaStore((int done, int total) -> progress.add(new int[] { done, total }));
+        assertEquals(1, progress.size());
+        assertEquals(10, progress.get(0)[0]);
+        assertEquals(10, progress.get(0)[1]);
+        assertTrue(index.getLastScan(PhotoIndex.MEDIA_STORE) > 0);
+        assertEquals(60, index.count());
+    }
+
+    /**
+     * The ProgressListener is called once per batch
+     */
+    @Test
+    public void mediaStoreProgress() {
+        TestMediaStore mediaStore = setupMediaStore();
+        for (long id = 1; id <= 120; id++) {
+            mediaStore.images.put(id, 1L);
+        }
+        final List<int[]> progress = new ArrayList<>();
+        index.indexMediaStore((int done, int total) -> progress.add(new int[] { done, total }));
+        assertEquals(3, progress.size());
+        assertEquals(50, progress.get(0)[0]);
+        assertEquals(100, progress.get(1)[0]);
+        assertEquals(120, progress.get(2)[0]);
+        for (int[] p : progress) {
+            assertEquals(120, p[1]);
+        }
+    }
+
+    /**
+     * Register a TestMediaStore that serves a geo-referenced test image for all its entries
+     * 
+     * @return the TestMediaStore
+     */
+    @NonNull
+    private TestMediaStore setupMediaStore() {
+        TestMediaStore mediaStore = Robolectric.buildContentProvider(TestMediaStore.class).create(MediaStore.AUTHORITY).get();
+        mediaStore.file = new File(ctx.getCacheDir(), TEST_JPG);
+        try (InputStream is = Thread.currentThread().getContextClassLoader().getResourceAsStream(TEST_JPG)) {
+            FileUtil.copy(is, mediaStore.file);
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+        return mediaStore;
+    }
+
+    /**
+     * Minimal MediaStore replacement
+     */
+    public static class TestMediaStore extends ContentProvider {
+        static final String VERSION = "test";
+
+        final Map<Long, Long>          images = new ConcurrentSkipListMap<>(); // id -> generation
+        final Map<Long, AtomicInteger> opens  = new ConcurrentHashMap<>();
+        File                           file;
+
+        /**
+         * Get how often an image has been opened
+         * 
+         * @param id the image id
+         * @return the number of times the image was opened
+         */
+        int opened(long id) {
+            AtomicInteger count = opens.get(id);
+            return count != null ? count.get() : 0;
+        }
+
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Override
+        public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection, @Nullable String[] selectionArgs,
+                @Nullable String sortOrder) {
+            MatrixCursor cursor = new MatrixCursor(projection);
+            for (Entry<Long, Long> image : images.entrySet()) {
+                long id = image.getKey();
+                Object[] row = new Object[projection.length];
+                for (int i = 0; i < projection.length; i++) {
+                    switch (projection[i]) {
+                    case BaseColumns._ID:
+                        row[i] = id;
+                        break;
+                    case MediaColumns.DISPLAY_NAME:
+                        row[i] = id + ".jpg";
+                        break;
+                    case MediaColumns.MIME_TYPE:
+                        row[i] = MimeTypes.JPEG;
+                        break;
+                    case MediaColumns.DATA: // NOSONAR
+                        row[i] = "/media/" + id + ".jpg";
+                        break;
+                    default: // generation or modification date
+                        row[i] = image.getValue();
+                    }
+                }
+                cursor.addRow(row);
+            }
+            return cursor;
+        }
+
+        @Override
+        public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+            Bundle result = new Bundle();
+            result.putString(Intent.EXTRA_TEXT, VERSION);
+            return result;
+        }
+
+        @Override
+        public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode) throws FileNotFoundException {
+            long id = Long.parseLong(uri.getLastPathSegment());
+            opens.computeIfAbsent(id, k -> new AtomicInteger()).incrementAndGet();
+            return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+        }
+
+        @Override
+        public String getType(@NonNull Uri uri) {
+            return MimeTypes.JPEG;
+        }
+
+        @Override
+        public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
+            return null;
+        }
+
+        @Override
+        public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
+            return 0;
+        }
+
+        @Override
+        public int update(@NonNull Uri uri, @Nullable ContentValues values, @Nullable String selection, @Nullable String[] selectionArgs) {
+            return 0;
+        }
+    }
+
+    /**
+     * Determine the photos in a BoundingBox by brute force
+     * 
+     * @param photos all photos
+     * @param box the BoundingBox
+     * @return a Set of the Photos in box
+     */
+    private Set<Photo> expected(List<Photo> photos, BoundingBox box) {
+        Set<Photo> result = new HashSet<>();
+        for (Photo p : photos) {
+            if (box.contains(p.getLon(), p.getLat())) {
+                result.add(p);
+            }
+        }
+        return result;
+    }
+}
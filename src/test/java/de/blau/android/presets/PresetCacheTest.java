@@ -0,0 +1,117 @@
+package de.blau.android.presets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.xml.sax.SAXException;
+
+import android.content.Context;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.filters.LargeTest;
+import de.blau.android.App;
+import de.blau.android.JavaResources;
+import de.blau.android.osm.Tags;
+import de.blau.android.prefs.AdvancedPrefDatabase;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+@LargeTest
+public class PresetCacheTest {
+
+    private Context context;
+
+    /**
+     * Before test setup
+     */
+    @Before
+    public void setup() {
+        context = ApplicationProvider.getApplicationContext();
+        App.newLogic();
+    }
+
+    /**
+     * Parse the default preset, then read it from the cache and compare
+     */
+    @Test
+    public void defaultPreset() {
+        try (AdvancedPrefDatabase db = new AdvancedPrefDatabase(context)) {
+            File directory = db.getPresetDirectory(AdvancedPrefDatabase.ID_DEFAULT);
+            File cacheFile = new File(directory, de.blau.android.contract.Files.FILE_NAME_PRESET_CACHE);
+            cacheFile.delete(); // NOSONAR
+            long start = System.currentTimeMillis();
+            Preset parsed = PresetCache.getPreset(context, directory, true);
+            long parseTime = System.currentTimeMillis() - start;
+            assertTrue(cacheFile.exists());
+            start = System.currentTimeMillis();
+            Preset cached = PresetCache.getPreset(context, directory, true);
+            long cacheTime = System.currentTimeMillis() - start;
+            System.out.println("Default preset parse " + parseTime + " ms, from cache " + cacheTime + " ms"); // NOSONAR
+            assertNotSame(parsed, cached);
+            assertEquals(parsed.getHash(), cached.getHash());
+            assertNotNull(cached.getMru());
+            assertEquals(parsed.getItemByTag(Tags.KEY_HIGHWAY + "\t" + Tags.VALUE_MOTORWAY_LINK).size(),
+                    cached.getItemByTag(Tags.KEY_HIGHWAY + "\t" + Tags.VALUE_MOTORWAY_LINK).size());
+            assertEquals(Preset.getSearchIndex(new Preset[] { parsed }).getKeys().size(), Preset.getSearchIndex(new Preset[] { cached }).getKeys().size());
+            assertEquals(parsed.getRootGroup().getElements().size(), cached.getRootGroup().getElements().size());
+            assertEquals(parsed.getObjectKeys(), cached.getObjectKeys());
+        } catch (IOException | NoSuchAlgorithmException | ParserConfigurationException | SAXException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * Check that region restrictions survive caching and that a changed preset file is parsed again
+     */
+    @Test
+    public void customPreset() {
+        try {
+            File presetFile = JavaResources.copyFileFromResources(context, "test_preset1.xml", null, "test_preset_cache");
+            File directory = presetFile.getParentFile();
+            new File(directory, de.blau.android.contract.Files.FILE_NAME_PRESET_CACHE).delete(); // NOSONAR
+            PresetCache.getPreset(context, directory, false);
+            Preset cached = PresetCache.getPreset(context, directory, false);
+            Map<String, String> tags = new HashMap<>();
+            tags.put(Tags.KEY_HIGHWAY, Tags.VALUE_MOTORWAY_LINK);
+            PresetItem us = Preset.findBestMatch(new Preset[] { cached }, tags, Arrays.asList("US"), null);
+            assertNotNull(us);
+            assertEquals("Motorway Link (US)", us.getName());
+            PresetItem ch = Preset.findBestMatch(new Preset[] { cached }, tags, Arrays.asList("CH"), null);
+            assertNotNull(ch);
+            assertEquals("Motorway Link", ch.getName());
+
+            // change the preset file
+            String content = new String(Files.readAllBytes(presetFile.toPath()), StandardCharsets.UTF_8);
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(presetFile), StandardCharsets.UTF_8)) {
+                writer.write(content.replace("Invalid icon", "Changed name"));
+            }
+            Preset changed = PresetCache.getPreset(context, directory, false);
+            assertNull(changed.getItemByName("Invalid icon", null));
+            assertNotNull(changed.getItemByName("Changed name", null));
+        } catch (IOException | NoSuchAlgorithmException | ParserConfigurationException | SAXException e) {
+            fail(e.getMessage());
+        }
+    }
+}
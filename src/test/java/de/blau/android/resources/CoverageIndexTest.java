@@ -0,0 +1,146 @@
+package de.blau.android.resources;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.content.Context;
+import androidx.annotation.NonNull;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.filters.LargeTest;
+import de.blau.android.osm.BoundingBox;
+import de.blau.android.resources.TileLayerSource.Category;
+import de.blau.android.resources.TileLayerSource.Provider;
+import de.blau.android.resources.TileLayerSource.Provider.CoverageArea;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+@LargeTest
+public class CoverageIndexTest {
+
+    private static final double BOX_SIZE = 0.05;
+
+    private TileLayerDatabase db;
+    private Context           ctx;
+
+    /**
+     * Pre-test setup
+     */
+    @Before
+    public void setup() {
+        ctx = ApplicationProvider.getApplicationContext();
+        ctx.deleteDatabase(TileLayerDatabase.DATABASE_NAME);
+        db = new TileLayerDatabase(ctx);
+        TileLayerSource.createOrUpdateFromAssetsSource(ctx, db.getWritableDatabase(), true, true);
+        TileLayerSource.getListsLocked(ctx, db.getReadableDatabase(), true);
+    }
+
+    /**
+     * Post-test teardown
+     */
+    @After
+    public void teardown() {
+        db.close();
+        ctx.deleteDatabase(TileLayerDatabase.DATABASE_NAME);
+    }
+
+    /**
+     * Compare the indexed queries with a linear scan over the bundled imagery
+     */
+    @Test
+    public void compareWithLinearScan() {
+        List<TileLayerSource> sources = new ArrayList<>();
+        for (String id : TileLayerSource.getIds(null, false, null, null)) {
+            TileLayerSource source = TileLayerSource.get(ctx, id, false);
+            assertNotNull(source);
+            sources.add(source);
+        }
+        assertFalse(sources.isEmpty());
+        List<BoundingBox> boxes = new ArrayList<>();
+        for (double lon = -180; lon < 180 - BOX_SIZE; lon += 7.5) {
+            for (double lat = -80; lat < 80; lat += 5) {
+                boxes.add(new BoundingBox(lon, lat, lon + BOX_SIZE, lat + BOX_SIZE));
+            }
+        }
+        // denser where most of the imagery is
+        for (double lon = -10; lon < 30; lon += 0.5) {
+            for (double lat = 36; lat < 60; lat += 0.5) {
+                boxes.add(new BoundingBox(lon, lat, lon + BOX_SIZE, lat + BOX_SIZE));
+            }
+        }
+        // first query builds the index
+        TileLayerSource.getIds(boxes.get(0), true, null, null);
+
+        long linearTime = 0;
+        long indexedTime = 0;
+        for (BoundingBox box : boxes) {
+            long start = System.nanoTime();
+            Set<String> expected = linearScan(sources, box);
+            linearTime += System.nanoTime() - start;
+            start = System.nanoTime();
+            String[] ids = TileLayerSource.getIds(box, true, null, null);
+            indexedTime += System.nanoTime() - start;
+            assertEquals(expected, new HashSet<>(Arrays.asList(ids)));
+            assertEquals(expected.size(), ids.length);
+        }
+        System.out.println("Sources " + sources.size() + " queries " + boxes.size() + " linear " + linearTime / 1000000 + " ms indexed "
+                + indexedTime / 1000000 + " ms");
+    }
+
+    /**
+     * Check that the index is rebuilt when the coverage changes
+     */
+    @Test
+    public void invalidate() {
+        BoundingBox box = new BoundingBox(-160.0, -70.0, -159.9, -69.9);
+        String[] ids = TileLayerSource.getIds(box, true, null, null);
+        TileLayerSource source = null;
+        for (String id : TileLayerSource.getIds(null, false, null, null)) {
+            TileLayerSource candidate = TileLayerSource.get(ctx, id, false);
+            if (!Arrays.asList(ids).contains(id) && !Category.internal.equals(candidate.getCategory())) {
+                source = candidate;
+                break;
+            }
+        }
+        assertNotNull(source);
+        Provider provider = new Provider();
+        provider.addCoverageArea(new CoverageArea(0, 20, new BoundingBox(-161.0, -71.0, -159.0, -69.0)));
+        source.setProvider(provider);
+        assertTrue(Arrays.asList(TileLayerSource.getIds(box, true, null, null)).contains(source.getId()));
+        // reloading from the database restores the original coverage
+        TileLayerSource.getListsLocked(ctx, db.getReadableDatabase(), true);
+        assertEquals(ids.length, TileLayerSource.getIds(box, true, null, null).length);
+    }
+
+    /**
+     * Filter the sources without using the index
+     * 
+     * @param sources all sources
+     * @param box the BoundingBox
+     * @return a Set with the ids of the sources covering box
+     */
+    @NonNull
+    private Set<String> linearScan(@NonNull List<TileLayerSource> sources, @NonNull BoundingBox box) {
+        Set<String> result = new HashSet<>();
+        for (TileLayerSource source : sources) {
+            if (source.covers(box)) {
+                result.add(source.getId());
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,148 @@
+package de.blau.android.resources;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import androidx.annotation.NonNull;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.filters.LargeTest;
+import de.blau.android.util.FileUtil;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+@LargeTest
+public class ImageryImporterTest {
+
+    private TileLayerDatabase db;
+    private Context           ctx;
+
+    /**
+     * Pre-test setup
+     */
+    @Before
+    public void setup() {
+        ctx = ApplicationProvider.getApplicationContext();
+        ctx.deleteDatabase(TileLayerDatabase.DATABASE_NAME);
+        db = new TileLayerDatabase(ctx);
+        TileLayerDatabase.addSource(db.getWritableDatabase(), TileLayerDatabase.SOURCE_ELI);
+    }
+
+    /**
+     * Post-test teardown
+     */
+    @After
+    public void teardown() {
+        db.close();
+        ctx.deleteDatabase(TileLayerDatabase.DATABASE_NAME);
+    }
+
+    /**
+     * Import the same configuration repeatedly with small changes
+     */
+    @Test
+    public void incrementalUpdate() {
+        SQLiteDatabase writableDb = db.getWritableDatabase();
+        String config = stringFromResource("/imagery_test_with_meta.geojson");
+
+        ImageryImporter importer = importString(writableDb, config);
+        assertEquals(5, importer.getAdded());
+        assertEquals(0, importer.getUnchanged());
+        // B is a multi-ring polygon in a 1.0 format file
+        assertEquals(2, TileLayerDatabase.getLayer(ctx, writableDb, "B").getCoverage().size());
+
+        importer = importString(writableDb, config);
+        assertEquals(0, importer.getAdded());
+        assertEquals(0, importer.getUpdated());
+        assertEquals(5, importer.getUnchanged());
+
+        importer = importString(writableDb, config.replace("\"C imagery\"", "\"C changed\""));
+        assertEquals(1, importer.getUpdated());
+        assertEquals(4, importer.getUnchanged());
+        TileLayerSource c = TileLayerDatabase.getLayer(ctx, writableDb, "C");
+        assertNotNull(c);
+        assertEquals("C changed", c.getName());
+
+        // only contains B, now with a proper polygon
+        importer = importString(writableDb, stringFromResource("/imagery_test_1_1.geojson"));
+        assertEquals(1, importer.getUpdated());
+        assertEquals(1, TileLayerDatabase.getLayer(ctx, writableDb, "B").getCoverage().size());
+        assertNull(TileLayerDatabase.getLayer(ctx, writableDb, "C"));
+        assertEquals(1, TileLayerDatabase.getLayerHashes(writableDb, TileLayerDatabase.SOURCE_ELI).size());
+    }
+
+    /**
+     * Check that entries from earlier files take precedence
+     */
+    @Test
+    public void earlierFileWins() {
+        SQLiteDatabase writableDb = db.getWritableDatabase();
+        String config = stringFromResource("/imagery_test_with_meta.geojson");
+        ImageryImporter importer = new ImageryImporter(ctx, writableDb, TileLayerDatabase.SOURCE_ELI, true);
+        try {
+            importer.read(new ByteArrayInputStream(config.getBytes(StandardCharsets.UTF_8)));
+            importer.read(new ByteArrayInputStream(config.replace("\"C imagery\"", "\"C changed\"").getBytes(StandardCharsets.UTF_8)));
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+        importer.finish(true);
+        assertEquals(5, importer.getAdded());
+        assertEquals("C imagery", TileLayerDatabase.getLayer(ctx, writableDb, "C").getName());
+    }
+
+    /**
+     * Run an import from a String
+     * 
+     * @param writableDb the database
+     * @param config the configuration
+     * @return the ImageryImporter used
+     */
+    @NonNull
+    private ImageryImporter importString(@NonNull SQLiteDatabase writableDb, @NonNull String config) {
+        ImageryImporter importer = new ImageryImporter(ctx, writableDb, TileLayerDatabase.SOURCE_ELI, true);
+        try {
+            writableDb.beginTransaction();
+            importer.read(new ByteArrayInputStream(config.getBytes(StandardCharsets.UTF_8)));
+            importer.finish(true);
+            writableDb.setTransactionSuccessful();
+        } catch (IOException e) {
+            fail(e.getMessage());
+        } finally {
+            writableDb.endTransaction();
+        }
+        return importer;
+    }
+
+    /**
+     * Get a resource file as a String
+     * 
+     * @param path path for the resource
+     * @return a resource file as a String
+     */
+    @NonNull
+    private String stringFromResource(@NonNull String path) {
+        try (InputStream is = getClass().getResourceAsStream(path)) {
+            return FileUtil.readToString(new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8)));
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+        return null;
+    }
+}
@@ -0,0 +1,213 @@
+package de.blau.android.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.content.Context;
+import androidx.annotation.NonNull;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.filters.LargeTest;
+import de.blau.android.App;
+import de.blau.android.AsyncResult;
+import de.blau.android.ErrorCodes;
+import de.blau.android.exception.DataConflictException;
+import de.blau.android.gpx.TrackPoint;
+import de.blau.android.osm.BoundingBox;
+import de.blau.android.osm.OsmElement;
+import de.blau.android.osm.OsmElementFactory;
+import de.blau.android.osm.Storage;
+import de.blau.android.osm.StorageDelegator;
+import de.blau.android.services.util.MapTile;
+import de.blau.android.util.GeoMath;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk=33)
+@LargeTest
+public class PrefetchPlannerTest {
+
+    private static final int RADIUS           = 100;
+    private static final int ELEMENTS_PER_BOX = 10;
+
+    private Context          context;
+    private StorageDelegator delegator;
+    private long             ids;
+
+    /**
+     * Pre-test setup
+     */
+    @Before
+    public void setup() {
+        context = ApplicationProvider.getApplicationContext();
+        App.newLogic();
+        delegator = App.getDelegator();
+        ids = 0;
+    }
+
+    /**
+     * Get a test route
+     * 
+     * @return a List of TrackPoint
+     */
+    @NonNull
+    private static List<TrackPoint> getRoute() {
+        List<TrackPoint> route = new ArrayList<>();
+        route.add(new TrackPoint((byte) 0, 47.3900, 8.3700, 0));
+        route.add(new TrackPoint((byte) 0, 47.3950, 8.3900, 0));
+        route.add(new TrackPoint((byte) 0, 47.4000, 8.3900, 0));
+        return route;
+    }
+
+    /**
+     * Check that the corridor covers the route and nothing far from it
+     */
+    @Test
+    public void corridor() {
+        List<TrackPoint> route = getRoute();
+        List<BoundingBox> corridor = new PrefetchPlanner(RADIUS, 0).getCorridor(route);
+        assertFalse(corridor.isEmpty());
+        assertTrue(corridor.get(0).contains(8.3700, 47.3900));
+
+        double offset = GeoMath.convertMetersToGeoDistance(RADIUS * 0.9);
+        for (int i = 1; i < route.size(); i++) {
+            TrackPoint start = route.get(i - 1);
+            TrackPoint end = route.get(i);
+            for (int j = 0; j <= 50; j++) {
+                double lon = start.getLongitude() + (end.getLongitude() - start.getLongitude()) * j / 50;
+                double lat = start.getLatitude() + (end.getLatitude() - start.getLatitude()) * j / 50;
+                assertTrue(covered(corridor, lon, lat));
+                assertTrue(covered(corridor, lon + offset, lat));
+                assertTrue(covered(corridor, lon - offset, lat));
+                assertTrue(covered(corridor, lon, lat + offset));
+                assertTrue(covered(corridor, lon, lat - offset));
+            }
+        }
+        assertFalse(covered(corridor, 8.3700, 47.4000));
+    }
+
+    /**
+     * Check that downloading stops once the budget has been used up and that the downloaded boxes are not pruned
+     */
+    @Test
+    public void budget() {
+        final AtomicInteger requests = new AtomicInteger();
+        final int budgetBoxes = 3;
+        PrefetchPlanner planner = new PrefetchPlanner(RADIUS, (long) budgetBoxes * ELEMENTS_PER_BOX * PrefetchPlanner.BYTES_PER_ELEMENT,
+                (Context ctx, BoundingBox box) -> {
+                    requests.incrementAndGet();
+                    return load(box);
+                });
+        assertTrue(planner.getCorridor(getRoute()).size() > budgetBoxes);
+        long used = planner.prefetch(context, getRoute(), false, null);
+        assertEquals(budgetBoxes, requests.get());
+        assertEquals((long) budgetBoxes * ELEMENTS_PER_BOX * PrefetchPlanner.BYTES_PER_ELEMENT, used);
+        assertEquals(budgetBoxes * ELEMENTS_PER_BOX, delegator.getCurrentStorage().getNodeCount());
+
+        // prefetched boxes are protected
+        int boxes = delegator.getBoundingBoxes().size();
+        delegator.getPruneEngine().setBudget(0);
+        delegator.getPruneEngine().prune(null, new BoundingBox(0.0, 0.0, 0.001, 0.001), 0, 0);
+        assertEquals(boxes, delegator.getBoundingBoxes().size());
+        assertEquals(budgetBoxes * ELEMENTS_PER_BOX, delegator.getCurrentStorage().getNodeCount());
+    }
+
+    /**
+     * Check that nothing further is downloaded after the prefetch has been cancelled
+     */
+    @Test
+    public void cancel() {
+        final AtomicInteger requests = new AtomicInteger();
+        final PrefetchPlanner[] planner = new PrefetchPlanner[1];
+        planner[0] = new PrefetchPlanner(RADIUS, Long.MAX_VALUE, (Context ctx, BoundingBox box) -> {
+            requests.incrementAndGet();
+            planner[0].cancel();
+            return load(box);
+        });
+        planner[0].prefetch(context, getRoute(), false, null);
+        assertTrue(planner[0].isCancelled());
+        assertEquals(1, requests.get());
+    }
+
+    /**
+     * Check that the box is removed if the download fails and that no further data is requested
+     */
+    @Test
+    public void failure() {
+        final AtomicInteger requests = new AtomicInteger();
+        PrefetchPlanner planner = new PrefetchPlanner(RADIUS, Long.MAX_VALUE, (Context ctx, BoundingBox box) -> {
+            requests.incrementAndGet();
+            return new AsyncResult(ErrorCodes.NO_CONNECTION);
+        });
+        planner.prefetch(context, getRoute(), false, null);
+        assertEquals(1, requests.get());
+        assertTrue(delegator.getBoundingBoxes().isEmpty());
+    }
+
+    /**
+     * Merge some nodes in to the current storage
+     * 
+     * @param box the BoundingBox the nodes should be in
+     * @return an AsyncResult
+     */
+    @NonNull
+    private AsyncResult load(@NonNull BoundingBox box) {
+        Storage storage = new Storage();
+        for (int i = 0; i < ELEMENTS_PER_BOX; i++) {
+            int lat = box.getBottom() + box.getHeight() / 2;
+            int lon = box.getLeft() + box.getWidth() / 2;
+            storage.insertNodeUnsafe(OsmElementFactory.createNode(++ids, 1, 0, OsmElement.STATE_UNCHANGED, lat, lon));
+        }
+        try {
+            delegator.mergeData(storage, null);
+        } catch (DataConflictException e) {
+            return new AsyncResult(ErrorCodes.DATA_CONFLICT);
+        }
+        return new AsyncResult(ErrorCodes.OK);
+    }
+
+    /**
+     * Check if a coordinate is contained in one of the boxes
+     * 
+     * @param boxes the List of BoundingBox
+     * @param lon the longitude
+     * @param lat the latitude
+     * @return true if the coordinate is covered
+     */
+    private boolean covered(@NonNull List<BoundingBox> boxes, double lon, double lat) {
+        for (BoundingBox box : boxes) {
+            if (box.contains(lon, lat)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check the tiles for a box
+     */
+    @Test
+    public void tiles() {
+        BoundingBox box = new BoundingBox(8.3700, 47.3900, 8.3800, 47.3950);
+        List<MapTile> tiles = PrefetchPlanner.getTiles("test", box, 15, 17);
+        int zoom = 15;
+        int[] counts = new int[18];
+        for (MapTile tile : tiles) {
+            assertTrue(tile.zoomLevel >= zoom);
+            zoom = tile.zoomLevel;
+            counts[zoom]++;
+        }
+        assertEquals(17, zoom);
+        assertTrue(counts[15] >= 1);
+        assertTrue(counts[17] > counts[15]);
+    }
+}
@@ -0,0 +1,131 @@
+package de.blau.android.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.content.Context;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.filters.LargeTest;
+import de.blau.android.App;
+import de.blau.android.Logic;
+import de.blau.android.SignalHandler;
+import de.blau.android.contract.Files;
+import de.blau.android.osm.ApiTest;
+import de.blau.android.osm.Node;
+import de.blau.android.osm.Storage;
+import de.blau.android.osm.Way;
+import de.westnordost.countryboundaries.CountryBoundaries;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+@LargeTest
+public class IsoCodeCacheTest {
+
+    private static final int ROUNDS = 10;
+
+    private CountryBoundaries boundaries;
+
+    /**
+     * Pre-test setup
+     */
+    @Before
+    public void setup() {
+        App.newLogic();
+        Context context = ApplicationProvider.getApplicationContext();
+        boundaries = new GeoContext(context).getCountryBoundariesFromAssets(context.getAssets(), Files.FILE_NAME_BOUNDARIES);
+        assertNotNull(boundaries);
+    }
+
+    /**
+     * Compare cached and exact lookups for the elements of a typical download
+     */
+    @Test
+    public void benchmark() {
+        final CountDownLatch signal = new CountDownLatch(1);
+        Logic logic = App.getLogic();
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        try (InputStream is = loader.getResourceAsStream("test1.osm")) {
+            logic.readOsmFile(ApplicationProvider.getApplicationContext(), is, false, new SignalHandler(signal));
+            signal.await(ApiTest.TIMEOUT, TimeUnit.SECONDS);
+        } catch (IOException | InterruptedException e) {
+            Assert.fail(e.getMessage());
+        }
+        Storage storage = App.getDelegator().getCurrentStorage();
+        List<double[]> locations = new ArrayList<>();
+        for (Node n : storage.getNodes()) {
+            locations.add(new double[] { n.getLon() / 1E7D, n.getLat() / 1E7D });
+        }
+        for (Way w : storage.getWays()) {
+            double[] centroid = Geometry.centroidLonLat(w);
+            if (centroid.length == 2) {
+                locations.add(centroid);
+            }
+        }
+        assertTrue(locations.size() > 1000);
+
+        List<List<String>> exact = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            for (double[] location : locations) {
+                List<String> ids = boundaries.getIds(location[0], location[1]);
+                if (i == 0) {
+                    exact.add(ids);
+                }
+            }
+        }
+        long exactTime = System.nanoTime() - start;
+
+        IsoCodeCache cache = new IsoCodeCache(boundaries);
+        start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            for (int j = 0; j < locations.size(); j++) {
+                double[] location = locations.get(j);
+                List<String> ids = cache.getIds(location[0], location[1]);
+                if (i == 0) {
+                    assertEquals(exact.get(j), ids);
+                }
+            }
+        }
+        long cachedTime = System.nanoTime() - start;
+        System.out.println(ROUNDS * locations.size() + " lookups exact " + exactTime / 1000000 + " ms cached " + cachedTime / 1000000 + " ms hits " // NOSONAR
+                + cache.getHits() + " misses " + cache.getMisses());
+        assertTrue(cache.getHits() > cache.getMisses());
+    }
+
+    /**
+     * Check that lookups near borders return the same results as exact lookups
+     */
+    @Test
+    public void border() {
+        IsoCodeCache cache = new IsoCodeCache(boundaries);
+        // Basel, CH, DE and FR
+        for (double lon = 7.40; lon < 7.80; lon += 0.005) {
+            for (double lat = 47.40; lat < 47.70; lat += 0.005) {
+                assertEquals(boundaries.getIds(lon, lat), cache.getIds(lon, lat));
+            }
+        }
+        assertTrue(cache.getMisses() > 0);
+        // a box in the middle of the Atlantic
+        List<String> ids = cache.getIds(-30.2, 30.2, -30.1, 30.3);
+        assertNotNull(ids);
+        assertTrue(ids.isEmpty());
+        // a box crossing a border
+        assertNull(cache.getIds(7.5, 47.5, 7.7, 47.6));
+    }
+}
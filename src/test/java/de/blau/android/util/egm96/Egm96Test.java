@@ -4,6 +4,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 
 import org.junit.Test;
@@ -30,4 +31,60 @@ public class Egm96Test {
             egmFile.delete();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Check that cached lookups along a track return the same values as lookups on a fresh instance
+     */
+    @Test
+    public void cachedLookups() {
+        try {
+            UnitTestUtils.copyFileFromResources(Egm96Test.class, EGMFILE);
+            EGM96 tracking = new EGM96(EGMFILE);
+            double[] offsets = new double[2000];
+            for (int i = 0; i < offsets.length; i++) {
+                // zig-zag over a number of grid cells and across the anti-meridian
+                offsets[i] = tracking.getOffset(trackLat(i), trackLon(i));
+            }
+            EGM96 fresh = new EGM96(EGMFILE);
+            for (int i = offsets.length - 1; i >= 0; i--) {
+                assertEquals(offsets[i], fresh.getOffset(trackLat(i), trackLon(i)), 0.0000001);
+            }
+            assertEquals(47.566, tracking.getOffset(47.3979095, 8.3762719), 0.001);
+            assertEquals(fresh.getOffset(-90, 0), tracking.getOffset(-90, 0), 0.0000001);
+        } catch (IOException e) {
+            fail(e.getMessage());
+        } finally {
+            File egmFile = new File(EGMFILE);
+            egmFile.delete();
+        }
+    }
+
+    /**
+     * A missing file is reported when the instance is constructed
+     */
+    @Test(expected = FileNotFoundException.class)
+    public void missingFile() throws IOException {
+        new EGM96("does-not-exist.dat");
+    }
+
+    /**
+     * Latitude for a position on a test track
+     * 
+     * @param i the position
+     * @return a WGS84 latitude
+     */
+    private static double trackLat(int i) {
+        return 47.0 + (i % 100) * 0.01;
+    }
+
+    /**
+     * Longitude for a position on a test track
+     * 
+     * @param i the position
+     * @return a WGS84 longitude
+     */
+    private static double trackLon(int i) {
+        double lon = 178.0 + i * 0.003;
+        return lon > 180 ? lon - 360 : lon;
+    }
+}
@@ -0,0 +1,99 @@
+package de.blau.android.util.mvt;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import androidx.test.filters.LargeTest;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+@LargeTest
+public class VectorTileRendererTest {
+
+    private static final int ZOOM = 16;
+
+    private VectorTileRenderer renderer;
+    private Semaphore          rasterized;
+    private Canvas             canvas;
+    private Rect               destinationRect;
+    private Paint              paint;
+
+    /**
+     * Pre test setup
+     */
+    @Before
+    public void setup() {
+        renderer = new VectorTileRenderer();
+        rasterized = new Semaphore(0);
+        renderer.setRasterize(true, rasterized::release);
+        canvas = new Canvas(Bitmap.createBitmap(512, 512, Bitmap.Config.ARGB_8888));
+        destinationRect = new Rect(0, 0, 256, 256);
+        paint = new Paint();
+    }
+
+    /**
+     * Post test teardown
+     */
+    @After
+    public void teardown() {
+        renderer.onDestroy();
+    }
+
+    /**
+     * Render a tile and wait for the rasteriser
+     * 
+     * @param tile the decoded tile
+     * @param z the zoom level
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private void renderAndWait(Map<String, List<VectorTileDecoder.Feature>> tile, int z) throws InterruptedException {
+        renderer.render(canvas, tile, z, null, destinationRect, paint);
+        assertTrue(rasterized.tryAcquire(10, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Check that rendering a tile caches a raster for it
+     */
+    @Test
+    public void rasterCache() throws InterruptedException {
+        Map<String, List<VectorTileDecoder.Feature>> tile = new HashMap<>();
+        assertFalse(renderer.hasRaster(tile, ZOOM));
+        renderAndWait(tile, ZOOM);
+        assertTrue(renderer.hasRaster(tile, ZOOM));
+        assertFalse(renderer.hasRaster(tile, ZOOM + 1));
+        assertFalse(renderer.hasRaster(new HashMap<>(), ZOOM));
+        renderer.onLowMemory();
+        assertFalse(renderer.hasRaster(tile, ZOOM));
+    }
+
+    /**
+     * Check that a style change invalidates the cached rasters and that they are re-rendered
+     */
+    @Test
+    public void styleChanged() throws InterruptedException {
+        Map<String, List<VectorTileDecoder.Feature>> tile = new HashMap<>();
+        renderAndWait(tile, ZOOM);
+        assertTrue(renderer.hasRaster(tile, ZOOM));
+        renderer.styleChanged();
+        assertFalse(renderer.hasRaster(tile, ZOOM));
+        renderAndWait(tile, ZOOM);
+        assertTrue(renderer.hasRaster(tile, ZOOM));
+    }
+}
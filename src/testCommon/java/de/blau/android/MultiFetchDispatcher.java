@@ -0,0 +1,106 @@
+package de.blau.android;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import android.util.Log;
+import androidx.annotation.NonNull;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * Dispatcher that answers multi-fetch calls (nodes?nodes=..., ways?ways=... and relations?relations=...) with the
+ * requested elements taken from a set of fixtures
+ * 
+ * As the response doesn't depend on the order in which the requests are received this can be used for concurrent
+ * requests.
+ */
+public class MultiFetchDispatcher extends Dispatcher {
+    private static final String DEBUG_TAG = "MultiFetchDispatcher";
+
+    private static final Pattern ELEMENT_START = Pattern.compile("^\\s*<(node|way|relation) id=\"(-?[0-9]+)\".*$");
+
+    private final Map<String, String> elements = new HashMap<>();
+
+    /**
+     * Construct a new dispatcher
+     * 
+     * @param fixtures the names of the fixtures (without extension) containing the elements
+     * @throws IOException if a fixture can't be read
+     */
+    public MultiFetchDispatcher(@NonNull String... fixtures) throws IOException {
+        ClassLoader loader = getClass().getClassLoader();
+        for (String fixture : fixtures) {
+            try (InputStream is = loader.getResourceAsStream("fixtures/" + fixture + ".xml")) {
+                if (is == null) {
+                    throw new IOException("fixture " + fixture + " not found");
+                }
+                index(new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8)));
+            }
+        }
+    }
+
+    /**
+     * Add the elements in an OSM XML file to the index, expects one start and end tag per line
+     * 
+     * @param reader a BufferedReader for the file
+     * @throws IOException if reading fails
+     */
+    private void index(@NonNull BufferedReader reader) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            Matcher m = ELEMENT_START.matcher(line);
+            if (!m.matches()) {
+                continue;
+            }
+            String type = m.group(1);
+            StringBuilder element = new StringBuilder(line).append('\n');
+            if (!line.trim().endsWith("/>")) {
+                String endTag = "</" + type + ">";
+                while ((line = reader.readLine()) != null) {
+                    element.append(line).append('\n');
+                    if (line.trim().equals(endTag)) {
+                        break;
+                    }
+                }
+            }
+            elements.put(type + m.group(2), element.toString());
+        }
+    }
+
+    @Override
+    public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+        Log.i(DEBUG_TAG, "request " + request);
+        List<String> segments = request.getRequestUrl().pathSegments();
+        String plural = segments.get(segments.size() - 1);
+        String ids = request.getRequestUrl().queryParameter(plural);
+        if (ids == null || !plural.endsWith("s")) {
+            return new MockResponse().setResponseCode(HttpURLConnection.HTTP_BAD_REQUEST);
+        }
+        String type = plural.substring(0, plural.length() - 1);
+        StringBuilder body = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<osm version=\"0.6\" generator=\"MultiFetchDispatcher\">\n");
+        boolean found = false;
+        for (String id : ids.split(",")) {
+            String element = elements.get(type + id);
+            if (element != null) {
+                body.append(element);
+                found = true;
+            }
+        }
+        if (!found) {
+            return new MockResponse().setResponseCode(HttpURLConnection.HTTP_NOT_FOUND);
+        }
+        body.append("</osm>\n");
+        return new MockResponse().setResponseCode(HttpURLConnection.HTTP_OK).setBody(body.toString());
+    }
+}